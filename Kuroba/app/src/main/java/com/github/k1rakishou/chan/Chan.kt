@@ -19,6 +19,7 @@ package com.github.k1rakishou.chan
 import android.app.Activity
 import android.app.Application
 import android.app.Application.ActivityLifecycleCallbacks
+import android.content.ComponentCallbacks2
 import android.content.Context
 import android.content.Intent
 import android.os.Bundle
@@ -49,6 +50,7 @@ import com.github.k1rakishou.chan.core.helper.ThreadDownloaderFileManagerWrapper
 import com.github.k1rakishou.chan.core.manager.ApplicationCrashNotifier
 import com.github.k1rakishou.chan.core.manager.ApplicationMigrationManager
 import com.github.k1rakishou.chan.core.manager.ApplicationVisibilityManager
+import com.github.k1rakishou.chan.core.manager.ChanThreadManager
 import com.github.k1rakishou.chan.core.manager.ReportManager
 import com.github.k1rakishou.chan.core.manager.SettingsNotificationManager
 import com.github.k1rakishou.chan.ui.activity.CrashReportActivity
@@ -72,6 +74,7 @@ import com.github.k1rakishou.fsaf.BadPathSymbolResolutionStrategy
 import com.github.k1rakishou.fsaf.FileManager
 import com.github.k1rakishou.fsaf.manager.base_directory.DirectoryManager
 import com.github.k1rakishou.model.ModelModuleInjector
+import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import com.github.k1rakishou.persist_state.PersistableChanState
 import dagger.Lazy
 import io.reactivex.exceptions.UndeliverableException
@@ -127,6 +130,10 @@ class Chan : Application(), ActivityLifecycleCallbacks {
   lateinit var appConstants: Lazy<AppConstants>
   @Inject
   lateinit var applicationCrashNotifier: ApplicationCrashNotifier
+  @Inject
+  lateinit var chanThreadsCache: Lazy<ChanThreadsCache>
+  @Inject
+  lateinit var chanThreadManager: Lazy<ChanThreadManager>
 
   private val normalDnsCreatorFactory: NormalDnsSelectorFactory = object : NormalDnsSelectorFactory {
     override fun createDnsSelector(okHttpClient: OkHttpClient): NormalDnsSelector {
@@ -519,6 +526,36 @@ class Chan : Application(), ActivityLifecycleCallbacks {
     return appRunningTimeFormatter.print(Duration.millis(time).toPeriod())
   }
 
+  override fun onTrimMemory(level: Int) {
+    super.onTrimMemory(level)
+
+    val memoryPressure = when (level) {
+      ComponentCallbacks2.TRIM_MEMORY_COMPLETE,
+      ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL -> ChanThreadsCache.MemoryPressure.Critical
+      ComponentCallbacks2.TRIM_MEMORY_MODERATE,
+      ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> ChanThreadsCache.MemoryPressure.Low
+      ComponentCallbacks2.TRIM_MEMORY_BACKGROUND,
+      ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE -> ChanThreadsCache.MemoryPressure.Moderate
+      // TRIM_MEMORY_UI_HIDDEN is sent every time the app goes to background, the cached threads are
+      // what makes coming back to the app fast so we don't want to evict them here.
+      else -> null
+    }
+
+    Logger.d(TAG, "onTrimMemory(level=$level) memoryPressure=$memoryPressure")
+
+    if (memoryPressure == null || !this::chanThreadsCache.isInitialized) {
+      return
+    }
+
+    // Never evict the catalogs and threads that are currently shown (onTrimMemory is called on the
+    // main thread)
+    val boundChanDescriptors = chanThreadManager.get().getBoundChanDescriptors()
+
+    applicationScope.launch(Dispatchers.Default) {
+      chanThreadsCache.get().onMemoryPressure(memoryPressure, boundChanDescriptors)
+    }
+  }
+
   override fun onActivityCreated(activity: Activity, savedInstanceState: Bundle?) {}
   override fun onActivityStarted(activity: Activity) {
     activityEnteredForeground()
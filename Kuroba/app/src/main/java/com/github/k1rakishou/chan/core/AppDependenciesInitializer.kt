@@ -1,5 +1,6 @@
 package com.github.k1rakishou.chan.core
 
+import com.github.k1rakishou.chan.core.helper.FilterEngine
 import com.github.k1rakishou.chan.core.manager.ArchivesManager
 import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.BookmarksManager
@@ -23,6 +24,7 @@ class AppDependenciesInitializer(
   private val filterWatcherCoordinator: FilterWatcherCoordinator,
   private val archivesManager: ArchivesManager,
   private val chanFilterManager: ChanFilterManager,
+  private val filterEngine: FilterEngine,
   private val threadDownloadingCoordinator: ThreadDownloadingCoordinator
 ) {
 
@@ -43,6 +45,9 @@ class AppDependenciesInitializer(
     threadDownloadingCoordinator.initialize()
 
     archivesManager.initialize()
+    // filterEngine must be initialized before chanFilterManager because it listens for events from
+    // chanFilterManager
+    filterEngine.initialize()
     chanFilterManager.initialize()
   }
 
@@ -0,0 +1,145 @@
+package com.github.k1rakishou.chan.core.base.okhttp
+
+import okhttp3.Call
+import okhttp3.Connection
+import okhttp3.EventListener
+import okhttp3.Handshake
+import okhttp3.Protocol
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Counts how many connections are opened by the OkHttp clients (and how long it takes to resolve,
+ * connect and do the TLS handshake) versus how many calls reuse an already opened connection from the
+ * shared connection pool.
+ *
+ * ThreadSafe
+ * */
+class OkHttpConnectionMetrics : EventListener.Factory {
+  private val calls = AtomicLong(0)
+  private val newConnections = AtomicLong(0)
+  private val reusedConnections = AtomicLong(0)
+  private val failedConnections = AtomicLong(0)
+  private val dnsLookups = AtomicLong(0)
+  private val dnsLookupsTimeMs = AtomicLong(0)
+  private val connectsTimeMs = AtomicLong(0)
+  private val tlsHandshakes = AtomicLong(0)
+  private val tlsHandshakesTimeMs = AtomicLong(0)
+
+  override fun create(call: Call): EventListener {
+    return CallMetricsListener()
+  }
+
+  fun snapshot(): Snapshot {
+    return Snapshot(
+      calls = calls.get(),
+      newConnections = newConnections.get(),
+      reusedConnections = reusedConnections.get(),
+      failedConnections = failedConnections.get(),
+      dnsLookups = dnsLookups.get(),
+      dnsLookupsTimeMs = dnsLookupsTimeMs.get(),
+      connectsTimeMs = connectsTimeMs.get(),
+      tlsHandshakes = tlsHandshakes.get(),
+      tlsHandshakesTimeMs = tlsHandshakesTimeMs.get()
+    )
+  }
+
+  /**
+   * One instance per call, OkHttp delivers the events of a call sequentially.
+   * */
+  private inner class CallMetricsListener : EventListener() {
+    private var dnsStartTime = 0L
+    private var connectStartTime = 0L
+    private var secureConnectStartTime = 0L
+    private var connectedDuringThisCall = false
+
+    override fun callStart(call: Call) {
+      calls.incrementAndGet()
+    }
+
+    override fun dnsStart(call: Call, domainName: String) {
+      dnsStartTime = System.currentTimeMillis()
+    }
+
+    override fun dnsEnd(call: Call, domainName: String, inetAddressList: List<InetAddress>) {
+      dnsLookups.incrementAndGet()
+      dnsLookupsTimeMs.addAndGet(System.currentTimeMillis() - dnsStartTime)
+    }
+
+    override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+      connectStartTime = System.currentTimeMillis()
+      connectedDuringThisCall = true
+    }
+
+    override fun secureConnectStart(call: Call) {
+      secureConnectStartTime = System.currentTimeMillis()
+    }
+
+    override fun secureConnectEnd(call: Call, handshake: Handshake?) {
+      tlsHandshakes.incrementAndGet()
+      tlsHandshakesTimeMs.addAndGet(System.currentTimeMillis() - secureConnectStartTime)
+    }
+
+    override fun connectEnd(
+      call: Call,
+      inetSocketAddress: InetSocketAddress,
+      proxy: Proxy,
+      protocol: Protocol?
+    ) {
+      newConnections.incrementAndGet()
+      connectsTimeMs.addAndGet(System.currentTimeMillis() - connectStartTime)
+    }
+
+    override fun connectFailed(
+      call: Call,
+      inetSocketAddress: InetSocketAddress,
+      proxy: Proxy,
+      protocol: Protocol?,
+      ioe: IOException
+    ) {
+      failedConnections.incrementAndGet()
+    }
+
+    override fun connectionAcquired(call: Call, connection: Connection) {
+      if (!connectedDuringThisCall) {
+        reusedConnections.incrementAndGet()
+      }
+
+      // A call may acquire more than one connection (redirects, retries)
+      connectedDuringThisCall = false
+    }
+  }
+
+  data class Snapshot(
+    val calls: Long,
+    val newConnections: Long,
+    val reusedConnections: Long,
+    val failedConnections: Long,
+    val dnsLookups: Long,
+    val dnsLookupsTimeMs: Long,
+    val connectsTimeMs: Long,
+    val tlsHandshakes: Long,
+    val tlsHandshakesTimeMs: Long
+  ) {
+
+    override fun toString(): String {
+      return "calls: $calls, " +
+        "new connections: $newConnections (failed: $failedConnections, ${average(connectsTimeMs, newConnections)}ms avg), " +
+        "reused connections: $reusedConnections, " +
+        "dns lookups: $dnsLookups (${average(dnsLookupsTimeMs, dnsLookups)}ms avg), " +
+        "tls handshakes: $tlsHandshakes (${average(tlsHandshakesTimeMs, tlsHandshakes)}ms avg)"
+    }
+
+    private fun average(totalTimeMs: Long, count: Long): Long {
+      if (count <= 0) {
+        return 0
+      }
+
+      return totalTimeMs / count
+    }
+  }
+
+}
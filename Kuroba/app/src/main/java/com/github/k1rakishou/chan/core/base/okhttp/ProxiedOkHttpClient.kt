@@ -1,3 +1,14 @@
 package com.github.k1rakishou.chan.core.base.okhttp
 
-interface ProxiedOkHttpClient : CustomOkHttpClient
\ No newline at end of file
+import okhttp3.OkHttpClient
+
+interface ProxiedOkHttpClient : CustomOkHttpClient {
+
+  /**
+   * Same as [okHttpClient] but with an on-disk HTTP response cache that honors the server's
+   * Cache-Control headers and validators (ETag/Last-Modified). Only meant for slow-changing endpoints
+   * (board lists, board flags, pages etc). Threads and catalogs must always be loaded with
+   * [okHttpClient] because they handle If-Modified-Since themselves and must never be served stale.
+   * */
+  fun okHttpClientWithCache(): OkHttpClient
+}
@@ -2,48 +2,45 @@ package com.github.k1rakishou.chan.core.base.okhttp;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
-import com.github.k1rakishou.ChanSettings;
 import com.github.k1rakishou.chan.core.helper.ProxyStorage;
 import com.github.k1rakishou.chan.core.manager.FirewallBypassManager;
-import com.github.k1rakishou.chan.core.net.KurobaProxySelector;
 import com.github.k1rakishou.chan.core.site.SiteResolver;
-import com.github.k1rakishou.common.dns.CompositeDnsSelector;
-import com.github.k1rakishou.common.dns.DnsOverHttpsSelectorFactory;
-import com.github.k1rakishou.common.dns.NormalDnsSelectorFactory;
+import com.github.k1rakishou.common.AppConstants;
 
 import org.jetbrains.annotations.NotNull;
 
 import javax.inject.Inject;
 
+import okhttp3.Cache;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 
 // this is basically the same as OkHttpClient, but with a singleton for a proxy instance
 public class RealProxiedOkHttpClient implements ProxiedOkHttpClient {
+    public static final long HTTP_RESPONSE_CACHE_MAX_SIZE = 10L * 1024 * 1024;
+
     private volatile OkHttpClient proxiedClient;
+    private volatile OkHttpClient proxiedClientWithCache;
 
-    private final NormalDnsSelectorFactory normalDnsSelectorFactory;
-    private final DnsOverHttpsSelectorFactory dnsOverHttpsSelectorFactory;
-    private final ProxyStorage proxyStorage;
+    private final SharedOkHttpClient sharedOkHttpClient;
     private final HttpLoggingInterceptorLazy httpLoggingInterceptorLazy;
     private final SiteResolver siteResolver;
     private final FirewallBypassManager firewallBypassManager;
+    private final AppConstants appConstants;
 
     @Inject
     public RealProxiedOkHttpClient(
-            NormalDnsSelectorFactory normalDnsSelectorFactory,
-            DnsOverHttpsSelectorFactory dnsOverHttpsSelectorFactory,
-            ProxyStorage proxyStorage,
+            SharedOkHttpClient sharedOkHttpClient,
             HttpLoggingInterceptorLazy httpLoggingInterceptorLazy,
             SiteResolver siteResolver,
-            FirewallBypassManager firewallBypassManager
+            FirewallBypassManager firewallBypassManager,
+            AppConstants appConstants
     ) {
-        this.normalDnsSelectorFactory = normalDnsSelectorFactory;
-        this.dnsOverHttpsSelectorFactory = dnsOverHttpsSelectorFactory;
-        this.proxyStorage = proxyStorage;
+        this.sharedOkHttpClient = sharedOkHttpClient;
         this.httpLoggingInterceptorLazy = httpLoggingInterceptorLazy;
         this.siteResolver = siteResolver;
         this.firewallBypassManager = firewallBypassManager;
+        this.appConstants = appConstants;
     }
 
     @NotNull
@@ -52,11 +49,6 @@ public class RealProxiedOkHttpClient implements ProxiedOkHttpClient {
         if (proxiedClient == null) {
             synchronized (this) {
                 if (proxiedClient == null) {
-                    KurobaProxySelector kurobaProxySelector = new KurobaProxySelector(
-                            proxyStorage,
-                            ProxyStorage.ProxyActionType.SiteRequests
-                    );
-
                     Interceptor interceptor = new CloudFlareHandlerInterceptor(
                             siteResolver,
                             firewallBypassManager,
@@ -64,31 +56,44 @@ public class RealProxiedOkHttpClient implements ProxiedOkHttpClient {
                     );
 
                     // Proxies are usually slow, so they have increased timeouts
-                    OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                    OkHttpClient.Builder builder = sharedOkHttpClient.newBuilder(ProxyStorage.ProxyActionType.SiteRequests)
                             .connectTimeout(30, SECONDS)
                             .readTimeout(30, SECONDS)
                             .writeTimeout(30, SECONDS)
-                            .proxySelector(kurobaProxySelector)
                             .addInterceptor(interceptor);
 
                     HttpLoggingInterceptorInstaller.install(builder, httpLoggingInterceptorLazy);
-                    OkHttpClient okHttpClient = builder.build();
+                    proxiedClient = builder
+                            .addNetworkInterceptor(new GzipInterceptor())
+                            .build();
+                }
+            }
+        }
 
-                    CompositeDnsSelector compositeDnsSelector = new CompositeDnsSelector(
-                            okHttpClient,
-                            ChanSettings.okHttpUseDnsOverHttps.get(),
-                            normalDnsSelectorFactory,
-                            dnsOverHttpsSelectorFactory
+        return proxiedClient;
+    }
+
+    @NotNull
+    @Override
+    public OkHttpClient okHttpClientWithCache() {
+        if (proxiedClientWithCache == null) {
+            synchronized (this) {
+                if (proxiedClientWithCache == null) {
+                    // Built from the proxied client so it shares the same interceptors, proxy selector and
+                    // connections. The cache sits after the application interceptors (CloudFlare handler) and
+                    // before the network ones (gzip) so the decompressed responses are stored.
+                    Cache cache = new Cache(
+                            appConstants.getHttpResponseCacheDir(),
+                            HTTP_RESPONSE_CACHE_MAX_SIZE
                     );
 
-                    proxiedClient = okHttpClient.newBuilder()
-                            .dns(compositeDnsSelector)
-                            .addNetworkInterceptor(new GzipInterceptor())
+                    proxiedClientWithCache = okHttpClient().newBuilder()
+                            .cache(cache)
                             .build();
                 }
             }
         }
 
-        return proxiedClient;
+        return proxiedClientWithCache;
     }
-}
\ No newline at end of file
+}
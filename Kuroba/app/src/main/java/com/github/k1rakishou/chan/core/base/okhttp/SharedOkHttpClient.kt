@@ -0,0 +1,112 @@
+package com.github.k1rakishou.chan.core.base.okhttp
+
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.ChanSettings
+import com.github.k1rakishou.chan.core.helper.ProxyStorage
+import com.github.k1rakishou.chan.core.net.KurobaProxySelector
+import com.github.k1rakishou.common.dns.CompositeDnsSelector
+import com.github.k1rakishou.common.dns.DnsOverHttpsSelectorFactory
+import com.github.k1rakishou.common.dns.NormalDnsSelectorFactory
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
+import okhttp3.OkHttpClient
+import java.util.concurrent.TimeUnit
+
+/**
+ * The OkHttpClient all the other clients ([RealProxiedOkHttpClient], [RealDownloaderOkHttpClient],
+ * [CoilOkHttpClient]) are built from with [newBuilder] so that they share one [ConnectionPool] and one
+ * [Dispatcher]. Each client only layers its own timeouts and interceptors on top of it.
+ *
+ * OkHttp only reuses a pooled connection for a call whose Address is equal to the connection's one
+ * (dns, proxy selector, ssl socket factory etc. must be equal). So the proxy selector and the DNS
+ * selector are created once per proxy configuration and shared by every client whose proxy action type
+ * uses the same proxies (all of them when there are no proxies), that way json, thumbnails and full
+ * media of the same host go through the same connections. The DNS selector sends its DNS over HTTPS
+ * requests through the same proxies.
+ *
+ * ThreadSafe
+ * */
+class SharedOkHttpClient(
+  private val normalDnsSelectorFactory: NormalDnsSelectorFactory,
+  private val dnsOverHttpsSelectorFactory: DnsOverHttpsSelectorFactory,
+  private val proxyStorage: ProxyStorage,
+  private val maxRequests: Int = MAX_REQUESTS,
+  private val maxRequestsPerHost: Int = MAX_REQUESTS_PER_HOST
+) {
+  val connectionMetrics = OkHttpConnectionMetrics()
+
+  private val sharedClient by lazy { createSharedClient() }
+
+  // Proxy configuration (see ProxyStorage.getProxiesSnapshot()) -> client with the proxy selector and
+  // the DNS selector for it
+  @GuardedBy("this")
+  private val proxiedClients = mutableMapOf<Set<ProxyStorage.KurobaProxyGson>, OkHttpClient>()
+
+  /**
+   * Returns a builder with the shared connection pool, dispatcher and the proxy and DNS selectors for
+   * the proxies of [proxyActionType].
+   * */
+  fun newBuilder(proxyActionType: ProxyStorage.ProxyActionType): OkHttpClient.Builder {
+    val proxiesSnapshot = proxyStorage.getProxiesSnapshot(proxyActionType)
+
+    val proxiedClient = synchronized(this) {
+      proxiedClients.getOrPut(proxiesSnapshot) { createProxiedClient(proxyActionType) }
+    }
+
+    return proxiedClient.newBuilder()
+  }
+
+  fun formatStatistics(): String {
+    val connectionPool = sharedClient.connectionPool
+    val dispatcher = sharedClient.dispatcher
+
+    return "connections: ${connectionPool.connectionCount()} (idle: ${connectionPool.idleConnectionCount()}), " +
+      "running calls: ${dispatcher.runningCallsCount()}, " +
+      "queued calls: ${dispatcher.queuedCallsCount()}, " +
+      "${connectionMetrics.snapshot()}"
+  }
+
+  private fun createProxiedClient(proxyActionType: ProxyStorage.ProxyActionType): OkHttpClient {
+    // Other action types with the same proxies reuse this selector, proxy changes require an app
+    // restart anyway.
+    val proxiedClient = sharedClient.newBuilder()
+      .proxySelector(KurobaProxySelector(proxyStorage, proxyActionType))
+      .build()
+
+    // DNS over HTTPS requests must go through the proxies too, otherwise they would leak the hosts the
+    // user visits to the DNS over HTTPS provider
+    val compositeDnsSelector = CompositeDnsSelector(
+      proxiedClient,
+      ChanSettings.okHttpUseDnsOverHttps.get(),
+      normalDnsSelectorFactory,
+      dnsOverHttpsSelectorFactory
+    )
+
+    return proxiedClient.newBuilder()
+      .dns(compositeDnsSelector)
+      .build()
+  }
+
+  private fun createSharedClient(): OkHttpClient {
+    val dispatcher = Dispatcher()
+    dispatcher.maxRequests = maxRequests
+    dispatcher.maxRequestsPerHost = maxRequestsPerHost
+
+    return OkHttpClient.Builder()
+      .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MINUTES, TimeUnit.MINUTES))
+      .dispatcher(dispatcher)
+      .eventListenerFactory(connectionMetrics)
+      .build()
+  }
+
+  companion object {
+    const val MAX_REQUESTS = 64
+    // Requests to the same host are shared between json loading, thumbnails and media downloads now so
+    // the per-host limit is higher than OkHttp's default 5. Can be changed in the experimental settings.
+    const val MAX_REQUESTS_PER_HOST = 10
+
+    private const val MAX_IDLE_CONNECTIONS = 10
+    private const val KEEP_ALIVE_DURATION_MINUTES = 5L
+  }
+
+}
@@ -1,7 +1,6 @@
 package com.github.k1rakishou.chan.core.cache
 
 import com.github.k1rakishou.ChanSettings
-import com.github.k1rakishou.chan.core.cache.downloader.Chunk
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils
 import com.github.k1rakishou.chan.utils.BackgroundUtils
 import com.github.k1rakishou.chan.utils.Generators
@@ -21,17 +20,18 @@ import kotlin.time.measureTime
 /**
  * CacheHandler has been re-worked a little bit because old implementation was relying on the
  * lastModified file flag which doesn't work on some Android versions/different phones. It was decided
- * to instead use a meta file for every cache file which will contain the following information:
+ * to instead keep a journal of all cache files (see [CacheJournal]) which contains the following
+ * information for every cache file:
  * 1. Time of creation of the cache file (in millis).
  * 2. A flag that indicates whether a download has been completed or not.
  *
  * We need creation time to not delete cache file for active downloads or for downloads that has
  * just been completed (otherwise the user may see a black screen instead of an image/webm). The
- * minimum cache file life time is 5 minutes. That means we won't delete any cache files (and their
- * meta files) for at least 5 minutes.
+ * minimum cache file life time is 5 minutes. That means we won't delete any cache files for at
+ * least 5 minutes.
  *
- * CacheHandler now also caches file chunks that are used by [ConcurrentChunkedFileDownloader] as well
- * as all media files retrieved via [ImageLoaderV2]
+ * CacheHandler caches files downloaded by [ConcurrentChunkedFileDownloader] (chunks are written
+ * directly into the cache file) as well as all media files retrieved via [ImageLoaderV2]
  */
 class CacheHandler(
   private val autoLoadThreadImages: Boolean,
@@ -136,8 +136,8 @@ class CacheHandler(
   }
 
   /**
-   * Either returns already downloaded file or creates an empty new one on the disk (also creates
-   * cache file meta with default parameters)
+   * Either returns already downloaded file or creates an empty new one on the disk (also adds it
+   * into the cache journal with default parameters)
    * */
   fun getOrCreateCacheFile(cacheFileType: CacheFileType, url: String): File? {
     BackgroundUtils.ensureBackgroundThread()
@@ -148,26 +148,6 @@ class CacheHandler(
     return file
   }
 
-  fun getChunkCacheFileOrNull(cacheFileType: CacheFileType, chunk: Chunk, url: String): File? {
-    BackgroundUtils.ensureBackgroundThread()
-
-    val file = getInnerCacheByFileType(cacheFileType).getChunkCacheFileOrNull(chunk.start, chunk.end, url)
-    Logger.verbose(TAG) {
-      "getChunkCacheFileOrNull($cacheFileType, $chunk, $url) -> ${file?.absolutePath}"
-    }
-
-    return file
-  }
-
-  fun getOrCreateChunkCacheFile(cacheFileType: CacheFileType, chunk: Chunk, url: String): File? {
-    BackgroundUtils.ensureBackgroundThread()
-
-    val file = getInnerCacheByFileType(cacheFileType).getOrCreateChunkCacheFile(chunk.start, chunk.end, url)
-    Logger.verbose(TAG) { "getOrCreateChunkCacheFile(${cacheFileType}, ${chunk}, ${url})" }
-
-    return file
-  }
-
   fun cacheFileExists(cacheFileType: CacheFileType, fileUrl: String): Boolean {
     val innerCache = getInnerCacheByFileType(cacheFileType)
     val fileName = innerCache.formatCacheFileName(innerCache.hashUrl(fileUrl))
@@ -198,8 +178,8 @@ class CacheHandler(
   }
 
   /**
-   * Deletes a cache file with it's meta. Also decreases the total cache size variable by the size
-   * of the file.
+   * Deletes a cache file and removes it from the cache journal. Also decreases the total cache size
+   * variable by the size of the file.
    * */
   fun deleteCacheFile(cacheFileType: CacheFileType, cacheFile: File): Boolean {
     val deleted = getInnerCacheByFileType(cacheFileType).deleteCacheFile(cacheFile.name)
@@ -219,11 +199,9 @@ class CacheHandler(
   }
 
   /**
-   * Checks whether this file is already downloaded by reading it's meta info. If a file has no
-   * meta info or it cannot be read - deletes the file so it can be re-downloaded again with all
-   * necessary information
-   *
-   * [cacheFile] must be the cache file, not cache file meta!
+   * Checks whether this file is already downloaded by looking it up in the cache journal. If a file
+   * is not in the journal - deletes the file so it can be re-downloaded again with all necessary
+   * information
    * */
   fun isAlreadyDownloaded(cacheFileType: CacheFileType, cacheFile: File): Boolean {
     BackgroundUtils.ensureBackgroundThread()
@@ -243,6 +221,14 @@ class CacheHandler(
     return markedAsDownloaded
   }
 
+  /**
+   * Where the state of an unfinished download of [cacheFile] is stored so that it can be resumed
+   * after the app is restarted.
+   * */
+  fun getPartialDownloadStateFile(cacheFileType: CacheFileType, cacheFile: File): File {
+    return getInnerCacheByFileType(cacheFileType).getPartialDownloadStateFile(cacheFile)
+  }
+
   fun getSize(cacheFileType: CacheFileType): Long {
     val size = getInnerCacheByFileType(cacheFileType).getSize()
     Logger.verbose(TAG) { "getSize($cacheFileType) -> ${size}" }
@@ -250,6 +236,10 @@ class CacheHandler(
     return size
   }
 
+  fun getStatistics(cacheFileType: CacheFileType): CacheStatistics {
+    return getInnerCacheByFileType(cacheFileType).getStatistics()
+  }
+
   fun getMaxSize(cacheFileType: CacheFileType): Long {
     val maxSize = getInnerCacheByFileType(cacheFileType).getMaxSize()
     Logger.verbose(TAG) { "getMaxSize($cacheFileType) -> ${maxSize}" }
@@ -0,0 +1,428 @@
+package com.github.k1rakishou.chan.core.cache
+
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.core_logger.Logger
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileNotFoundException
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStreamWriter
+import java.io.Writer
+
+/**
+ * Index of all files of one [InnerCache] (DiskLruCache-style). Every change is appended to the
+ * journal file as one line, the whole journal is read once on startup with one sequential read and
+ * rewritten from the in-memory state when it accumulates too many redundant lines. This replaces
+ * cache meta sidecar files (one per cache file) that had to be opened one by one on every trim.
+ *
+ * Access times change on every cache hit so they are only updated in memory by [touch] and written
+ * in batches by [flushAccessTimes].
+ *
+ * Journal format:
+ * ```
+ * kuroba.cache.journal
+ * 1
+ *
+ * PUT <fileName> <createdOn> <accessedOn> <size> <downloaded (0/1)>
+ * DEL <fileName>
+ * ```
+ * */
+internal class CacheJournal(
+  private val journalFile: File
+) {
+  private val lock = Any()
+
+  @GuardedBy("lock")
+  private val entries = LinkedHashMap<String, Entry>()
+  @GuardedBy("lock")
+  private var writer: Writer? = null
+  // Amount of lines in the journal that do not contribute to the current state
+  @GuardedBy("lock")
+  private var redundantRecordsCount = 0
+  @GuardedBy("lock")
+  private var totalSize = 0L
+  // Set when the end of the journal may contain a partially written line so it has to be rewritten
+  // before anything can be appended to it
+  @GuardedBy("lock")
+  private var needsRewrite = false
+  // Entries whose accessedOn was updated by touch() but not written into the journal yet
+  @GuardedBy("lock")
+  private val entriesWithUnsavedAccessTime = hashSetOf<String>()
+
+  val entriesCount: Int
+    get() = synchronized(lock) { entries.size }
+
+  /**
+   * Reads the journal into memory.
+   *
+   * @return false if the journal does not exist or is corrupted. The journal is empty in this case
+   * and the caller should [rebuild] it from the files on the disk.
+   * */
+  fun load(): Boolean {
+    synchronized(lock) {
+      closeWriter()
+      entries.clear()
+      entriesWithUnsavedAccessTime.clear()
+      redundantRecordsCount = 0
+      totalSize = 0L
+      needsRewrite = false
+
+      if (!journalFile.exists()) {
+        return false
+      }
+
+      try {
+        val linesCount = readJournal()
+
+        redundantRecordsCount = linesCount - entries.size
+        totalSize = entries.values.sumOf { entry -> entry.size }
+
+        if (needsRewrite) {
+          writeJournal()
+        }
+
+        return true
+      } catch (error: IOException) {
+        Logger.e(TAG, "Failed to read journal ${journalFile.absolutePath}", error)
+
+        entries.clear()
+        redundantRecordsCount = 0
+        totalSize = 0L
+
+        return false
+      }
+    }
+  }
+
+  fun get(fileName: String): Entry? {
+    return synchronized(lock) { entries[fileName] }
+  }
+
+  fun contains(fileName: String): Boolean {
+    return synchronized(lock) { entries.containsKey(fileName) }
+  }
+
+  fun snapshot(): List<Entry> {
+    return synchronized(lock) { entries.values.toList() }
+  }
+
+  /**
+   * Entries of the files that are being downloaded or were kept to resume their download later. The
+   * size of such entry is not updated while the file is being written.
+   * */
+  fun notDownloadedEntries(): List<Entry> {
+    return synchronized(lock) { entries.values.filter { entry -> !entry.isDownloaded } }
+  }
+
+  fun totalSize(): Long {
+    return synchronized(lock) { totalSize }
+  }
+
+  fun unsavedAccessTimesCount(): Int {
+    return synchronized(lock) { entriesWithUnsavedAccessTime.size }
+  }
+
+  @Throws(IOException::class)
+  fun put(entry: Entry) {
+    synchronized(lock) {
+      val prevEntry = entries.put(entry.fileName, entry)
+      if (prevEntry != null) {
+        totalSize -= prevEntry.size
+        ++redundantRecordsCount
+      }
+
+      totalSize += entry.size
+      entriesWithUnsavedAccessTime.remove(entry.fileName)
+      appendRecord(formatPutRecord(entry))
+    }
+  }
+
+  /**
+   * Updates accessedOn of an entry in memory only.
+   *
+   * @return false if there is no entry with [fileName]
+   * */
+  fun touch(fileName: String, accessedOn: Long): Boolean {
+    synchronized(lock) {
+      val entry = entries[fileName]
+        ?: return false
+
+      if (entry.accessedOn < accessedOn) {
+        entries[fileName] = entry.copy(accessedOn = accessedOn)
+        entriesWithUnsavedAccessTime += fileName
+      }
+
+      return true
+    }
+  }
+
+  /**
+   * Writes access times updated by [touch] into the journal with one write.
+   * */
+  @Throws(IOException::class)
+  fun flushAccessTimes() {
+    synchronized(lock) {
+      if (entriesWithUnsavedAccessTime.isEmpty()) {
+        return
+      }
+
+      val records = buildString {
+        for (fileName in entriesWithUnsavedAccessTime) {
+          val entry = entries[fileName]
+            ?: continue
+
+          append(formatPutRecord(entry))
+          // Every one of them overrides the previous PUT line of the same entry
+          ++redundantRecordsCount
+        }
+      }
+
+      entriesWithUnsavedAccessTime.clear()
+      appendRecord(records)
+    }
+  }
+
+  @Throws(IOException::class)
+  fun remove(fileName: String) {
+    synchronized(lock) {
+      val prevEntry = entries.remove(fileName)
+        ?: return
+
+      totalSize -= prevEntry.size
+      entriesWithUnsavedAccessTime.remove(fileName)
+      // Both the PUT line of the removed entry and the DEL line itself are redundant now
+      redundantRecordsCount += 2
+      appendRecord(formatDelRecord(fileName))
+    }
+  }
+
+  @Throws(IOException::class)
+  fun clear() {
+    rebuild(emptyList())
+  }
+
+  /**
+   * Replaces both the in-memory state and the journal file with [newEntries].
+   * */
+  @Throws(IOException::class)
+  fun rebuild(newEntries: Collection<Entry>) {
+    synchronized(lock) {
+      entries.clear()
+      entriesWithUnsavedAccessTime.clear()
+      newEntries.forEach { entry -> entries[entry.fileName] = entry }
+
+      totalSize = entries.values.sumOf { entry -> entry.size }
+      writeJournal()
+    }
+  }
+
+  fun needsCompaction(): Boolean {
+    return synchronized(lock) {
+      redundantRecordsCount >= MIN_REDUNDANT_RECORDS_FOR_COMPACTION && redundantRecordsCount >= entries.size
+    }
+  }
+
+  /**
+   * Rewrites the journal so that it only contains one line per entry.
+   * */
+  @Throws(IOException::class)
+  fun compact() {
+    synchronized(lock) {
+      if (redundantRecordsCount == 0 && journalFile.exists()) {
+        return
+      }
+
+      writeJournal()
+    }
+  }
+
+  fun close() {
+    synchronized(lock) { closeWriter() }
+  }
+
+  @GuardedBy("lock")
+  private fun readJournal(): Int {
+    var linesCount = 0
+
+    journalFile.bufferedReader(Charsets.UTF_8).use { reader ->
+      val magic = reader.readLine()
+      val version = reader.readLine()
+      val blank = reader.readLine()
+
+      if (magic != MAGIC || version != VERSION.toString() || blank != "") {
+        throw IOException("Bad journal header: [$magic, $version, $blank]")
+      }
+
+      var malformedLine: String? = null
+
+      while (true) {
+        val line = reader.readLine()
+          ?: break
+
+        if (malformedLine != null) {
+          // Only the last line may be malformed (the app was killed in the middle of a write),
+          // anything else means the journal is corrupted.
+          throw IOException("Malformed journal line: '$malformedLine'")
+        }
+
+        if (!readRecord(line)) {
+          malformedLine = line
+          continue
+        }
+
+        ++linesCount
+      }
+
+      if (malformedLine != null) {
+        Logger.e(TAG, "Skipping truncated last journal line: '$malformedLine'")
+        needsRewrite = true
+      }
+    }
+
+    return linesCount
+  }
+
+  @GuardedBy("lock")
+  private fun readRecord(line: String): Boolean {
+    val parts = line.split(' ')
+
+    when (parts[0]) {
+      PUT -> {
+        if (parts.size != PUT_RECORD_PARTS_COUNT) {
+          return false
+        }
+
+        val entry = Entry(
+          fileName = parts[1],
+          createdOn = parts[2].toLongOrNull() ?: return false,
+          accessedOn = parts[3].toLongOrNull() ?: return false,
+          size = parts[4].toLongOrNull() ?: return false,
+          isDownloaded = when (parts[5]) {
+            "1" -> true
+            "0" -> false
+            else -> return false
+          }
+        )
+
+        entries[entry.fileName] = entry
+      }
+      DEL -> {
+        if (parts.size != DEL_RECORD_PARTS_COUNT) {
+          return false
+        }
+
+        entries.remove(parts[1])
+      }
+      else -> return false
+    }
+
+    return true
+  }
+
+  @GuardedBy("lock")
+  private fun writeJournal() {
+    closeWriter()
+    // Stays set if anything below fails so that the broken journal is never appended to
+    needsRewrite = true
+
+    val tempJournalFile = File(journalFile.parentFile, journalFile.name + TEMP_FILE_SUFFIX)
+
+    newWriter(tempJournalFile, append = false).use { tempWriter ->
+      tempWriter.write(MAGIC)
+      tempWriter.write("\n")
+      tempWriter.write(VERSION.toString())
+      tempWriter.write("\n")
+      tempWriter.write("\n")
+
+      entries.values.forEach { entry -> tempWriter.write(formatPutRecord(entry)) }
+    }
+
+    if (!tempJournalFile.renameTo(journalFile)) {
+      tempJournalFile.delete()
+      throw IOException("Failed to rename ${tempJournalFile.absolutePath} into ${journalFile.absolutePath}")
+    }
+
+    redundantRecordsCount = 0
+    needsRewrite = false
+    entriesWithUnsavedAccessTime.clear()
+  }
+
+  @GuardedBy("lock")
+  private fun appendRecord(record: String) {
+    try {
+      var currentWriter = writer
+      if (currentWriter == null) {
+        if (needsRewrite || !journalFile.exists()) {
+          // Either the previous write failed or the directory was cleared from the outside. The
+          // in-memory state already contains this record so it's written as a part of the journal.
+          writeJournal()
+        }
+
+        currentWriter = newWriter(journalFile, append = true)
+        writer = currentWriter
+      }
+
+      currentWriter.write(record)
+      currentWriter.flush()
+    } catch (error: IOException) {
+      // The in-memory state is already updated, the journal will be rewritten from it before the next
+      // record is appended
+      closeWriter()
+      needsRewrite = true
+      throw error
+    }
+  }
+
+  @GuardedBy("lock")
+  private fun closeWriter() {
+    try {
+      writer?.close()
+    } catch (ignored: IOException) {
+      // no-op
+    } finally {
+      writer = null
+    }
+  }
+
+  private fun newWriter(file: File, append: Boolean): Writer {
+    try {
+      return BufferedWriter(OutputStreamWriter(FileOutputStream(file, append), Charsets.UTF_8))
+    } catch (error: FileNotFoundException) {
+      throw IOException("Failed to open ${file.absolutePath} for writing", error)
+    }
+  }
+
+  data class Entry(
+    val fileName: String,
+    val createdOn: Long,
+    val accessedOn: Long,
+    val size: Long,
+    val isDownloaded: Boolean
+  )
+
+  companion object {
+    private const val TAG = "CacheJournal"
+
+    private const val MAGIC = "kuroba.cache.journal"
+    private const val VERSION = 1
+    private const val TEMP_FILE_SUFFIX = ".tmp"
+
+    private const val PUT = "PUT"
+    private const val DEL = "DEL"
+    private const val PUT_RECORD_PARTS_COUNT = 6
+    private const val DEL_RECORD_PARTS_COUNT = 2
+
+    private const val MIN_REDUNDANT_RECORDS_FOR_COMPACTION = 2000
+
+    private fun formatPutRecord(entry: Entry): String {
+      val downloaded = if (entry.isDownloaded) "1" else "0"
+      return "$PUT ${entry.fileName} ${entry.createdOn} ${entry.accessedOn} ${entry.size} $downloaded\n"
+    }
+
+    private fun formatDelRecord(fileName: String): String {
+      return "$DEL $fileName\n"
+    }
+  }
+
+}
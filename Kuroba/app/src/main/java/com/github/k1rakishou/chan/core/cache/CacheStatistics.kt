@@ -0,0 +1,10 @@
+package com.github.k1rakishou.chan.core.cache
+
+/**
+ * Counters of one disk cache since the app start.
+ * */
+data class CacheStatistics(
+  val hits: Long,
+  val misses: Long,
+  val evictions: Long
+)
@@ -1,7 +1,6 @@
 package com.github.k1rakishou.chan.core.cache
 
 import android.os.Environment
-import androidx.annotation.GuardedBy
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.core.synchronizers.BlockingKeySynchronizer
 import com.github.k1rakishou.chan.utils.AppModuleAndroidUtils
@@ -10,7 +9,6 @@ import com.github.k1rakishou.chan.utils.ConversionUtils
 import com.github.k1rakishou.chan.utils.HashingUtil
 import com.github.k1rakishou.common.AndroidUtils
 import com.github.k1rakishou.common.StringUtils
-import com.github.k1rakishou.common.hashSetWithCap
 import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.util.ChanPostUtils
@@ -18,7 +16,6 @@ import org.joda.time.format.DateTimeFormatterBuilder
 import org.joda.time.format.ISODateTimeFormat
 import java.io.File
 import java.io.IOException
-import java.io.PrintWriter
 import java.util.*
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
@@ -46,12 +43,14 @@ internal class InnerCache(
   private val trimRunning = AtomicBoolean(false)
   private val recalculationRunning = AtomicBoolean(false)
   private val trimChunksRunning = AtomicBoolean(false)
-  private val directoriesChecked = AtomicBoolean(false)
+  private val journalCompactionRunning = AtomicBoolean(false)
+  private val accessTimesFlushRunning = AtomicBoolean(false)
+  private val lastAccessTimesFlushTime = AtomicLong(0)
 
-  @GuardedBy("itself")
-  private val filesOnDiskCache = hashSetWithCap<String>(128)
-  @GuardedBy("itself")
-  private val fullyDownloadedFiles = hashSetWithCap<String>(128)
+  private val hits = AtomicLong(0)
+  private val misses = AtomicLong(0)
+  private val evictions = AtomicLong(0)
+  private val directoriesChecked = AtomicBoolean(false)
 
   private val _cacheDirFile: File = cacheDirFile
   private val cacheDirFile: File
@@ -59,13 +58,28 @@ internal class InnerCache(
       if (!_cacheDirFile.exists()) {
         _cacheDirFile.mkdirs()
 
-        synchronized(filesOnDiskCache) { filesOnDiskCache.clear() }
-        synchronized(fullyDownloadedFiles) { fullyDownloadedFiles.clear() }
+        // Someone deleted the directory with all the files, the journal is gone as well
+        try {
+          journal.clear()
+        } catch (error: IOException) {
+          Logger.e(TAG, "Failed to clear the journal", error)
+        }
+
+        size.set(0L)
       }
 
       return _cacheDirFile
     }
 
+  /**
+   * Creation time, size and download state of every cache file. Loaded once (see [ensureJournalLoaded])
+   * and then kept in sync with the files in [cacheDirFile].
+   * */
+  private val journal = CacheJournal(File(_cacheDirFile, JOURNAL_FILE_NAME))
+  private val journalLoadLock = Any()
+  @Volatile
+  private var journalLoaded = false
+
   private val _chunksCacheDirFile: File = chunksCacheDirFile
   private val chunksCacheDirFile: File
     get() {
@@ -93,46 +107,30 @@ internal class InnerCache(
   }
 
   fun containsFile(fileName: String): Boolean {
-    return synchronized(filesOnDiskCache) { filesOnDiskCache.contains(fileName) }
+    return journal.contains(fileName)
   }
 
-  fun getChunkCacheFileOrNull(chunkStart: Long, chunkEnd: Long, url: String): File? {
-    BackgroundUtils.ensureBackgroundThread()
-    val chunkCacheFile = getChunkCacheFileInternal(chunkStart, chunkEnd, url)
-
-    return cacheHandlerSynchronizer.withLocalLock(chunkCacheFile) {
-      try {
-        if (chunkCacheFile.exists()) {
-          return@withLocalLock chunkCacheFile
-        }
-
-        return@withLocalLock null
-      } catch (error: Throwable) {
-        Logger.e(TAG, "Error while trying to get chunk cache file (deleting)", error)
-
-        createDirectories(forced = true)
-        deleteCacheFile(chunkCacheFile)
-        return@withLocalLock null
-      }
-    }
+  fun getStatistics(): CacheStatistics {
+    return CacheStatistics(
+      hits = hits.get(),
+      misses = misses.get(),
+      evictions = evictions.get()
+    )
   }
 
   fun getCacheFileOrNull(url: String): File? {
     BackgroundUtils.ensureBackgroundThread()
 
     createDirectories()
+    ensureJournalLoaded()
     val cacheFile = getCacheFileByUrl(url)
 
-    return cacheHandlerSynchronizer.withLocalLock(cacheFile) {
+    val foundCacheFile = cacheHandlerSynchronizer.withLocalLock(cacheFile) {
       try {
         if (!cacheFile.exists()) {
           return@withLocalLock null
         }
 
-        if (!getCacheFileMetaInternal(url).exists()) {
-          return@withLocalLock null
-        }
-
         if (!isAlreadyDownloaded(cacheFile)) {
           return@withLocalLock null
         }
@@ -146,41 +144,54 @@ internal class InnerCache(
         return@withLocalLock null
       }
     }
+
+    if (foundCacheFile == null) {
+      misses.incrementAndGet()
+      return null
+    }
+
+    hits.incrementAndGet()
+    journal.touch(foundCacheFile.name, System.currentTimeMillis())
+    backgroundFlushAccessTimesIfNeeded()
+
+    return foundCacheFile
   }
 
   fun getOrCreateCacheFile(url: String): File? {
     BackgroundUtils.ensureBackgroundThread()
 
     createDirectories()
+    ensureJournalLoaded()
     val cacheFile = getCacheFileByUrl(url)
 
     return cacheHandlerSynchronizer.withLocalLock(cacheFile) {
       try {
-        if (!cacheFile.exists() && !cacheFile.createNewFile()) {
+        val cacheFileName = cacheFile.name
+        val cacheFileCreated = !cacheFile.exists()
+
+        if (cacheFileCreated && !cacheFile.createNewFile()) {
           throw IOException("Couldn't create cache file, path = ${cacheFile.absolutePath}")
         }
 
-        val cacheFileMeta = getCacheFileMetaInternal(url)
-        if (!cacheFileMeta.exists()) {
-          if (!cacheFileMeta.createNewFile()) {
-            throw IOException("Couldn't create cache file meta, path = ${cacheFileMeta.absolutePath}")
-          }
+        if (cacheFileCreated || !journal.contains(cacheFileName)) {
+          val now = System.currentTimeMillis()
 
-          val result = updateCacheFileMeta(
-            file = cacheFileMeta,
-            overwrite = true,
-            createdOn = System.currentTimeMillis(),
-            fileDownloaded = false
+          // Can't belong to this file since it's a new one
+          deletePartialDownloadStateFile(cacheFile)
+
+          journal.put(
+            CacheJournal.Entry(
+              fileName = cacheFileName,
+              createdOn = now,
+              accessedOn = now,
+              size = 0L,
+              isDownloaded = false
+            )
           )
 
-          if (!result) {
-            throw IOException("Cache file meta update failed")
-          }
+          backgroundCompactJournalIfNeeded()
         }
 
-        val cacheFileName = cacheFile.name
-        synchronized(filesOnDiskCache) { filesOnDiskCache.add(cacheFileName) }
-
         return@withLocalLock cacheFile
       } catch (error: IOException) {
         Logger.e(TAG, "Error while trying to get or create cache file (deleting)", error)
@@ -192,91 +203,35 @@ internal class InnerCache(
     }
   }
 
-  fun getOrCreateChunkCacheFile(chunkStart: Long, chunkEnd: Long, url: String): File? {
-    BackgroundUtils.ensureBackgroundThread()
-    val chunkCacheFile = getChunkCacheFileInternal(chunkStart, chunkEnd, url)
-
-    return cacheHandlerSynchronizer.withLocalLock(chunkCacheFile) {
-      try {
-        if (chunkCacheFile.exists()) {
-          if (!chunkCacheFile.delete()) {
-            throw IOException("Couldn't delete old chunk cache file")
-          }
-        }
-
-        if (!chunkCacheFile.createNewFile()) {
-          throw IOException("Couldn't create new chunk cache file")
-        }
-
-        return@withLocalLock chunkCacheFile
-      } catch (error: Throwable) {
-        Logger.e(TAG, "Error while trying to get or create chunk cache file (deleting)", error)
-
-        createDirectories(forced = true)
-        deleteCacheFile(chunkCacheFile)
-        return@withLocalLock null
-      }
-    }
-  }
-
   fun isAlreadyDownloaded(cacheFile: File): Boolean {
     BackgroundUtils.ensureBackgroundThread()
     createDirectories()
+    ensureJournalLoaded()
 
     return cacheHandlerSynchronizer.withLocalLock(cacheFile) {
       val cacheFileName = cacheFile.name
 
       try {
-        val containsInCache = synchronized(fullyDownloadedFiles) { fullyDownloadedFiles.contains(cacheFileName) }
-        if (containsInCache) {
-          return@withLocalLock true
-        }
-
-        if (!cacheFile.exists()) {
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
-
-        if (!cacheFileName.endsWith(CACHE_EXTENSION)) {
-          Logger.e(TAG, "Not a cache file (deleting). file: ${cacheFile.absolutePath}")
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
-
-        val cacheFileMetaFile = getCacheFileMetaByCacheFile(cacheFile)
-        if (cacheFileMetaFile == null) {
-          Logger.e(TAG, "Couldn't get cache file meta by cache file (deleting). cacheFile: ${cacheFile.absolutePath}")
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
-        }
+        val journalEntry = journal.get(cacheFileName)
+        if (journalEntry == null) {
+          if (cacheFile.exists()) {
+            Logger.e(TAG, "Cache file is not in the journal (deleting). cacheFile: ${cacheFile.absolutePath}")
+          }
 
-        if (!cacheFileMetaFile.exists()) {
-          Logger.e(TAG, "Cache file meta does not exist (deleting). cacheFileMetaFile: ${cacheFileMetaFile.absolutePath}")
           deleteCacheFile(cacheFile)
           return@withLocalLock false
         }
 
-        if (cacheFileMetaFile.length() <= 0) {
-          Logger.e(TAG, "Cache file meta is empty (deleting). cacheFileMetaFile: ${cacheFileMetaFile.absolutePath}")
-          deleteCacheFile(cacheFile)
-          return@withLocalLock false
+        if (journalEntry.isDownloaded) {
+          return@withLocalLock true
         }
 
-        val cacheFileMeta = readCacheFileMeta(cacheFileMetaFile)
-        if (cacheFileMeta == null) {
-          Logger.e(TAG, "Failed to read cache file meta (deleting). cacheFileMetaFile: ${cacheFileMetaFile.absolutePath}")
+        if (!cacheFile.exists()) {
           deleteCacheFile(cacheFile)
           return@withLocalLock false
         }
 
-        val isDownloaded = cacheFileMeta.isDownloaded
-        if (isDownloaded) {
-          synchronized(fullyDownloadedFiles) { fullyDownloadedFiles += cacheFileName }
-        } else {
-          synchronized(fullyDownloadedFiles) { fullyDownloadedFiles -= cacheFileName }
-        }
-
-        return@withLocalLock isDownloaded
+        return@withLocalLock false
       } catch (error: Throwable) {
         Logger.e(TAG, "Error while trying to check whether the file is already downloaded", error)
         deleteCacheFile(cacheFile)
@@ -289,41 +244,29 @@ internal class InnerCache(
   fun markFileDownloaded(output: File): Boolean {
     BackgroundUtils.ensureBackgroundThread()
 
+    createDirectories()
+    ensureJournalLoaded()
+
     return cacheHandlerSynchronizer.withLocalLock(output) {
       try {
-        createDirectories()
-
         if (!output.exists()) {
           Logger.e(TAG, "File does not exist (deleting). file: ${output.absolutePath}")
           deleteCacheFile(output)
           return@withLocalLock false
         }
 
-        val cacheFileMeta = getCacheFileMetaByCacheFile(output)
-        if (cacheFileMeta == null) {
-          Logger.e(TAG, "Couldn't get cache file meta by cache file (deleting). output: ${output.absolutePath}")
+        val journalEntry = journal.get(output.name)
+        if (journalEntry == null) {
+          Logger.e(TAG, "Cache file is not in the journal (deleting). output: ${output.absolutePath}")
           deleteCacheFile(output)
           return@withLocalLock false
         }
 
-        val updateResult = updateCacheFileMeta(
-          file = cacheFileMeta,
-          overwrite = false,
-          createdOn = null,
-          fileDownloaded = true
-        )
-
-        if (!updateResult) {
-          Logger.e(
-            TAG, "Failed to update cache file meta (deleting). " +
-            "cacheFileMeta: ${cacheFileMeta.absolutePath}, output: ${output.absolutePath}")
-          deleteCacheFile(output)
-        } else {
-          val outputFileName = output.name
-          synchronized(fullyDownloadedFiles) { fullyDownloadedFiles += outputFileName }
-        }
+        journal.put(journalEntry.copy(size = output.length(), isDownloaded = true))
+        backgroundCompactJournalIfNeeded()
+        deletePartialDownloadStateFile(output)
 
-        return@withLocalLock updateResult
+        return@withLocalLock true
       } catch (error: Throwable) {
         Logger.e(TAG, "Error while trying to mark file as downloaded (deleting)", error)
         deleteCacheFile(output)
@@ -379,12 +322,12 @@ internal class InnerCache(
       return false
     }
 
+    ensureJournalLoaded()
+
     val cacheFileName = formatCacheFileName(originalFileName)
     val cacheFile = File(cacheDirFile, cacheFileName)
 
     return cacheHandlerSynchronizer.withLocalLock(cacheFile) {
-      val cacheMetaFileName = formatCacheFileMetaName(originalFileName)
-      val cacheMetaFile = File(cacheDirFile, cacheMetaFileName)
       val cacheFileSize = cacheFile.length()
 
       val deleteCacheFileResult = !cacheFile.exists() || cacheFile.delete()
@@ -392,15 +335,16 @@ internal class InnerCache(
         Logger.e(TAG, "Failed to delete cache file, fileName = ${cacheFile.absolutePath}")
       }
 
-      val deleteCacheFileMetaResult = !cacheMetaFile.exists() || cacheMetaFile.delete()
-      if (!deleteCacheFileMetaResult) {
-        Logger.e(TAG, "Failed to delete cache file meta = ${cacheMetaFile.absolutePath}")
-      }
+      deletePartialDownloadStateFile(cacheFile)
 
-      synchronized(filesOnDiskCache) { filesOnDiskCache.remove(cacheFileName) }
-      synchronized(fullyDownloadedFiles) { fullyDownloadedFiles.remove(cacheFileName) }
+      try {
+        journal.remove(cacheFileName)
+        backgroundCompactJournalIfNeeded()
+      } catch (error: IOException) {
+        Logger.e(TAG, "Failed to remove ${cacheFileName} from the journal", error)
+      }
 
-      if (deleteCacheFileResult && deleteCacheFileMetaResult) {
+      if (deleteCacheFileResult) {
         val fileSize = if (cacheFileSize < 0) {
           0
         } else {
@@ -414,7 +358,7 @@ internal class InnerCache(
           }
 
           Logger.verbose(TAG) {
-            "Deleted $cacheFileName and it's meta $cacheMetaFileName, " +
+            "Deleted $cacheFileName, " +
               "fileSize: ${ChanPostUtils.getReadableFileSize(fileSize)}, " +
               "cache size: ${ChanPostUtils.getReadableFileSize(size.get())}"
           }
@@ -423,18 +367,22 @@ internal class InnerCache(
         return@withLocalLock true
       }
 
-      // Only one of the files could be deleted
       return@withLocalLock false
     }
   }
 
   fun clearCache() {
     Logger.d(TAG, "Clearing cache ${cacheFileType}")
+    ensureJournalLoaded()
 
     cacheHandlerSynchronizer.withGlobalLock {
       if (cacheDirFile.exists() && cacheDirFile.isDirectory) {
         for (file in cacheDirFile.listFiles() ?: emptyArray()) {
-          if (!deleteCacheFile(file)) {
+          if (file.name.startsWith(JOURNAL_FILE_NAME)) {
+            continue
+          }
+
+          if (!file.delete()) {
             Logger.d(TAG, "Could not delete cache file while clearing cache ${file.absolutePath}")
           }
         }
@@ -448,162 +396,83 @@ internal class InnerCache(
         }
       }
 
-      synchronized(filesOnDiskCache) { filesOnDiskCache.clear() }
-      synchronized(fullyDownloadedFiles) { fullyDownloadedFiles.clear() }
+      try {
+        journal.clear()
+      } catch (error: IOException) {
+        Logger.e(TAG, "Failed to clear the journal", error)
+      }
 
       recalculateSize()
     }
   }
 
-  private fun getCacheFileMetaByCacheFile(cacheFile: File): File? {
-    val fileNameWithExtension = cacheFile.name
-    if (!fileNameWithExtension.endsWith(CACHE_EXTENSION)) {
-      Logger.e(TAG, "Bad file (not a cache file), file = ${cacheFile.absolutePath}")
-      return null
+  /**
+   * Reads a cache meta file created by the versions of the app that didn't have the journal. Only used
+   * to move the existing cache files into the journal.
+   * */
+  @Throws(IOException::class)
+  private fun readLegacyCacheFileMeta(cacheFileMeta: File): CacheFileMeta? {
+    if (!cacheFileMeta.exists()) {
+      throw IOException("Cache file meta does not exist, path = ${cacheFileMeta.absolutePath}")
     }
 
-    val originalFileName = StringUtils.removeExtensionFromFileName(fileNameWithExtension)
-    if (originalFileName.isEmpty()) {
-      Logger.e(TAG, "Bad fileNameWithExtension, fileNameWithExtension = $fileNameWithExtension")
-      return null
+    if (!cacheFileMeta.isFile()) {
+      throw IOException("Input file is not a file!")
     }
 
-    return File(cacheDirFile, formatCacheFileMetaName(originalFileName))
-  }
-
-  @Throws(IOException::class)
-  private fun updateCacheFileMeta(
-    file: File,
-    overwrite: Boolean,
-    createdOn: Long?,
-    fileDownloaded: Boolean?
-  ): Boolean {
-    return cacheHandlerSynchronizer.withLocalLock(file) {
-      if (!file.exists()) {
-        Logger.e(TAG, "Cache file meta does not exist!")
-        return@withLocalLock false
-      }
+    if (!cacheFileMeta.canRead()) {
+      throw IOException("Couldn't read cache file meta")
+    }
 
-      if (!file.name.endsWith(CACHE_META_EXTENSION)) {
-        Logger.e(TAG, "Not a cache file meta! file = ${file.absolutePath}")
-        return@withLocalLock false
-      }
+    if (cacheFileMeta.length() <= 0) {
+      // This is a valid case
+      return null
+    }
 
-      val prevCacheFileMeta = readCacheFileMeta(file).let { cacheFileMeta ->
-        when {
-          !overwrite && cacheFileMeta != null -> {
-            require(!(createdOn == null && fileDownloaded == null)) {
-              "Only one parameter may be null when updating!"
-            }
+    if (!cacheFileMeta.name.endsWith(CACHE_META_EXTENSION)) {
+      throw IOException("Not a cache file meta! file = ${cacheFileMeta.absolutePath}")
+    }
 
-            val updatedCreatedOn = createdOn ?: cacheFileMeta.createdOn
-            val updatedFileDownloaded = fileDownloaded ?: cacheFileMeta.isDownloaded
+    return cacheFileMeta.reader().use { reader ->
+      val lengthBuffer = CharArray(CACHE_FILE_META_HEADER_SIZE)
 
-            return@let CacheFileMeta(
-              CURRENT_META_FILE_VERSION,
-              updatedCreatedOn,
-              updatedFileDownloaded
-            )
-          }
-          else -> {
-            if (createdOn == null || fileDownloaded == null) {
-              throw IOException(
-                "Both parameters must not be null when writing! " +
-                  "(Probably prevCacheFileMeta couldn't be read, check the logs)"
-              )
-            }
-
-            return@let CacheFileMeta(CURRENT_META_FILE_VERSION, createdOn, fileDownloaded)
-          }
-        }
+      var read = reader.read(lengthBuffer)
+      if (read != CACHE_FILE_META_HEADER_SIZE) {
+        throw IOException(
+          "Couldn't read content size of cache file meta, read $read"
+        )
       }
 
-      return@withLocalLock file.outputStream().use { stream ->
-        return@use PrintWriter(stream).use { pw ->
-          val toWrite = String.format(
-            Locale.ENGLISH,
-            CACHE_FILE_META_CONTENT_FORMAT,
-            CURRENT_META_FILE_VERSION,
-            prevCacheFileMeta.createdOn,
-            prevCacheFileMeta.isDownloaded
-          )
-
-          val lengthChars = ConversionUtils.intToCharArray(toWrite.length)
-          pw.write(lengthChars)
-          pw.write(toWrite)
-          pw.flush()
-
-          return@use true
-        }
+      val length = ConversionUtils.charArrayToInt(lengthBuffer)
+      if (length < 0 || length > MAX_CACHE_META_SIZE) {
+        throw IOException("Cache file meta is too big or negative (${length} bytes)." +
+          " It was probably corrupted. Deleting it.")
       }
-    }
-  }
 
-  @Throws(IOException::class)
-  private fun readCacheFileMeta(cacheFileMeta: File): CacheFileMeta? {
-    return cacheHandlerSynchronizer.withLocalLock(cacheFileMeta) {
-      if (!cacheFileMeta.exists()) {
-        throw IOException("Cache file meta does not exist, path = ${cacheFileMeta.absolutePath}")
-      }
+      val contentBuffer = CharArray(length)
+      read = reader.read(contentBuffer)
 
-      if (!cacheFileMeta.isFile()) {
-        throw IOException("Input file is not a file!")
+      if (read != length) {
+        throw IOException("Couldn't read content cache file meta, read = $read, expected = $length")
       }
 
-      if (!cacheFileMeta.canRead()) {
-        throw IOException("Couldn't read cache file meta")
-      }
+      val content = String(contentBuffer)
+      val split = content.split(",").toTypedArray()
 
-      if (cacheFileMeta.length() <= 0) {
-        // This is a valid case
-        return@withLocalLock null
+      if (split.size != CacheFileMeta.PARTS_COUNT) {
+        throw IOException("Couldn't split meta content ($content), split.size = ${split.size}")
       }
 
-      if (!cacheFileMeta.name.endsWith(CACHE_META_EXTENSION)) {
-        throw IOException("Not a cache file meta! file = ${cacheFileMeta.absolutePath}")
+      val fileVersion = split[0].toInt()
+      if (fileVersion != CURRENT_META_FILE_VERSION) {
+        throw IOException("Bad file version: $fileVersion")
       }
 
-      return@withLocalLock cacheFileMeta.reader().use { reader ->
-        val lengthBuffer = CharArray(CACHE_FILE_META_HEADER_SIZE)
-
-        var read = reader.read(lengthBuffer)
-        if (read != CACHE_FILE_META_HEADER_SIZE) {
-          throw IOException(
-            "Couldn't read content size of cache file meta, read $read"
-          )
-        }
-
-        val length = ConversionUtils.charArrayToInt(lengthBuffer)
-        if (length < 0 || length > MAX_CACHE_META_SIZE) {
-          throw IOException("Cache file meta is too big or negative (${length} bytes)." +
-            " It was probably corrupted. Deleting it.")
-        }
-
-        val contentBuffer = CharArray(length)
-        read = reader.read(contentBuffer)
-
-        if (read != length) {
-          throw IOException("Couldn't read content cache file meta, read = $read, expected = $length")
-        }
-
-        val content = String(contentBuffer)
-        val split = content.split(",").toTypedArray()
-
-        if (split.size != CacheFileMeta.PARTS_COUNT) {
-          throw IOException("Couldn't split meta content ($content), split.size = ${split.size}")
-        }
-
-        val fileVersion = split[0].toInt()
-        if (fileVersion != CURRENT_META_FILE_VERSION) {
-          throw IOException("Bad file version: $fileVersion")
-        }
-
-        return@use CacheFileMeta(
-          version = fileVersion,
-          createdOn = split[1].toLong(),
-          isDownloaded = split[2].toBoolean()
-        )
-      }
+      return@use CacheFileMeta(
+        version = fileVersion,
+        createdOn = split[1].toLong(),
+        isDownloaded = split[2].toBoolean()
+      )
     }
   }
 
@@ -614,52 +483,45 @@ internal class InnerCache(
     return File(cacheDirFile, fileName)
   }
 
-  private fun getChunkCacheFileInternal(
-    chunkStart: Long,
-    chunkEnd: Long,
-    url: String
-  ): File {
-    createDirectories()
-
-    val fileName = formatChunkCacheFileName(chunkStart, chunkEnd, hashUrl(url))
-    return File(chunksCacheDirFile, fileName)
+  /**
+   * A file next to [cacheFile] where the state of its unfinished download is stored so that the
+   * download can be resumed (see PartialDownloadState). Removed together with the cache file or once
+   * the download is completed.
+   * */
+  fun getPartialDownloadStateFile(cacheFile: File): File {
+    val originalFileName = StringUtils.removeExtensionFromFileName(cacheFile.name)
+    return File(cacheDirFile, formatPartialDownloadStateFileName(originalFileName))
   }
 
-  internal fun getCacheFileMetaInternal(url: String): File {
-    createDirectories()
+  private fun deletePartialDownloadStateFile(cacheFile: File) {
+    val partialDownloadStateFile = getPartialDownloadStateFile(cacheFile)
 
-    // AbstractFile expects all file names to have extensions
-    val fileName = formatCacheFileMetaName(hashUrl(url))
-    return File(cacheDirFile, fileName)
+    if (partialDownloadStateFile.exists() && !partialDownloadStateFile.delete()) {
+      Logger.e(TAG, "Failed to delete partial download state, fileName = ${partialDownloadStateFile.absolutePath}")
+    }
   }
 
   internal fun hashUrl(url: String): String {
     return HashingUtil.stringHashMd5(url)
   }
 
-  private fun formatChunkCacheFileName(
-    chunkStart: Long,
-    chunkEnd: Long,
-    originalFileName: String
-  ): String {
+  fun formatCacheFileName(originalFileName: String): String {
     return String.format(
       Locale.ENGLISH,
-      CHUNK_CACHE_FILE_NAME_FORMAT,
+      CACHE_FILE_NAME_FORMAT,
       originalFileName,
-      chunkStart,
-      chunkEnd,
       // AbstractFile expects all file names to have extensions
-      CHUNK_CACHE_EXTENSION
+      CACHE_EXTENSION
     )
   }
 
-  fun formatCacheFileName(originalFileName: String): String {
+  private fun formatPartialDownloadStateFileName(originalFileName: String): String {
     return String.format(
       Locale.ENGLISH,
       CACHE_FILE_NAME_FORMAT,
       originalFileName,
       // AbstractFile expects all file names to have extensions
-      CACHE_EXTENSION
+      PARTIAL_DOWNLOAD_STATE_EXTENSION
     )
   }
 
@@ -729,8 +591,6 @@ internal class InnerCache(
   }
 
   private fun recalculateSize() {
-    var calculatedSize: Long = 0
-
     if (!recalculationRunning.compareAndSet(false, true)) {
       return
     }
@@ -738,24 +598,16 @@ internal class InnerCache(
     Logger.d(TAG, "recalculateSize() start")
 
     val time = measureTime {
-      synchronized(filesOnDiskCache) { filesOnDiskCache.clear() }
-
       try {
-        cacheHandlerSynchronizer.withGlobalLock {
-          val files = cacheDirFile.listFiles() ?: emptyArray()
-          for (file in files) {
-            if (file.name.endsWith(CACHE_META_EXTENSION)) {
-              continue
-            }
+        ensureJournalLoaded()
 
-            calculatedSize += file.length()
-            val cacheFileName = file.name
+        // The journal only knows the size of downloaded files but the files that are not downloaded
+        // yet take the space on the disk too (a partially downloaded video may be hundreds of MBs)
+        val notDownloadedEntries = journal.notDownloadedEntries()
+        val downloadedFilesSize = journal.totalSize() - notDownloadedEntries.sumOf { entry -> entry.size }
+        val notDownloadedFilesSize = notDownloadedEntries.sumOf { entry -> getEntrySize(entry) }
 
-            synchronized(filesOnDiskCache) { filesOnDiskCache.add(cacheFileName) }
-          }
-        }
-
-        size.set(calculatedSize)
+        size.set(downloadedFilesSize + notDownloadedFilesSize)
       } finally {
         recalculationRunning.set(false)
       }
@@ -763,44 +615,195 @@ internal class InnerCache(
 
     Logger.debug(TAG) {
       "recalculateSize() end took $time, " +
-        "filesOnDiskCount: ${filesOnDiskCache.size}, " +
-        "fullyDownloadedFilesCount: ${fullyDownloadedFiles.size}"
+        "filesCount: ${journal.entriesCount}, " +
+        "size: ${ChanPostUtils.getReadableFileSize(size.get())}"
+    }
+  }
+
+  /**
+   * The size of a file that is not downloaded yet is only known from the file itself.
+   * */
+  private fun getEntrySize(journalEntry: CacheJournal.Entry): Long {
+    if (journalEntry.isDownloaded) {
+      return journalEntry.size
+    }
+
+    return File(cacheDirFile, journalEntry.fileName).length()
+  }
+
+  private fun ensureJournalLoaded() {
+    if (journalLoaded) {
+      return
+    }
+
+    // Every other thread waits here until the journal is loaded so loading must never take any of
+    // the cacheHandlerSynchronizer locks (they may be held by the waiting threads).
+    synchronized(journalLoadLock) {
+      if (journalLoaded) {
+        return
+      }
+
+      val time = measureTime {
+        if (!journal.load()) {
+          rebuildJournal()
+        }
+      }
+
+      journalLoaded = true
+
+      Logger.d(TAG, "ensureJournalLoaded() took $time, " +
+        "filesCount: ${journal.entriesCount}, " +
+        "size: ${ChanPostUtils.getReadableFileSize(journal.totalSize())}")
+    }
+  }
+
+  /**
+   * Creates the journal from the files in the cache directory. Used when the journal does not exist
+   * (first start after the update from a version that stored a cache meta file next to every cache
+   * file) or is corrupted. The content of meta files is moved into the journal and the meta files
+   * are deleted, cache files without a readable meta are deleted too because we can't tell whether
+   * they were fully downloaded.
+   * */
+  private fun rebuildJournal() {
+    val directoryFiles = _cacheDirFile.listFiles() ?: emptyArray()
+    val journalEntries = mutableListWithCap<CacheJournal.Entry>(directoryFiles.size / 2)
+    var deletedFiles = 0
+
+    for (file in directoryFiles) {
+      val fileName = file.name
+      if (!fileName.endsWith(".$CACHE_EXTENSION")) {
+        continue
+      }
+
+      val originalFileName = StringUtils.removeExtensionFromFileName(fileName)
+      val cacheFileMetaFile = File(_cacheDirFile, formatCacheFileMetaName(originalFileName))
+
+      val cacheFileMeta = try {
+        if (cacheFileMetaFile.exists()) {
+          readLegacyCacheFileMeta(cacheFileMetaFile)
+        } else {
+          null
+        }
+      } catch (error: Throwable) {
+        Logger.e(TAG, "Couldn't read cache meta for file = ${file.absolutePath}", error)
+        null
+      }
+
+      if (cacheFileMeta == null) {
+        if (file.delete()) {
+          ++deletedFiles
+        }
+
+        continue
+      }
+
+      journalEntries += CacheJournal.Entry(
+        fileName = fileName,
+        createdOn = cacheFileMeta.createdOn,
+        accessedOn = cacheFileMeta.createdOn,
+        size = file.length(),
+        isDownloaded = cacheFileMeta.isDownloaded
+      )
+    }
+
+    try {
+      journal.rebuild(journalEntries)
+    } catch (error: IOException) {
+      Logger.e(TAG, "Failed to write the journal", error)
+    }
+
+    val journalFileNames = journalEntries.mapTo(hashSetOf()) { journalEntry -> journalEntry.fileName }
+
+    for (file in directoryFiles) {
+      if (file.name.endsWith(".$CACHE_META_EXTENSION")) {
+        file.delete()
+        continue
+      }
+
+      if (file.name.endsWith(".$PARTIAL_DOWNLOAD_STATE_EXTENSION")) {
+        val originalFileName = StringUtils.removeExtensionFromFileName(file.name)
+
+        // The cache file of this download is gone
+        if (formatCacheFileName(originalFileName) !in journalFileNames) {
+          file.delete()
+        }
+      }
+    }
+
+    Logger.d(TAG, "rebuildJournal() directoryFiles: ${directoryFiles.size}, " +
+      "journalEntries: ${journalEntries.size}, deletedFiles: ${deletedFiles}")
+  }
+
+  private fun backgroundFlushAccessTimesIfNeeded() {
+    val now = System.currentTimeMillis()
+
+    val canFlush = journal.unsavedAccessTimesCount() >= MAX_UNSAVED_ACCESS_TIMES
+      || now - lastAccessTimesFlushTime.get() > ACCESS_TIMES_FLUSH_INTERVAL
+
+    if (!canFlush || !accessTimesFlushRunning.compareAndSet(false, true)) {
+      return
+    }
+
+    executor.execute {
+      try {
+        journal.flushAccessTimes()
+      } catch (error: IOException) {
+        Logger.e(TAG, "Failed to flush access times", error)
+      } finally {
+        lastAccessTimesFlushTime.set(now)
+        accessTimesFlushRunning.set(false)
+      }
+
+      backgroundCompactJournalIfNeeded()
+    }
+  }
+
+  private fun backgroundCompactJournalIfNeeded() {
+    if (!journal.needsCompaction() || !journalCompactionRunning.compareAndSet(false, true)) {
+      return
+    }
+
+    executor.execute {
+      try {
+        journal.compact()
+      } catch (error: IOException) {
+        Logger.e(TAG, "Failed to compact the journal", error)
+      } finally {
+        journalCompactionRunning.set(false)
+      }
     }
   }
 
   private fun trim() {
     BackgroundUtils.ensureBackgroundThread()
     createDirectories()
+    ensureJournalLoaded()
 
-    val (processedFiles, directoryFiles) = cacheHandlerSynchronizer.withGlobalLock {
-      val processedFiles = cacheHandlerSynchronizer.getHeldLockKeys()
-      val directoryFiles = cacheDirFile.listFiles() ?: emptyArray()
-
-      return@withGlobalLock (processedFiles to directoryFiles)
+    val processedFiles = cacheHandlerSynchronizer.withGlobalLock {
+      cacheHandlerSynchronizer.getHeldLockKeys()
     }
 
-    // Don't try to trim empty directories or just two files in it.
-    // Two (not one) because for every cache file we now have a cache file meta with some
-    // additional info.
-    if (directoryFiles.size <= 2) {
+    val journalEntries = journal.snapshot()
+
+    // Don't try to trim empty directories or just one file in it.
+    if (journalEntries.size <= 1) {
       Logger.verbose(TAG) { "trim() not enough files in the directory to start trimming" }
       return
     }
 
     val start = System.currentTimeMillis()
 
-    // LastModified doesn't work on some platforms/phones
+    // LastModified/LastAccessed don't work on some platforms/phones
     // (https://issuetracker.google.com/issues/36930892)
-    // so we have to use a workaround. When creating a cache file for a download we also create a
-    // meta file where we will put some info about this download: the main file creation time and
-    // a flag that will tell us whether the download is complete or not. So now we need to parse
-    // the creation time from the meta file to sort cache files in ascending order (from the
-    // oldest cache file to the newest).
+    // so we have to use a workaround. When creating a cache file for a download we also add it
+    // into the journal and every cache hit updates its access time there, so now we can sort cache
+    // files in the least recently used order without touching the files themselves.
 
     var totalDeleted = 0L
     var filesDeleted = 0
 
-    val sortedFiles = groupFilterAndSortFiles(directoryFiles)
+    // Sort in ascending order, the least recently used files are in the beginning of the list
+    val sortedEntries = journalEntries.sortedWith(CACHE_ENTRY_COMPARATOR)
     val now = System.currentTimeMillis()
 
     val currentCacheSizeToUse = if (size.get() > fileCacheDiskSizeBytes) {
@@ -817,32 +820,31 @@ internal class InnerCache(
       TAG, "trim() started, " +
       "cacheFileType: ${cacheFileType}, " +
       "processedFiles: ${processedFiles.size}, " +
-      "directoryFiles: ${directoryFiles.size}, " +
+      "journalEntries: ${journalEntries.size}, " +
       "currentCacheSize: ${ChanPostUtils.getReadableFileSize(size.get())}, " +
       "fileCacheDiskSizeBytes: ${ChanPostUtils.getReadableFileSize(fileCacheDiskSizeBytes)}, " +
       "sizeToFree: ${ChanPostUtils.getReadableFileSize(sizeToFree)}")
 
     // We either delete all files we can in the cache directory or at most half of the cache
-    for (cacheFile in sortedFiles) {
-      val file = cacheFile.file
-      val createdOn = cacheFile.createdOn
+    for (journalEntry in sortedEntries) {
+      val file = File(cacheDirFile, journalEntry.fileName)
+      val accessedOn = journalEntry.accessedOn
 
       if (file in processedFiles) {
-        Logger.debug(TAG) { "Skipping ${cacheFile.file.absolutePath} because it's currently being processed in other place'" }
+        Logger.debug(TAG) { "Skipping ${file.absolutePath} because it's currently being processed in other place'" }
         continue
       }
 
       val minCacheFileLifeTime = if (AppModuleAndroidUtils.isDevBuild()) {
         0
       } else {
-        // Do not delete fresh files because it may happen right at the time user switched
+        // Do not delete recently used files because it may happen right at the time user switched
         // to it. Since the list is sorted there is no point to iterate it anymore since all
-        // the following files will be "too young" to be deleted so we just break out of
-        // the loop.
+        // the following files were used even more recently so we just break out of the loop.
         MIN_CACHE_FILE_LIFE_TIME
       }
 
-      if (now - createdOn < minCacheFileLifeTime) {
+      if (now - accessedOn < minCacheFileLifeTime) {
         break
       }
 
@@ -850,7 +852,7 @@ internal class InnerCache(
         break
       }
 
-      val fileSize = file.length()
+      val fileSize = getEntrySize(journalEntry)
 
       if (deleteCacheFile(file)) {
         totalDeleted += fileSize
@@ -864,101 +866,19 @@ internal class InnerCache(
     }
 
     val timeDiff = System.currentTimeMillis() - start
+    evictions.addAndGet(filesDeleted.toLong())
     recalculateSize()
 
-    Logger.d(TAG, "trim() ended (took ${timeDiff} ms), " +
-      "cacheFileType: $cacheFileType, filesDeleted=$filesDeleted, " +
-      "total space freed: ${ChanPostUtils.getReadableFileSize(totalDeleted)}")
-  }
-
-  private fun groupFilterAndSortFiles(directoryFiles: Array<File>): List<CacheFile> {
-    BackgroundUtils.ensureBackgroundThread()
-
-    val groupedCacheFiles = filterAndGroupCacheFilesWithMeta(directoryFiles)
-    val cacheFiles = ArrayList<CacheFile>(groupedCacheFiles.size)
-
-    for ((abstractFile, abstractFileMeta) in groupedCacheFiles) {
-      val cacheFileMeta = try {
-        readCacheFileMeta(abstractFileMeta)
-      } catch (error: IOException) {
-        null
-      }
-
-      if (cacheFileMeta == null) {
-        Logger.e(TAG, "Couldn't read cache meta for file = ${abstractFile.absolutePath}")
-
-        if (!deleteCacheFile(abstractFile)) {
-          Logger.e(TAG, "Couldn't delete cache file with meta for file = ${abstractFile.absolutePath}")
-        }
-        continue
-      }
-
-      cacheFiles.add(CacheFile(abstractFile, cacheFileMeta))
-    }
-
-    // Sort in ascending order, the oldest files are in the beginning of the list
-    Collections.sort(cacheFiles, CACHE_FILE_COMPARATOR)
-    return cacheFiles
-  }
-
-  private fun filterAndGroupCacheFilesWithMeta(
-    directoryFiles: Array<File>
-  ): List<GroupedCacheFile> {
-    BackgroundUtils.ensureBackgroundThread()
-
-    val grouped = directoryFiles
-      .map { file -> Pair(file, file.name) }
-      .filter { (_, fileName) ->
-        // Either cache file or cache meta
-        fileName.endsWith(CACHE_EXTENSION) || fileName.endsWith(CACHE_META_EXTENSION)
-      }
-      .groupBy { (_, fileName) ->
-        StringUtils.removeExtensionFromFileName(fileName)
-      }
-
-    val groupedCacheFileList = mutableListWithCap<GroupedCacheFile>(grouped.size / 2)
-
-    for ((fileName, groupOfFiles) in grouped) {
-      // We have already filtered all non-cache related files so it's safe to delete them here.
-      // We delete files without where either the cache file or cache file meta (or both) are
-      // missing.
-      if (groupOfFiles.isEmpty()) {
-        deleteCacheFile(fileName)
-        continue
-      }
-
-      // We also handle a hypothetical case where there are more than one cache file/meta with
-      // the same name
-      if (groupOfFiles.size != 2) {
-        groupOfFiles.forEach { (file, _) -> deleteCacheFile(file) }
-        continue
-      }
-
-      val (file1, fileName1) = groupOfFiles[0]
-      val (file2, fileName2) = groupOfFiles[1]
-
-      val cacheFile = when {
-        fileName1.endsWith(CACHE_EXTENSION) -> file1
-        fileName2.endsWith(CACHE_EXTENSION) -> file2
-        else -> throw IllegalStateException(
-          "Neither of grouped files is a cache file! " +
-            "fileName1 = $fileName1, fileName2 = $fileName2"
-        )
-      }
-
-      val cacheFileMeta = when {
-        fileName1.endsWith(CACHE_META_EXTENSION) -> file1
-        fileName2.endsWith(CACHE_META_EXTENSION) -> file2
-        else -> throw IllegalStateException(
-          "Neither of grouped files is a cache file meta! " +
-            "fileName1 = $fileName1, fileName2 = $fileName2"
-        )
-      }
-
-      groupedCacheFileList += GroupedCacheFile(cacheFile, cacheFileMeta)
+    try {
+      journal.flushAccessTimes()
+    } catch (error: IOException) {
+      Logger.e(TAG, "Failed to flush access times", error)
     }
 
-    return groupedCacheFileList
+    Logger.d(TAG, "trim() ended (took ${timeDiff} ms), " +
+      "cacheFileType: $cacheFileType, filesDeleted=$filesDeleted, " +
+      "total space freed: ${ChanPostUtils.getReadableFileSize(totalDeleted)}, " +
+      "statistics: ${getStatistics()}")
   }
 
   private fun getAdditionalDebugInfo(file: File): String {
@@ -978,23 +898,6 @@ internal class InnerCache(
       "internalCacheDir = ${internalCacheDir})"
   }
 
-  private class CacheFile(
-    val file: File,
-    private val cacheFileMeta: CacheFileMeta
-  ) {
-
-    val createdOn: Long
-      get() = cacheFileMeta.createdOn
-
-    override fun toString(): String {
-      return "CacheFile{" +
-        "file=${file.absolutePath}" +
-        ", cacheFileMeta=${cacheFileMeta}" +
-        "}"
-    }
-
-  }
-
   internal class CacheFileMeta(
     val version: Int = CURRENT_META_FILE_VERSION,
     val createdOn: Long,
@@ -1020,11 +923,6 @@ internal class InnerCache(
     }
   }
 
-  private data class GroupedCacheFile(
-    val cacheFile: File,
-    val cacheFileMeta: File
-  )
-
   companion object {
     private const val CURRENT_META_FILE_VERSION = 1
     private const val CACHE_FILE_META_HEADER_SIZE = 4
@@ -1035,17 +933,29 @@ internal class InnerCache(
     private const val MAX_CACHE_META_SIZE = 1024L
 
     private const val CACHE_FILE_NAME_FORMAT = "%s.%s"
-    private const val CHUNK_CACHE_FILE_NAME_FORMAT = "%s_%d_%d.%s"
-    private const val CACHE_FILE_META_CONTENT_FORMAT = "%d,%d,%b"
     internal const val CACHE_EXTENSION = "cache"
     internal const val CACHE_META_EXTENSION = "cache_meta"
-    internal const val CHUNK_CACHE_EXTENSION = "chunk"
+    internal const val CACHE_JOURNAL_EXTENSION = "cache_journal"
+    internal const val PARTIAL_DOWNLOAD_STATE_EXTENSION = "cache_partial"
+
+    // AbstractFile expects all file names to have extensions
+    private const val JOURNAL_FILE_NAME = "journal.$CACHE_JOURNAL_EXTENSION"
 
     private val MIN_CACHE_FILE_LIFE_TIME = TimeUnit.MINUTES.toMillis(1)
     private val MIN_TRIM_INTERVAL = TimeUnit.SECONDS.toMillis(5)
 
-    private val CACHE_FILE_COMPARATOR = Comparator<CacheFile> { cacheFile1, cacheFile2 ->
-      cacheFile1.createdOn.compareTo(cacheFile2.createdOn)
+    // Access times are written into the journal either when this many of them are accumulated or
+    // once in ACCESS_TIMES_FLUSH_INTERVAL (on the next cache hit)
+    private const val MAX_UNSAVED_ACCESS_TIMES = 128
+    private val ACCESS_TIMES_FLUSH_INTERVAL = TimeUnit.SECONDS.toMillis(30)
+
+    private val CACHE_ENTRY_COMPARATOR = Comparator<CacheJournal.Entry> { entry1, entry2 ->
+      val result = entry1.accessedOn.compareTo(entry2.accessedOn)
+      if (result != 0) {
+        return@Comparator result
+      }
+
+      return@Comparator entry1.createdOn.compareTo(entry2.createdOn)
     }
   }
 
@@ -26,6 +26,7 @@ internal open class ActiveDownloads {
       if (request != null) {
         request.cancelableDownload.clearCallbacks()
         activeDownloads.remove(url)
+        request.notifyUpdated()
       }
     }
   }
@@ -33,7 +34,7 @@ internal open class ActiveDownloads {
   fun cancelAndRemove(mediaUrl: HttpUrl) {
     synchronized(activeDownloads) {
       activeDownloads.get(mediaUrl)?.cancelableDownload?.cancel()
-      activeDownloads.remove(mediaUrl)
+      activeDownloads.remove(mediaUrl)?.notifyUpdated()
     }
   }
 
@@ -69,6 +70,13 @@ internal open class ActiveDownloads {
     synchronized(activeDownloads) { activeDownloads[url] = fileDownloadRequest }
   }
 
+  /**
+   * Wakes up everyone waiting for new data of the download of [url] (see [FileDownloadRequest.awaitUpdate]).
+   * */
+  fun notifyUpdated(url: HttpUrl) {
+    get(url)?.notifyUpdated()
+  }
+
   fun updateTotalLength(url: HttpUrl, contentLength: Long) {
     synchronized(activeDownloads) {
       activeDownloads[url]?.total?.set(contentLength)
@@ -84,14 +92,6 @@ internal open class ActiveDownloads {
     }
   }
 
-  fun getChunks(url: HttpUrl): Set<Chunk> {
-    return synchronized(activeDownloads) { activeDownloads[url]?.chunks?.toSet() ?: emptySet() }
-  }
-
-  fun clearChunks(url: HttpUrl) {
-    synchronized(activeDownloads) { activeDownloads[url]?.chunks?.clear() }
-  }
-
   fun updateChunks(url: HttpUrl, chunks: List<Chunk>) {
     synchronized(activeDownloads) {
       activeDownloads[url]?.chunks?.clear()
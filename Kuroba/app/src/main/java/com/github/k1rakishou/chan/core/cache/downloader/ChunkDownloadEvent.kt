@@ -1,11 +1,8 @@
 package com.github.k1rakishou.chan.core.cache.downloader
 
-import java.io.File
-
 internal sealed class ChunkDownloadEvent {
   data class ChunkSuccess(
     val chunkIndex: Int,
-    val chunkCacheFile: File,
     val chunk: Chunk
   ) : ChunkDownloadEvent()
 
@@ -19,7 +19,8 @@ internal class ChunkDownloader(
   suspend fun downloadChunk(
     mediaUrl: HttpUrl,
     chunk: Chunk,
-    totalChunksCount: Int
+    totalChunksCount: Int,
+    ifRangeValidator: String?
   ): ChunkResponse {
     activeDownloads.ensureNotCanceled(mediaUrl)
 
@@ -46,6 +47,12 @@ internal class ChunkDownloader(
       // (it was timed out) so we should download it normally.
       // In other words, if chunk.isWholeFile == true then we don't use the "Range" header.
       requestBuilder.header("Range", "bytes=" + chunk.start + "-" + chunk.end)
+
+      if (ifRangeValidator != null) {
+        // When resuming a download the server must only return the range if the file hasn't changed
+        // since, otherwise it returns the whole file with 200 which restarts the download.
+        requestBuilder.header("If-Range", ifRangeValidator)
+      }
     }
 
     val httpRequest = requestBuilder.build()
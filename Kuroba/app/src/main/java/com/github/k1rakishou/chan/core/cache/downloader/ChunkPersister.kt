@@ -1,42 +1,40 @@
 package com.github.k1rakishou.chan.core.cache.downloader
 
-import com.github.k1rakishou.chan.core.cache.CacheHandler
 import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.common.exhaustive
+import com.github.k1rakishou.common.rethrowCancellationException
 import com.github.k1rakishou.core_logger.Logger
-import dagger.Lazy
 import kotlinx.coroutines.channels.ProducerScope
+import kotlinx.coroutines.ensureActive
 import okhttp3.HttpUrl
 import okhttp3.Response
 import okhttp3.ResponseBody
-import okhttp3.internal.closeQuietly
-import okio.Buffer
-import okio.BufferedSink
 import okio.BufferedSource
-import okio.buffer
-import okio.sink
-import java.io.File
 import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
 import java.util.concurrent.atomic.AtomicLong
 
+/**
+ * Writes the body of a chunk response straight into the output (cache) file at the chunk's offset.
+ * Every chunk of a download shares the same [FileChannel], positional writes do not depend on (or
+ * change) the channel's position so chunks can be written concurrently.
+ * */
 internal class ChunkPersister(
-  private val cacheHandlerLazy: Lazy<CacheHandler>,
   private val activeDownloads: ActiveDownloads
 ) {
-  private val cacheHandler: CacheHandler
-    get() = cacheHandlerLazy.get()
 
   suspend fun storeChunkInFile(
     producerScope: ProducerScope<ChunkDownloadEvent>,
     mediaUrl: HttpUrl,
     chunkResponse: ChunkResponse,
+    outputChannel: FileChannel,
+    completedChunks: CompletedChunks,
+    partialDownloadStateWriter: PartialDownloadStateWriter,
     totalDownloaded: AtomicLong,
     chunkIndex: Int,
     totalChunksCount: Int
   ) {
-    val request = activeDownloads.get(mediaUrl)
-      ?: activeDownloads.throwCancellationException(mediaUrl)
-
     val chunk = chunkResponse.chunk
     val response = chunkResponse.response
 
@@ -56,56 +54,64 @@ internal class ChunkPersister(
         throw MediaDownloadException.HttpCodeException(response.code)
       }
 
-      val chunkCacheFile = cacheHandler.getOrCreateChunkCacheFile(
-        cacheFileType = request.cacheFileType,
-        chunk = chunk,
-        url = mediaUrl.toString()
-      ) ?: throw IOException("Couldn't create chunk cache file")
-
-      try {
-        response.useAsResponseBody { responseBody ->
-          var chunkSize = responseBody.contentLength()
-
-          if (totalChunksCount == 1) {
-            if (chunkSize <= 0) {
-              chunkSize = activeDownloads.get(mediaUrl)?.extraInfo?.fileSize ?: -1
-            }
-
-            // When downloading the whole file in a single chunk we can only know
-            // for sure the whole size of the file at this point since we probably
-            // didn't send the HEAD request
-            activeDownloads.updateTotalLength(mediaUrl, chunkSize)
-          }
+      if (!chunk.isWholeFile() && response.code != PARTIAL_CONTENT_STATUS) {
+        // The server ignored the Range header and sent us the whole file, writing it at the chunk's
+        // offset would corrupt the other chunks. Handle it the same way as unsatisfiable range so
+        // that the download is restarted in single chunk mode.
+        Logger.error(TAG) { "storeChunkInFile($chunkIndex, $mediaUrl) expected partial content but got ${response.code}" }
+        throw MediaDownloadException.HttpCodeException(UNSATISFIABLE_RANGE_STATUS)
+      }
 
-          responseBody.source().use { bufferedSource ->
-            if (!bufferedSource.isOpen) {
-              activeDownloads.throwCancellationException(mediaUrl)
-            }
-
-            chunkCacheFile.useAsBufferedSink { bufferedSink ->
-              readBodyLoop(
-                producerScope = producerScope,
-                chunkSize = chunkSize,
-                mediaUrl = mediaUrl,
-                bufferedSource = bufferedSource,
-                bufferedSink = bufferedSink,
-                totalDownloaded = totalDownloaded,
-                chunkIndex = chunkIndex,
-                chunkCacheFile = chunkCacheFile,
-                chunk = chunk
-              )
-            }
+      if (!partialDownloadStateWriter.onChunkResponse(response)) {
+        // The file on the server has changed since we started downloading it (or the server ignored
+        // If-Range), the data we already have can't be mixed with the new one.
+        Logger.error(TAG) { "storeChunkInFile($chunkIndex, $mediaUrl) the file has changed on the server" }
+        throw MediaDownloadException.HttpCodeException(UNSATISFIABLE_RANGE_STATUS)
+      }
+
+      response.useAsResponseBody { responseBody ->
+        var chunkSize = responseBody.contentLength()
+
+        if (chunk.isWholeFile()) {
+          // Only trust the server here, the file size from extraInfo may be inaccurate
+          partialDownloadStateWriter.updateTotalLength(chunkSize)
+
+          if (chunkSize <= 0) {
+            chunkSize = activeDownloads.get(mediaUrl)?.extraInfo?.fileSize ?: -1
           }
+
+          // When downloading the whole file in a single chunk we can only know
+          // for sure the whole size of the file at this point since we probably
+          // didn't send the HEAD request
+          activeDownloads.updateTotalLength(mediaUrl, chunkSize)
+          activeDownloads.notifyUpdated(mediaUrl)
         }
 
-        Logger.verbose(TAG) {
-          "storeChunkInFile($chunkIndex, $mediaUrl) success for chunk: ${chunk}"
+        responseBody.source().use { bufferedSource ->
+          if (!bufferedSource.isOpen) {
+            activeDownloads.throwCancellationException(mediaUrl)
+          }
+
+          readBodyLoop(
+            producerScope = producerScope,
+            chunkSize = chunkSize,
+            mediaUrl = mediaUrl,
+            bufferedSource = bufferedSource,
+            outputChannel = outputChannel,
+            completedChunks = completedChunks,
+            totalDownloaded = totalDownloaded,
+            chunkIndex = chunkIndex,
+            chunk = chunk
+          )
         }
-      } catch (error: Throwable) {
-        deleteChunkFile(chunkCacheFile)
-        throw error
+      }
+
+      Logger.verbose(TAG) {
+        "storeChunkInFile($chunkIndex, $mediaUrl) success for chunk: ${chunk}"
       }
     } catch (error: Throwable) {
+      error.rethrowCancellationException()
+
       handleErrors(
         mediaUrl = mediaUrl,
         totalChunksCount = totalChunksCount,
@@ -114,7 +120,8 @@ internal class ChunkPersister(
         chunk = chunk,
       )
     } finally {
-      response.closeQuietly()
+      // Must not throw here, it would hide the original error
+      response.body?.close()
     }
   }
 
@@ -168,28 +175,27 @@ internal class ChunkPersister(
     }
   }
 
-  private fun File.useAsBufferedSink(func: (BufferedSink) -> Unit) {
-    outputStream().sink().use { sink ->
-      sink.buffer().use { bufferedSink ->
-        func(bufferedSink)
-      }
-    }
-  }
-
   private fun readBodyLoop(
     producerScope: ProducerScope<ChunkDownloadEvent>,
     chunkSize: Long,
     mediaUrl: HttpUrl,
     bufferedSource: BufferedSource,
-    bufferedSink: BufferedSink,
+    outputChannel: FileChannel,
+    completedChunks: CompletedChunks,
     totalDownloaded: AtomicLong,
     chunkIndex: Int,
-    chunkCacheFile: File,
     chunk: Chunk
   ) {
     var downloaded = 0L
     var notifyTotal = 0L
-    val buffer = Buffer()
+    val buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE)
+
+    // Ranged chunks must never be written outside of their range
+    val chunkEnd = if (chunk.isWholeFile()) {
+      Long.MAX_VALUE
+    } else {
+      chunk.realEnd
+    }
 
     val notifySize = if (chunkSize <= 0) {
       DEFAULT_BUFFER_SIZE.toLong()
@@ -202,8 +208,7 @@ internal class ChunkPersister(
         "chunkSize: ${chunkSize}, " +
         "notifySize: ${notifySize}, " +
         "totalDownloaded: ${totalDownloaded.get()}, " +
-        "chunkIndex: ${chunkIndex}, " +
-        "chunkCacheFile: ${chunkCacheFile.absolutePath}"
+        "chunkIndex: ${chunkIndex}"
     }
 
     try {
@@ -211,14 +216,28 @@ internal class ChunkPersister(
 
       while (true) {
         activeDownloads.ensureNotCanceled(mediaUrl)
+        // The read is blocking so a canceled coroutine (e.g. a download preempted by DownloadScheduler)
+        // must be checked for here, otherwise it would keep reading the body (and occupying the
+        // connection) until the whole chunk is downloaded.
+        producerScope.ensureActive()
 
-        val read = bufferedSource.read(buffer, DEFAULT_BUFFER_SIZE.toLong())
+        val read = bufferedSource.read(buffer).toLong()
         if (read == -1L) {
           break
         }
 
+        if (chunk.start + downloaded + read > chunkEnd) {
+          throw IOException("Server sent more data than requested for chunk ${chunk}")
+        }
+
         downloaded += read
-        bufferedSink.write(buffer, read)
+
+        // Accumulate the data until the buffer is full to avoid a write per every tiny read
+        if (!buffer.hasRemaining()) {
+          writeBuffer(buffer, outputChannel, chunk.start + downloaded - buffer.position())
+          completedChunks.updateWritten(chunkIndex, downloaded)
+          activeDownloads.notifyUpdated(mediaUrl)
+        }
 
         val total = totalDownloaded.addAndGet(read)
         activeDownloads.updateDownloaded(mediaUrl, chunkIndex, total)
@@ -236,7 +255,15 @@ internal class ChunkPersister(
         }
       }
 
-      bufferedSink.flush()
+      writeBuffer(buffer, outputChannel, chunk.start + downloaded - buffer.position())
+      completedChunks.updateWritten(chunkIndex, downloaded)
+      activeDownloads.notifyUpdated(mediaUrl)
+
+      if (!chunk.isWholeFile() && chunk.start + downloaded != chunkEnd) {
+        throw IOException("Chunk ${chunk} is incomplete, downloaded: ${downloaded}")
+      }
+
+      completedChunks.markCompleted(chunkIndex)
 
       // So that we have 100% progress for every chunk
       if (chunkSize >= 0) {
@@ -256,31 +283,44 @@ internal class ChunkPersister(
       producerScope.trySend(
         ChunkDownloadEvent.ChunkSuccess(
           chunkIndex = chunkIndex,
-          chunkCacheFile = chunkCacheFile,
           chunk = chunk
         )
       )
     } catch (error: Throwable) {
       Logger.error(TAG) { "readBodyLoop($chunk, $mediaUrl) error: ${error.errorMessageOrClassName()}" }
 
+      // A canceled coroutine must not cancel the download itself, a preempted download is restarted
+      // later.
+      error.rethrowCancellationException()
+
       // Handle StreamResetExceptions and such
       if (DownloaderUtils.isCancellationError(error)) {
         activeDownloads.throwCancellationException(mediaUrl)
       } else {
         throw error
       }
-    } finally {
-      buffer.closeQuietly()
     }
   }
 
-  private fun deleteChunkFile(chunkFile: File) {
-    if (!chunkFile.delete()) {
-      Logger.error(TAG) { "Couldn't delete chunk file: '${chunkFile.absolutePath}'" }
+  /**
+   * Writes the content of [buffer] into [outputChannel] starting at [position] and clears the buffer.
+   * */
+  private fun writeBuffer(buffer: ByteBuffer, outputChannel: FileChannel, position: Long) {
+    buffer.flip()
+
+    var currentPosition = position
+    while (buffer.hasRemaining()) {
+      currentPosition += outputChannel.write(buffer, currentPosition)
     }
+
+    buffer.clear()
   }
 
   companion object {
     private const val TAG = "ChunkReader"
+
+    private const val PARTIAL_CONTENT_STATUS = 206
+    private const val UNSATISFIABLE_RANGE_STATUS = 416
+    private const val WRITE_BUFFER_SIZE = 64 * 1024
   }
 }
\ No newline at end of file
@@ -15,4 +15,27 @@ interface ChunkedMediaDownloader {
         callback: FileCacheListener? = null,
     ): CancelableDownload?
 
+    /**
+     * @return what was already written into the cache file by the running download of [url] or null
+     * if the file is not being downloaded (or the download hasn't started writing into it yet).
+     * */
+    fun getDownloadedRanges(url: HttpUrl): DownloadedRanges?
+
+    /**
+     * Asks the running download of [url] to download the part of the file starting at [position]
+     * before the rest of it.
+     *
+     * @return false if the download is not running or the server doesn't support ranges.
+     * */
+    fun requestRange(url: HttpUrl, position: Long): Boolean
+
+    /**
+     * Blocks the current thread until the running download of [url] writes new data into the cache
+     * file (or ends) after [lastSeen] was taken. When [lastSeen] is null waits until the download
+     * starts writing into the cache file.
+     *
+     * @return false if the download is not running or nothing has happened in [timeoutMs].
+     * */
+    fun awaitDownloadUpdate(url: HttpUrl, lastSeen: DownloadedRanges?, timeoutMs: Long): Boolean
+
 }
\ No newline at end of file
@@ -6,9 +6,9 @@ import com.github.k1rakishou.chan.core.cache.CacheFileType
 import com.github.k1rakishou.chan.core.cache.CacheHandler
 import com.github.k1rakishou.chan.core.site.SiteResolver
 import com.github.k1rakishou.common.AppConstants
+import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.common.rethrowCancellationException
 import com.github.k1rakishou.core_logger.Logger
-import com.github.k1rakishou.fsaf.FileManager
 import dagger.Lazy
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.asCoroutineDispatcher
@@ -20,11 +20,12 @@ import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.onEach
 import okhttp3.HttpUrl
 import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import java.io.File
+import java.io.IOException
 import java.util.concurrent.Executors
 
 class ChunkedMediaDownloaderImpl(
   private val appConstants: AppConstants,
-  private val fileManager: FileManager,
   private val siteResolver: SiteResolver,
   private val cacheHandlerLazy: Lazy<CacheHandler>,
   private val downloaderOkHttpClientLazy: Lazy<RealDownloaderOkHttpClient>,
@@ -34,6 +35,7 @@ class ChunkedMediaDownloaderImpl(
     get() = cacheHandlerLazy.get()
 
   private val activeDownloads = ActiveDownloads()
+  private val downloadScheduler = DownloadScheduler()
 
   private val coroutineDispatcher by lazy {
     Executors.newFixedThreadPool(appConstants.processorsCount)
@@ -58,12 +60,6 @@ class ChunkedMediaDownloaderImpl(
         activeDownloads = activeDownloads
       ),
       chunkPersister = ChunkPersister(
-        cacheHandlerLazy = cacheHandlerLazy,
-        activeDownloads = activeDownloads
-      ),
-      chunkMerger = ChunkMerger(
-        fileManager = fileManager,
-        cacheHandlerLazy = cacheHandlerLazy,
         activeDownloads = activeDownloads
       ),
       cacheHandlerLazy = cacheHandlerLazy,
@@ -100,6 +96,20 @@ class ChunkedMediaDownloaderImpl(
     }
   }
 
+  override fun getDownloadedRanges(url: HttpUrl): DownloadedRanges? {
+    return activeDownloads.get(url)?.getDownloadedRanges()
+  }
+
+  override fun requestRange(url: HttpUrl, position: Long): Boolean {
+    return activeDownloads.get(url)?.requestRange(position)
+      ?: false
+  }
+
+  override fun awaitDownloadUpdate(url: HttpUrl, lastSeen: DownloadedRanges?, timeoutMs: Long): Boolean {
+    return activeDownloads.get(url)?.awaitUpdate(lastSeen, timeoutMs)
+      ?: false
+  }
+
   override fun enqueueDownloadFileRequest(
     mediaUrl: HttpUrl,
     cacheFileType: CacheFileType,
@@ -121,23 +131,25 @@ class ChunkedMediaDownloaderImpl(
 
     cancelableDownload.launch {
       try {
-        channelFlow<FileDownloadEvent> { processSingleDownload(this, mediaUrl) }
-          .onEach { fileDownloadEvent ->
-            fileDownloadEvent.rethrowUnsatisfiableRangeHttpError()
+        downloadScheduler.runScheduled(mediaUrl, extraInfo.priority) {
+          channelFlow<FileDownloadEvent> { processSingleDownload(this, mediaUrl) }
+            .onEach { fileDownloadEvent ->
+              fileDownloadEvent.rethrowUnsatisfiableRangeHttpError()
 
-            fileDownloadEventHandler.processResult(mediaUrl, fileDownloadEvent)
-          }
-          .catch { error ->
-            error.rethrowCancellationException()
-
-            if (error is MediaDownloadException.HttpCodeException) {
-              error.rethrowUnsatisfiableRangeHttpError()
+              fileDownloadEventHandler.processResult(mediaUrl, fileDownloadEvent)
             }
+            .catch { error ->
+              error.rethrowCancellationException()
 
-            fileDownloadEventHandler.processResult(mediaUrl, FileDownloadEvent.UnknownException(error))
-          }
-          .flowOn(coroutineDispatcher)
-          .collect()
+              if (error is MediaDownloadException.HttpCodeException) {
+                error.rethrowUnsatisfiableRangeHttpError()
+              }
+
+              fileDownloadEventHandler.processResult(mediaUrl, FileDownloadEvent.UnknownException(error))
+            }
+            .flowOn(coroutineDispatcher)
+            .collect()
+        }
       } catch (error: Throwable) {
         if (error is CancellationException) {
           fileDownloadEventHandler.processResult(mediaUrl, FileDownloadEvent.Canceled)
@@ -201,6 +213,22 @@ class ChunkedMediaDownloaderImpl(
 
     request.setOutputFile(outputFile)
 
+    val partialDownloadState = readPartialDownloadState(cacheFileType, mediaUrl, outputFile)
+    if (partialDownloadState != null) {
+      // We already know the file size and the server's validator, no need to send the HEAD request
+      concurrentChunkedFileDownloader.download(
+        producerScope = producerScope,
+        partialContentCheckResult = PartialContentCheckResult(
+          supportsPartialContentDownload = true,
+          length = partialDownloadState.totalLength
+        ),
+        mediaUrl = mediaUrl,
+        partialDownloadState = partialDownloadState
+      )
+
+      return
+    }
+
     val partialContentCheckResult = partialContentSupportChecker.check(mediaUrl)
     if (partialContentCheckResult.notFoundOnServer) {
       throw MediaDownloadException.FileNotFoundOnTheServerException(mediaUrl)
@@ -213,6 +241,40 @@ class ChunkedMediaDownloaderImpl(
     )
   }
 
+  /**
+   * @return the state of a previous download of [mediaUrl] into [outputFile] that was interrupted
+   * (e.g. the app was killed) or null if there is nothing to resume.
+   * */
+  private fun readPartialDownloadState(
+    cacheFileType: CacheFileType,
+    mediaUrl: HttpUrl,
+    outputFile: File
+  ): PartialDownloadState? {
+    val stateFile = cacheHandler.getPartialDownloadStateFile(cacheFileType, outputFile)
+
+    val partialDownloadState = try {
+      PartialDownloadState.read(stateFile)
+    } catch (error: IOException) {
+      Logger.error(TAG) { "readPartialDownloadState(${mediaUrl}) error: ${error.errorMessageOrClassName()}" }
+      null
+    }
+
+    val canBeResumed = partialDownloadState != null
+      && partialDownloadState.url == mediaUrl.toString()
+      // The file must contain everything the state says was downloaded
+      && outputFile.length() >= partialDownloadState.downloadedEnd()
+
+    if (!canBeResumed) {
+      if (stateFile.exists() && !stateFile.delete()) {
+        Logger.error(TAG) { "readPartialDownloadState(${mediaUrl}) failed to delete ${stateFile.absolutePath}" }
+      }
+
+      return null
+    }
+
+    return partialDownloadState
+  }
+
   private fun getOrCreateCancelableDownload(
     mediaUrl: HttpUrl,
     callback: FileCacheListener?,
@@ -236,6 +298,9 @@ class ChunkedMediaDownloaderImpl(
             prevCancelableDownload.addCallback(callback)
           }
 
+          // E.g. the user opened an image that is currently being prefetched
+          downloadScheduler.raisePriority(mediaUrl, extraInfo.priority)
+
           // true means that this request has already been started before and hasn't yet
           // completed so we can just resubscribe to it instead of creating a new one
           return@synchronized true to prevCancelableDownload
@@ -0,0 +1,71 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import androidx.annotation.GuardedBy
+import java.util.BitSet
+
+/**
+ * Bitmap of the chunks of one download that were fully written into the output file. Chunks are
+ * written straight into the output file at their offsets so once every chunk is completed the file
+ * is downloaded and there is nothing to merge. Also keeps the amount of bytes already written for
+ * every chunk (from the chunk's start) which is what [PartialDownloadStateWriter] stores to resume
+ * the download later.
+ *
+ * ThreadSafe
+ * */
+internal class CompletedChunks(
+  val chunksCount: Int
+) {
+  @GuardedBy("this")
+  private val completed = BitSet(chunksCount)
+  @GuardedBy("this")
+  private val writtenBytes = LongArray(chunksCount)
+
+  init {
+    require(chunksCount > 0) { "Bad chunksCount: $chunksCount" }
+  }
+
+  @Synchronized
+  fun markCompleted(chunkIndex: Int) {
+    require(chunkIndex in 0 until chunksCount) { "Bad chunkIndex: $chunkIndex, chunksCount: $chunksCount" }
+    completed.set(chunkIndex)
+  }
+
+  /**
+   * A retried chunk is written from its start again (with the same data) so the amount of written
+   * bytes never goes down.
+   * */
+  @Synchronized
+  fun updateWritten(chunkIndex: Int, written: Long) {
+    require(chunkIndex in 0 until chunksCount) { "Bad chunkIndex: $chunkIndex, chunksCount: $chunksCount" }
+
+    if (written > writtenBytes[chunkIndex]) {
+      writtenBytes[chunkIndex] = written
+    }
+  }
+
+  @Synchronized
+  fun writtenBytes(chunkIndex: Int): Long {
+    return writtenBytes[chunkIndex]
+  }
+
+  @Synchronized
+  fun isCompleted(chunkIndex: Int): Boolean {
+    return completed.get(chunkIndex)
+  }
+
+  @Synchronized
+  fun completedCount(): Int {
+    return completed.cardinality()
+  }
+
+  @Synchronized
+  fun allCompleted(): Boolean {
+    return completed.cardinality() == chunksCount
+  }
+
+  @Synchronized
+  override fun toString(): String {
+    return "CompletedChunks{${completed.cardinality()}/${chunksCount}}"
+  }
+
+}
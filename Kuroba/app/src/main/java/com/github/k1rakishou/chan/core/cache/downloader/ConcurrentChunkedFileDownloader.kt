@@ -9,18 +9,25 @@ import com.github.k1rakishou.common.parallelForEachIndexed
 import com.github.k1rakishou.common.rethrowCancellationException
 import com.github.k1rakishou.core_logger.Logger
 import dagger.Lazy
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.ProducerScope
+import kotlinx.coroutines.channels.ReceiveChannel
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.catch
 import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.flow.filter
 import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.launch
 import okhttp3.HttpUrl
 import java.io.File
 import java.io.IOException
+import java.io.RandomAccessFile
 import java.net.UnknownHostException
+import java.nio.channels.FileChannel
 import java.util.concurrent.atomic.AtomicLong
 import javax.inject.Inject
 
@@ -28,69 +35,82 @@ internal open class ConcurrentChunkedFileDownloader @Inject constructor(
   private val siteResolver: SiteResolver,
   private val chunkDownloader: ChunkDownloader,
   private val chunkPersister: ChunkPersister,
-  private val chunkMerger: ChunkMerger,
   private val cacheHandlerLazy: Lazy<CacheHandler>,
   private val activeDownloads: ActiveDownloads
 ) {
   private val cacheHandler: CacheHandler
     get() = cacheHandlerLazy.get()
 
+  /**
+   * Downloads the file into the request's output file. When [partialDownloadState] is not null only
+   * the ranges that are missing from the output file are downloaded.
+   * */
   suspend fun download(
     producerScope: ProducerScope<FileDownloadEvent>,
     partialContentCheckResult: PartialContentCheckResult,
-    mediaUrl: HttpUrl
+    mediaUrl: HttpUrl,
+    partialDownloadState: PartialDownloadState? = null
   ) {
     BackgroundUtils.ensureBackgroundThread()
 
-    val output = activeDownloads.get(mediaUrl)
-      ?.getOutputFile()
+    val request = activeDownloads.get(mediaUrl)
+      ?: activeDownloads.throwCancellationException(mediaUrl)
+
+    val output = request.getOutputFile()
       ?: activeDownloads.throwCancellationException(mediaUrl)
 
     if (!output.exists()) {
       error("Output file does not exist!")
     }
 
-    // We can't use Partial Content if we don't know the file size
-    val chunksCount = getChunksCount(
-      supportsPartialContentDownload = partialContentCheckResult.supportsPartialContentDownload,
-      partialContentCheckResult = partialContentCheckResult,
-      mediaUrl = mediaUrl
-    )
+    val stateFile = cacheHandler.getPartialDownloadStateFile(request.cacheFileType, output)
 
-    check(chunksCount >= 1) { "Chunks count is less than 1: $chunksCount" }
-    Logger.debug(TAG) { "download(${mediaUrl}) chunksCount: ${chunksCount}" }
-
-    // Split the whole file size into chunks
-    val chunks = if (chunksCount > 1) {
-      chunkLong(
-        value = partialContentCheckResult.length,
-        chunksCount = chunksCount,
-        minChunkSize = MIN_CHUNK_SIZE
-      )
+    val chunks = if (partialDownloadState != null) {
+      Logger.debug(TAG) { "download(${mediaUrl}) resuming ${partialDownloadState}" }
+      getChunksToResume(partialDownloadState, mediaUrl)
     } else {
-      // If there is only one chunk then we should download the whole file without using
-      // Partial Content
-      listOf(Chunk.wholeFile())
+      splitIntoChunks(partialContentCheckResult, mediaUrl)
     }
 
-    producerScope.send(FileDownloadEvent.Start(chunksCount))
+    if (chunks.isEmpty()) {
+      // The app was killed right after the last chunk was written
+      Logger.debug(TAG) { "download(${mediaUrl}) nothing to resume, the file is already downloaded" }
+
+      producerScope.send(FileDownloadEvent.Start(1))
+      markFileAsDownloaded(output, mediaUrl)
+      producerScope.send(FileDownloadEvent.Success(output, 0L))
+      return
+    }
+
+    producerScope.send(FileDownloadEvent.Start(chunks.size))
+
+    val totalLength = if (partialDownloadState != null) {
+      partialDownloadState.totalLength
+    } else {
+      partialContentCheckResult.length
+    }
 
     try {
-      try {
-        downloadChunksIntoFile(
-          producerScope = producerScope,
-          mediaUrl = mediaUrl,
-          chunks = chunks,
-          partialContentCheckResult = partialContentCheckResult,
-          output = output
-        )
-      } finally {
-        removeChunksFromDisk(mediaUrl)
-      }
+      downloadChunksIntoFile(
+        producerScope = producerScope,
+        mediaUrl = mediaUrl,
+        chunks = chunks,
+        totalLength = totalLength,
+        supportsRanges = partialDownloadState != null || partialContentCheckResult.supportsPartialContentDownload,
+        partialDownloadState = partialDownloadState,
+        stateFile = stateFile,
+        output = output
+      )
     } catch (error: Throwable) {
       if (error is MediaDownloadException.HttpCodeException && error.isUnsatisfiableRangeStatus()) {
         Logger.error(TAG) { "download(${mediaUrl}) got UnsatisfiableRange error, restarting in single chunk mode" }
 
+        // Either the server doesn't support ranges or the file has changed, in both cases whatever
+        // was downloaded so far can't be resumed.
+        if (stateFile.exists() && !stateFile.delete()) {
+          Logger.error(TAG) { "download(${mediaUrl}) failed to delete ${stateFile.absolutePath}" }
+        }
+
         delay(250)
 
         download(
@@ -106,11 +126,63 @@ internal open class ConcurrentChunkedFileDownloader @Inject constructor(
     }
   }
 
+  private fun splitIntoChunks(
+    partialContentCheckResult: PartialContentCheckResult,
+    mediaUrl: HttpUrl
+  ): List<Chunk> {
+    // We can't use Partial Content if we don't know the file size
+    val chunksCount = getChunksCount(
+      supportsPartialContentDownload = partialContentCheckResult.supportsPartialContentDownload,
+      partialContentCheckResult = partialContentCheckResult,
+      mediaUrl = mediaUrl
+    )
+
+    check(chunksCount >= 1) { "Chunks count is less than 1: $chunksCount" }
+    Logger.debug(TAG) { "download(${mediaUrl}) chunksCount: ${chunksCount}" }
+
+    // Split the whole file size into chunks
+    if (chunksCount > 1) {
+      return chunkLong(
+        value = partialContentCheckResult.length,
+        chunksCount = chunksCount,
+        minChunkSize = MIN_CHUNK_SIZE
+      )
+    }
+
+    // If there is only one chunk then we should download the whole file without using
+    // Partial Content
+    return listOf(Chunk.wholeFile())
+  }
+
+  private fun getChunksToResume(
+    partialDownloadState: PartialDownloadState,
+    mediaUrl: HttpUrl
+  ): List<Chunk> {
+    val activeDownload = activeDownloads.get(mediaUrl)
+      ?: activeDownloads.throwCancellationException(mediaUrl)
+
+    // Every missing range is downloaded as a separate chunk, usually there is only one of them (or
+    // one per chunk of the interrupted download)
+    val chunks = partialDownloadState.missingRanges().mapIndexed { index, missingRange ->
+      Chunk(
+        index = index,
+        start = missingRange.start,
+        realEnd = missingRange.end
+      )
+    }
+
+    activeDownload.chunksCount(chunks.size.coerceAtLeast(1))
+    return chunks
+  }
+
   private suspend fun downloadChunksIntoFile(
     producerScope: ProducerScope<FileDownloadEvent>,
     mediaUrl: HttpUrl,
     chunks: List<Chunk>,
-    partialContentCheckResult: PartialContentCheckResult,
+    totalLength: Long,
+    supportsRanges: Boolean,
+    partialDownloadState: PartialDownloadState?,
+    stateFile: File,
     output: File
   ) {
     BackgroundUtils.ensureBackgroundThread()
@@ -120,7 +192,7 @@ internal open class ConcurrentChunkedFileDownloader @Inject constructor(
       "downloadChunksIntoFile() File ($mediaUrl) was split into ${chunks.size} chunks: ${chunks}"
     }
 
-    if (!partialContentCheckResult.couldDetermineFileSize() && chunks.size != 1) {
+    if (totalLength < 0 && chunks.size != 1) {
       throw IllegalStateException(
         "The size of the file is unknown but chunks size is not 1, size: ${chunks.size}, chunks: $chunks"
       )
@@ -128,34 +200,130 @@ internal open class ConcurrentChunkedFileDownloader @Inject constructor(
 
     activeDownloads.ensureNotCanceled(mediaUrl)
 
-    if (partialContentCheckResult.couldDetermineFileSize()) {
-      activeDownloads.updateTotalLength(mediaUrl, partialContentCheckResult.length)
+    if (totalLength >= 0) {
+      activeDownloads.updateTotalLength(mediaUrl, totalLength)
     } else {
       activeDownloads.updateTotalLength(mediaUrl, 0L)
     }
 
     val startTime = System.currentTimeMillis()
     val totalDownloaded = AtomicLong(0L)
+    val completedChunks = CompletedChunks(chunks.size)
 
+    val partialDownloadStateWriter = PartialDownloadStateWriter(
+      stateFile = stateFile,
+      mediaUrl = mediaUrl,
+      chunks = chunks,
+      resumedFrom = partialDownloadState
+    )
+
+    if (partialDownloadState == null) {
+      // Left from a previous attempt that we couldn't resume, it doesn't describe the new download
+      partialDownloadStateWriter.delete()
+    }
+
+    partialDownloadStateWriter.updateTotalLength(totalLength)
     activeDownloads.updateChunks(mediaUrl, chunks)
 
+    RandomAccessFile(output, "rw").use { outputFile ->
+      // Chunks are written straight into the output file at their offsets. When the file size is
+      // known the file is preallocated so that chunks can be written in any order, otherwise there
+      // is only one chunk and it's written from the beginning of the file. When resuming a download
+      // the data that is already in the file is kept.
+      if (totalLength >= 0 && (chunks.size > 1 || partialDownloadState != null)) {
+        outputFile.setLength(totalLength)
+      } else {
+        outputFile.setLength(0L)
+      }
+
+      activeDownloads.get(mediaUrl)?.setDownloadedRangesProvider { updatesCount ->
+        partialDownloadStateWriter.getDownloadedRanges(output, completedChunks, updatesCount)
+      }
+
+      // Only the latest requested position matters, the previous ones were most likely skipped by the
+      // reader already
+      val rangeRequests = Channel<Long>(Channel.CONFLATED)
+      if (supportsRanges) {
+        activeDownloads.get(mediaUrl)?.setRangeRequestHandler { position ->
+          rangeRequests.trySend(position).isSuccess
+        }
+      }
+
+      try {
+        downloadChunksIntoChannel(
+          producerScope = producerScope,
+          mediaUrl = mediaUrl,
+          chunks = chunks,
+          rangeRequests = rangeRequests,
+          outputChannel = outputFile.channel,
+          completedChunks = completedChunks,
+          partialDownloadStateWriter = partialDownloadStateWriter,
+          totalDownloaded = totalDownloaded,
+          startTime = startTime,
+          output = output
+        )
+      } catch (error: CancellationException) {
+        // The download may have been preempted by DownloadScheduler, it will be resumed later
+        partialDownloadStateWriter.save(outputFile.channel, completedChunks)
+        throw error
+      } finally {
+        activeDownloads.get(mediaUrl)?.setRangeRequestHandler(null)
+        rangeRequests.close()
+      }
+    }
+  }
+
+  private suspend fun downloadChunksIntoChannel(
+    producerScope: ProducerScope<FileDownloadEvent>,
+    mediaUrl: HttpUrl,
+    chunks: List<Chunk>,
+    rangeRequests: ReceiveChannel<Long>,
+    outputChannel: FileChannel,
+    completedChunks: CompletedChunks,
+    partialDownloadStateWriter: PartialDownloadStateWriter,
+    totalDownloaded: AtomicLong,
+    startTime: Long,
+    output: File
+  ) {
     val chunkTerminalEvents = channelFlow<ChunkDownloadEvent> {
-      parallelForEachIndexed(
-        dataList = chunks,
-        dispatcher = Dispatchers.IO,
-        rethrowErrors = true
-      ) { chunkIndex, chunk ->
-        processChunk(
-          producerScope = this,
-          chunk = chunk,
-          chunkIndex = chunkIndex,
-          totalChunksCount = chunks.size,
+      val requestedChunksJob = launch(Dispatchers.IO) {
+        processRangeRequests(
+          rangeRequests = rangeRequests,
           mediaUrl = mediaUrl,
-          totalDownloaded = totalDownloaded
+          outputChannel = outputChannel,
+          completedChunks = completedChunks,
+          partialDownloadStateWriter = partialDownloadStateWriter
         )
       }
+
+      try {
+        parallelForEachIndexed(
+          dataList = chunks,
+          dispatcher = Dispatchers.IO,
+          rethrowErrors = true
+        ) { chunkIndex, chunk ->
+          processChunk(
+            producerScope = this,
+            chunk = chunk,
+            chunkIndex = chunkIndex,
+            totalChunksCount = chunks.size,
+            mediaUrl = mediaUrl,
+            outputChannel = outputChannel,
+            completedChunks = completedChunks,
+            partialDownloadStateWriter = partialDownloadStateWriter,
+            totalDownloaded = totalDownloaded
+          )
+        }
+      } finally {
+        // Whatever the requested chunks haven't downloaded yet will be downloaded by the regular ones
+        requestedChunksJob.cancel()
+      }
     }
       .onEach { chunkDownloadEvent ->
+        if (chunkDownloadEvent is ChunkDownloadEvent.Progress) {
+          partialDownloadStateWriter.saveIfNeeded(outputChannel, completedChunks)
+        }
+
         processChunkDownloadEvent(
           producerScope = producerScope,
           mediaUrl = mediaUrl,
@@ -196,11 +364,13 @@ internal open class ConcurrentChunkedFileDownloader @Inject constructor(
         mediaUrl = mediaUrl
       )
 
-      chunkMerger.mergeChunksIntoCacheFile(
-        mediaUrl = mediaUrl,
-        chunkSuccessEvents = chunkTerminalEvents as List<ChunkDownloadEvent.ChunkSuccess>,
-        output = output
-      )
+      if (!completedChunks.allCompleted()) {
+        throw MediaDownloadException.GenericException(
+          "Not all chunks were written into the output file: ${completedChunks}"
+        )
+      }
+
+      markFileAsDownloaded(output, mediaUrl)
 
       val requestTime = System.currentTimeMillis() - startTime
       producerScope.send(FileDownloadEvent.Success(output, requestTime))
@@ -214,6 +384,8 @@ internal open class ConcurrentChunkedFileDownloader @Inject constructor(
         throw error
       }
 
+      // Store whatever was downloaded before the error so that the download can be resumed later
+      partialDownloadStateWriter.save(outputChannel, completedChunks)
       producerScope.send(FileDownloadEvent.UnknownException(error))
     }
   }
@@ -270,12 +442,16 @@ internal open class ConcurrentChunkedFileDownloader @Inject constructor(
     chunkIndex: Int,
     totalChunksCount: Int,
     mediaUrl: HttpUrl,
+    outputChannel: FileChannel,
+    completedChunks: CompletedChunks,
+    partialDownloadStateWriter: PartialDownloadStateWriter,
     totalDownloaded: AtomicLong
   ) {
     activeDownloads.ensureNotCanceled(mediaUrl)
 
     val isPrefetchDownload = activeDownloads.isPrefetchDownload(mediaUrl)
     var retries = MAX_RETRIES
+    var lastError: Throwable? = null
 
     while (retries > 0) {
       try {
@@ -285,13 +461,17 @@ internal open class ConcurrentChunkedFileDownloader @Inject constructor(
         val chunkResponse = chunkDownloader.downloadChunk(
           mediaUrl = mediaUrl,
           chunk = chunk,
-          totalChunksCount = totalChunksCount
+          totalChunksCount = totalChunksCount,
+          ifRangeValidator = partialDownloadStateWriter.resumeValidator
         )
 
         chunkPersister.storeChunkInFile(
           producerScope = producerScope,
           mediaUrl = mediaUrl,
           chunkResponse = chunkResponse,
+          outputChannel = outputChannel,
+          completedChunks = completedChunks,
+          partialDownloadStateWriter = partialDownloadStateWriter,
           totalDownloaded = totalDownloaded,
           chunkIndex = chunkIndex,
           totalChunksCount = totalChunksCount
@@ -317,6 +497,7 @@ internal open class ConcurrentChunkedFileDownloader @Inject constructor(
         // Only use retry-on-IO-error with non-prefetch downloads (regular or gallery batch downloads).
         if (error is IOException && !isPrefetchDownload) {
           Logger.debug(TAG) { "processChunk(${mediaUrl}) chunk: ${chunk} retrying chunk download" }
+          lastError = error
 
           if (error is UnknownHostException) {
             // When UnknownHostException happens it ignores all the timeouts and can exhaust all the retries in a second
@@ -331,7 +512,60 @@ internal open class ConcurrentChunkedFileDownloader @Inject constructor(
       }
     }
 
-    throw MediaDownloadException.GenericException("Failed to download '${mediaUrl}' (Timeout)")
+    // Keep the last IOException so that the downloaded data is kept for resuming the download later (see
+    // DownloaderUtils.isResumableError())
+    throw MediaDownloadException.GenericException("Failed to download '${mediaUrl}' (Timeout)", lastError)
+  }
+
+  /**
+   * Downloads the parts of the file that were requested via [FileDownloadRequest.requestRange] (e.g.
+   * when a video player seeks into the part of the file the regular chunks haven't reached yet). The
+   * requested chunks are best effort, whatever happens to them the regular chunks download the whole
+   * file anyway.
+   * */
+  private suspend fun processRangeRequests(
+    rangeRequests: ReceiveChannel<Long>,
+    mediaUrl: HttpUrl,
+    outputChannel: FileChannel,
+    completedChunks: CompletedChunks,
+    partialDownloadStateWriter: PartialDownloadStateWriter
+  ) {
+    for (position in rangeRequests) {
+      val requestedChunk = partialDownloadStateWriter.requestChunkAt(position, completedChunks)
+        ?: continue
+
+      Logger.debug(TAG) { "processRangeRequests(${mediaUrl}) downloading requested chunk: ${requestedChunk.chunk}" }
+
+      try {
+        val chunkResponse = chunkDownloader.downloadChunk(
+          mediaUrl = mediaUrl,
+          chunk = requestedChunk.chunk,
+          totalChunksCount = 1,
+          ifRangeValidator = partialDownloadStateWriter.resumeValidator
+        )
+
+        channelFlow<ChunkDownloadEvent> {
+          chunkPersister.storeChunkInFile(
+            producerScope = this,
+            mediaUrl = mediaUrl,
+            chunkResponse = chunkResponse,
+            outputChannel = outputChannel,
+            completedChunks = requestedChunk.completedChunks,
+            partialDownloadStateWriter = partialDownloadStateWriter,
+            totalDownloaded = AtomicLong(0L),
+            chunkIndex = 0,
+            totalChunksCount = 1
+          )
+        }.collect()
+      } catch (error: Throwable) {
+        error.rethrowCancellationException()
+
+        Logger.error(TAG) {
+          "processRangeRequests(${mediaUrl}) requested chunk: ${requestedChunk.chunk} " +
+            "error: ${error.errorMessageOrClassName()}"
+        }
+      }
+    }
   }
 
   private fun getChunksCount(
@@ -371,35 +605,36 @@ internal open class ConcurrentChunkedFileDownloader @Inject constructor(
     return chunksCount
   }
 
-  private suspend fun removeChunksFromDisk(mediaUrl: HttpUrl) {
-    val chunks = activeDownloads.getChunks(mediaUrl)
-    if (chunks.isEmpty()) {
-      return
-    }
+  private fun markFileAsDownloaded(actualOutput: File, mediaUrl: HttpUrl) {
+    BackgroundUtils.ensureBackgroundThread()
+    Logger.verbose(TAG) { "markFileAsDownloaded($mediaUrl) actualOutput: ${actualOutput.absolutePath}" }
 
     val request = activeDownloads.get(mediaUrl)
       ?: activeDownloads.throwCancellationException(mediaUrl)
 
-    for (chunk in chunks) {
-      val chunkFile = cacheHandler.getChunkCacheFileOrNull(
-        cacheFileType = request.cacheFileType,
-        chunk = chunk,
-        url = mediaUrl.toString()
-      )
+    if (!request.cancelableDownload.isRunning()) {
+      activeDownloads.throwCancellationException(mediaUrl)
+    }
 
-      if (chunkFile == null) {
-        Logger.verbose(TAG) { "removeChunksFromDisk(${mediaUrl}) chunk ${chunk} already deleted from disk cache" }
-        continue
-      }
+    val requestOutputFile = checkNotNull(request.getOutputFile()) {
+      "Output file is null at the final stage of downloading"
+    }
 
-      if (chunkFile.delete()) {
-        Logger.verbose(TAG) { "removeChunksFromDisk(${mediaUrl}) Deleted chunk file ${chunkFile.absolutePath}" }
-      } else {
-        Logger.error(TAG) { "removeChunksFromDisk(${mediaUrl}) Couldn't delete chunk file ${chunkFile.absolutePath}" }
-      }
+    check(actualOutput.absolutePath == requestOutputFile.absolutePath) {
+      "Files differ! actualOutput=${actualOutput.absolutePath}, requestOutputFile=${requestOutputFile.absolutePath}"
     }
 
-    activeDownloads.clearChunks(mediaUrl)
+    check(requestOutputFile.exists()) { "requestOutputFile does not exist! actualOutput=${requestOutputFile.absolutePath}" }
+
+    if (!cacheHandler.markFileDownloaded(request.cacheFileType, requestOutputFile)) {
+      if (!request.cancelableDownload.isRunning()) {
+        activeDownloads.throwCancellationException(mediaUrl)
+      }
+
+      throw MediaDownloadException.GenericException(
+        "Couldn't mark file '${requestOutputFile.absolutePath}' as downloaded"
+      )
+    }
   }
 
   private suspend fun processChunkDownloadEvent(
@@ -434,7 +669,7 @@ internal open class ConcurrentChunkedFileDownloader @Inject constructor(
         }
 
         // Do not convert ChunkDownloadEvent.ChunkSuccess into FileDownloadEvent.Success event because we still need to
-        // merge all the chunks into a single file.
+        // wait for the rest of the chunks.
         return
       }
     }
@@ -0,0 +1,39 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+/**
+ * Priority of a media download in [DownloadScheduler]. Declared from the highest priority to the
+ * lowest one.
+ * */
+enum class DownloadPriority {
+  /**
+   * Media the user is looking at right now (e.g. in the media viewer).
+   * */
+  Visible,
+  Thumbnail,
+  Prefetch,
+  /**
+   * Gallery batch downloads, thread media downloads, etc.
+   * */
+  Batch;
+
+  /**
+   * Low priority downloads can't use every slot and can be preempted by [Visible] downloads.
+   * */
+  fun isLowPriority(): Boolean {
+    return this == Prefetch || this == Batch
+  }
+
+  fun isHigherThan(other: DownloadPriority): Boolean {
+    return ordinal < other.ordinal
+  }
+
+  companion object {
+    fun fromDownloadType(isPrefetchDownload: Boolean, isGalleryBatchDownload: Boolean): DownloadPriority {
+      return when {
+        isGalleryBatchDownload -> Batch
+        isPrefetchDownload -> Prefetch
+        else -> Visible
+      }
+    }
+  }
+}
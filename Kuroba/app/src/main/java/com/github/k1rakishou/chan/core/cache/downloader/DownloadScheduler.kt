@@ -0,0 +1,276 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.core_logger.Logger
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import okhttp3.HttpUrl
+import java.util.TreeSet
+
+/**
+ * Decides when media downloads are allowed to run. Downloads are queued by their [DownloadPriority]
+ * (in FIFO order within the same priority) and started while there are free slots: at most
+ * [maxDownloads] downloads overall and at most [maxDownloadsPerHost] downloads per host.
+ *
+ * Low priority downloads can't take the last [reservedSlots] slots so that there is usually a free
+ * slot for the media the user opens. When there is none anyway a [DownloadPriority.Visible] download
+ * preempts the lowest priority running download: its coroutine is canceled and it's put back into the
+ * queue to be started again (and resumed from the already downloaded data) when there is a free slot.
+ *
+ * ThreadSafe
+ * */
+internal class DownloadScheduler(
+  private val maxDownloads: Int = MAX_DOWNLOADS,
+  private val maxDownloadsPerHost: Int = MAX_DOWNLOADS_PER_HOST,
+  private val reservedSlots: Int = RESERVED_SLOTS
+) {
+  private val lock = Any()
+
+  @GuardedBy("lock")
+  private val pendingSlots = TreeSet<Slot>(SLOT_COMPARATOR)
+  @GuardedBy("lock")
+  private val runningSlots = mutableListOf<Slot>()
+  @GuardedBy("lock")
+  private val runningPerHost = hashMapOf<String, Int>()
+  @GuardedBy("lock")
+  private var nextOrder = 0L
+
+  init {
+    require(reservedSlots in 0 until maxDownloadsPerHost) { "Bad reservedSlots: $reservedSlots" }
+    require(maxDownloadsPerHost <= maxDownloads) { "maxDownloadsPerHost must not exceed maxDownloads" }
+  }
+
+  /**
+   * Suspends until the download of [mediaUrl] is allowed to run and then runs [block]. When the
+   * download is preempted [block] is canceled and then called again once there is a free slot for it.
+   * */
+  suspend fun runScheduled(
+    mediaUrl: HttpUrl,
+    priority: DownloadPriority,
+    block: suspend CoroutineScope.() -> Unit
+  ) {
+    // Preempted downloads keep their place in the queue
+    val order = synchronized(lock) { nextOrder++ }
+    var currentPriority = priority
+
+    while (true) {
+      val slot = acquire(mediaUrl, currentPriority, order)
+      var completed = false
+
+      try {
+        coroutineScope {
+          val job = launch {
+            block()
+            completed = true
+          }
+
+          synchronized(lock) {
+            slot.job = job
+
+            if (slot.preempted) {
+              job.cancel()
+            }
+          }
+
+          job.join()
+        }
+      } finally {
+        release(slot)
+      }
+
+      val preempted = synchronized(lock) {
+        currentPriority = slot.priority
+        slot.preempted
+      }
+
+      if (completed || !preempted) {
+        return
+      }
+
+      Logger.debug(TAG) { "runScheduled(${mediaUrl}) preempted, priority: ${currentPriority}, re-queueing" }
+    }
+  }
+
+  /**
+   * Used when a download that is already queued or running is requested again with a higher priority
+   * (e.g. the user opened an image that is being prefetched).
+   * */
+  fun raisePriority(mediaUrl: HttpUrl, priority: DownloadPriority) {
+    synchronized(lock) {
+      val pendingSlot = pendingSlots.firstOrNull { slot -> slot.mediaUrl == mediaUrl }
+      if (pendingSlot != null) {
+        if (!priority.isHigherThan(pendingSlot.priority)) {
+          return
+        }
+
+        // The position in the TreeSet depends on the priority
+        pendingSlots.remove(pendingSlot)
+        pendingSlot.priority = priority
+        pendingSlots.add(pendingSlot)
+
+        dispatchLocked()
+        return
+      }
+
+      val runningSlot = runningSlots.firstOrNull { slot -> slot.mediaUrl == mediaUrl }
+      if (runningSlot != null && priority.isHigherThan(runningSlot.priority)) {
+        runningSlot.priority = priority
+      }
+    }
+  }
+
+  private suspend fun acquire(mediaUrl: HttpUrl, priority: DownloadPriority, order: Long): Slot {
+    val slot = Slot(
+      mediaUrl = mediaUrl,
+      host = mediaUrl.host,
+      priority = priority,
+      order = order
+    )
+
+    synchronized(lock) {
+      pendingSlots.add(slot)
+      dispatchLocked()
+    }
+
+    try {
+      slot.started.await()
+    } catch (error: CancellationException) {
+      synchronized(lock) {
+        if (!pendingSlots.remove(slot)) {
+          // The slot was given to us right before the download was canceled
+          releaseLocked(slot)
+        }
+      }
+
+      throw error
+    }
+
+    return slot
+  }
+
+  private fun release(slot: Slot) {
+    synchronized(lock) { releaseLocked(slot) }
+  }
+
+  @GuardedBy("lock")
+  private fun releaseLocked(slot: Slot) {
+    if (!runningSlots.remove(slot)) {
+      return
+    }
+
+    val runningOnHost = (runningPerHost[slot.host] ?: 0) - 1
+    if (runningOnHost <= 0) {
+      runningPerHost.remove(slot.host)
+    } else {
+      runningPerHost[slot.host] = runningOnHost
+    }
+
+    dispatchLocked()
+  }
+
+  /**
+   * Starts pending downloads (from the highest priority to the lowest) while there are free slots.
+   * */
+  @GuardedBy("lock")
+  private fun dispatchLocked() {
+    val iterator = pendingSlots.iterator()
+
+    while (iterator.hasNext()) {
+      val slot = iterator.next()
+
+      if (canStartLocked(slot)) {
+        iterator.remove()
+
+        runningSlots += slot
+        runningPerHost[slot.host] = (runningPerHost[slot.host] ?: 0) + 1
+        slot.started.complete(Unit)
+        continue
+      }
+
+      if (slot.priority == DownloadPriority.Visible && !slot.preemptionRequested) {
+        slot.preemptionRequested = preemptLocked(slot)
+      }
+    }
+  }
+
+  @GuardedBy("lock")
+  private fun canStartLocked(slot: Slot): Boolean {
+    val reserved = if (slot.priority.isLowPriority()) {
+      reservedSlots
+    } else {
+      0
+    }
+
+    val runningOnHost = runningPerHost[slot.host] ?: 0
+
+    return runningSlots.size < maxDownloads - reserved
+      && runningOnHost < maxDownloadsPerHost - reserved
+  }
+
+  /**
+   * Cancels the lowest priority (and the most recently started one among them) low priority download
+   * that occupies the slot [slot] is waiting for.
+   *
+   * @return true if a download was preempted
+   * */
+  @GuardedBy("lock")
+  private fun preemptLocked(slot: Slot): Boolean {
+    val hostIsFull = (runningPerHost[slot.host] ?: 0) >= maxDownloadsPerHost
+
+    val slotToPreempt = runningSlots
+      .filter { runningSlot ->
+        runningSlot.priority.isLowPriority()
+          && slot.priority.isHigherThan(runningSlot.priority)
+          && !runningSlot.preempted
+          && (!hostIsFull || runningSlot.host == slot.host)
+      }
+      .maxWithOrNull(SLOT_COMPARATOR)
+      ?: return false
+
+    Logger.debug(TAG) { "Preempting ${slotToPreempt} in favor of ${slot}" }
+
+    // The slot is released once the canceled coroutine completes
+    slotToPreempt.preempted = true
+    slotToPreempt.job?.cancel()
+
+    return true
+  }
+
+  private class Slot(
+    val mediaUrl: HttpUrl,
+    val host: String,
+    // Guarded by DownloadScheduler.lock
+    var priority: DownloadPriority,
+    val order: Long
+  ) {
+    val started = CompletableDeferred<Unit>()
+
+    // Guarded by DownloadScheduler.lock
+    var job: Job? = null
+    var preempted = false
+    var preemptionRequested = false
+
+    override fun toString(): String {
+      return "Slot{mediaUrl=${mediaUrl}, priority=${priority}, order=${order}}"
+    }
+  }
+
+  companion object {
+    private const val TAG = "DownloadScheduler"
+
+    // OkHttp runs at most SharedOkHttpClient.MAX_REQUESTS_PER_HOST requests per host at the same time
+    // (shared with thumbnails and json loading) and a download may use more than one request (chunks)
+    // so there is no point in running more downloads per host than this.
+    private const val MAX_DOWNLOADS = 8
+    private const val MAX_DOWNLOADS_PER_HOST = 4
+    private const val RESERVED_SLOTS = 2
+
+    private val SLOT_COMPARATOR = compareBy<Slot> { slot -> slot.priority.ordinal }
+      .thenBy { slot -> slot.order }
+  }
+
+}
@@ -0,0 +1,45 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import java.io.File
+
+/**
+ * Snapshot of the ranges of [file] that were already written by a running download. Chunks are
+ * written straight into the cache file at their offsets so these bytes can be read from [file] before
+ * the download is completed (this is what MediaCacheStreamingServer does).
+ *
+ * [totalLength] is -1 when the server didn't tell us the file size.
+ *
+ * [updatesCount] is the amount of download updates (see [FileDownloadRequest.notifyUpdated]) that had
+ * happened before this snapshot was taken, pass the snapshot to
+ * [ChunkedMediaDownloader.awaitDownloadUpdate] to wait for the next one.
+ * */
+class DownloadedRanges internal constructor(
+  val file: File,
+  val totalLength: Long,
+  private val ranges: List<PartialDownloadState.ByteRange>,
+  internal val updatesCount: Long
+) {
+
+  /**
+   * @return the amount of bytes that can be read from [file] starting at [position] (0 if the byte at
+   * [position] is not downloaded yet).
+   * */
+  fun availableBytesAt(position: Long): Long {
+    for (range in ranges) {
+      if (position < range.start) {
+        return 0L
+      }
+
+      if (position < range.end) {
+        return range.end - position
+      }
+    }
+
+    return 0L
+  }
+
+  override fun toString(): String {
+    return "DownloadedRanges{file=${file.name}, totalLength=$totalLength, ranges=$ranges}"
+  }
+
+}
@@ -25,4 +25,22 @@ internal object DownloaderUtils {
     return false
   }
 
+  /**
+   * Whether the download failed because of a network error (directly or after all the retries of a chunk
+   * were exhausted) so the partially downloaded file can be resumed later.
+   * */
+  fun isResumableError(error: Throwable): Boolean {
+    var currentError: Throwable? = error
+
+    while (currentError != null) {
+      if (currentError is IOException) {
+        return true
+      }
+
+      currentError = currentError.cause
+    }
+
+    return false
+  }
+
 }
\ No newline at end of file
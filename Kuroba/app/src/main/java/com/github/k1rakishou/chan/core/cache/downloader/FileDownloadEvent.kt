@@ -53,7 +53,10 @@ internal sealed class FileDownloadEvent {
 }
 
 @DoNotStrip
-internal sealed class MediaDownloadException(message: String) : Exception(message) {
+internal sealed class MediaDownloadException(
+    message: String,
+    cause: Throwable? = null
+) : Exception(message, cause) {
 
     fun rethrowUnsatisfiableRangeHttpError() {
         when (this) {
@@ -70,7 +73,7 @@ internal sealed class MediaDownloadException(message: String) : Exception(messag
         }
     }
 
-    class GenericException(message: String) : MediaDownloadException(message)
+    class GenericException(message: String, cause: Throwable? = null) : MediaDownloadException(message, cause)
 
     class FileDownloadCanceled(val state: DownloadState, mediaUrl: HttpUrl) : MediaDownloadException(
         "File download canceled for request with url: '$mediaUrl', state: ${state.javaClass.simpleName}"
@@ -212,7 +212,7 @@ internal class FileDownloadEventHandler(
           activeDownloads.get(mediaUrl)?.cancelableDownload?.cancel()
         }
 
-        purgeOutput(request.mediaUrl, request.getOutputFile())
+        purgeOutput(request.mediaUrl, request.getOutputFile(), fileDownloadEvent)
       }
     }
   }
@@ -252,7 +252,7 @@ internal class FileDownloadEventHandler(
     }
   }
 
-  private suspend fun purgeOutput(mediaUrl: HttpUrl, output: File?) {
+  private suspend fun purgeOutput(mediaUrl: HttpUrl, output: File?, fileDownloadEvent: FileDownloadEvent) {
     val request = activeDownloads.get(mediaUrl)
       ?: return
 
@@ -266,6 +266,13 @@ internal class FileDownloadEventHandler(
       return
     }
 
+    if (canBeResumedLater(request, output, fileDownloadEvent)) {
+      // The connection was lost, keep what was downloaded so far so that the download can be
+      // resumed the next time this file is requested.
+      Logger.debug(TAG) { "purgeOutput() Keeping partially downloaded file for url: ${mediaUrl}" }
+      return
+    }
+
     Logger.debug(TAG) {
       "purgeOutput() Purging for url: ${mediaUrl}, file: '${output.absolutePath}'"
     }
@@ -279,6 +286,24 @@ internal class FileDownloadEventHandler(
     }
   }
 
+  private fun canBeResumedLater(
+    request: FileDownloadRequest,
+    output: File,
+    fileDownloadEvent: FileDownloadEvent
+  ): Boolean {
+    val error = when (fileDownloadEvent) {
+      is FileDownloadEvent.UnknownException -> fileDownloadEvent.error
+      is FileDownloadEvent.Exception -> fileDownloadEvent.error
+      else -> return false
+    }
+
+    if (!DownloaderUtils.isResumableError(error)) {
+      return false
+    }
+
+    return cacheHandler.getPartialDownloadStateFile(request.cacheFileType, output).exists()
+  }
+
   companion object {
     private const val TAG = "FileDownloadEventHandler"
   }
@@ -1,10 +1,14 @@
 package com.github.k1rakishou.chan.core.cache.downloader
 
+import androidx.annotation.GuardedBy
 import com.github.k1rakishou.chan.core.cache.CacheFileType
 import okhttp3.HttpUrl
 import java.io.File
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
 
 internal open class FileDownloadRequest(
   val mediaUrl: HttpUrl,
@@ -12,13 +16,20 @@ internal open class FileDownloadRequest(
   // A handle to cancel the current download
   val cancelableDownload: CancelableDownload,
   val extraInfo: DownloadRequestExtraInfo,
-  // Chunks to delete from the disk upon download success or error
+  // Chunks the file is being downloaded in
   val chunks: MutableSet<Chunk> = mutableSetOf(),
   val cacheFileType: CacheFileType
 ) {
   private var output: File? = null
   private var chunksCount = AtomicInteger(-1)
   private var totalDownloaded: LongArray = LongArray(0)
+  private var downloadedRangesProvider: ((Long) -> DownloadedRanges)? = null
+  private var rangeRequestHandler: ((Long) -> Boolean)? = null
+
+  private val updatesLock = ReentrantLock()
+  private val updatesCondition = updatesLock.newCondition()
+  @GuardedBy("updatesLock")
+  private var updatesCount = 0L
 
   @Synchronized
   fun chunksCount(count: Int) {
@@ -42,7 +53,13 @@ internal open class FileDownloadRequest(
 
   @Synchronized
   fun setOutputFile(outputFile: File) {
-    if (output != null) {
+    val prevOutput = output
+    if (prevOutput != null) {
+      if (prevOutput.absolutePath == outputFile.absolutePath) {
+        // The download was preempted by DownloadScheduler and now it's restarted
+        return
+      }
+
       throw IllegalStateException("Output file is already set!")
     }
 
@@ -54,6 +71,85 @@ internal open class FileDownloadRequest(
     return output
   }
 
+  /**
+   * Set by [ConcurrentChunkedFileDownloader] once it starts writing chunks into the output file. The
+   * provider is called with the current [updatesCount].
+   * */
+  fun setDownloadedRangesProvider(provider: (Long) -> DownloadedRanges) {
+    synchronized(this) { downloadedRangesProvider = provider }
+    notifyUpdated()
+  }
+
+  fun getDownloadedRanges(): DownloadedRanges? {
+    // Must be read before the ranges so that an update that happens in between is not missed by
+    // awaitUpdate()
+    val currentUpdatesCount = updatesLock.withLock { updatesCount }
+
+    val provider = synchronized(this) { downloadedRangesProvider }
+      ?: return null
+
+    return provider(currentUpdatesCount)
+  }
+
+  /**
+   * Set by [ConcurrentChunkedFileDownloader] when the server supports ranges. The handler returns
+   * false if the range can't be requested.
+   * */
+  @Synchronized
+  fun setRangeRequestHandler(handler: ((Long) -> Boolean)?) {
+    rangeRequestHandler = handler
+  }
+
+  /**
+   * Asks the download to fetch the part of the file starting at [position] before the rest of it.
+   * */
+  fun requestRange(position: Long): Boolean {
+    val handler = synchronized(this) { rangeRequestHandler }
+      ?: return false
+
+    return handler(position)
+  }
+
+  /**
+   * Called every time new data is written into the output file or the state of the download changes
+   * (it starts writing into the output file or ends) to wake up everyone waiting in [awaitUpdate].
+   * */
+  fun notifyUpdated() {
+    updatesLock.withLock {
+      ++updatesCount
+      updatesCondition.signalAll()
+    }
+  }
+
+  /**
+   * Blocks the current thread until there is a download update that happened after [lastSeen] was
+   * taken (or, when [lastSeen] is null, until the download starts writing into the output file).
+   *
+   * @return false if nothing has happened in [timeoutMs].
+   * */
+  fun awaitUpdate(lastSeen: DownloadedRanges?, timeoutMs: Long): Boolean {
+    val lastSeenUpdatesCount = lastSeen?.updatesCount
+      ?: updatesLock.withLock { updatesCount }
+
+    if (lastSeen == null && synchronized(this) { downloadedRangesProvider != null }) {
+      return true
+    }
+
+    var remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs)
+
+    updatesLock.withLock {
+      while (updatesCount == lastSeenUpdatesCount) {
+        if (remainingNanos <= 0L) {
+          return false
+        }
+
+        remainingNanos = updatesCondition.awaitNanos(remainingNanos)
+      }
+    }
+
+    return true
+  }
+
   override fun toString(): String {
     val outputFileName = synchronized(this) {
       if (output == null) {
@@ -73,4 +169,6 @@ class DownloadRequestExtraInfo(
   val fileHash: String? = null,
   val isGalleryBatchDownload: Boolean = false,
   val isPrefetchDownload: Boolean = false,
+  // Defines the order in which queued downloads are started (see DownloadScheduler)
+  val priority: DownloadPriority = DownloadPriority.fromDownloadType(isPrefetchDownload, isGalleryBatchDownload)
 )
\ No newline at end of file
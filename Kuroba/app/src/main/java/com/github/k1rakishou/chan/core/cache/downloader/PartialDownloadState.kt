@@ -0,0 +1,201 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import java.io.File
+import java.io.IOException
+
+/**
+ * State of an unfinished download that is stored next to its cache file so that the download can be
+ * resumed with Range requests after the app was killed (or the connection was lost) instead of being
+ * started from scratch.
+ *
+ * [validator] is the strong ETag (or Last-Modified) of the file on the server. It's sent in the If-Range
+ * header when resuming so the server only returns the requested ranges when the file hasn't changed.
+ * [downloadedRanges] are sorted, non-overlapping ranges of the cache file that are already on the disk.
+ *
+ * File format:
+ * ```
+ * kuroba.partial.download
+ * 1
+ * <url>
+ * <validator>
+ * <totalLength>
+ * <start> <end>
+ * ...
+ * ```
+ * */
+internal class PartialDownloadState(
+  val url: String,
+  val validator: String,
+  val totalLength: Long,
+  val downloadedRanges: List<ByteRange>
+) {
+
+  init {
+    require(totalLength > 0) { "Bad totalLength: $totalLength" }
+  }
+
+  fun downloadedBytes(): Long {
+    return downloadedRanges.sumOf { range -> range.length }
+  }
+
+  /**
+   * The end of the last downloaded range, the cache file must be at least this long.
+   * */
+  fun downloadedEnd(): Long {
+    return downloadedRanges.lastOrNull()?.end ?: 0L
+  }
+
+  fun missingRanges(): List<ByteRange> {
+    val missingRanges = mutableListOf<ByteRange>()
+    var position = 0L
+
+    for (downloadedRange in downloadedRanges) {
+      if (downloadedRange.start > position) {
+        missingRanges += ByteRange(position, downloadedRange.start)
+      }
+
+      position = downloadedRange.end
+    }
+
+    if (position < totalLength) {
+      missingRanges += ByteRange(position, totalLength)
+    }
+
+    return missingRanges
+  }
+
+  /**
+   * Writes the state into a temporary file first and then renames it so that the app being killed in
+   * the middle of a write never leaves a broken state behind.
+   * */
+  @Throws(IOException::class)
+  fun write(stateFile: File) {
+    val tempStateFile = File(stateFile.parentFile, stateFile.name + TEMP_FILE_SUFFIX)
+
+    tempStateFile.bufferedWriter(Charsets.UTF_8).use { writer ->
+      writer.write(MAGIC)
+      writer.write("\n")
+      writer.write(VERSION.toString())
+      writer.write("\n")
+      writer.write(url)
+      writer.write("\n")
+      writer.write(validator)
+      writer.write("\n")
+      writer.write(totalLength.toString())
+      writer.write("\n")
+
+      for (downloadedRange in downloadedRanges) {
+        writer.write("${downloadedRange.start} ${downloadedRange.end}\n")
+      }
+    }
+
+    if (!tempStateFile.renameTo(stateFile)) {
+      tempStateFile.delete()
+      throw IOException("Failed to rename ${tempStateFile.absolutePath} into ${stateFile.absolutePath}")
+    }
+  }
+
+  override fun toString(): String {
+    return "PartialDownloadState{url=$url, validator=$validator, totalLength=$totalLength, " +
+      "downloaded=${downloadedBytes()}, rangesCount=${downloadedRanges.size}}"
+  }
+
+  /**
+   * [start] inclusive, [end] exclusive.
+   * */
+  data class ByteRange(
+    val start: Long,
+    val end: Long
+  ) {
+    val length: Long
+      get() = end - start
+  }
+
+  companion object {
+    private const val MAGIC = "kuroba.partial.download"
+    private const val VERSION = 1
+    private const val TEMP_FILE_SUFFIX = ".tmp"
+
+    /**
+     * @return null if [stateFile] does not exist.
+     * @throws IOException if the state is corrupted.
+     * */
+    @Throws(IOException::class)
+    fun read(stateFile: File): PartialDownloadState? {
+      if (!stateFile.exists()) {
+        return null
+      }
+
+      return stateFile.bufferedReader(Charsets.UTF_8).use { reader ->
+        val magic = reader.readLine()
+        val version = reader.readLine()
+
+        if (magic != MAGIC || version != VERSION.toString()) {
+          throw IOException("Bad partial download state header: [$magic, $version]")
+        }
+
+        val url = reader.readLine()
+        val validator = reader.readLine()
+        val totalLength = reader.readLine()?.toLongOrNull()
+
+        if (url.isNullOrEmpty() || validator.isNullOrEmpty() || totalLength == null || totalLength <= 0) {
+          throw IOException("Bad partial download state: [$url, $validator, $totalLength]")
+        }
+
+        val downloadedRanges = mutableListOf<ByteRange>()
+
+        while (true) {
+          val line = reader.readLine()
+            ?: break
+
+          val parts = line.split(' ')
+          val start = parts.getOrNull(0)?.toLongOrNull()
+          val end = parts.getOrNull(1)?.toLongOrNull()
+
+          if (parts.size != 2 || start == null || end == null || start < 0 || start >= end || end > totalLength) {
+            throw IOException("Bad downloaded range: '$line'")
+          }
+
+          downloadedRanges += ByteRange(start, end)
+        }
+
+        return@use PartialDownloadState(
+          url = url,
+          validator = validator,
+          totalLength = totalLength,
+          downloadedRanges = mergeRanges(downloadedRanges)
+        )
+      }
+    }
+
+    /**
+     * Sorts [ranges] and merges the ones that overlap or touch each other.
+     * */
+    fun mergeRanges(ranges: List<ByteRange>): List<ByteRange> {
+      if (ranges.isEmpty()) {
+        return emptyList()
+      }
+
+      val sortedRanges = ranges
+        .filter { range -> range.length > 0 }
+        .sortedBy { range -> range.start }
+
+      val mergedRanges = mutableListOf<ByteRange>()
+
+      for (range in sortedRanges) {
+        val lastRange = mergedRanges.lastOrNull()
+        if (lastRange == null || range.start > lastRange.end) {
+          mergedRanges += range
+          continue
+        }
+
+        if (range.end > lastRange.end) {
+          mergedRanges[mergedRanges.lastIndex] = lastRange.copy(end = range.end)
+        }
+      }
+
+      return mergedRanges
+    }
+  }
+
+}
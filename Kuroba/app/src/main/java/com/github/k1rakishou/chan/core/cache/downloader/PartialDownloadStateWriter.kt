@@ -0,0 +1,252 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.core_logger.Logger
+import okhttp3.HttpUrl
+import okhttp3.Response
+import java.io.File
+import java.io.IOException
+import java.nio.channels.FileChannel
+
+/**
+ * Periodically stores the [PartialDownloadState] of a running download into [stateFile] so that the
+ * download can be resumed after the app is killed. Nothing is stored when the server didn't send a
+ * validator or the total file size is unknown because there is no way to safely resume such download.
+ *
+ * ThreadSafe
+ * */
+internal class PartialDownloadStateWriter(
+  private val stateFile: File,
+  private val mediaUrl: HttpUrl,
+  private val chunks: List<Chunk>,
+  resumedFrom: PartialDownloadState?
+) {
+  // Ranges that were downloaded before the download was resumed
+  private val previouslyDownloadedRanges = resumedFrom?.downloadedRanges ?: emptyList()
+
+  /**
+   * Validator of the file we are resuming the download of, it must be sent in the If-Range header.
+   * */
+  val resumeValidator: String? = resumedFrom?.validator
+
+  @GuardedBy("this")
+  private var validator: String? = resumedFrom?.validator
+  @GuardedBy("this")
+  private var totalLength: Long = resumedFrom?.totalLength ?: -1L
+  @GuardedBy("this")
+  private var lastSaveTime = 0L
+  // Chunks that were requested by a reader of the output file (see requestChunkAt())
+  @GuardedBy("this")
+  private val requestedChunks = mutableListOf<RequestedChunk>()
+
+  /**
+   * @return false if [response] belongs to a different version of the file than the one that was
+   * downloaded so far.
+   * */
+  @Synchronized
+  fun onChunkResponse(response: Response): Boolean {
+    val responseValidator = extractValidator(response)
+      ?: return true
+
+    val currentValidator = validator
+    if (currentValidator == null) {
+      validator = responseValidator
+      return true
+    }
+
+    return currentValidator == responseValidator
+  }
+
+  @Synchronized
+  fun updateTotalLength(length: Long) {
+    if (length > 0) {
+      totalLength = length
+    }
+  }
+
+  fun saveIfNeeded(outputChannel: FileChannel, completedChunks: CompletedChunks) {
+    val saveTime = synchronized(this) { lastSaveTime }
+    if (System.currentTimeMillis() - saveTime < SAVE_INTERVAL_MS) {
+      return
+    }
+
+    save(outputChannel, completedChunks)
+  }
+
+  @Synchronized
+  fun save(outputChannel: FileChannel, completedChunks: CompletedChunks) {
+    lastSaveTime = System.currentTimeMillis()
+
+    val currentValidator = validator
+    if (currentValidator == null || totalLength <= 0) {
+      return
+    }
+
+    val mergedRanges = collectDownloadedRanges(completedChunks)
+    if (mergedRanges.isEmpty()) {
+      return
+    }
+
+    try {
+      // Everything the state says is downloaded must actually be on the disk before the state is
+      // stored, otherwise we may resume a download of a file with holes in it.
+      outputChannel.force(false)
+
+      PartialDownloadState(
+        url = mediaUrl.toString(),
+        validator = currentValidator,
+        totalLength = totalLength,
+        downloadedRanges = mergedRanges
+      ).write(stateFile)
+    } catch (error: IOException) {
+      Logger.error(TAG) { "save($mediaUrl) failed to store partial download state: ${error.message}" }
+    }
+  }
+
+  /**
+   * @return what was written into [output] so far, including the data that was downloaded before
+   * the download was resumed.
+   * */
+  @Synchronized
+  fun getDownloadedRanges(
+    output: File,
+    completedChunks: CompletedChunks,
+    updatesCount: Long
+  ): DownloadedRanges {
+    return DownloadedRanges(
+      file = output,
+      totalLength = totalLength,
+      ranges = collectDownloadedRanges(completedChunks),
+      updatesCount = updatesCount
+    )
+  }
+
+  /**
+   * Creates a chunk that starts at [position] so that a reader that needs the data at [position] (e.g.
+   * a video player that has just seeked) doesn't have to wait until the regular chunks get there. The
+   * chunk is at most [REQUESTED_CHUNK_SIZE] long, it ends earlier when it reaches data that is already
+   * downloaded. A regular chunk that later reaches the requested chunk downloads the same bytes again,
+   * so the amount of bytes downloaded twice per request is bounded by [REQUESTED_CHUNK_SIZE].
+   *
+   * @return null when there is no need to request anything: the data at [position] is already
+   * downloaded, one of the running chunks is about to get there or the file size is unknown.
+   * */
+  @Synchronized
+  fun requestChunkAt(position: Long, completedChunks: CompletedChunks): RequestedChunk? {
+    if (totalLength <= 0 || position < 0 || position >= totalLength) {
+      return null
+    }
+
+    val downloadedRanges = collectDownloadedRanges(completedChunks)
+    if (downloadedRanges.any { range -> position >= range.start && position < range.end }) {
+      return null
+    }
+
+    val runningChunkPositions = chunks
+      .mapIndexedNotNull { chunkIndex, chunk ->
+        if (completedChunks.isCompleted(chunkIndex)) {
+          return@mapIndexedNotNull null
+        }
+
+        chunk.start + completedChunks.writtenBytes(chunkIndex)
+      }
+      .plus(
+        requestedChunks
+          .filter { requestedChunk -> !requestedChunk.completedChunks.allCompleted() }
+          .map { requestedChunk -> requestedChunk.chunk.start + requestedChunk.completedChunks.writtenBytes(0) }
+      )
+
+    val isAboutToBeDownloaded = runningChunkPositions.any { chunkPosition ->
+      position >= chunkPosition && position - chunkPosition < REQUESTED_CHUNK_DISTANCE
+    }
+
+    if (isAboutToBeDownloaded) {
+      return null
+    }
+
+    val nextDownloadedRangeStart = downloadedRanges
+      .firstOrNull { range -> range.start > position }
+      ?.start
+      ?: totalLength
+
+    val requestedChunk = RequestedChunk(
+      chunk = Chunk(
+        index = chunks.size + requestedChunks.size,
+        start = position,
+        realEnd = minOf(nextDownloadedRangeStart, position + REQUESTED_CHUNK_SIZE)
+      )
+    )
+
+    requestedChunks += requestedChunk
+    return requestedChunk
+  }
+
+  @GuardedBy("this")
+  private fun collectDownloadedRanges(completedChunks: CompletedChunks): List<PartialDownloadState.ByteRange> {
+    val downloadedRanges = chunks.mapIndexed { chunkIndex, chunk ->
+      toDownloadedRange(chunk, completedChunks.writtenBytes(chunkIndex))
+    }
+
+    val requestedRanges = requestedChunks.map { requestedChunk ->
+      toDownloadedRange(requestedChunk.chunk, requestedChunk.completedChunks.writtenBytes(0))
+    }
+
+    return PartialDownloadState.mergeRanges(previouslyDownloadedRanges + downloadedRanges + requestedRanges)
+  }
+
+  @GuardedBy("this")
+  private fun toDownloadedRange(chunk: Chunk, writtenBytes: Long): PartialDownloadState.ByteRange {
+    var end = chunk.start + writtenBytes
+    if (totalLength > 0) {
+      end = end.coerceAtMost(totalLength)
+    }
+
+    return PartialDownloadState.ByteRange(
+      start = chunk.start,
+      end = end
+    )
+  }
+
+  fun delete() {
+    if (stateFile.exists() && !stateFile.delete()) {
+      Logger.error(TAG) { "delete($mediaUrl) failed to delete ${stateFile.absolutePath}" }
+    }
+  }
+
+  /**
+   * A chunk that is downloaded on top of the regular ones, it has its own [completedChunks] (with a
+   * single chunk) so that it doesn't affect the completion of the download.
+   * */
+  class RequestedChunk(
+    val chunk: Chunk
+  ) {
+    val completedChunks = CompletedChunks(1)
+  }
+
+  companion object {
+    private const val TAG = "PartialDownloadStateWriter"
+    private const val SAVE_INTERVAL_MS = 1000L
+
+    // There is no point in requesting a chunk that a running chunk will get to in a moment
+    private const val REQUESTED_CHUNK_DISTANCE = 512L * 1024 // 512 KB
+    const val REQUESTED_CHUNK_SIZE = 4L * 1024 * 1024 // 4 MB
+
+    private const val ETAG_HEADER = "ETag"
+    private const val LAST_MODIFIED_HEADER = "Last-Modified"
+    private const val WEAK_ETAG_PREFIX = "W/"
+
+    /**
+     * If-Range only works with strong validators so weak ETags are ignored.
+     * */
+    fun extractValidator(response: Response): String? {
+      val etag = response.header(ETAG_HEADER)
+      if (!etag.isNullOrBlank() && !etag.startsWith(WEAK_ETAG_PREFIX)) {
+        return etag
+      }
+
+      return response.header(LAST_MODIFIED_HEADER)
+        ?.takeIf { lastModified -> lastModified.isNotBlank() }
+    }
+  }
+
+}
@@ -0,0 +1,577 @@
+package com.github.k1rakishou.chan.core.cache.stream
+
+import android.webkit.MimeTypeMap
+import androidx.annotation.GuardedBy
+import com.github.k1rakishou.chan.core.cache.CacheFileType
+import com.github.k1rakishou.chan.core.cache.CacheHandler
+import com.github.k1rakishou.chan.core.cache.downloader.CancelableDownload
+import com.github.k1rakishou.chan.core.cache.downloader.ChunkedMediaDownloader
+import com.github.k1rakishou.chan.core.cache.downloader.DownloadPriority
+import com.github.k1rakishou.chan.core.cache.downloader.DownloadRequestExtraInfo
+import com.github.k1rakishou.chan.core.cache.downloader.DownloadedRanges
+import com.github.k1rakishou.common.errorMessageOrClassName
+import com.github.k1rakishou.core_logger.Logger
+import dagger.Lazy
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import okhttp3.HttpUrl
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.security.SecureRandom
+import java.util.Locale
+import java.util.concurrent.Executors
+
+/**
+ * A tiny HTTP server bound to the loopback interface that mpv plays remote videos from. Instead of
+ * letting mpv download the video with its own networking, the video is downloaded by
+ * [ChunkedMediaDownloader] into the [CacheFileType.PostMediaFull] cache (with the app's OkHttp client,
+ * proxy and DNS settings) and mpv's range requests are served from the cache file. Bytes that are not
+ * downloaded yet are waited for while the download proceeds (when mpv seeks into a part of the file the
+ * download hasn't reached yet that part is requested from the server right away), so playback starts
+ * as soon as the beginning of the file is on the disk and replaying a video never downloads it twice.
+ *
+ * Only urls that were registered via [getStreamingUrl] can be requested (they are identified by a
+ * random token) so that other apps can't use the server to download arbitrary files.
+ *
+ * ThreadSafe
+ * */
+class MediaCacheStreamingServer(
+  private val cacheHandlerLazy: Lazy<CacheHandler>,
+  private val chunkedMediaDownloaderLazy: Lazy<ChunkedMediaDownloader>
+) {
+  private val cacheHandler: CacheHandler
+    get() = cacheHandlerLazy.get()
+  private val chunkedMediaDownloader: ChunkedMediaDownloader
+    get() = chunkedMediaDownloaderLazy.get()
+
+  // One thread accepts connections and every connection is served by its own thread (mpv usually
+  // has no more than a couple of connections open per video)
+  private val executor = Executors.newCachedThreadPool()
+  private val secureRandom = SecureRandom()
+
+  @GuardedBy("this")
+  private var serverSocket: ServerSocket? = null
+  @GuardedBy("this")
+  private val streams = object : LinkedHashMap<String, MediaStream>(16, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, MediaStream>?): Boolean {
+      return size > MAX_STREAMS
+    }
+  }
+
+  /**
+   * @return a loopback url mpv can play [mediaUrl] from or null if the server couldn't be started
+   * (in which case [mediaUrl] should be played directly).
+   * */
+  suspend fun getStreamingUrl(mediaUrl: HttpUrl): String? {
+    return withContext(Dispatchers.IO) {
+      val port = ensureStarted()
+        ?: return@withContext null
+
+      val token = synchronized(this@MediaCacheStreamingServer) {
+        val prevStream = streams.values.firstOrNull { stream -> stream.mediaUrl == mediaUrl }
+        if (prevStream != null) {
+          return@synchronized prevStream.token
+        }
+
+        val stream = MediaStream(token = generateToken(), mediaUrl = mediaUrl)
+        streams[stream.token] = stream
+
+        return@synchronized stream.token
+      }
+
+      // The file name is only there to give mpv a hint about the file format
+      val fileName = mediaUrl.encodedPathSegments.lastOrNull()
+        ?.takeIf { segment -> segment.isNotBlank() }
+        ?: DEFAULT_FILE_NAME
+
+      return@withContext "http://${LOOPBACK_ADDRESS}:${port}/${token}/${fileName}"
+    }
+  }
+
+  /**
+   * Called when the player is destroyed. Stops the download of [mediaUrl] if it was started by this
+   * server. Stopped downloads keep what was downloaded so far in the cache and are resumed the next
+   * time the video is played.
+   * */
+  fun stopStreaming(mediaUrl: HttpUrl) {
+    val download = synchronized(this) {
+      val stream = streams.values.firstOrNull { stream -> stream.mediaUrl == mediaUrl }
+        ?: return
+
+      val download = stream.download
+      stream.download = null
+
+      return@synchronized download
+    }
+
+    download?.stop()
+  }
+
+  @Synchronized
+  private fun ensureStarted(): Int? {
+    val prevServerSocket = serverSocket
+    if (prevServerSocket != null && !prevServerSocket.isClosed) {
+      return prevServerSocket.localPort
+    }
+
+    val newServerSocket = try {
+      ServerSocket(0, BACKLOG, InetAddress.getByName(LOOPBACK_ADDRESS))
+    } catch (error: IOException) {
+      Logger.error(TAG) { "ensureStarted() failed to start the server: ${error.errorMessageOrClassName()}" }
+      return null
+    }
+
+    serverSocket = newServerSocket
+    executor.execute { acceptConnections(newServerSocket) }
+
+    Logger.debug(TAG) { "ensureStarted() started on port ${newServerSocket.localPort}" }
+    return newServerSocket.localPort
+  }
+
+  private fun acceptConnections(serverSocket: ServerSocket) {
+    try {
+      while (true) {
+        val socket = serverSocket.accept()
+        executor.execute { handleConnection(socket) }
+      }
+    } catch (error: IOException) {
+      Logger.error(TAG) { "acceptConnections() error: ${error.errorMessageOrClassName()}" }
+    } finally {
+      // The server will be restarted by the next getStreamingUrl() call
+      try {
+        serverSocket.close()
+      } catch (ignored: IOException) {
+      }
+    }
+  }
+
+  private fun handleConnection(socket: Socket) {
+    try {
+      socket.use {
+        socket.soTimeout = READ_TIMEOUT_MS
+
+        val input = BufferedInputStream(socket.getInputStream())
+        val output = BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE)
+
+        val request = readRequest(input)
+        if (request == null) {
+          writeResponseHead(output, 400, "Bad Request")
+        } else {
+          handleRequest(request, output)
+        }
+
+        output.flush()
+      }
+    } catch (error: IOException) {
+      // mpv closes the connection every time it seeks
+      Logger.debug(TAG) { "handleConnection() connection closed: ${error.errorMessageOrClassName()}" }
+    } catch (error: Throwable) {
+      Logger.e(TAG, "handleConnection() unexpected error", error)
+    }
+  }
+
+  private fun handleRequest(request: HttpRequest, output: OutputStream) {
+    if (request.method != METHOD_GET && request.method != METHOD_HEAD) {
+      writeResponseHead(output, 405, "Method Not Allowed")
+      return
+    }
+
+    val token = request.path.removePrefix("/").substringBefore('/')
+    val stream = synchronized(this) { streams[token] }
+
+    if (stream == null) {
+      writeResponseHead(output, 404, "Not Found")
+      return
+    }
+
+    val cachedMedia = awaitCachedMedia(stream)
+    if (cachedMedia == null) {
+      writeResponseHead(output, 502, "Bad Gateway")
+      return
+    }
+
+    val totalLength = cachedMedia.totalLength
+    val headers = mutableListOf<Pair<String, String>>()
+    headers += "Content-Type" to getMimeType(stream.mediaUrl)
+
+    if (totalLength >= 0) {
+      headers += "Accept-Ranges" to "bytes"
+    }
+
+    val start: Long
+    val end: Long
+
+    when (val requestedRange = RequestedRange.parse(request.headers[RANGE_HEADER], totalLength)) {
+      RequestedRange.Unsatisfiable -> {
+        writeResponseHead(output, 416, "Range Not Satisfiable", listOf("Content-Range" to "bytes */${totalLength}"))
+        return
+      }
+      RequestedRange.Whole -> {
+        start = 0L
+        // -1 means that the whole file is served until the download completes
+        end = totalLength
+
+        if (totalLength >= 0) {
+          headers += "Content-Length" to totalLength.toString()
+        }
+
+        writeResponseHead(output, 200, "OK", headers)
+      }
+      is RequestedRange.Partial -> {
+        start = requestedRange.start
+        end = requestedRange.end
+
+        val completeLength = if (totalLength >= 0) totalLength.toString() else "*"
+
+        headers += "Content-Length" to requestedRange.length.toString()
+        headers += "Content-Range" to "bytes ${requestedRange.start}-${requestedRange.end - 1}/${completeLength}"
+
+        writeResponseHead(output, 206, "Partial Content", headers)
+      }
+      is RequestedRange.OpenEnded -> {
+        start = requestedRange.start
+        // -1 means that the rest of the file is served until the download completes
+        end = -1L
+
+        // There is no way to tell where the range ends without knowing the size of the file so there
+        // is no Content-Range (mpv keeps the position it asked for) and no Content-Length (the end of
+        // the response is the end of the file).
+        writeResponseHead(output, 206, "Partial Content", headers)
+      }
+    }
+
+    if (request.method == METHOD_HEAD) {
+      return
+    }
+
+    writeBody(stream, cachedMedia, start, end, output)
+  }
+
+  /**
+   * Waits until the download of the stream's media has started writing into the cache file and the
+   * size of the file is known (unless the file is already cached). The size is only unknown when the
+   * server didn't send it, in this case we only wait for the first bytes of the file.
+   * */
+  private fun awaitCachedMedia(stream: MediaStream): CachedMedia? {
+    val mediaUrl = stream.mediaUrl
+
+    val cachedFile = cacheHandler.getCacheFileOrNull(CacheFileType.PostMediaFull, mediaUrl.toString())
+    if (cachedFile != null) {
+      return CachedMedia(file = cachedFile, totalLength = cachedFile.length(), downloaded = true)
+    }
+
+    startDownload(stream)
+    val deadline = System.currentTimeMillis() + DOWNLOAD_START_TIMEOUT_MS
+
+    while (true) {
+      val downloadedRanges = chunkedMediaDownloader.getDownloadedRanges(mediaUrl)
+      if (downloadedRanges != null && (downloadedRanges.totalLength >= 0 || downloadedRanges.availableBytesAt(0) > 0)) {
+        return CachedMedia(
+          file = downloadedRanges.file,
+          totalLength = downloadedRanges.totalLength,
+          downloaded = false
+        )
+      }
+
+      if (!chunkedMediaDownloader.isRunning(mediaUrl)) {
+        // Either the download has just completed or it has failed
+        val downloadedFile = cacheHandler.getCacheFileOrNull(CacheFileType.PostMediaFull, mediaUrl.toString())
+        if (downloadedFile != null) {
+          return CachedMedia(file = downloadedFile, totalLength = downloadedFile.length(), downloaded = true)
+        }
+
+        Logger.error(TAG) { "awaitCachedMedia(${mediaUrl}) the download is not running" }
+        return null
+      }
+
+      val remainingMs = deadline - System.currentTimeMillis()
+      if (remainingMs <= 0L) {
+        Logger.error(TAG) { "awaitCachedMedia(${mediaUrl}) timed out waiting for the download to start" }
+        return null
+      }
+
+      chunkedMediaDownloader.awaitDownloadUpdate(mediaUrl, downloadedRanges, remainingMs)
+    }
+  }
+
+  private fun startDownload(stream: MediaStream) {
+    // Returns null when the file is already being downloaded (e.g. it's being prefetched), in this case
+    // the priority of the download is raised.
+    val cancelableDownload = chunkedMediaDownloader.enqueueDownloadFileRequest(
+      mediaUrl = stream.mediaUrl,
+      cacheFileType = CacheFileType.PostMediaFull,
+      extraInfo = DownloadRequestExtraInfo(priority = DownloadPriority.Visible)
+    ) ?: return
+
+    synchronized(this) { stream.download = cancelableDownload }
+  }
+
+  /**
+   * Writes the bytes from [start] until [end] (or until the end of the file when [end] is -1) waiting
+   * for every byte that is not downloaded yet. When the byte at the current position is not downloaded
+   * and none of the running chunks is about to get there (mpv has seeked) the download is asked to
+   * fetch it first. Stops when the download fails or stalls in which case the response is shorter than
+   * promised and mpv reconnects with a Range request (which resumes the download).
+   * */
+  private fun writeBody(
+    stream: MediaStream,
+    cachedMedia: CachedMedia,
+    start: Long,
+    end: Long,
+    output: OutputStream
+  ) {
+    val file = cachedMedia.file
+    val buffer = ByteArray(BUFFER_SIZE)
+
+    var position = start
+    // The size of the file once it's fully downloaded
+    var downloadedLength = if (cachedMedia.downloaded) cachedMedia.totalLength else -1L
+    var lastProgressTime = System.currentTimeMillis()
+    var requestedPosition = -1L
+
+    RandomAccessFile(file, "r").use { raf ->
+      while (end < 0 || position < end) {
+        var downloadedRanges: DownloadedRanges? = null
+
+        var available = if (downloadedLength >= 0) {
+          downloadedLength - position
+        } else {
+          downloadedRanges = chunkedMediaDownloader.getDownloadedRanges(stream.mediaUrl)
+
+          val availableBytes = getAvailableBytes(stream.mediaUrl, file, position, downloadedRanges)
+          if (availableBytes == DOWNLOAD_COMPLETED) {
+            downloadedLength = file.length()
+            continue
+          }
+
+          availableBytes
+        }
+
+        if (available < 0 || (downloadedLength >= 0 && available == 0L)) {
+          // Either the download has failed or there is nothing left to read
+          break
+        }
+
+        if (available == 0L) {
+          if (requestedPosition != position) {
+            requestedPosition = position
+            chunkedMediaDownloader.requestRange(stream.mediaUrl, position)
+          }
+
+          val remainingMs = STALL_TIMEOUT_MS - (System.currentTimeMillis() - lastProgressTime)
+          if (remainingMs <= 0L) {
+            Logger.error(TAG) { "writeBody(${stream.mediaUrl}) the download stalled at ${position}" }
+            break
+          }
+
+          // Let mpv play whatever it already has while we are waiting
+          output.flush()
+          chunkedMediaDownloader.awaitDownloadUpdate(stream.mediaUrl, downloadedRanges, remainingMs)
+          continue
+        }
+
+        if (end >= 0) {
+          available = available.coerceAtMost(end - position)
+        }
+
+        raf.seek(position)
+        val read = raf.read(buffer, 0, available.coerceAtMost(buffer.size.toLong()).toInt())
+        if (read <= 0) {
+          break
+        }
+
+        output.write(buffer, 0, read)
+        position += read
+        lastProgressTime = System.currentTimeMillis()
+      }
+    }
+  }
+
+  /**
+   * @return the amount of bytes that can be read from [file] starting at [position], 0 when we need to
+   * wait for the download, [DOWNLOAD_COMPLETED] when the whole file is downloaded or [DOWNLOAD_FAILED]
+   * if the file won't be downloaded.
+   * */
+  private fun getAvailableBytes(
+    mediaUrl: HttpUrl,
+    file: File,
+    position: Long,
+    downloadedRanges: DownloadedRanges?
+  ): Long {
+    if (downloadedRanges != null) {
+      if (downloadedRanges.file.absolutePath != file.absolutePath) {
+        return DOWNLOAD_FAILED
+      }
+
+      return downloadedRanges.availableBytesAt(position)
+    }
+
+    if (chunkedMediaDownloader.isRunning(mediaUrl)) {
+      // The download is being restarted
+      return 0L
+    }
+
+    val downloadedFile = cacheHandler.getCacheFileOrNull(CacheFileType.PostMediaFull, mediaUrl.toString())
+    if (downloadedFile == null || downloadedFile.absolutePath != file.absolutePath) {
+      return DOWNLOAD_FAILED
+    }
+
+    return DOWNLOAD_COMPLETED
+  }
+
+  private fun readRequest(input: InputStream): HttpRequest? {
+    val requestLine = readLine(input)
+      ?: return null
+
+    val requestLineParts = requestLine.split(' ')
+    if (requestLineParts.size != 3) {
+      return null
+    }
+
+    val headers = mutableMapOf<String, String>()
+
+    while (true) {
+      val line = readLine(input)
+        ?: return null
+
+      if (line.isEmpty()) {
+        break
+      }
+
+      if (headers.size >= MAX_HEADERS) {
+        return null
+      }
+
+      val colonIndex = line.indexOf(':')
+      if (colonIndex <= 0) {
+        continue
+      }
+
+      val name = line.substring(0, colonIndex).trim().lowercase(Locale.ENGLISH)
+      headers[name] = line.substring(colonIndex + 1).trim()
+    }
+
+    return HttpRequest(
+      method = requestLineParts[0],
+      path = requestLineParts[1],
+      headers = headers
+    )
+  }
+
+  private fun readLine(input: InputStream): String? {
+    val line = StringBuilder()
+
+    while (true) {
+      val byte = input.read()
+      if (byte < 0) {
+        return null
+      }
+
+      if (byte == '\n'.code) {
+        return line.toString()
+      }
+
+      if (byte != '\r'.code) {
+        line.append(byte.toChar())
+      }
+
+      if (line.length > MAX_LINE_LENGTH) {
+        return null
+      }
+    }
+  }
+
+  private fun writeResponseHead(
+    output: OutputStream,
+    statusCode: Int,
+    reasonPhrase: String,
+    headers: List<Pair<String, String>> = emptyList()
+  ) {
+    val responseHead = buildString {
+      append("HTTP/1.1 ${statusCode} ${reasonPhrase}\r\n")
+
+      headers.forEach { (name, value) -> append("${name}: ${value}\r\n") }
+
+      if (statusCode >= 300) {
+        append("Content-Length: 0\r\n")
+      }
+
+      // Every request gets its own connection, mpv reconnects anyway when it seeks
+      append("Connection: close\r\n")
+      append("\r\n")
+    }
+
+    output.write(responseHead.toByteArray(Charsets.ISO_8859_1))
+  }
+
+  private fun getMimeType(mediaUrl: HttpUrl): String {
+    val extension = MimeTypeMap.getFileExtensionFromUrl(mediaUrl.toString())
+
+    return MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension)
+      ?: DEFAULT_MIME_TYPE
+  }
+
+  private fun generateToken(): String {
+    val bytes = ByteArray(TOKEN_LENGTH)
+    secureRandom.nextBytes(bytes)
+
+    return bytes.joinToString(separator = "") { byte -> "%02x".format(byte) }
+  }
+
+  private class MediaStream(
+    val token: String,
+    val mediaUrl: HttpUrl
+  ) {
+    // The download started by this server, guarded by MediaCacheStreamingServer
+    var download: CancelableDownload? = null
+  }
+
+  private class CachedMedia(
+    val file: File,
+    // -1 if unknown
+    val totalLength: Long,
+    val downloaded: Boolean
+  )
+
+  private class HttpRequest(
+    val method: String,
+    val path: String,
+    // Header names are lowercase
+    val headers: Map<String, String>
+  )
+
+  companion object {
+    private const val TAG = "MediaCacheStreamingServer"
+
+    private const val LOOPBACK_ADDRESS = "127.0.0.1"
+    private const val BACKLOG = 8
+    private const val MAX_STREAMS = 32
+    private const val TOKEN_LENGTH = 16
+
+    private const val METHOD_GET = "GET"
+    private const val METHOD_HEAD = "HEAD"
+    private const val RANGE_HEADER = "range"
+    private const val MAX_HEADERS = 64
+    private const val MAX_LINE_LENGTH = 8192
+
+    private const val DEFAULT_FILE_NAME = "media"
+    private const val DEFAULT_MIME_TYPE = "application/octet-stream"
+
+    private const val BUFFER_SIZE = 64 * 1024
+    private const val READ_TIMEOUT_MS = 10_000
+    private const val DOWNLOAD_START_TIMEOUT_MS = 30_000L
+    private const val STALL_TIMEOUT_MS = 30_000L
+
+    private const val DOWNLOAD_COMPLETED = -1L
+    private const val DOWNLOAD_FAILED = -2L
+  }
+
+}
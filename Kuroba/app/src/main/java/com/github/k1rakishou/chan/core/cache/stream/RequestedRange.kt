@@ -0,0 +1,120 @@
+package com.github.k1rakishou.chan.core.cache.stream
+
+/**
+ * The part of the file a client asked for in the Range header. Only a single byte range is supported,
+ * other kinds of ranges (multiple ranges, other units, bad syntax) are ignored as the RFC allows and
+ * the whole file is returned instead.
+ * */
+internal sealed class RequestedRange {
+
+  object Whole : RequestedRange()
+
+  object Unsatisfiable : RequestedRange()
+
+  /**
+   * [start] inclusive, [end] exclusive.
+   * */
+  data class Partial(
+    val start: Long,
+    val end: Long
+  ) : RequestedRange() {
+    val length: Long
+      get() = end - start
+  }
+
+  /**
+   * Everything from [start] (inclusive) until the end of a file whose size is unknown (bytes=N-).
+   * */
+  data class OpenEnded(
+    val start: Long
+  ) : RequestedRange()
+
+  companion object {
+    private const val BYTES_UNIT_PREFIX = "bytes="
+
+    /**
+     * @param totalLength the size of the file or -1 if it's unknown. In this case ranges are not
+     * clamped to the file size and suffix ranges (bytes=-N) can't be served.
+     * */
+    fun parse(rangeHeader: String?, totalLength: Long): RequestedRange {
+      if (rangeHeader.isNullOrBlank()) {
+        return Whole
+      }
+
+      val header = rangeHeader.trim()
+      if (!header.startsWith(BYTES_UNIT_PREFIX, ignoreCase = true) || header.contains(',')) {
+        return Whole
+      }
+
+      val spec = header.substring(BYTES_UNIT_PREFIX.length).trim()
+      val dashIndex = spec.indexOf('-')
+      if (dashIndex < 0) {
+        return Whole
+      }
+
+      val startString = spec.substring(0, dashIndex).trim()
+      val endString = spec.substring(dashIndex + 1).trim()
+
+      if (startString.isEmpty()) {
+        // bytes=-500 means the last 500 bytes
+        val suffixLength = endString.toLongOrNull()
+          ?: return Whole
+
+        if (totalLength < 0) {
+          return Whole
+        }
+
+        if (suffixLength <= 0 || totalLength == 0L) {
+          return Unsatisfiable
+        }
+
+        return Partial((totalLength - suffixLength).coerceAtLeast(0L), totalLength)
+      }
+
+      val start = startString.toLongOrNull()
+      if (start == null || start < 0) {
+        return Whole
+      }
+
+      if (totalLength < 0) {
+        return parseWithUnknownLength(start, endString)
+      }
+
+      // The end position in the header is inclusive
+      val end = if (endString.isEmpty()) {
+        totalLength
+      } else {
+        val inclusiveEnd = endString.toLongOrNull()
+        if (inclusiveEnd == null || inclusiveEnd < start) {
+          return Whole
+        }
+
+        (inclusiveEnd + 1).coerceAtMost(totalLength)
+      }
+
+      if (start >= totalLength) {
+        return Unsatisfiable
+      }
+
+      return Partial(start, end)
+    }
+
+    private fun parseWithUnknownLength(start: Long, endString: String): RequestedRange {
+      if (endString.isEmpty()) {
+        if (start == 0L) {
+          return Whole
+        }
+
+        return OpenEnded(start)
+      }
+
+      val inclusiveEnd = endString.toLongOrNull()
+      if (inclusiveEnd == null || inclusiveEnd < start) {
+        return Whole
+      }
+
+      return Partial(start, inclusiveEnd + 1)
+    }
+  }
+
+}
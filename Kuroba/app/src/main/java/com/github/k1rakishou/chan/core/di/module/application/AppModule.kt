@@ -8,6 +8,7 @@ import coil.request.CachePolicy
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.core.AppDependenciesInitializer
 import com.github.k1rakishou.chan.core.base.okhttp.CoilOkHttpClient
+import com.github.k1rakishou.chan.core.helper.FilterEngine
 import com.github.k1rakishou.chan.core.manager.ArchivesManager
 import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.BookmarksManager
@@ -55,6 +56,7 @@ class AppModule {
     filterWatcherCoordinator: FilterWatcherCoordinator,
     archivesManager: ArchivesManager,
     chanFilterManager: ChanFilterManager,
+    filterEngine: FilterEngine,
     threadDownloadingCoordinator: ThreadDownloadingCoordinator
   ): AppDependenciesInitializer {
     deps("AppDependenciesInitializer")
@@ -69,6 +71,7 @@ class AppModule {
       filterWatcherCoordinator,
       archivesManager,
       chanFilterManager,
+      filterEngine,
       threadDownloadingCoordinator
     )
   }
@@ -3,6 +3,7 @@ package com.github.k1rakishou.chan.core.di.module.application
 import android.content.Context
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
 import com.github.k1rakishou.chan.core.base.okhttp.RealProxiedOkHttpClient
+import com.github.k1rakishou.chan.core.base.okhttp.SharedOkHttpClient
 import com.github.k1rakishou.chan.core.cache.CacheHandler
 import com.github.k1rakishou.chan.core.helper.AppRestarter
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
@@ -57,6 +58,7 @@ class HelperModule {
   @Singleton
   fun provideChanThreadLoaderCoordinator(
     proxiedOkHttpClient: RealProxiedOkHttpClient,
+    sharedOkHttpClient: SharedOkHttpClient,
     chanPostRepository: ChanPostRepository,
     chanCatalogSnapshotRepository: ChanCatalogSnapshotRepository,
     appConstants: AppConstants,
@@ -71,6 +73,7 @@ class HelperModule {
     Logger.deps("ChanThreadLoaderCoordinator")
     return ChanThreadLoaderCoordinator(
       proxiedOkHttpClient,
+      sharedOkHttpClient,
       chanPostRepository,
       chanCatalogSnapshotRepository,
       appConstants,
@@ -165,10 +165,11 @@ class ManagerModule {
   @Provides
   @Singleton
   fun provideFilterEngine(
+    appScope: CoroutineScope,
     chanFilterManager: ChanFilterManager
   ): FilterEngine {
     deps("FilterEngine")
-    return FilterEngine(chanFilterManager)
+    return FilterEngine(appScope, chanFilterManager)
   }
 
   @Provides
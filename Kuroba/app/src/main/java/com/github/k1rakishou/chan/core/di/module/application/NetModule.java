@@ -25,9 +25,11 @@ import com.github.k1rakishou.chan.core.base.okhttp.HttpLoggingInterceptorLazy;
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient;
 import com.github.k1rakishou.chan.core.base.okhttp.RealDownloaderOkHttpClient;
 import com.github.k1rakishou.chan.core.base.okhttp.RealProxiedOkHttpClient;
+import com.github.k1rakishou.chan.core.base.okhttp.SharedOkHttpClient;
 import com.github.k1rakishou.chan.core.cache.CacheHandler;
 import com.github.k1rakishou.chan.core.cache.downloader.ChunkedMediaDownloader;
 import com.github.k1rakishou.chan.core.cache.downloader.ChunkedMediaDownloaderImpl;
+import com.github.k1rakishou.chan.core.cache.stream.MediaCacheStreamingServer;
 import com.github.k1rakishou.chan.core.helper.ProxyStorage;
 import com.github.k1rakishou.chan.core.manager.FirewallBypassManager;
 import com.github.k1rakishou.chan.core.site.SiteResolver;
@@ -36,7 +38,6 @@ import com.github.k1rakishou.common.AppConstants;
 import com.github.k1rakishou.common.dns.DnsOverHttpsSelectorFactory;
 import com.github.k1rakishou.common.dns.NormalDnsSelectorFactory;
 import com.github.k1rakishou.core_logger.Logger;
-import com.github.k1rakishou.fsaf.FileManager;
 import com.google.gson.Gson;
 
 import javax.inject.Singleton;
@@ -90,7 +91,6 @@ public class NetModule {
     @Singleton
     public ChunkedMediaDownloader provideChunkedMediaDownloaderImpl(
             AppConstants appConstants,
-            FileManager fileManager,
             SiteResolver siteResolver,
             Lazy<CacheHandler> cacheHandler,
             Lazy<RealDownloaderOkHttpClient> realDownloaderOkHttpClient,
@@ -100,7 +100,6 @@ public class NetModule {
 
         return new ChunkedMediaDownloaderImpl(
                 appConstants,
-                fileManager,
                 siteResolver,
                 cacheHandler,
                 realDownloaderOkHttpClient,
@@ -108,6 +107,20 @@ public class NetModule {
         );
     }
 
+    @Provides
+    @Singleton
+    public MediaCacheStreamingServer provideMediaCacheStreamingServer(
+            Lazy<CacheHandler> cacheHandler,
+            Lazy<ChunkedMediaDownloader> chunkedMediaDownloader
+    ) {
+        Logger.deps("MediaCacheStreamingServer");
+
+        return new MediaCacheStreamingServer(
+                cacheHandler,
+                chunkedMediaDownloader
+        );
+    }
+
     @Provides
     @Singleton
     public HttpCallManager provideHttpCallManager(
@@ -120,27 +133,46 @@ public class NetModule {
     }
 
     /**
-     * This okHttpClient is for posting.
+     * All the other okHttpClients are built from this one so that they share connections.
      */
     @Provides
     @Singleton
-    public ProxiedOkHttpClient provideProxiedOkHttpClient(
+    public SharedOkHttpClient provideSharedOkHttpClient(
             NormalDnsSelectorFactory normalDnsSelectorFactory,
             DnsOverHttpsSelectorFactory dnsOverHttpsSelectorFactory,
-            ProxyStorage proxyStorage,
+            ProxyStorage proxyStorage
+    ) {
+        Logger.deps("SharedOkHttpClient");
+
+        return new SharedOkHttpClient(
+                normalDnsSelectorFactory,
+                dnsOverHttpsSelectorFactory,
+                proxyStorage,
+                SharedOkHttpClient.MAX_REQUESTS,
+                ChanSettings.okHttpMaxRequestsPerHost.get()
+        );
+    }
+
+    /**
+     * This okHttpClient is for posting.
+     */
+    @Provides
+    @Singleton
+    public ProxiedOkHttpClient provideProxiedOkHttpClient(
+            SharedOkHttpClient sharedOkHttpClient,
             HttpLoggingInterceptorLazy httpLoggingInterceptorLazy,
             SiteResolver siteResolver,
-            FirewallBypassManager firewallBypassManager
+            FirewallBypassManager firewallBypassManager,
+            AppConstants appConstants
     ) {
         Logger.deps("RealProxiedOkHttpClient");
 
         return new RealProxiedOkHttpClient(
-                normalDnsSelectorFactory,
-                dnsOverHttpsSelectorFactory,
-                proxyStorage,
+                sharedOkHttpClient,
                 httpLoggingInterceptorLazy,
                 siteResolver,
-                firewallBypassManager
+                firewallBypassManager,
+                appConstants
         );
     }
 
@@ -151,9 +183,7 @@ public class NetModule {
     @Singleton
     public CoilOkHttpClient provideCoilOkHttpClient(
             Context applicationContext,
-            NormalDnsSelectorFactory normalDnsSelectorFactory,
-            DnsOverHttpsSelectorFactory dnsOverHttpsSelectorFactory,
-            ProxyStorage proxyStorage,
+            SharedOkHttpClient sharedOkHttpClient,
             HttpLoggingInterceptorLazy httpLoggingInterceptorLazy,
             SiteResolver siteResolver,
             FirewallBypassManager firewallBypassManager
@@ -162,9 +192,7 @@ public class NetModule {
 
         return new CoilOkHttpClient(
                 applicationContext,
-                normalDnsSelectorFactory,
-                dnsOverHttpsSelectorFactory,
-                proxyStorage,
+                sharedOkHttpClient,
                 httpLoggingInterceptorLazy,
                 siteResolver,
                 firewallBypassManager
@@ -177,9 +205,7 @@ public class NetModule {
     @Provides
     @Singleton
     public RealDownloaderOkHttpClient provideDownloaderOkHttpClient(
-            NormalDnsSelectorFactory normalDnsSelectorFactory,
-            DnsOverHttpsSelectorFactory dnsOverHttpsSelectorFactory,
-            ProxyStorage proxyStorage,
+            SharedOkHttpClient sharedOkHttpClient,
             HttpLoggingInterceptorLazy httpLoggingInterceptorLazy,
             SiteResolver siteResolver,
             FirewallBypassManager firewallBypassManager
@@ -187,9 +213,7 @@ public class NetModule {
         Logger.deps("RealDownloaderOkHttpClient");
 
         return new RealDownloaderOkHttpClient(
-                normalDnsSelectorFactory,
-                dnsOverHttpsSelectorFactory,
-                proxyStorage,
+                sharedOkHttpClient,
                 httpLoggingInterceptorLazy,
                 siteResolver,
                 firewallBypassManager
@@ -99,6 +99,7 @@ class UseCaseModule {
     appScope: CoroutineScope,
     okHttpClient: Lazy<ProxiedOkHttpClient>,
     siteManager: SiteManager,
+    boardManager: BoardManager,
     bookmarksManager: BookmarksManager,
     appConstants: AppConstants
   ): FetchThreadBookmarkInfoUseCase {
@@ -109,6 +110,7 @@ class UseCaseModule {
       appScope,
       okHttpClient,
       siteManager,
+      boardManager,
       bookmarksManager,
       appConstants
     )
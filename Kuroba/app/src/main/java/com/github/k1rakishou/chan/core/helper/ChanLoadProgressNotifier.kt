@@ -52,6 +52,15 @@ sealed class ChanLoadProgressEvent {
     val postsCount: Int
   ) : ChanLoadProgressEvent()
 
+  /**
+   * The first posts of a thread that is being opened were parsed (while the rest of the thread is
+   * still being read/parsed) and are now in the memory cache so they can already be shown.
+   * */
+  data class FirstPostsLoaded(
+    override val chanDescriptor: ChanDescriptor,
+    val postsCount: Int
+  ) : ChanLoadProgressEvent()
+
   data class ApplyingFilters(
     override val chanDescriptor: ChanDescriptor,
     val processedPosts: Int = 0,
@@ -9,18 +9,38 @@ import com.github.k1rakishou.model.data.filter.ChanFilter
 import com.github.k1rakishou.model.data.filter.ChanFilterMutable
 import com.github.k1rakishou.model.data.filter.FilterType
 import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.onSubscription
+import kotlinx.coroutines.launch
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicLong
 import java.util.regex.Pattern
 import javax.inject.Inject
 
 class FilterEngine @Inject constructor(
+  private val appScope: CoroutineScope,
   private val chanFilterManager: ChanFilterManager
 ) {
   private val cacheHits = AtomicLong(0)
   private val cacheMisses = AtomicLong(0)
   private val patternCache = ConcurrentHashMap<String, Pattern>(128)
 
+  // Enabled post filters of all boards, rebuilt whenever the filters change
+  @Volatile
+  private var filterSet = FilterSet.create(this, emptyList())
+
+  fun initialize() {
+    Logger.d(TAG, "FilterEngine.initialize()")
+
+    appScope.launch(Dispatchers.Default) {
+      chanFilterManager.listenForFiltersChanges()
+        // The filters may have been loaded before we subscribed
+        .onSubscription { rebuildFilterSet() }
+        .collect { rebuildFilterSet() }
+    }
+  }
+
   fun currentCacheHits(): Long {
     return cacheHits.get()
   }
@@ -36,6 +56,24 @@ class FilterEngine @Inject constructor(
   val enabledFilters: List<ChanFilter>
     get() = chanFilterManager.getEnabledFiltersSorted()
 
+  /**
+   * Enabled filters (except for the watch filters) of all boards compiled into one [FilterSet], the
+   * filters of other boards are skipped when matching.
+   * */
+  @AnyThread
+  fun getFilterSet(): FilterSet {
+    return filterSet
+  }
+
+  private fun rebuildFilterSet() {
+    // Do not auto create watch filters, this may end up pretty bad
+    val filters = chanFilterManager.getEnabledFiltersSorted()
+      .filter { filter -> !filter.isWatchFilter() && !filter.isAvoidWatchFilter() }
+
+    filterSet = FilterSet.create(this, filters)
+    Logger.d(TAG, "rebuildFilterSet() filters=${filters.size}")
+  }
+
   fun matchesBoard(filter: ChanFilter, boardDescriptor: BoardDescriptor): Boolean {
     return filter.matchesBoard(boardDescriptor)
   }
@@ -0,0 +1,263 @@
+package com.github.k1rakishou.chan.core.helper
+
+import androidx.annotation.AnyThread
+import com.github.k1rakishou.common.RegexPatternCompiler
+import com.github.k1rakishou.common.datastructure.AhoCorasick
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.filter.FilterType
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+
+/**
+ * A list of filters compiled for matching against posts. Filters are grouped by the post field they
+ * are applied to, keywords of all non-regex filters of a field are merged into one Aho-Corasick
+ * automaton and only real /regex/ patterns (or patterns with wildcards) are matched one by one. The
+ * result is the same as calling [FilterEngine.matches] for every filter of the post's board in order
+ * and taking the first one that matched.
+ * */
+class FilterSet private constructor(
+  private val filterEngine: FilterEngine,
+  val filters: List<ChanFilter>,
+  private val fieldMatchers: Map<FilterType, FieldMatcher>,
+  private val emptyCommentFilterIndexes: IntArray
+) {
+
+  @AnyThread
+  fun findFirstMatchingFilter(post: ChanPostBuilder): ChanFilter? {
+    if (filters.isEmpty()) {
+      return null
+    }
+
+    if (post.moderatorCapcode.isNotEmpty() || post.sticky) {
+      return null
+    }
+
+    var bestFilterIndex = filters.size
+    val comment = post.postCommentBuilder.getComment()
+
+    if (comment.isEmpty()) {
+      for (filterIndex in emptyCommentFilterIndexes) {
+        if (filterIndex >= bestFilterIndex) {
+          break
+        }
+
+        if (canBeApplied(filters[filterIndex], post)) {
+          bestFilterIndex = filterIndex
+          break
+        }
+      }
+    }
+
+    bestFilterIndex = matchField(FilterType.COMMENT, comment, post, bestFilterIndex)
+    bestFilterIndex = matchField(FilterType.SUBJECT, post.subject, post, bestFilterIndex)
+    bestFilterIndex = matchField(FilterType.NAME, post.name, post, bestFilterIndex)
+    bestFilterIndex = matchField(FilterType.TRIPCODE, post.tripcode, post, bestFilterIndex)
+    bestFilterIndex = matchField(FilterType.ID, post.posterId, post, bestFilterIndex)
+
+    if (post.postImages.size > 0) {
+      for (image in post.postImages) {
+        bestFilterIndex = matchField(FilterType.IMAGE, image.fileHash, post, bestFilterIndex)
+      }
+
+      if (fieldMatchers.containsKey(FilterType.FILENAME)) {
+        val files = StringBuilder()
+
+        for (image in post.postImages) {
+          files.append(image.filename).append(" ")
+        }
+
+        bestFilterIndex = matchField(FilterType.FILENAME, files, post, bestFilterIndex)
+      }
+    }
+
+    if (post.httpIcons.size > 0 && fieldMatchers.containsKey(FilterType.COUNTRY_CODE)) {
+      var countryCode = ""
+
+      for (icon in post.httpIcons) {
+        val index = icon.iconName.indexOf('/')
+        if (index != -1) {
+          countryCode = icon.iconName.substring(index + 1)
+          break
+        }
+      }
+
+      bestFilterIndex = matchField(FilterType.COUNTRY_CODE, countryCode, post, bestFilterIndex)
+    }
+
+    return filters.getOrNull(bestFilterIndex)
+  }
+
+  /**
+   * @return the index of the first filter that matches [text] and is lower than [bestFilterIndex]
+   * or [bestFilterIndex] if there is no such filter.
+   * */
+  private fun matchField(
+    filterType: FilterType,
+    text: CharSequence?,
+    post: ChanPostBuilder,
+    bestFilterIndex: Int
+  ): Int {
+    if (text.isNullOrEmpty() || bestFilterIndex == 0) {
+      return bestFilterIndex
+    }
+
+    val fieldMatcher = fieldMatchers[filterType]
+      ?: return bestFilterIndex
+
+    var resultFilterIndex = bestFilterIndex
+
+    fieldMatcher.keywordsMatcher?.findAll(text) { keywordIndex, start, end ->
+      val filterIndex = fieldMatcher.keywordOwners[keywordIndex]
+      if (filterIndex >= resultFilterIndex) {
+        return@findAll true
+      }
+
+      if (fieldMatcher.keywordIsWholeWord[keywordIndex]) {
+        if (!isWordBoundary(text, start) || !isWordBoundary(text, end)) {
+          return@findAll true
+        }
+      }
+
+      if (!canBeApplied(filters[filterIndex], post)) {
+        return@findAll true
+      }
+
+      resultFilterIndex = filterIndex
+      // The first filter can't be beaten
+      return@findAll filterIndex > 0
+    }
+
+    for (filterIndex in fieldMatcher.regexFilterIndexes) {
+      if (filterIndex >= resultFilterIndex) {
+        break
+      }
+
+      val filter = filters[filterIndex]
+      if (canBeApplied(filter, post) && filterEngine.matches(filter, text)) {
+        resultFilterIndex = filterIndex
+        break
+      }
+    }
+
+    return resultFilterIndex
+  }
+
+  private fun canBeApplied(filter: ChanFilter, post: ChanPostBuilder): Boolean {
+    if (!filterEngine.matchesBoard(filter, post.boardDescriptor)) {
+      return false
+    }
+
+    if (filter.onlyOnOP && !post.op) {
+      return false
+    }
+
+    if (filter.applyToSaved && !post.isSavedReply) {
+      return false
+    }
+
+    return true
+  }
+
+  private class FieldMatcher(
+    val keywordsMatcher: AhoCorasick?,
+    // Index of the filter every keyword belongs to
+    val keywordOwners: IntArray,
+    val keywordIsWholeWord: BooleanArray,
+    // Sorted indexes of filters that have to be matched with their regex
+    val regexFilterIndexes: IntArray
+  )
+
+  private class FieldMatcherBuilder {
+    private val keywordsMatcherBuilder = AhoCorasick.Builder()
+    private val keywordOwners = mutableListOf<Int>()
+    private val keywordIsWholeWord = mutableListOf<Boolean>()
+    private val regexFilterIndexes = mutableListOf<Int>()
+
+    fun addKeywords(filterIndex: Int, literalKeywords: RegexPatternCompiler.LiteralKeywords) {
+      for (keyword in literalKeywords.keywords) {
+        keywordsMatcherBuilder.addKeyword(keyword)
+        keywordOwners += filterIndex
+        keywordIsWholeWord += literalKeywords.wholeWords
+      }
+    }
+
+    fun addRegexFilter(filterIndex: Int) {
+      regexFilterIndexes += filterIndex
+    }
+
+    fun build(): FieldMatcher {
+      val keywordsMatcher = if (keywordOwners.isNotEmpty()) {
+        keywordsMatcherBuilder.build()
+      } else {
+        null
+      }
+
+      return FieldMatcher(
+        keywordsMatcher = keywordsMatcher,
+        keywordOwners = keywordOwners.toIntArray(),
+        keywordIsWholeWord = keywordIsWholeWord.toBooleanArray(),
+        regexFilterIndexes = regexFilterIndexes.toIntArray()
+      )
+    }
+  }
+
+  companion object {
+    private val FIELD_FILTER_TYPES = listOf(
+      FilterType.COMMENT,
+      FilterType.SUBJECT,
+      FilterType.NAME,
+      FilterType.TRIPCODE,
+      FilterType.ID,
+      FilterType.IMAGE,
+      FilterType.FILENAME,
+      FilterType.COUNTRY_CODE
+    )
+
+    fun create(filterEngine: FilterEngine, filters: List<ChanFilter>): FilterSet {
+      val fieldMatcherBuilders = mutableMapOf<FilterType, FieldMatcherBuilder>()
+      val emptyCommentFilterIndexes = mutableListOf<Int>()
+
+      filters.forEachIndexed { filterIndex, filter ->
+        if (filter.applyToEmptyComments) {
+          emptyCommentFilterIndexes += filterIndex
+        }
+
+        val literalKeywords = RegexPatternCompiler.extractLiteralKeywords(filter.pattern)
+
+        for (filterType in FIELD_FILTER_TYPES) {
+          if (!filterEngine.typeMatches(filter, filterType)) {
+            continue
+          }
+
+          val fieldMatcherBuilder = fieldMatcherBuilders.getOrPut(filterType) { FieldMatcherBuilder() }
+
+          if (literalKeywords != null) {
+            fieldMatcherBuilder.addKeywords(filterIndex, literalKeywords)
+          } else {
+            fieldMatcherBuilder.addRegexFilter(filterIndex)
+          }
+        }
+      }
+
+      return FilterSet(
+        filterEngine = filterEngine,
+        filters = filters,
+        fieldMatchers = fieldMatcherBuilders.mapValues { (_, builder) -> builder.build() },
+        emptyCommentFilterIndexes = emptyCommentFilterIndexes.toIntArray()
+      )
+    }
+
+    // Same as regex \b: a word character on one side and a non-word character (or text bounds) on the
+    // other side
+    private fun isWordBoundary(text: CharSequence, index: Int): Boolean {
+      val prevIsWordChar = index > 0 && isWordChar(text[index - 1])
+      val nextIsWordChar = index < text.length && isWordChar(text[index])
+
+      return prevIsWordChar != nextIsWordChar
+    }
+
+    private fun isWordChar(ch: Char): Boolean {
+      return ch == '_' || Character.isLetterOrDigit(ch)
+    }
+  }
+
+}
@@ -91,6 +91,22 @@ class ProxyStorage(
     }
   }
 
+  /**
+   * The enabled proxies that [getProxyByUri] may return for [proxyActionType]. Action types with equal
+   * snapshots select the same proxies for every uri (until the app is restarted after the proxies have
+   * been changed) so their clients may share one ProxySelector.
+   * */
+  fun getProxiesSnapshot(proxyActionType: ProxyActionType): Set<KurobaProxyGson> {
+    loadProxies()
+
+    return synchronized(this) {
+      return@synchronized allProxiesMap.values
+        .filter { kurobaProxy -> proxyActionType in kurobaProxy.supportedActions && kurobaProxy.enabled }
+        .map { kurobaProxy -> kurobaProxy.toKurobaProxyGson() }
+        .toSet()
+    }
+  }
+
   suspend fun enableDisableProxy(proxyEntryView: ProxyEntryView): ModularResult<Boolean> {
     val proxyKey = ProxyKey(proxyEntryView.address, proxyEntryView.port)
 
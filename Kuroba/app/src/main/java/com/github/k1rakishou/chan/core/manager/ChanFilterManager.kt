@@ -204,6 +204,9 @@ class ChanFilterManager(
     chanFilterRepository.updateAllFilters(allFilters)
       .onError { error -> Logger.e(TAG, "Failed to update filters in database", error) }
       .ignore()
+
+    // The first matching filter wins so the order of the filters affects the filtering results
+    filterChangesFlow.emit(FilterEvent.Updated(allFilters))
   }
 
   fun deleteFilter(chanFilter: ChanFilter, onDeleted: () -> Unit) {
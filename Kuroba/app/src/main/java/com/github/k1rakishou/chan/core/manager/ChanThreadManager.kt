@@ -24,6 +24,7 @@ import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.ChanPostImage
 import com.github.k1rakishou.model.data.post.LoaderType
 import com.github.k1rakishou.model.data.thread.ChanThread
+import com.github.k1rakishou.model.data.thread.PostSearchIndex
 import com.github.k1rakishou.model.repository.ChanPostRepository
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
 import com.github.k1rakishou.model.util.ChanPostUtils
@@ -75,6 +76,9 @@ class ChanThreadManager(
 
   // Only accessed on the main thread
   private val requestedChanDescriptors = hashSetOf<ChanDescriptor>()
+  // Only accessed on the main thread. The same descriptor may be bound by multiple ThreadPresenters
+  // (e.g. a thread opened in both panes of the split layout) so we count the bindings.
+  private val boundChanDescriptors = hashMapOf<ChanDescriptor, Int>()
 
   suspend fun awaitUntilDependenciesInitialized() {
     siteManager.awaitUntilInitialized()
@@ -87,6 +91,10 @@ class ChanThreadManager(
   }
 
   fun bindChanDescriptor(chanDescriptor: ChanDescriptor) {
+    BackgroundUtils.ensureMainThread()
+
+    boundChanDescriptors[chanDescriptor] = (boundChanDescriptors[chanDescriptor] ?: 0) + 1
+
     when (chanDescriptor) {
       is ChanDescriptor.ThreadDescriptor -> {
         chanPostRepository.updateThreadLastAccessTime(chanDescriptor)
@@ -97,6 +105,28 @@ class ChanThreadManager(
     }
   }
 
+  fun unbindChanDescriptor(chanDescriptor: ChanDescriptor) {
+    BackgroundUtils.ensureMainThread()
+
+    val bindingsCount = boundChanDescriptors[chanDescriptor]
+      ?: return
+
+    if (bindingsCount <= 1) {
+      boundChanDescriptors.remove(chanDescriptor)
+    } else {
+      boundChanDescriptors[chanDescriptor] = bindingsCount - 1
+    }
+  }
+
+  /**
+   * All the catalogs and threads that are currently shown by any ThreadPresenter.
+   * */
+  fun getBoundChanDescriptors(): Set<ChanDescriptor> {
+    BackgroundUtils.ensureMainThread()
+
+    return boundChanDescriptors.keys.toSet()
+  }
+
   fun addRequestedChanDescriptor(chanDescriptor: ChanDescriptor): Boolean {
     BackgroundUtils.ensureMainThread()
 
@@ -199,6 +229,16 @@ class ChanThreadManager(
     return threadLoadResult
   }
 
+  /**
+   * Returns null when the thread is not cached. See [ChanThread.searchPosts].
+   * */
+  fun searchThreadPosts(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    query: String
+  ): Map<PostDescriptor, List<PostSearchIndex.MatchRange>>? {
+    return chanThreadsCache.getThread(threadDescriptor)?.searchPosts(query)
+  }
+
   fun iteratePostsWhile(
     chanDescriptor: ChanDescriptor,
     iterator: (ChanPost) -> Boolean
@@ -157,7 +157,7 @@ class ReportManager(
       appendLine("userAgent: ${userAgent}")
       appendLine("kurobaExCustomUserAgent: ${appConstants.kurobaExCustomUserAgent}")
 
-      appendLine("maxPostsCountInPostsCache: ${appConstants.maxPostsCountInPostsCache}")
+      appendLine("postsCacheMaxMemorySize: ${appConstants.postsCacheMaxMemorySize}")
       appendLine("maxAmountOfPostsInDatabase: ${appConstants.maxAmountOfPostsInDatabase}")
       appendLine("maxAmountOfThreadsInDatabase: ${appConstants.maxAmountOfThreadsInDatabase}")
 
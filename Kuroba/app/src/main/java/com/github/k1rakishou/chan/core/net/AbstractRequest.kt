@@ -15,9 +15,21 @@ abstract class AbstractRequest<T>(
   private val proxiedOkHttpClient: Lazy<RealProxiedOkHttpClient>
 ) {
 
+  /**
+   * Whether the response may be stored in (and served from) the on-disk HTTP response cache. Only for
+   * slow-changing endpoints like board lists.
+   * */
+  protected open val useHttpResponseCache: Boolean = false
+
   suspend fun execute(): ModularResult<T> {
     return ModularResult.Try {
-      val response = proxiedOkHttpClient.get().okHttpClient().suspendCall(request)
+      val okHttpClient = if (useHttpResponseCache) {
+        proxiedOkHttpClient.get().okHttpClientWithCache()
+      } else {
+        proxiedOkHttpClient.get().okHttpClient()
+      }
+
+      val response = okHttpClient.suspendCall(request)
       if (!response.isSuccessful) {
         if (response.code == 404) {
           throw NotFoundException()
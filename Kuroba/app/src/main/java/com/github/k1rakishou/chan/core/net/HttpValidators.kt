@@ -0,0 +1,59 @@
+package com.github.k1rakishou.chan.core.net
+
+import okhttp3.HttpUrl
+import okhttp3.Request
+import okhttp3.Response
+
+/**
+ * Cache validators (Last-Modified/ETag) of a previous successful response. They are bound to the url
+ * they were received for because the same ChanDescriptor may be loaded via different urls (full load,
+ * incremental load, archive load etc.) and validators of one url mean nothing for another one.
+ * */
+data class HttpValidators(
+  val url: HttpUrl,
+  val lastModified: String?,
+  val etag: String?
+) {
+
+  fun isEmpty(): Boolean = lastModified.isNullOrBlank() && etag.isNullOrBlank()
+
+  fun matches(requestUrl: HttpUrl): Boolean = url == requestUrl
+
+  fun applyTo(requestBuilder: Request.Builder) {
+    if (!etag.isNullOrBlank()) {
+      requestBuilder.header(IF_NONE_MATCH_HEADER, etag)
+    }
+
+    if (!lastModified.isNullOrBlank()) {
+      requestBuilder.header(IF_MODIFIED_SINCE_HEADER, lastModified)
+    }
+  }
+
+  companion object {
+    const val NOT_MODIFIED_STATUS = 304
+
+    private const val LAST_MODIFIED_HEADER = "Last-Modified"
+    private const val ETAG_HEADER = "ETag"
+    private const val IF_MODIFIED_SINCE_HEADER = "If-Modified-Since"
+    private const val IF_NONE_MATCH_HEADER = "If-None-Match"
+
+    fun fromResponse(requestUrl: HttpUrl, response: Response): HttpValidators? {
+      val validators = HttpValidators(
+        url = requestUrl,
+        lastModified = response.header(LAST_MODIFIED_HEADER),
+        etag = response.header(ETAG_HEADER)
+      )
+
+      if (validators.isEmpty()) {
+        return null
+      }
+
+      return validators
+    }
+
+    fun isNotModified(response: Response): Boolean {
+      return response.code == NOT_MODIFIED_STATUS
+    }
+  }
+
+}
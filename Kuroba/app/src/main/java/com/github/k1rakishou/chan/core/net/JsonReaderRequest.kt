@@ -38,14 +38,24 @@ abstract class JsonReaderRequest<T>(
   private val proxiedOkHttpClient: Lazy<RealProxiedOkHttpClient>
 ) {
 
+  /**
+   * Whether the response may be stored in (and served from) the on-disk HTTP response cache. Must
+   * never be enabled for thread or catalog requests.
+   * */
+  protected open val useHttpResponseCache: Boolean = false
+
   @OptIn(ExperimentalTime::class)
   open suspend fun execute(): JsonReaderResponse<T> {
     return withContext(Dispatchers.IO) {
       val response = Try {
-        val timedValue = measureTimedValue {
-          proxiedOkHttpClient.get().okHttpClient().suspendCall(request)
+        val okHttpClient = if (useHttpResponseCache) {
+          proxiedOkHttpClient.get().okHttpClientWithCache()
+        } else {
+          proxiedOkHttpClient.get().okHttpClient()
         }
 
+        val timedValue = measureTimedValue { okHttpClient.suspendCall(request) }
+
         Logger.d(TAG, "Request \"${this@JsonReaderRequest.javaClass.simpleName}\" to \"${request.url}\" " +
           "took ${timedValue.duration}")
 
@@ -104,6 +104,7 @@ import com.github.k1rakishou.prefs.OptionsSetting
 import dagger.Lazy
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
@@ -112,6 +113,8 @@ import kotlinx.coroutines.delay
 import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.debounce
+import kotlinx.coroutines.flow.filterIsInstance
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
@@ -481,6 +484,7 @@ class ThreadPresenter @Inject constructor(
 
     if (currentChanDescriptor != null) {
       onDemandContentLoaderManager.cancelAllForDescriptor(currentChanDescriptor)
+      chanThreadManager.unbindChanDescriptor(currentChanDescriptor)
 
       when (currentChanDescriptor) {
         is ChanDescriptor.ICatalogDescriptor -> {
@@ -869,15 +873,25 @@ class ThreadPresenter @Inject constructor(
 
       checkNotNull(nextDescriptorToLoad) { "nextDescriptorToLoad is null" }
 
-      val threadLoadResult = chanThreadManager.loadThreadOrCatalog(
-        page = catalogPageToLoad,
-        compositeCatalogDescriptor = compositeCatalogDescriptor,
-        chanDescriptor = nextDescriptorToLoad,
-        chanCacheUpdateOptions = chanCacheUpdateOptions,
-        chanLoadOptions = chanLoadOptions,
-        chanCacheOptions = chanCacheOptions,
-        chanReadOptions = chanReadOptions
-      )
+      val showFirstPostsJob = if (nextDescriptorToLoad is ChanDescriptor.ThreadDescriptor) {
+        showFirstPostsWhenLoaded(nextDescriptorToLoad)
+      } else {
+        null
+      }
+
+      val threadLoadResult = try {
+        chanThreadManager.loadThreadOrCatalog(
+          page = catalogPageToLoad,
+          compositeCatalogDescriptor = compositeCatalogDescriptor,
+          chanDescriptor = nextDescriptorToLoad,
+          chanCacheUpdateOptions = chanCacheUpdateOptions,
+          chanLoadOptions = chanLoadOptions,
+          chanCacheOptions = chanCacheOptions,
+          chanReadOptions = chanReadOptions
+        )
+      } finally {
+        showFirstPostsJob?.cancel()
+      }
 
       Logger.d(TAG, "normalLoad() threadLoadResult=$threadLoadResult (currentChanDescriptor=$currentChanDescriptor)")
 
@@ -927,6 +941,28 @@ class ThreadPresenter @Inject constructor(
     }
   }
 
+  /**
+   * When a thread that is not cached yet is being opened its first posts are published as soon as
+   * they are parsed (see ChanThreadLoaderCoordinator) so we can show them without waiting for the
+   * rest of the thread. Started undispatched so that we are already subscribed when the loading starts.
+   * */
+  private fun CoroutineScope.showFirstPostsWhenLoaded(threadDescriptor: ChanDescriptor.ThreadDescriptor): Job {
+    return launch(start = CoroutineStart.UNDISPATCHED) {
+      val firstPostsLoaded = chanLoadProgressNotifier.progressEventsFlow
+        .filterIsInstance<ChanLoadProgressEvent.FirstPostsLoaded>()
+        .first { event -> event.chanDescriptor == threadDescriptor }
+
+      if (!isBound || currentChanDescriptor != threadDescriptor) {
+        return@launch
+      }
+
+      Logger.d(TAG, "showFirstPostsWhenLoaded($threadDescriptor) showing ${firstPostsLoaded.postsCount} posts")
+
+      threadPresenterCallback?.hideError(threadDescriptor)
+      showPosts()
+    }
+  }
+
   private fun getPossibleChanLoadError(currentChanDescriptor: ChanDescriptor?): UnknownClientException {
     if (currentChanDescriptor is ChanDescriptor.ICatalogDescriptor) {
       val catalogPostsCount = chanThreadManager.getChanCatalog(currentChanDescriptor)?.postsCount() ?: 0
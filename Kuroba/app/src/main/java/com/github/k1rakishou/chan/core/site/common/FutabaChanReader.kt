@@ -68,9 +68,12 @@ class FutabaChanReader(
     responseBodyStream: InputStream,
     chanReaderProcessor: ChanReaderProcessor
   ) {
+    val readContext = createPostReadContext(chanReaderProcessor)
+      ?: return
+
     readBodyJson(responseBodyStream) { jsonReader ->
       iteratePostsInThread(jsonReader) { reader ->
-        readPostObject(reader, chanReaderProcessor)
+        readPostObject(reader, readContext, chanReaderProcessor)
       }
 
       chanReaderProcessor.applyChanReadOptions()
@@ -83,25 +86,43 @@ class FutabaChanReader(
     responseBodyStream: InputStream,
     chanReaderProcessor: AbstractChanReaderProcessor
   ) {
+    val readContext = createPostReadContext(chanReaderProcessor)
+      ?: return
+
     readBodyJson(responseBodyStream) { jsonReader ->
       iterateThreadsInCatalog(jsonReader) { reader ->
-        readPostObject(reader, chanReaderProcessor)
+        readPostObject(reader, readContext, chanReaderProcessor)
       }
     }
   }
 
-  @Throws(Exception::class)
-  suspend fun readPostObject(reader: JsonReader, chanReaderProcessor: AbstractChanReaderProcessor) {
-    val builder = ChanPostBuilder()
+  private fun createPostReadContext(chanReaderProcessor: AbstractChanReaderProcessor): PostReadContext? {
     val boardDescriptor = chanReaderProcessor.chanDescriptor.boardDescriptor()
 
-    builder.boardDescriptor(boardDescriptor)
-
     val site = siteManager.bySiteDescriptor(boardDescriptor.siteDescriptor)
-      ?: return
+    if (site == null) {
+      Logger.e(TAG, "createPostReadContext() Site ${boardDescriptor.siteDescriptor} not found")
+      return null
+    }
 
-    val board = boardManager.byBoardDescriptor(boardDescriptor)
-    val endpoints = site.endpoints()
+    return PostReadContext(
+      boardDescriptor = boardDescriptor,
+      board = boardManager.byBoardDescriptor(boardDescriptor),
+      endpoints = site.endpoints()
+    )
+  }
+
+  @Throws(Exception::class)
+  private suspend fun readPostObject(
+    reader: JsonReader,
+    readContext: PostReadContext,
+    chanReaderProcessor: AbstractChanReaderProcessor
+  ) {
+    val builder = ChanPostBuilder()
+    val boardDescriptor = readContext.boardDescriptor
+    val endpoints = readContext.endpoints
+
+    builder.boardDescriptor(boardDescriptor)
 
     // File
     var fileId: String? = null
@@ -113,7 +134,10 @@ class FutabaChanReader(
     var fileName: String? = null
     var fileHash: String? = null
     var fileDeleted = false
-    val files: MutableList<ChanPostImage> = ArrayList()
+
+    // Copied by ChanPostBuilder.postImages() so it can be reused for every post
+    val files = readContext.files
+    files.clear()
 
     // Country flag
     var countryCode: String? = null
@@ -134,7 +158,7 @@ class FutabaChanReader(
         "com" -> builder.comment(reader.nextString())
         "tim" -> fileId = reader.nextString()
         "time" -> builder.setUnixTimestampSeconds(reader.nextLong())
-        "ext" -> fileExt = reader.nextString().replace(".", "")
+        "ext" -> fileExt = reader.nextString().removePrefix(".")
         "w" -> fileWidth = reader.nextInt()
         "h" -> fileHeight = reader.nextInt()
         "fsize" -> fileSize = reader.nextLong()
@@ -169,7 +193,7 @@ class FutabaChanReader(
           reader.beginArray()
 
           while (reader.hasNext()) {
-            val postImage = readPostImage(reader, builder, board, endpoints)
+            val postImage = readPostImage(reader, readContext)
             if (postImage != null) {
               files.add(postImage)
             }
@@ -194,22 +218,17 @@ class FutabaChanReader(
 
     // The file from between the other values.
     if (fileId != null && fileName != null && fileExt != null && !fileDeleted) {
-      val args = SiteEndpoints.makeArgument("tim", fileId, "ext", fileExt)
-      val customSpoilers = board?.customSpoilers ?: -1
-
-      val image = ChanPostImageBuilder()
-        .serverFilename(fileId)
-        .thumbnailUrl(endpoints.thumbnailUrl(boardDescriptor, false, customSpoilers, args))
-        .spoilerThumbnailUrl(endpoints.thumbnailUrl(boardDescriptor, true, customSpoilers, args))
-        .imageUrl(endpoints.imageUrl(builder.boardDescriptor, args))
-        .filename(Parser.unescapeEntities(fileName, false))
-        .extension(fileExt)
-        .imageWidth(fileWidth)
-        .imageHeight(fileHeight)
-        .spoiler(fileSpoiler)
-        .imageSize(fileSize)
-        .fileHash(fileHash, true)
-        .build()
+      val image = createPostImage(
+        readContext = readContext,
+        fileId = fileId,
+        fileExt = fileExt,
+        fileName = fileName,
+        fileWidth = fileWidth,
+        fileHeight = fileHeight,
+        fileSpoiler = fileSpoiler,
+        fileSize = fileSize,
+        fileHash = fileHash
+      )
 
       // Insert it at the beginning.
       files.add(0, image)
@@ -232,24 +251,15 @@ class FutabaChanReader(
     }
 
     if (countryCode != null && countryName != null) {
-      val countryUrl = endpoints.icon("country", SiteEndpoints.makeArgument("country_code", countryCode))
-      builder.addHttpIcon(ChanPostHttpIcon(countryUrl, "$countryName/$countryCode"))
+      builder.addHttpIcon(readContext.countryIcon(countryCode, countryName))
     }
 
     if (boardFlagCode != null && boardFlagName != null) {
-      val argument = SiteEndpoints.makeArgument(
-        "board_flag_code",
-        boardFlagCode,
-        "board_code",
-        boardDescriptor.boardCode
-      )
-
-      val countryUrl = endpoints.icon("board_flag", argument)
-      builder.addHttpIcon(ChanPostHttpIcon(countryUrl, "$boardFlagName/t_$boardFlagCode"))
+      builder.addHttpIcon(readContext.boardFlagIcon(boardFlagCode, boardFlagName))
     }
 
     if (since4pass != 0) {
-      val iconUrl = endpoints.icon("since4pass", null)
+      val iconUrl = readContext.since4passIconUrl
       builder.addHttpIcon(ChanPostHttpIcon(iconUrl, since4pass.toString()))
     }
 
@@ -259,9 +269,7 @@ class FutabaChanReader(
   @Throws(IOException::class)
   private fun readPostImage(
     reader: JsonReader,
-    builder: ChanPostBuilder,
-    board: ChanBoard?,
-    endpoints: SiteEndpoints
+    readContext: PostReadContext
   ): ChanPostImage? {
     var fileId: String? = null
     var fileSize: Long = 0
@@ -281,7 +289,7 @@ class FutabaChanReader(
         "w" -> fileWidth = reader.nextInt()
         "h" -> fileHeight = reader.nextInt()
         "spoiler" -> fileSpoiler = reader.nextInt() == 1
-        "ext" -> fileExt = reader.nextString().replace(".", "")
+        "ext" -> fileExt = reader.nextString().removePrefix(".")
         "filename" -> fileName = reader.nextString()
         "md5" -> fileHash = reader.nextString()
         else -> reader.skipValue()
@@ -291,27 +299,53 @@ class FutabaChanReader(
     reader.endObject()
 
     if (fileId != null && fileName != null && fileExt != null) {
-      val args = SiteEndpoints.makeArgument("tim", fileId, "ext", fileExt)
-      val customSpoilers = board?.customSpoilers ?: -1
-
-      return ChanPostImageBuilder()
-        .serverFilename(fileId)
-        .thumbnailUrl(endpoints.thumbnailUrl(builder.boardDescriptor, false, customSpoilers, args))
-        .spoilerThumbnailUrl(endpoints.thumbnailUrl(builder.boardDescriptor, true, customSpoilers, args))
-        .imageUrl(endpoints.imageUrl(builder.boardDescriptor, args))
-        .filename(Parser.unescapeEntities(fileName, false))
-        .extension(fileExt)
-        .imageWidth(fileWidth)
-        .imageHeight(fileHeight)
-        .spoiler(fileSpoiler)
-        .imageSize(fileSize)
-        .fileHash(fileHash, true)
-        .build()
+      return createPostImage(
+        readContext = readContext,
+        fileId = fileId,
+        fileExt = fileExt,
+        fileName = fileName,
+        fileWidth = fileWidth,
+        fileHeight = fileHeight,
+        fileSpoiler = fileSpoiler,
+        fileSize = fileSize,
+        fileHash = fileHash
+      )
     }
 
     return null
   }
 
+  private fun createPostImage(
+    readContext: PostReadContext,
+    fileId: String,
+    fileExt: String,
+    fileName: String,
+    fileWidth: Int,
+    fileHeight: Int,
+    fileSpoiler: Boolean,
+    fileSize: Long,
+    fileHash: String?
+  ): ChanPostImage {
+    val boardDescriptor = readContext.boardDescriptor
+    val endpoints = readContext.endpoints
+    val customSpoilers = readContext.customSpoilers
+    val args = SiteEndpoints.makeArgument("tim", fileId, "ext", fileExt)
+
+    return ChanPostImageBuilder()
+      .serverFilename(fileId)
+      .thumbnailUrl(endpoints.thumbnailUrl(boardDescriptor, false, customSpoilers, args))
+      .spoilerThumbnailUrl(endpoints.thumbnailUrl(boardDescriptor, true, customSpoilers, args))
+      .imageUrl(endpoints.imageUrl(boardDescriptor, args))
+      .filename(Parser.unescapeEntities(fileName, false))
+      .extension(fileExt)
+      .imageWidth(fileWidth)
+      .imageHeight(fileHeight)
+      .spoiler(fileSpoiler)
+      .imageSize(fileSize)
+      .fileHash(fileHash, true)
+      .build()
+  }
+
   override suspend fun readThreadBookmarkInfoObject(
     threadDescriptor: ChanDescriptor.ThreadDescriptor,
     expectedCapacity: Int,
@@ -546,7 +580,66 @@ class FutabaChanReader(
     reader.endArray()
   }
 
+  /**
+   * Everything that is the same for all posts of one thread/catalog response. Resolved once per
+   * request instead of once per post object. Only used by the coroutine that reads the response.
+   * */
+  private class PostReadContext(
+    val boardDescriptor: BoardDescriptor,
+    board: ChanBoard?,
+    val endpoints: SiteEndpoints
+  ) {
+    val customSpoilers = board?.customSpoilers ?: -1
+    val files = ArrayList<ChanPostImage>(DEFAULT_FILES_CAPACITY)
+    val since4passIconUrl: HttpUrl by lazy { endpoints.icon("since4pass", null) }
+
+    // Lots of posts in a thread share the same country/board flag so the icons (they are immutable)
+    // are shared as well instead of building the same HttpUrl over and over again.
+    private val countryIcons = HashMap<String, CachedIcon>()
+    private val boardFlagIcons = HashMap<String, CachedIcon>()
+
+    fun countryIcon(countryCode: String, countryName: String): ChanPostHttpIcon {
+      val cachedIcon = countryIcons[countryCode]
+      if (cachedIcon != null && cachedIcon.name == countryName) {
+        return cachedIcon.icon
+      }
+
+      val countryUrl = endpoints.icon("country", SiteEndpoints.makeArgument("country_code", countryCode))
+      val icon = ChanPostHttpIcon(countryUrl, "$countryName/$countryCode")
+
+      countryIcons[countryCode] = CachedIcon(countryName, icon)
+      return icon
+    }
+
+    fun boardFlagIcon(boardFlagCode: String, boardFlagName: String): ChanPostHttpIcon {
+      val cachedIcon = boardFlagIcons[boardFlagCode]
+      if (cachedIcon != null && cachedIcon.name == boardFlagName) {
+        return cachedIcon.icon
+      }
+
+      val argument = SiteEndpoints.makeArgument(
+        "board_flag_code",
+        boardFlagCode,
+        "board_code",
+        boardDescriptor.boardCode
+      )
+
+      val boardFlagUrl = endpoints.icon("board_flag", argument)
+      val icon = ChanPostHttpIcon(boardFlagUrl, "$boardFlagName/t_$boardFlagCode")
+
+      boardFlagIcons[boardFlagCode] = CachedIcon(boardFlagName, icon)
+      return icon
+    }
+  }
+
+  private class CachedIcon(
+    val name: String,
+    val icon: ChanPostHttpIcon
+  )
+
   companion object {
     private const val TAG = "FutabaChanReader"
+
+    private const val DEFAULT_FILES_CAPACITY = 4
   }
 }
\ No newline at end of file
@@ -16,12 +16,15 @@
  */
 package com.github.k1rakishou.chan.core.site.loader
 
+import androidx.annotation.VisibleForTesting
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
+import com.github.k1rakishou.chan.core.base.okhttp.SharedOkHttpClient
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressEvent
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
 import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.ThreadDownloadManager
+import com.github.k1rakishou.chan.core.net.HttpValidators
 import com.github.k1rakishou.chan.core.site.Site
 import com.github.k1rakishou.chan.core.site.SiteResolver
 import com.github.k1rakishou.chan.core.site.SiteSpecificError
@@ -44,6 +47,7 @@ import com.github.k1rakishou.common.ModularResult.Companion.Try
 import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.common.suspendCall
 import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.PostsFromServerData
 import com.github.k1rakishou.model.data.catalog.IChanCatalogSnapshot
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
@@ -52,10 +56,13 @@ import com.github.k1rakishou.model.data.options.ChanCacheUpdateOptions
 import com.github.k1rakishou.model.data.options.ChanLoadOptions
 import com.github.k1rakishou.model.data.options.ChanReadOptions
 import com.github.k1rakishou.model.data.options.PostsToReloadOptions
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.repository.ChanCatalogSnapshotRepository
 import com.github.k1rakishou.model.repository.ChanPostRepository
 import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
 import com.github.k1rakishou.model.source.cache.thread.ChanThreadsCache
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineName
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -67,7 +74,6 @@ import java.io.InputStream
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 import kotlin.coroutines.CoroutineContext
-import kotlin.time.Duration
 import kotlin.time.ExperimentalTime
 import kotlin.time.measureTimedValue
 
@@ -81,6 +87,7 @@ import kotlin.time.measureTimedValue
  * */
 class ChanThreadLoaderCoordinator(
   private val proxiedOkHttpClient: ProxiedOkHttpClient,
+  private val sharedOkHttpClient: SharedOkHttpClient,
   private val chanPostRepository: ChanPostRepository,
   private val chanCatalogSnapshotRepository: ChanCatalogSnapshotRepository,
   private val appConstants: AppConstants,
@@ -98,6 +105,7 @@ class ChanThreadLoaderCoordinator(
     get() = Dispatchers.IO + job + CoroutineName("ChanThreadLoaderCoordinator")
 
   private val lastFullThreadUpdate = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, Long>(16)
+  private val chanLoadValidators = ConcurrentHashMap<ChanDescriptor, HttpValidators>(16)
 
   private val reloadPostsFromDatabaseUseCase by lazy {
     ReloadPostsFromDatabaseUseCase(
@@ -179,6 +187,15 @@ class ChanThreadLoaderCoordinator(
           .url(chanLoadUrl.url)
           .get()
 
+        val httpValidators = getHttpValidatorsOrNull(
+          compositeCatalogDescriptor = compositeCatalogDescriptor,
+          chanDescriptor = chanDescriptor,
+          chanLoadUrl = chanLoadUrl,
+          chanLoadOptions = chanLoadOptions
+        )
+
+        httpValidators?.applyTo(requestBuilder)
+
         siteResolver.findSiteForUrl(chanLoadUrl.urlString)?.let { site ->
           site.requestModifier().modifyCatalogOrThreadGetRequest(
             site = site,
@@ -206,6 +223,8 @@ class ChanThreadLoaderCoordinator(
           )
         }
 
+        // Threads and catalogs always bypass the HTTP response cache (okHttpClientWithCache()), they are
+        // revalidated with our own HttpValidators and the 304 is served from the posts cache instead.
         val (response, requestDuration) = try {
           measureTimedValue { proxiedOkHttpClient.okHttpClient().suspendCall(requestBuilder.build()) }
         } catch (error: Throwable) {
@@ -216,76 +235,277 @@ class ChanThreadLoaderCoordinator(
           return@Try reloadFunc(error)
         }
 
+        if (httpValidators != null && HttpValidators.isNotModified(response)) {
+          response.close()
+
+          val threadLoadResult = loadPostsOnNotModified(chanDescriptor)
+          if (threadLoadResult != null) {
+            Logger.d(TAG, "loadThreadOrCatalog(chanLoadUrl='${chanLoadUrl}') not modified, took $requestDuration")
+            return@Try threadLoadResult
+          }
+
+          // The cached posts are gone so the validators are useless now. Reload everything from scratch.
+          chanLoadValidators.remove(chanDescriptor)
+
+          return@Try loadThreadOrCatalog(
+            page = page,
+            site = site,
+            compositeCatalogDescriptor = compositeCatalogDescriptor,
+            chanDescriptor = chanDescriptor,
+            chanCacheOptions = chanCacheOptions,
+            chanCacheUpdateOptions = chanCacheUpdateOptions,
+            chanReadOptions = chanReadOptions,
+            chanLoadOptions = chanLoadOptions,
+            postProcessFlags = postProcessFlags
+          ).unwrap()
+        }
+
         if (!response.isSuccessful) {
           return@Try reloadFunc(BadStatusResponseException(response.code))
         }
 
         chanLoadProgressNotifier.sendProgressEvent(ChanLoadProgressEvent.Reading(chanDescriptor))
 
-        val (chanReaderProcessor, readPostsDuration) = measureTimedValue {
-          val body = response.body
-            ?: throw EmptyBodyResponseException()
-
-          return@measureTimedValue body.byteStream().use { inputStream ->
-            return@use readPostsFromResponse(
-              page = page,
-              chanLoadUrl = chanLoadUrl,
-              responseBodyStream = inputStream,
-              chanDescriptor = chanDescriptor,
-              chanReadOptions = chanReadOptions,
-              chanLoadOptions = chanLoadOptions,
-              chanReaderProcessorOptions = chanReaderProcessorOptions,
-              chanReader = chanReader
-            ).unwrap()
+        val streamingParser = startStreamingParsingOrNull(
+          coroutineScope = this@withContext,
+          chanDescriptor = chanDescriptor,
+          chanReadOptions = chanReadOptions,
+          chanCacheUpdateOptions = chanCacheUpdateOptions,
+          chanReader = chanReader
+        )
+
+        try {
+          val (chanReaderProcessor, readPostsDuration) = measureTimedValue {
+            val body = response.body
+              ?: throw EmptyBodyResponseException()
+
+            return@measureTimedValue body.byteStream().use { inputStream ->
+              return@use readPostsFromResponse(
+                page = page,
+                chanLoadUrl = chanLoadUrl,
+                responseBodyStream = inputStream,
+                chanDescriptor = chanDescriptor,
+                chanReadOptions = chanReadOptions,
+                chanLoadOptions = chanLoadOptions,
+                chanReaderProcessorOptions = chanReaderProcessorOptions,
+                chanReader = chanReader,
+                streamingParser = streamingParser
+              ).unwrap()
+            }
           }
-        }
 
-        Logger.d(TAG, "loadThreadOrCatalog(chanLoadUrl='${chanLoadUrl}') chanReaderProcessor=${chanReaderProcessor}")
+          Logger.d(TAG, "loadThreadOrCatalog(chanLoadUrl='${chanLoadUrl}') chanReaderProcessor=${chanReaderProcessor}")
 
-        if (chanReaderProcessor.error != null) {
-          val error = chanReaderProcessor.error!!
-          if (error.isNotFoundError()) {
-            return@Try reloadFunc(BadStatusResponseException.notFoundResponse())
-          }
+          if (chanReaderProcessor.error != null) {
+            val error = chanReaderProcessor.error!!
+            if (error.isNotFoundError()) {
+              return@Try reloadFunc(BadStatusResponseException.notFoundResponse())
+            }
 
-          when (error) {
-            is SiteSpecificError.DvachError -> {
-              throw SiteError(error.errorCode, error.errorMessage)
+            when (error) {
+              is SiteSpecificError.DvachError -> {
+                throw SiteError(error.errorCode, error.errorMessage)
+              }
+              else -> error("Unknown error: ${error}")
             }
-            else -> error("Unknown error: ${error}")
           }
-        }
 
-        val postParser = chanReader.getParser()
-          ?: throw NullPointerException("PostParser cannot be null!")
+          val postParser = chanReader.getParser()
+            ?: throw NullPointerException("PostParser cannot be null!")
 
-        val (threadLoadResult, loadTimeInfo) = chanPostPersister.persistPosts(
-          compositeCatalogDescriptor = compositeCatalogDescriptor,
-          chanDescriptor = chanDescriptor,
-          chanReaderProcessor = chanReaderProcessor,
-          cacheOptions = chanCacheOptions,
-          chanCacheUpdateOptions = chanCacheUpdateOptions,
-          postParser = postParser,
-        )
+          val (threadLoadResult, loadTimeInfo) = chanPostPersister.persistPosts(
+            compositeCatalogDescriptor = compositeCatalogDescriptor,
+            chanDescriptor = chanDescriptor,
+            chanReaderProcessor = chanReaderProcessor,
+            cacheOptions = chanCacheOptions,
+            chanCacheUpdateOptions = chanCacheUpdateOptions,
+            postParser = postParser,
+            streamingParser = streamingParser
+          )
+
+          if (chanDescriptor is ChanDescriptor.ThreadDescriptor) {
+            chanPostRepository.updateThreadState(
+              threadDescriptor = chanDescriptor,
+              deleted = chanReaderProcessor.deleted && !isThreadDownloaded,
+              archived = chanReaderProcessor.archived || isThreadDownloaded,
+              closed = chanReaderProcessor.closed
+            )
+          }
+
+          val newHttpValidators = HttpValidators.fromResponse(chanLoadUrl.url, response)
+          if (newHttpValidators != null) {
+            chanLoadValidators[chanDescriptor] = newHttpValidators
+          } else {
+            chanLoadValidators.remove(chanDescriptor)
+          }
 
-        if (chanDescriptor is ChanDescriptor.ThreadDescriptor) {
-          chanPostRepository.updateThreadState(
-            threadDescriptor = chanDescriptor,
-            deleted = chanReaderProcessor.deleted && !isThreadDownloaded,
-            archived = chanReaderProcessor.archived || isThreadDownloaded,
-            closed = chanReaderProcessor.closed
+          loadRequestStatistics(
+            url = chanLoadUrl.url,
+            chanDescriptor = chanDescriptor,
+            loadTimeInfo = loadTimeInfo?.copy(
+              requestDuration = requestDuration,
+              readPostsDuration = readPostsDuration
+            )
           )
+          return@Try threadLoadResult
+        } finally {
+          streamingParser?.cancel()
         }
+      }.mapError { error -> ChanLoaderException(error) }
+    }
+  }
 
-        loadRequestStatistics(
-          url = chanLoadUrl.url,
-          chanDescriptor = chanDescriptor,
-          loadTimeInfo = loadTimeInfo,
-          requestDuration = requestDuration,
-          readPostsDuration = readPostsDuration
+  /**
+   * Thread posts are parsed while the response is still being read. When the thread is not in the
+   * memory cache yet (it's being opened) the first posts are also stored and shown right after they
+   * are parsed instead of waiting for the whole thread.
+   * */
+  private suspend fun startStreamingParsingOrNull(
+    coroutineScope: CoroutineScope,
+    chanDescriptor: ChanDescriptor,
+    chanReadOptions: ChanReadOptions,
+    chanCacheUpdateOptions: ChanCacheUpdateOptions,
+    chanReader: ChanReader
+  ): ParsePostsV1UseCase.StreamingParser? {
+    if (chanDescriptor !is ChanDescriptor.ThreadDescriptor || !chanReadOptions.isDefault()) {
+      return null
+    }
+
+    val postParser = chanReader.getParser()
+      ?: return null
+
+    val canPublishFirstPosts = canPublishFirstPosts(
+      chanCacheUpdateOptions = chanCacheUpdateOptions,
+      cachedThreadPostsCount = chanThreadsCache.getThreadPostsCount(chanDescriptor)
+    )
+
+    val onFirstPostsParsed: (suspend (List<ChanPost>) -> Unit)? = if (canPublishFirstPosts) {
+      { firstPosts -> publishFirstPosts(chanDescriptor, firstPosts, chanCacheUpdateOptions) }
+    } else {
+      null
+    }
+
+    return parsePostsV1UseCase.startStreamingParsing(
+      coroutineScope = coroutineScope,
+      threadDescriptor = chanDescriptor,
+      postParser = postParser,
+      onFirstPostsParsed = onFirstPostsParsed
+    )
+  }
+
+  private suspend fun publishFirstPosts(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    firstPosts: List<ChanPost>,
+    chanCacheUpdateOptions: ChanCacheUpdateOptions
+  ) {
+    if (firstPosts.firstOrNull() !is ChanOriginalPost) {
+      // Can't show a thread without the OP
+      return
+    }
+
+    try {
+      storePostsInRepositoryUseCase.storePosts(
+        chanDescriptor = threadDescriptor,
+        parsedPosts = firstPosts,
+        // The whole thread is stored (in the database too if needed) once all posts are parsed
+        cacheOptions = ChanCacheOptions.onlyCacheInMemory(),
+        chanCacheUpdateOptions = chanCacheUpdateOptions,
+        // Not all posts of the thread so it must not be used to detect deleted posts
+        postsFromServerData = PostsFromServerData(
+          allPostDescriptors = firstPosts.mapTo(HashSet(firstPosts.size)) { chanPost -> chanPost.postDescriptor },
+          isIncrementalUpdate = true,
+          isUpdatingDataFromTheServer = true
         )
-        return@Try threadLoadResult
-      }.mapError { error -> ChanLoaderException(error) }
+      )
+    } catch (error: Throwable) {
+      if (error is CancellationException) {
+        throw error
+      }
+
+      Logger.e(TAG, "publishFirstPosts($threadDescriptor) error", error)
+      return
+    }
+
+    Logger.d(TAG, "publishFirstPosts($threadDescriptor) published ${firstPosts.size} posts")
+    chanLoadProgressNotifier.sendProgressEvent(
+      ChanLoadProgressEvent.FirstPostsLoaded(threadDescriptor, firstPosts.size)
+    )
+  }
+
+  /**
+   * Validators are only sent when the posts we would show on 304 are actually in the memory cache,
+   * otherwise the server would tell us that nothing has changed while we have nothing to display.
+   * */
+  private fun getHttpValidatorsOrNull(
+    compositeCatalogDescriptor: ChanDescriptor.CompositeCatalogDescriptor?,
+    chanDescriptor: ChanDescriptor,
+    chanLoadUrl: ChanLoadUrl,
+    chanLoadOptions: ChanLoadOptions
+  ): HttpValidators? {
+    if (chanLoadOptions.canClearCache() || chanLoadOptions.isForceUpdating(postDescriptor = null)) {
+      // The caller wants the posts to be re-read and re-parsed.
+      return null
+    }
+
+    if (compositeCatalogDescriptor != null) {
+      return null
+    }
+
+    val httpValidators = chanLoadValidators[chanDescriptor]
+      ?: return null
+
+    if (!httpValidators.matches(chanLoadUrl.url)) {
+      return null
+    }
+
+    val canBeServedFromCache = when (chanDescriptor) {
+      is ChanDescriptor.ThreadDescriptor -> {
+        chanThreadsCache.contains(chanDescriptor)
+      }
+      is ChanDescriptor.ICatalogDescriptor -> {
+        // Unlimited catalogs merge pages into the catalog snapshot and the snapshot may have been
+        // reset since the page was loaded so we can't rely on validators there.
+        val catalogSnapshot = chanCatalogSnapshotCache.get(chanDescriptor)
+
+        catalogSnapshot != null
+          && !catalogSnapshot.isUnlimitedOrCompositeCatalog
+          && chanThreadsCache.contains(chanDescriptor)
+      }
+    }
+
+    if (!canBeServedFromCache) {
+      chanLoadValidators.remove(chanDescriptor)
+      return null
+    }
+
+    return httpValidators
+  }
+
+  private suspend fun loadPostsOnNotModified(chanDescriptor: ChanDescriptor): ThreadLoadResult? {
+    BackgroundUtils.ensureBackgroundThread()
+
+    when (chanDescriptor) {
+      is ChanDescriptor.ThreadDescriptor -> {
+        // The thread may have been partially evicted from the memory cache (everything except OP)
+        // while we were waiting for the response so we may need to restore it from the database.
+        if (chanThreadsCache.getThreadPostsCount(chanDescriptor) > 1) {
+          return ThreadLoadResult.Loaded(chanDescriptor)
+        }
+
+        val chanLoaderResponse = databasePostLoader.loadPosts(chanDescriptor)
+        if (chanLoaderResponse == null || chanLoaderResponse.posts.isEmpty()) {
+          return null
+        }
+
+        return ThreadLoadResult.Loaded(chanDescriptor)
+      }
+      is ChanDescriptor.ICatalogDescriptor -> {
+        if (!chanThreadsCache.contains(chanDescriptor)) {
+          return null
+        }
+
+        return ThreadLoadResult.Loaded(chanDescriptor)
+      }
     }
   }
 
@@ -293,14 +513,14 @@ class ChanThreadLoaderCoordinator(
   private suspend fun loadRequestStatistics(
     url: HttpUrl,
     chanDescriptor: ChanDescriptor,
-    loadTimeInfo: ChanPostPersister.LoadTimeInfo?,
-    requestDuration: Duration,
-    readPostsDuration: Duration
+    loadTimeInfo: ChanPostPersister.LoadTimeInfo?
   ) {
     if (loadTimeInfo == null) {
       return
     }
 
+    val requestDuration = loadTimeInfo.requestDuration
+    val readPostsDuration = loadTimeInfo.readPostsDuration
     val storeDuration = loadTimeInfo.storeDuration
     val storedPostsCount = loadTimeInfo.storedPostsCount
     val filterProcessingDuration = loadTimeInfo.filterProcessingDuration
@@ -310,6 +530,7 @@ class ChanThreadLoaderCoordinator(
     val postsInChanReaderProcessor = loadTimeInfo.postsInChanReaderProcessor
 
     val cachedPostsCount = chanPostRepository.getTotalCachedPostsCount()
+    val cachedPostsMemorySize = chanPostRepository.getTotalCachedPostsMemorySize()
     val cachedThreadsCount = chanPostRepository.getTotalCachedThreadCount()
     val threadsWithMoreThanOnePostCount = chanPostRepository.getThreadsWithMoreThanOnePostCount()
 
@@ -322,12 +543,14 @@ class ChanThreadLoaderCoordinator(
     val logString = buildString {
       appendLine("ChanReaderRequest.readJson() stats:")
       appendLine("url = $url.")
-      appendLine("Network request execution took $requestDuration.")
-      appendLine("Json reading took $readPostsDuration.")
-      appendLine("Store new posts took $storeDuration (stored $storedPostsCount posts).")
-      appendLine("Parse posts took $parsingDuration (parsed $parsedPostsCount out of $postsInChanReaderProcessor posts).")
-      appendLine("Filter processing took $filterProcessingDuration (filers count: $filtersCount).")
-      appendLine("Total in-memory cached posts count: $cachedPostsCount/${appConstants.maxPostsCountInPostsCache}.")
+      appendLine("Network request execution took $requestDuration (IO).")
+      appendLine("OkHttp ${sharedOkHttpClient.formatStatistics()}.")
+      appendLine("Json reading took $readPostsDuration (IO).")
+      appendLine("Parse posts took $parsingDuration (CPU, parsed $parsedPostsCount out of $postsInChanReaderProcessor posts).")
+      appendLine("Filter processing took $filterProcessingDuration (CPU, filers count: $filtersCount).")
+      appendLine("Store new posts took $storeDuration (DB, stored $storedPostsCount posts).")
+      appendLine("Total in-memory cached posts count: $cachedPostsCount, " +
+        "estimated size: ${cachedPostsMemorySize / 1024}KB/${appConstants.postsCacheMaxMemorySize / 1024}KB.")
 
       if (currentThreadCachedPostsCount != null) {
         appendLine("Current thread cached posts count: $currentThreadCachedPostsCount")
@@ -339,8 +562,7 @@ class ChanThreadLoaderCoordinator(
         "count: ($threadsWithMoreThanOnePostCount/${ChanThreadsCache.immuneThreadsCount(isLowRamDevice)}), " +
         "total cached threads count: ${cachedThreadsCount}.")
 
-      val fullLocalDuration = readPostsDuration + storeDuration + parsingDuration + filterProcessingDuration
-      appendLine("Total local processing time: $fullLocalDuration")
+      appendLine("Total local processing time: ${loadTimeInfo.totalLocalProcessingDuration}")
     }
 
     Logger.d(TAG, logString)
@@ -585,7 +807,8 @@ class ChanThreadLoaderCoordinator(
     chanReadOptions: ChanReadOptions,
     chanLoadOptions: ChanLoadOptions,
     chanReaderProcessorOptions: ChanReaderProcessor.Options,
-    chanReader: ChanReader
+    chanReader: ChanReader,
+    streamingParser: ParsePostsV1UseCase.StreamingParser? = null
   ): ModularResult<ChanReaderProcessor> {
     BackgroundUtils.ensureBackgroundThread()
 
@@ -597,7 +820,8 @@ class ChanThreadLoaderCoordinator(
         chanLoadOptions = chanLoadOptions,
         options = chanReaderProcessorOptions,
         page = page,
-        chanDescriptor = chanDescriptor
+        chanDescriptor = chanDescriptor,
+        streamingParser = streamingParser
       )
 
       when (chanDescriptor) {
@@ -749,6 +973,18 @@ class ChanThreadLoaderCoordinator(
     private const val TAG = "ChanThreadLoaderCoordinator"
     private val THREE_MINUTES = TimeUnit.MINUTES.toMillis(3)
     private val ONE_MINUTE = TimeUnit.MINUTES.toMillis(1)
+
+    /**
+     * A thread opened from the catalog already has its OP in the cache (the catalog puts it there) so
+     * only the posts besides the OP tell whether the thread was already loaded.
+     * */
+    @VisibleForTesting
+    internal fun canPublishFirstPosts(
+      chanCacheUpdateOptions: ChanCacheUpdateOptions,
+      cachedThreadPostsCount: Int
+    ): Boolean {
+      return chanCacheUpdateOptions !is ChanCacheUpdateOptions.DoNotUpdateCache && cachedThreadPostsCount <= 1
+    }
   }
 
 }
\ No newline at end of file
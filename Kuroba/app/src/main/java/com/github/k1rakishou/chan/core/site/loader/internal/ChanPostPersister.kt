@@ -41,6 +41,7 @@ internal class ChanPostPersister(
     cacheOptions: ChanCacheOptions,
     chanCacheUpdateOptions: ChanCacheUpdateOptions,
     postParser: PostParser,
+    streamingParser: ParsePostsV1UseCase.StreamingParser? = null
   ): ThreadResultWithTimeInfo {
     return Try {
       BackgroundUtils.ensureBackgroundThread()
@@ -78,11 +79,14 @@ internal class ChanPostPersister(
         }
       }
 
-      val parsingResult = parsePostsV1UseCase.parseNewPostsPosts(
-        chanDescriptor = chanDescriptor,
-        postParser = postParser,
-        postBuildersToParse = chanReaderProcessor.getToParse()
-      )
+      // When the posts were parsed while the response was being read only the ones still in
+      // progress are waited for here
+      val parsingResult = streamingParser?.finish(chanReaderProcessor.getToParse())
+        ?: parsePostsV1UseCase.parseNewPostsPosts(
+          chanDescriptor = chanDescriptor,
+          postParser = postParser,
+          postBuildersToParse = chanReaderProcessor.getToParse()
+        )
 
       chanLoadProgressNotifier.sendProgressEvent(
         ChanLoadProgressEvent.PersistingPosts(chanDescriptor, parsingResult.parsedPosts.size)
@@ -130,15 +134,27 @@ internal class ChanPostPersister(
     val timeInfo: LoadTimeInfo?
   )
 
-  class LoadTimeInfo @OptIn(ExperimentalTime::class) constructor(
-    val storeDuration: Duration,
-    val storedPostsCount: Int,
-    val filterProcessingDuration: Duration,
-    val filtersCount: Int,
+  /**
+   * Durations of every stage of thread/catalog loading. The network stages (request and reading the
+   * json while it's being downloaded) run on Dispatchers.IO, parsing and filter processing on
+   * Dispatchers.Default and storing on the database dispatcher.
+   * */
+  data class LoadTimeInfo @OptIn(ExperimentalTime::class) constructor(
+    val requestDuration: Duration = Duration.ZERO,
+    val readPostsDuration: Duration = Duration.ZERO,
     val parsingDuration: Duration,
     val parsedPostsCount: Int,
-    val postsInChanReaderProcessor: Int
-  )
+    val postsInChanReaderProcessor: Int,
+    val filterProcessingDuration: Duration,
+    val filtersCount: Int,
+    val storeDuration: Duration,
+    val storedPostsCount: Int
+  ) {
+
+    val totalLocalProcessingDuration: Duration
+      get() = readPostsDuration + parsingDuration + filterProcessingDuration + storeDuration
+
+  }
 
   companion object {
     private const val TAG = "NormalPostLoader"
@@ -3,6 +3,7 @@ package com.github.k1rakishou.chan.core.site.loader.internal.usecase
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressEvent
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
 import com.github.k1rakishou.chan.core.helper.FilterEngine
+import com.github.k1rakishou.chan.core.helper.FilterSet
 import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.PostFilterManager
 import com.github.k1rakishou.chan.core.manager.PostHideManager
@@ -10,7 +11,6 @@ import com.github.k1rakishou.chan.core.manager.SavedReplyManager
 import com.github.k1rakishou.chan.core.site.parser.PostParser
 import com.github.k1rakishou.chan.utils.BackgroundUtils
 import com.github.k1rakishou.common.parallelForEach
-import com.github.k1rakishou.common.parallelForEachIndexed
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.filter.ChanFilter
@@ -20,6 +20,7 @@ import com.github.k1rakishou.model.data.post.ChanPostBuilder
 import com.github.k1rakishou.model.data.post.PostFilter
 import com.github.k1rakishou.model.repository.ChanPostRepository
 import kotlinx.coroutines.Dispatchers
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.time.Duration
 import kotlin.time.ExperimentalTime
 
@@ -45,12 +46,16 @@ abstract class AbstractParsePostsUseCase(
       return
     }
 
-    parallelForEach(postBuildersToParse, THREAD_COUNT * 2, Dispatchers.IO) { postToParse ->
-      // needed for "Apply to own posts" to work correctly
-      postToParse.isSavedReply(savedReplyManager.isSaved(postToParse.postDescriptor))
+    parallelForEach(postBuildersToParse, THREAD_COUNT, Dispatchers.Default) { postToParse ->
+      processSavedReply(postToParse)
     }
   }
 
+  protected fun processSavedReply(postToParse: ChanPostBuilder) {
+    // needed for "Apply to own posts" to work correctly
+    postToParse.isSavedReply(savedReplyManager.isSaved(postToParse.postDescriptor))
+  }
+
   protected suspend fun processFilters(
     chanDescriptor: ChanDescriptor,
     postBuildersToParse: List<ChanPostBuilder>,
@@ -63,21 +68,23 @@ abstract class AbstractParsePostsUseCase(
     val totalPosts = postBuildersToParse.size
     val filtersCount = filters.size
 
-    parallelForEachIndexed(postBuildersToParse, THREAD_COUNT * 2, Dispatchers.IO) { index, postToParse ->
-      if (filters.isNotEmpty()) {
-        processFilters(postToParse, filters)
-      }
+    val filterSet = filterEngine.getFilterSet()
+
+    val processedPostsCount = AtomicInteger(0)
+
+    parallelForEach(postBuildersToParse, THREAD_COUNT, Dispatchers.Default) { postToParse ->
+      processFilters(postToParse, filterSet)
 
       chanLoadProgressNotifier.sendProgressEvent(
         ChanLoadProgressEvent.ProcessingFilters(
           chanDescriptor = chanDescriptor,
-          processedPosts = index + 1,
+          processedPosts = processedPostsCount.incrementAndGet(),
           totalPosts = totalPosts,
           filtersCount = filtersCount
         )
       )
 
-      return@parallelForEachIndexed
+      return@parallelForEach
     }
 
     Logger.debug(TAG) {
@@ -87,7 +94,7 @@ abstract class AbstractParsePostsUseCase(
     }
   }
 
-  private fun processFilters(postToParse: ChanPostBuilder, filters: List<ChanFilter>) {
+  protected fun processFilters(postToParse: ChanPostBuilder, filterSet: FilterSet) {
     // Process the filters before finish, because parsing the html is dependent on filter matches
     val postDescriptor = postToParse.postDescriptor
 
@@ -111,16 +118,10 @@ abstract class AbstractParsePostsUseCase(
       return
     }
 
-    for (filter in filters) {
-      if (filter.isWatchFilter() || filter.isAvoidWatchFilter()) {
-        // Do not auto create watch filters, this may end up pretty bad
-        continue
-      }
-
-      if (filterEngine.matches(filter, postToParse)) {
-        postFilterManager.insert(postDescriptor, createPostFilter(filter))
-        return
-      }
+    val matchedFilter = filterSet.findFirstMatchingFilter(postToParse)
+    if (matchedFilter != null) {
+      postFilterManager.insert(postDescriptor, createPostFilter(matchedFilter))
+      return
     }
 
     // None of the filters matched this post so remove PostFilter associated with this post.
@@ -197,6 +198,10 @@ abstract class AbstractParsePostsUseCase(
 
   companion object {
     private const val TAG = "AbstractParsePostsUseCase"
+
+    // Comment parsing and filter matching are CPU bound so they run on Dispatchers.Default (which has
+    // one thread per core) with one worker per core. Running them on Dispatchers.IO with twice as many
+    // workers as there are cores only made them compete with the network and database threads.
     val THREAD_COUNT = Runtime.getRuntime().availableProcessors()
   }
 }
\ No newline at end of file
@@ -10,14 +10,29 @@ import com.github.k1rakishou.chan.core.manager.SavedReplyManager
 import com.github.k1rakishou.chan.core.site.parser.PostParseWorker
 import com.github.k1rakishou.chan.core.site.parser.PostParser
 import com.github.k1rakishou.chan.utils.BackgroundUtils
+import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.parallelForEachIndexed
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.options.ChanReadOptions
+import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.ChanPostBuilder
 import com.github.k1rakishou.model.repository.ChanPostRepository
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 import kotlin.time.Duration
+import kotlin.time.Duration.Companion.nanoseconds
 import kotlin.time.measureTime
 import kotlin.time.measureTimedValue
 
@@ -65,47 +80,18 @@ class ParsePostsV1UseCase(
       )
     )
 
-    val savedPosts = when (chanDescriptor) {
-      is ChanDescriptor.ICatalogDescriptor -> {
-        emptySet<PostDescriptor>()
-      }
-      is ChanDescriptor.ThreadDescriptor -> {
-        savedReplyManager.getThreadSavedReplies(chanDescriptor)
-          .map { it.postDescriptor }
-          .toSet()
-      }
-    }
-
-    val hiddenOrRemovedPosts = when (chanDescriptor) {
-      is ChanDescriptor.ICatalogDescriptor -> {
-        emptyMap()
-      }
-      is ChanDescriptor.ThreadDescriptor -> {
-        val resultMap = mutableMapOf<PostDescriptor, Int>()
-        val hiddenOrRemovedPosts = postHideManager.getHiddenPostsForThread(chanDescriptor)
-
-        for (hiddenOrRemovedPost in hiddenOrRemovedPosts) {
-          if (hiddenOrRemovedPost.manuallyRestored) {
-            continue
-          }
-
-          resultMap[hiddenOrRemovedPost.postDescriptor] = if (hiddenOrRemovedPost.onlyHide) {
-            PostParser.HIDDEN_POST
-          } else {
-            PostParser.REMOVED_POST
-          }
-        }
-
-        resultMap
-      }
-    }
+    val savedPosts = getSavedPosts(chanDescriptor)
+    val hiddenOrRemovedPosts = getHiddenOrRemovedPosts(chanDescriptor)
 
     val (parsedPosts, parsingDuration) = measureTimedValue {
+      // Posts are picked up by whichever worker is free so the index is not the amount of parsed posts
+      val parsedPostsCount = AtomicInteger(0)
+
       return@measureTimedValue parallelForEachIndexed(
         dataList = postBuildersToParse,
-        parallelization = THREAD_COUNT * 2,
-        dispatcher = Dispatchers.IO
-      ) { index, postToParse ->
+        parallelization = THREAD_COUNT,
+        dispatcher = Dispatchers.Default
+      ) { _, postToParse ->
         val chanPost = PostParseWorker(
           postBuilder = postToParse,
           postParser = postParser,
@@ -118,7 +104,7 @@ class ParsePostsV1UseCase(
         chanLoadProgressNotifier.sendProgressEvent(
           ChanLoadProgressEvent.ParsingPosts(
             chanDescriptor = chanDescriptor,
-            parsedPosts = index + 1,
+            parsedPosts = parsedPostsCount.incrementAndGet(),
             totalPosts = postBuildersToParse.size
           )
         )
@@ -159,8 +145,246 @@ class ParsePostsV1UseCase(
     )
   }
 
+  /**
+   * Starts the parse workers before the response is read so that posts can be parsed (and filtered)
+   * while the rest of the response is still being downloaded. Only for threads and only when all the
+   * posts of the response are going to be parsed (default [ChanReadOptions]) because the posts are
+   * handed to the workers right when they are read.
+   *
+   * [onFirstPostsParsed] is called (once) with the first [FIRST_POSTS_COUNT] posts of the response
+   * as soon as they are all parsed, so that they can be shown before the rest of a big thread is
+   * parsed. It's not called when the response has less posts than that.
+   *
+   * [StreamingParser.cancel] must always be called once the parser is not needed anymore (it's a
+   * no-op after [StreamingParser.finish]) otherwise the workers will keep waiting for new posts.
+   * */
+  suspend fun startStreamingParsing(
+    coroutineScope: CoroutineScope,
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    postParser: PostParser,
+    onFirstPostsParsed: (suspend (List<ChanPost>) -> Unit)?
+  ): StreamingParser {
+    BackgroundUtils.ensureBackgroundThread()
+
+    chanPostRepository.awaitUntilInitialized()
+    boardManager.awaitUntilInitialized()
+
+    val streamingParser = StreamingParser(
+      threadDescriptor = threadDescriptor,
+      postParser = postParser
+    )
+
+    streamingParser.start(coroutineScope, onFirstPostsParsed)
+    return streamingParser
+  }
+
+  private fun getSavedPosts(chanDescriptor: ChanDescriptor): Set<PostDescriptor> {
+    return when (chanDescriptor) {
+      is ChanDescriptor.ICatalogDescriptor -> {
+        emptySet<PostDescriptor>()
+      }
+      is ChanDescriptor.ThreadDescriptor -> {
+        savedReplyManager.getThreadSavedReplies(chanDescriptor)
+          .map { it.postDescriptor }
+          .toSet()
+      }
+    }
+  }
+
+  private fun getHiddenOrRemovedPosts(chanDescriptor: ChanDescriptor): Map<PostDescriptor, Int> {
+    return when (chanDescriptor) {
+      is ChanDescriptor.ICatalogDescriptor -> {
+        emptyMap()
+      }
+      is ChanDescriptor.ThreadDescriptor -> {
+        val resultMap = mutableMapOf<PostDescriptor, Int>()
+        val hiddenOrRemovedPosts = postHideManager.getHiddenPostsForThread(chanDescriptor)
+
+        for (hiddenOrRemovedPost in hiddenOrRemovedPosts) {
+          if (hiddenOrRemovedPost.manuallyRestored) {
+            continue
+          }
+
+          resultMap[hiddenOrRemovedPost.postDescriptor] = if (hiddenOrRemovedPost.onlyHide) {
+            PostParser.HIDDEN_POST
+          } else {
+            PostParser.REMOVED_POST
+          }
+        }
+
+        resultMap
+      }
+    }
+  }
+
+  inner class StreamingParser internal constructor(
+    private val threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    private val postParser: PostParser
+  ) {
+    private val savedPosts = getSavedPosts(threadDescriptor)
+    private val hiddenOrRemovedPosts = getHiddenOrRemovedPosts(threadDescriptor)
+    private val filters = loadFilters(threadDescriptor)
+    private val filterSet = filterEngine.getFilterSet()
+
+    // A post can only quote the posts that were posted before it so the ids of the posts read so far
+    // (plus the cached ones) are enough to tell whether a quote is internal.
+    private val internalIds: MutableSet<Long> = ConcurrentHashMap.newKeySet<Long>().apply {
+      addAll(chanPostRepository.getCachedThreadPostsNos(threadDescriptor))
+    }
+
+    private val postsChannel = Channel<IndexedValue<ChanPostBuilder>>(Channel.UNLIMITED)
+    private val parsedPosts = ConcurrentHashMap<Int, ChanPost>()
+    private val offeredPostsCount = AtomicInteger(0)
+    private val parsedPostsCount = AtomicInteger(0)
+    private val parsedFirstPostsCount = AtomicInteger(0)
+    // Sum of the time every worker spent processing the filters
+    private val filterProcessingTimeNanos = AtomicLong(0)
+    private val firstPostsParsed = CompletableDeferred<Unit>()
+    private val workers = mutableListWithCap<Job>(THREAD_COUNT)
+    private var firstPostsJob: Job? = null
+
+    internal fun start(
+      coroutineScope: CoroutineScope,
+      onFirstPostsParsed: (suspend (List<ChanPost>) -> Unit)?
+    ) {
+      chanLoadProgressNotifier.sendProgressEvent(
+        ChanLoadProgressEvent.ProcessingFilters(
+          chanDescriptor = threadDescriptor,
+          filtersCount = filters.size
+        )
+      )
+
+      repeat(THREAD_COUNT) {
+        workers += coroutineScope.launch(Dispatchers.Default) {
+          for ((index, postToParse) in postsChannel) {
+            parsePost(index, postToParse)
+          }
+        }
+      }
+
+      if (onFirstPostsParsed != null) {
+        firstPostsJob = coroutineScope.launch {
+          firstPostsParsed.await()
+
+          val firstPosts = (0 until FIRST_POSTS_COUNT).mapNotNull { index -> parsedPosts[index] }
+          onFirstPostsParsed(firstPosts)
+        }
+      }
+    }
+
+    /**
+     * Called by the reader for every post that needs to be parsed, in the order they are read.
+     * */
+    fun offer(postToParse: ChanPostBuilder) {
+      internalIds.add(postToParse.id)
+
+      val index = offeredPostsCount.getAndIncrement()
+      postsChannel.trySend(IndexedValue(index, postToParse))
+    }
+
+    /**
+     * Waits until all the offered posts are parsed and returns the ones that are still in
+     * [postBuildersToParse] (the final list of posts to parse of the reader, the posts offered earlier
+     * may have been removed from it since) in the order they were offered. The parsing time is how long
+     * we had to wait for the workers after the response was read. The filters are processed by the same
+     * workers, the filter processing time is the total time the workers have spent on them.
+     * */
+    suspend fun finish(postBuildersToParse: List<ChanPostBuilder>): ParsingResult {
+      postsChannel.close()
+
+      val parsingDuration = measureTime { workers.joinAll() }
+
+      // Make sure the first posts are stored before all the other posts are. When there are less posts
+      // than FIRST_POSTS_COUNT they are never published separately since everything will be shown
+      // right away anyway.
+      firstPostsJob?.let { job ->
+        if (firstPostsParsed.isCompleted) {
+          job.join()
+        } else {
+          job.cancelAndJoin()
+        }
+      }
+
+      val totalPosts = offeredPostsCount.get()
+      val resultPosts = mutableListWithCap<ChanPost>(totalPosts)
+      val postDescriptorsToParse = postBuildersToParse
+        .mapTo(HashSet(postBuildersToParse.size)) { postBuilder -> postBuilder.postDescriptor }
+
+      for (index in 0 until totalPosts) {
+        val chanPost = parsedPosts[index]
+          ?: continue
+
+        if (chanPost.postDescriptor !in postDescriptorsToParse) {
+          continue
+        }
+
+        resultPosts += chanPost
+      }
+
+      Logger.d(TAG, "StreamingParser.finish($threadDescriptor) parsedPosts=${resultPosts.size}, " +
+        "offeredPosts=$totalPosts, waited for workers $parsingDuration, filters=${filters.size}")
+
+      return ParsingResult(
+        parsedPosts = resultPosts,
+        filterProcessionTime = filterProcessingTimeNanos.get().nanoseconds,
+        filtersCount = filters.size,
+        parsingTime = parsingDuration
+      )
+    }
+
+    fun cancel() {
+      postsChannel.close()
+      workers.forEach { job -> job.cancel() }
+      firstPostsJob?.cancel()
+    }
+
+    private suspend fun parsePost(index: Int, postToParse: ChanPostBuilder) {
+      try {
+        processSavedReply(postToParse)
+
+        val chanPost = PostParseWorker(
+          postBuilder = postToParse,
+          postParser = postParser,
+          internalIds = internalIds,
+          savedPosts = savedPosts,
+          hiddenOrRemovedPosts = hiddenOrRemovedPosts,
+          isParsingCatalog = false
+        ).parse()
+
+        val filterProcessingDuration = measureTime { processFilters(postToParse, filterSet) }
+        filterProcessingTimeNanos.addAndGet(filterProcessingDuration.inWholeNanoseconds)
+
+        if (chanPost != null) {
+          parsedPosts[index] = chanPost
+        }
+      } catch (error: Throwable) {
+        if (error is CancellationException) {
+          throw error
+        }
+
+        // Same as the non-streaming parsing, a post that failed to be processed is just skipped
+        Logger.e(TAG, "StreamingParser.parsePost(${postToParse.postDescriptor}) error", error)
+      }
+
+      chanLoadProgressNotifier.sendProgressEvent(
+        ChanLoadProgressEvent.ParsingPosts(
+          chanDescriptor = threadDescriptor,
+          parsedPosts = parsedPostsCount.incrementAndGet(),
+          totalPosts = offeredPostsCount.get()
+        )
+      )
+
+      if (index < FIRST_POSTS_COUNT && parsedFirstPostsCount.incrementAndGet() == FIRST_POSTS_COUNT) {
+        firstPostsParsed.complete(Unit)
+      }
+    }
+  }
+
   companion object {
     private const val TAG = "ParsePostsUseCase"
+
+    // Roughly one screen of posts
+    const val FIRST_POSTS_COUNT = 30
   }
 
 }
\ No newline at end of file
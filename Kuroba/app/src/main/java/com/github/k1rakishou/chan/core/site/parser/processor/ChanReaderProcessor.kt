@@ -2,6 +2,7 @@ package com.github.k1rakishou.chan.core.site.parser.processor
 
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressEvent
 import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
+import com.github.k1rakishou.chan.core.site.loader.internal.usecase.ParsePostsV1UseCase
 import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.removeIfKt
 import com.github.k1rakishou.core_logger.Logger
@@ -22,7 +23,10 @@ class ChanReaderProcessor(
   private val chanLoadOptions: ChanLoadOptions,
   private val options: Options,
   override val page: Int?,
-  override val chanDescriptor: ChanDescriptor
+  override val chanDescriptor: ChanDescriptor,
+  // When set, the posts that need to be parsed are handed to it right away while the rest of the
+  // response is still being read
+  private val streamingParser: ParsePostsV1UseCase.StreamingParser? = null
 ) : AbstractChanReaderProcessor() {
   private val toParse = mutableListWithCap<ChanPostBuilder>(64)
   private val postOrderedList = mutableListWithCap<PostDescriptor>(64)
@@ -53,6 +57,7 @@ class ChanReaderProcessor(
     val totalPostsRead = lock.withLock {
       if (differsFromCached(postBuilder)) {
         toParse.add(postBuilder)
+        streamingParser?.offer(postBuilder)
       }
 
       postOrderedList.add(postBuilder.postDescriptor)
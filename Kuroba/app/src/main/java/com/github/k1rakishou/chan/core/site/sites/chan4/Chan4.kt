@@ -58,10 +58,12 @@ import com.github.k1rakishou.prefs.OptionsSetting
 import com.github.k1rakishou.prefs.StringSetting
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.map
+import okhttp3.CacheControl
 import okhttp3.HttpUrl
 import okhttp3.HttpUrl.Companion.toHttpUrl
 import okhttp3.Request
 import java.util.Locale
+import java.util.concurrent.TimeUnit
 
 @DoNotStrip
 open class Chan4 : SiteBase() {
@@ -302,8 +304,13 @@ open class Chan4 : SiteBase() {
     }
 
     override suspend fun pages(board: ChanBoard): JsonReaderRequest.JsonReaderResponse<BoardPages> {
+      // threads.json has no max-age so without this the cached response would be considered fresh for
+      // a while (heuristically) and the bookmark watcher would miss new replies. max-age=0 makes every
+      // request revalidate the cached response (an unchanged threads.json is still just a 304) while
+      // no-cache would make OkHttp skip the cache and the validators entirely.
       val request = Request.Builder()
         .url(endpoints().pages(board))
+        .cacheControl(CacheControl.Builder().maxAge(0, TimeUnit.SECONDS).build())
         .get()
         .build()
 
@@ -39,6 +39,8 @@ class Chan4BoardsRequest(
   proxiedOkHttpClient: Lazy<RealProxiedOkHttpClient>
 ) : AbstractRequest<SiteBoards>(request, proxiedOkHttpClient) {
 
+  override val useHttpResponseCache: Boolean = true
+
   override suspend fun processBody(responseBody: ResponseBody): SiteBoards {
     return responseBody.useJsonReader { jsonReader -> readJson(jsonReader) }
   }
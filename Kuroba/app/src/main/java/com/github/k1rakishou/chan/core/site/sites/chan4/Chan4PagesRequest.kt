@@ -40,7 +40,10 @@ class Chan4PagesRequest(
   request,
   proxiedOkHttpClient
 ) {
-  
+
+  // Every request revalidates the cached response (see Chan4.pages()) so an unchanged threads.json costs a 304
+  override val useHttpResponseCache: Boolean = true
+
   override suspend fun readJson(reader: JsonReader): BoardPages {
     val pages: MutableList<BoardPage> = ArrayList()
     reader.jsonArray {
@@ -39,6 +39,8 @@ class Chan420BoardsRequest(
   proxiedOkHttpClient: Lazy<RealProxiedOkHttpClient>
 ) : AbstractRequest<List<ChanBoard>>(request, proxiedOkHttpClient) {
 
+  override val useHttpResponseCache: Boolean = true
+
   override suspend fun processBody(responseBody: ResponseBody): List<ChanBoard> {
     return responseBody.useJsonReader { jsonReader -> readJson(jsonReader) }
   }
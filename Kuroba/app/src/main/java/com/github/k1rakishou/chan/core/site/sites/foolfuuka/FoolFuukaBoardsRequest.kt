@@ -23,6 +23,8 @@ class FoolFuukaBoardsRequest(
   proxiedOkHttpClient: Lazy<RealProxiedOkHttpClient>
 ) : AbstractRequest<SiteBoards>(request, proxiedOkHttpClient) {
 
+  override val useHttpResponseCache: Boolean = true
+
   override suspend fun processBody(responseBody: ResponseBody): SiteBoards {
     return responseBody.useHtmlReader(request.url.toString()) { document -> readHtml(document) }
   }
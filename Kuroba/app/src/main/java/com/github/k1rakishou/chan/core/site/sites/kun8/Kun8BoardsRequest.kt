@@ -23,6 +23,8 @@ class Kun8BoardsRequest(
   proxiedOkHttpClient: Lazy<RealProxiedOkHttpClient>
 ) : AbstractRequest<SiteBoards>(request, proxiedOkHttpClient) {
 
+  override val useHttpResponseCache: Boolean = true
+
   override suspend fun processBody(responseBody: ResponseBody): SiteBoards {
     return responseBody.useJsonReader { jsonReader -> readJson(jsonReader) }
   }
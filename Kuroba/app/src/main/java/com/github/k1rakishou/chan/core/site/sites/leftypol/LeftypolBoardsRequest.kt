@@ -39,6 +39,8 @@ class LeftypolBoardsRequest(
   proxiedOkHttpClient: Lazy<RealProxiedOkHttpClient>
 ) : AbstractRequest<SiteBoards>(request, proxiedOkHttpClient) {
 
+  override val useHttpResponseCache: Boolean = true
+
   override suspend fun processBody(responseBody: ResponseBody): SiteBoards {
     return responseBody.useJsonReader { jsonReader -> readJson(jsonReader) }
   }
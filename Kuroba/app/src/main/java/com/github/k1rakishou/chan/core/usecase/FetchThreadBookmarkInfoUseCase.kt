@@ -1,25 +1,32 @@
 package com.github.k1rakishou.chan.core.usecase
 
 import com.github.k1rakishou.chan.core.base.okhttp.ProxiedOkHttpClient
+import com.github.k1rakishou.chan.core.manager.BoardManager
 import com.github.k1rakishou.chan.core.manager.BookmarksManager
 import com.github.k1rakishou.chan.core.manager.SiteManager
+import com.github.k1rakishou.chan.core.net.HttpValidators
+import com.github.k1rakishou.chan.core.net.JsonReaderRequest
 import com.github.k1rakishou.chan.core.site.parser.ChanReader
 import com.github.k1rakishou.common.AppConstants
 import com.github.k1rakishou.common.EmptyBodyResponseException
 import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.ModularResult.Companion.Try
+import com.github.k1rakishou.common.errorMessageOrClassName
 import com.github.k1rakishou.common.parallelForEach
 import com.github.k1rakishou.common.suspendCall
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoObject
 import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoPostObject
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.SiteDescriptor
 import dagger.Lazy
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import okhttp3.HttpUrl
 import okhttp3.Request
 import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.math.max
 
 @Suppress("FoldInitializerAndIfToElvis")
@@ -29,9 +36,14 @@ class FetchThreadBookmarkInfoUseCase(
   private val appScope: CoroutineScope,
   private val proxiedOkHttpClient: Lazy<ProxiedOkHttpClient>,
   private val siteManager: SiteManager,
+  private val boardManager: BoardManager,
   private val bookmarksManager: BookmarksManager,
   private val appConstants: AppConstants
 ) : ISuspendUseCase<List<ChanDescriptor.ThreadDescriptor>, ModularResult<List<ThreadBookmarkFetchResult>>> {
+  // Validators of the last successfully fetched thread json, per bookmark.
+  private val bookmarkHttpValidators = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, HttpValidators>(64)
+  // last_modified of a thread (taken from the board thread index) at the moment of the last successful fetch.
+  private val bookmarkLastModified = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, Long>(64)
 
   override suspend fun execute(parameter: List<ChanDescriptor.ThreadDescriptor>): ModularResult<List<ThreadBookmarkFetchResult>> {
     Logger.d(TAG, "FetchThreadBookmarkInfoUseCase.execute(${parameter.size})")
@@ -44,7 +56,10 @@ class FetchThreadBookmarkInfoUseCase(
     val batchSize = (appConstants.processorsCount * BATCH_PER_CORE)
       .coerceAtLeast(MIN_BATCHES_COUNT)
 
-    return parallelForEach(watchingBookmarkDescriptors, batchSize, Dispatchers.IO) { threadDescriptor ->
+    val previouslyFetchedDescriptors = getPreviouslyFetchedDescriptors(watchingBookmarkDescriptors)
+    val threadLastModifiedMap = fetchBoardThreadIndexes(previouslyFetchedDescriptors, batchSize)
+
+    val results = parallelForEach(watchingBookmarkDescriptors, batchSize, Dispatchers.IO) { threadDescriptor ->
       val site = siteManager.bySiteDescriptor(threadDescriptor.siteDescriptor())
       if (site == null) {
         Logger.e(TAG, "Site with descriptor ${threadDescriptor.siteDescriptor()} " +
@@ -52,25 +67,148 @@ class FetchThreadBookmarkInfoUseCase(
         return@parallelForEach null
       }
 
+      val wasFetchedBefore = threadDescriptor in previouslyFetchedDescriptors
+      val threadLastModified = threadLastModifiedMap[threadDescriptor]
+
+      if (wasFetchedBefore && threadLastModified != null && bookmarkLastModified[threadDescriptor] == threadLastModified) {
+        return@parallelForEach ThreadBookmarkFetchResult.NotModified(threadDescriptor)
+      }
+
       val threadJsonEndpoint = site.endpoints().thread(threadDescriptor)
 
       return@parallelForEach fetchThreadBookmarkInfo(
-        threadDescriptor,
-        threadJsonEndpoint,
-        site.chanReader()
+        threadDescriptor = threadDescriptor,
+        threadJsonEndpoint = threadJsonEndpoint,
+        chanReader = site.chanReader(),
+        httpValidators = if (wasFetchedBefore) bookmarkHttpValidators[threadDescriptor] else null,
+        threadLastModified = threadLastModified
       )
     }
+
+    if (verboseLogsEnabled) {
+      val notModifiedCount = results.count { result -> result is ThreadBookmarkFetchResult.NotModified }
+      Logger.d(TAG, "fetchThreadBookmarkInfoBatched() total=${results.size}, notModified=${notModifiedCount}, " +
+        "boardIndexThreads=${threadLastModifiedMap.size}")
+    }
+
+    return results
+  }
+
+  /**
+   * Bookmarks that are fetched for the first time (or were re-created) must always be fully fetched
+   * because otherwise the BookmarkWatcherDelegate would have no info to update them with.
+   * */
+  private fun getPreviouslyFetchedDescriptors(
+    watchingBookmarkDescriptors: List<ChanDescriptor.ThreadDescriptor>
+  ): Set<ChanDescriptor.ThreadDescriptor> {
+    val resultSet = mutableSetOf<ChanDescriptor.ThreadDescriptor>()
+
+    watchingBookmarkDescriptors.forEach { threadDescriptor ->
+      val isFirstFetch = bookmarksManager.mapBookmark(threadDescriptor) { threadBookmarkView ->
+        threadBookmarkView.isFirstFetch()
+      }
+
+      if (isFirstFetch == false) {
+        resultSet += threadDescriptor
+        return@forEach
+      }
+
+      bookmarkHttpValidators.remove(threadDescriptor)
+      bookmarkLastModified.remove(threadDescriptor)
+    }
+
+    return resultSet
+  }
+
+  /**
+   * For sites that expose a board-level thread index with last modification time of every thread we
+   * fetch the index once per board and then only fetch threads that were modified since the last
+   * successful fetch.
+   * */
+  private suspend fun fetchBoardThreadIndexes(
+    threadDescriptors: Collection<ChanDescriptor.ThreadDescriptor>,
+    batchSize: Int
+  ): Map<ChanDescriptor.ThreadDescriptor, Long> {
+    val boardDescriptors = threadDescriptors
+      .filter { threadDescriptor -> threadIndexSupported(threadDescriptor.siteDescriptor()) }
+      .map { threadDescriptor -> threadDescriptor.boardDescriptor }
+      .toSet()
+
+    if (boardDescriptors.isEmpty()) {
+      return emptyMap()
+    }
+
+    val resultMap = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, Long>()
+
+    parallelForEach(boardDescriptors, batchSize, Dispatchers.IO) { boardDescriptor ->
+      val threads = fetchBoardThreadIndex(boardDescriptor)
+        ?: return@parallelForEach null
+
+      resultMap.putAll(threads)
+      return@parallelForEach Unit
+    }
+
+    return resultMap
+  }
+
+  private suspend fun fetchBoardThreadIndex(
+    boardDescriptor: BoardDescriptor
+  ): Map<ChanDescriptor.ThreadDescriptor, Long>? {
+    val site = siteManager.bySiteDescriptor(boardDescriptor.siteDescriptor)
+      ?: return null
+    val board = boardManager.byBoardDescriptor(boardDescriptor)
+      ?: return null
+
+    when (val response = site.actions().pages(board)) {
+      is JsonReaderRequest.JsonReaderResponse.Success -> {
+        val resultMap = mutableMapOf<ChanDescriptor.ThreadDescriptor, Long>()
+
+        response.result.boardPages.forEach { boardPage ->
+          boardPage.threads.forEach { (threadDescriptor, lastModified) ->
+            if (lastModified > 0) {
+              resultMap[threadDescriptor] = lastModified
+            }
+          }
+        }
+
+        return resultMap
+      }
+      is JsonReaderRequest.JsonReaderResponse.ServerError -> {
+        Logger.e(TAG, "fetchBoardThreadIndex($boardDescriptor) server error, status code: ${response.statusCode}")
+      }
+      is JsonReaderRequest.JsonReaderResponse.UnknownServerError -> {
+        Logger.e(TAG, "fetchBoardThreadIndex($boardDescriptor) unknown server error: ${response.error.errorMessageOrClassName()}")
+      }
+      is JsonReaderRequest.JsonReaderResponse.ParsingError -> {
+        Logger.e(TAG, "fetchBoardThreadIndex($boardDescriptor) parsing error: ${response.error.errorMessageOrClassName()}")
+      }
+      null -> {
+        // no-op
+      }
+    }
+
+    return null
+  }
+
+  private fun threadIndexSupported(siteDescriptor: SiteDescriptor): Boolean {
+    // 4chan's threads.json contains "last_modified" for every thread of a board
+    return siteDescriptor.is4chan()
   }
 
   private suspend fun fetchThreadBookmarkInfo(
     threadDescriptor: ChanDescriptor.ThreadDescriptor,
     threadJsonEndpoint: HttpUrl,
-    chanReader: ChanReader
+    chanReader: ChanReader,
+    httpValidators: HttpValidators?,
+    threadLastModified: Long?
   ): ThreadBookmarkFetchResult {
     val requestBuilder = Request.Builder()
       .url(threadJsonEndpoint)
       .get()
 
+    val actualHttpValidators = httpValidators?.takeIf { validators -> validators.matches(threadJsonEndpoint) }
+    actualHttpValidators?.applyTo(requestBuilder)
+
     siteManager.bySiteDescriptor(threadDescriptor.siteDescriptor())?.let { site ->
       site.requestModifier().modifyCatalogOrThreadGetRequest(
         site = site,
@@ -87,6 +225,11 @@ class FetchThreadBookmarkInfoUseCase(
       return ThreadBookmarkFetchResult.Error(error, threadDescriptor)
     }
 
+    if (actualHttpValidators != null && HttpValidators.isNotModified(response)) {
+      response.close()
+      return ThreadBookmarkFetchResult.NotModified(threadDescriptor)
+    }
+
     if (!response.isSuccessful) {
       if (response.code == NOT_FOUND_STATUS) {
         return ThreadBookmarkFetchResult.NotFoundOnServer(threadDescriptor)
@@ -118,6 +261,19 @@ class FetchThreadBookmarkInfoUseCase(
         ensureCorrectPostOrder(threadBookmarkInfoObject.simplePostObjects)
       }
 
+      val newHttpValidators = HttpValidators.fromResponse(threadJsonEndpoint, response)
+      if (newHttpValidators != null) {
+        bookmarkHttpValidators[threadDescriptor] = newHttpValidators
+      } else {
+        bookmarkHttpValidators.remove(threadDescriptor)
+      }
+
+      if (threadLastModified != null) {
+        bookmarkLastModified[threadDescriptor] = threadLastModified
+      } else {
+        bookmarkLastModified.remove(threadDescriptor)
+      }
+
       return@use ThreadBookmarkFetchResult.Success(threadBookmarkInfoObject, threadDescriptor)
     }
   }
@@ -171,4 +327,12 @@ sealed class ThreadBookmarkFetchResult(val threadDescriptor: ChanDescriptor.Thre
     val threadBookmarkInfoObject: ThreadBookmarkInfoObject,
     threadDescriptor: ChanDescriptor.ThreadDescriptor
   ) : ThreadBookmarkFetchResult(threadDescriptor)
+
+  /**
+   * The thread hasn't changed since the last successful fetch (either the server responded with 304
+   * or the board thread index says so) so the bookmark info is still up to date.
+   * */
+  class NotModified(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor
+  ) : ThreadBookmarkFetchResult(threadDescriptor)
 }
\ No newline at end of file
@@ -25,7 +25,7 @@ class LoadBoardFlagsUseCase(
           .url(url)
           .build()
 
-        val result = proxiedOkHttpClient.okHttpClient().suspendConvertIntoJsoupDocument(request)
+        val result = proxiedOkHttpClient.okHttpClientWithCache().suspendConvertIntoJsoupDocument(request)
 
         val document = if (result is ModularResult.Error) {
           return@Try null
@@ -1,5 +1,6 @@
 package com.github.k1rakishou.chan.core.usecase
 
+import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.core.manager.SiteManager
 import com.github.k1rakishou.chan.core.site.parser.ReplyParser
 import com.github.k1rakishou.common.ModularResult
@@ -7,6 +8,8 @@ import com.github.k1rakishou.common.hashSetWithCap
 import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.common.putIfNotContains
 import com.github.k1rakishou.core_logger.Logger
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoObject
+import com.github.k1rakishou.model.data.bookmark.ThreadBookmarkInfoPostObject
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanSavedReply
@@ -18,6 +21,7 @@ import kotlinx.coroutines.async
 import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
+import java.util.concurrent.ConcurrentHashMap
 
 typealias YousPerThreadMap = Map<ChanDescriptor.ThreadDescriptor, Map<Long, List<ReplyToMyPost>>>
 
@@ -28,9 +32,13 @@ class ParsePostRepliesUseCase(
   private val savedReplyRepository: Lazy<ChanSavedReplyRepository>
 ) : ISuspendUseCase<List<ThreadBookmarkFetchResult.Success>, YousPerThreadMap> {
 
+  private val scannedRepliesStates = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, ScannedRepliesState>(64)
+
   override suspend fun execute(parameter: List<ThreadBookmarkFetchResult.Success>): YousPerThreadMap {
     require(siteManager.isReady()) { "SiteManager is not initialized yet!" }
 
+    removeStaleScannedRepliesStates()
+
     return parsePostReplies(parameter)
   }
 
@@ -68,54 +76,16 @@ class ParsePostRepliesUseCase(
     successFetchResult: ThreadBookmarkFetchResult.Success
   ): Map<Long, List<ReplyToMyPost>> {
     val threadDescriptor = successFetchResult.threadDescriptor
+    val threadBookmarkInfoObject = successFetchResult.threadBookmarkInfoObject
+    val scannedRepliesState = scannedRepliesStates.getOrPut(threadDescriptor) { ScannedRepliesState() }
 
-    // Key - postNo of a post that quotes other posts.
-    // Value - set of postNo that the "Key" quotes.
-    val quoteOwnerPostsMap = mutableMapWithCap<Long, MutableSet<TempReplyToMyPost>>(32)
-
-    successFetchResult.threadBookmarkInfoObject.simplePostObjects.forEach { simplePostObject ->
-      val extractedQuotes = replyParser.get().extractCommentReplies(
-        threadDescriptor.siteDescriptor(),
-        simplePostObject.comment()
-      )
-
-      extractedQuotes.forEach { extractedQuote ->
-        when (extractedQuote) {
-          is ReplyParser.ExtractedQuote.FullQuote -> {
-            val isQuotedPostInTheSameThread = (extractedQuote.boardCode == threadDescriptor.boardCode()
-              && extractedQuote.threadId == threadDescriptor.threadNo)
-
-            if (!isQuotedPostInTheSameThread) {
-              // Cross-thread reply or something like that, we don't support it since it shouldn't
-              // be used normally. The only use case that come to mind is when there are two
-              // different threads bookmarked and someone from one bookmarked thread replied to our
-              // post in another bookmarked thread. Normally, nobody would expect for this to work
-              // and that's why we don't support it.
-              return@forEach
-            }
-
-            quoteOwnerPostsMap.putIfNotContains(extractedQuote.postId, hashSetWithCap(16))
-
-            val tempReplyToMyPost = TempReplyToMyPost(
-              simplePostObject.postNo(),
-              simplePostObject.comment()
-            )
-            quoteOwnerPostsMap[extractedQuote.postId]!!.add(tempReplyToMyPost)
-          }
-          is ReplyParser.ExtractedQuote.Quote -> {
-            quoteOwnerPostsMap.putIfNotContains(extractedQuote.postId, hashSetWithCap(16))
-
-            val tempReplyToMyPost = TempReplyToMyPost(
-              simplePostObject.postNo(),
-              simplePostObject.comment()
-            )
-            quoteOwnerPostsMap[extractedQuote.postId]!!.add(tempReplyToMyPost)
-          }
-        }
-      }
+    // Key - postNo of a post that is quoted by other posts.
+    // Value - set of postNo of the posts that quote the "Key".
+    val quotedPostsMap = synchronized(scannedRepliesState) {
+      scanNewPosts(threadDescriptor, threadBookmarkInfoObject, scannedRepliesState)
     }
 
-    if (quoteOwnerPostsMap.isEmpty()) {
+    if (quotedPostsMap.isEmpty()) {
       return emptyMap()
     }
 
@@ -133,22 +103,38 @@ class ParsePostRepliesUseCase(
 
     val quotesToMeInThreadMap = retainSavedPostNoMap(
       threadSavedReplies,
-      quoteOwnerPostsMap
+      quotedPostsMap
     )
 
     if (quotesToMeInThreadMap.isEmpty()) {
       return emptyMap()
     }
 
+    // The scanned state only keeps the post numbers, the comments of the replies to our posts are taken
+    // from the posts we have just fetched (they always contain the whole thread).
+    val repliesToMePostNoSet = hashSetWithCap<Long>(quotesToMeInThreadMap.size)
+    quotesToMeInThreadMap.values.forEach { repliesToMeSet -> repliesToMePostNoSet.addAll(repliesToMeSet) }
+
+    val commentsMap = mutableMapWithCap<Long, String>(repliesToMePostNoSet.size)
+    threadBookmarkInfoObject.simplePostObjects.forEach { simplePostObject ->
+      val postNo = simplePostObject.postNo()
+      if (postNo in repliesToMePostNoSet) {
+        commentsMap[postNo] = simplePostObject.comment()
+      }
+    }
+
     val quotePostDescriptorsMap = HashMap<Long, MutableList<ReplyToMyPost>>(quotesToMeInThreadMap.size)
 
     quotesToMeInThreadMap.forEach { (myPostNo, repliesToMeSet) ->
       quotePostDescriptorsMap.putIfNotContains(myPostNo, ArrayList(repliesToMeSet.size))
 
-      repliesToMeSet.forEach { tempReplyToMyPost ->
+      repliesToMeSet.forEach { replyPostNo ->
+        val commentRaw = commentsMap[replyPostNo]
+          ?: return@forEach
+
         val replyToMyPost = ReplyToMyPost(
-          PostDescriptor.create(threadDescriptor, tempReplyToMyPost.postNo),
-          tempReplyToMyPost.commentRaw
+          PostDescriptor.create(threadDescriptor, replyPostNo),
+          commentRaw
         )
 
         quotePostDescriptorsMap[myPostNo]!!.add(replyToMyPost)
@@ -158,59 +144,158 @@ class ParsePostRepliesUseCase(
     return quotePostDescriptorsMap
   }
 
-  private fun retainSavedPostNoMap(
-    threadSavedReplies: List<ChanSavedReply>,
-    quoteOwnerPostsMap: Map<Long, Set<TempReplyToMyPost>>
-  ): Map<Long, MutableSet<TempReplyToMyPost>> {
-    val resultMap: MutableMap<Long, MutableSet<TempReplyToMyPost>> = mutableMapWithCap(16)
-
-    val savedRepliesNoSet = threadSavedReplies
-      .map { chanSavedReply -> chanSavedReply.postDescriptor.postNo }
-      .toSet()
-
-    for ((quotePostNo, tempReplies) in quoteOwnerPostsMap) {
-      for (tempReply in tempReplies) {
-        if (!savedRepliesNoSet.contains(quotePostNo)) {
-          continue
-        }
+  /**
+   * Only posts with postNo greater than [ScannedRepliesState.lastScannedPostNo] are regex-scanned,
+   * quotes of already scanned posts are taken from [ScannedRepliesState.quotedPostsMap].
+   * */
+  private fun scanNewPosts(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    threadBookmarkInfoObject: ThreadBookmarkInfoObject,
+    scannedRepliesState: ScannedRepliesState
+  ): Map<Long, Set<Long>> {
+    val simplePostObjects = threadBookmarkInfoObject.simplePostObjects
+    val stateQuotedPostsMap = scannedRepliesState.quotedPostsMap
+    var lastScannedPostNo = scannedRepliesState.lastScannedPostNo
+    var hasOldPosts = false
+
+    simplePostObjects.forEach { simplePostObject ->
+      val postNo = simplePostObject.postNo()
+      if (postNo <= scannedRepliesState.lastScannedPostNo) {
+        hasOldPosts = true
+        return@forEach
+      }
+
+      extractQuotesToMap(threadDescriptor, simplePostObject, stateQuotedPostsMap)
 
-        resultMap.putIfNotContains(quotePostNo, mutableSetOf())
-        resultMap[quotePostNo]!!.add(tempReply)
+      if (postNo > lastScannedPostNo) {
+        lastScannedPostNo = postNo
       }
     }
 
+    scannedRepliesState.lastScannedPostNo = lastScannedPostNo
+    scannedRepliesState.lastAccessTime = System.currentTimeMillis()
+
+    if (stateQuotedPostsMap.isEmpty()) {
+      return emptyMap()
+    }
+
+    if (!hasOldPosts) {
+      return stateQuotedPostsMap.mapValues { (_, quotingPostNoSet) -> HashSet(quotingPostNoSet) }
+    }
+
+    // Some of the previously scanned posts might have been deleted since the last time so we need to
+    // get rid of their quotes.
+    val alivePostNoSet = hashSetWithCap<Long>(simplePostObjects.size)
+    simplePostObjects.forEach { simplePostObject -> alivePostNoSet.add(simplePostObject.postNo()) }
+
+    val resultMap = mutableMapWithCap<Long, Set<Long>>(stateQuotedPostsMap.size)
+    val iterator = stateQuotedPostsMap.entries.iterator()
+
+    while (iterator.hasNext()) {
+      val (quotedPostNo, quotingPostNoSet) = iterator.next()
+
+      quotingPostNoSet.removeAll { quotingPostNo -> quotingPostNo !in alivePostNoSet }
+      if (quotingPostNoSet.isEmpty()) {
+        iterator.remove()
+        continue
+      }
+
+      resultMap[quotedPostNo] = HashSet(quotingPostNoSet)
+    }
+
     return resultMap
   }
 
-  class TempReplyToMyPost(
-    val postNo: Long,
-    val commentRaw: String
+  private fun extractQuotesToMap(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    simplePostObject: ThreadBookmarkInfoPostObject,
+    quotedPostsMap: MutableMap<Long, MutableSet<Long>>
   ) {
+    val extractedQuotes = replyParser.get().extractCommentReplies(
+      threadDescriptor.siteDescriptor(),
+      simplePostObject.comment()
+    )
+
+    extractedQuotes.forEach { extractedQuote ->
+      when (extractedQuote) {
+        is ReplyParser.ExtractedQuote.FullQuote -> {
+          val isQuotedPostInTheSameThread = (extractedQuote.boardCode == threadDescriptor.boardCode()
+            && extractedQuote.threadId == threadDescriptor.threadNo)
+
+          if (!isQuotedPostInTheSameThread) {
+            // Cross-thread reply or something like that, we don't support it since it shouldn't
+            // be used normally. The only use case that come to mind is when there are two
+            // different threads bookmarked and someone from one bookmarked thread replied to our
+            // post in another bookmarked thread. Normally, nobody would expect for this to work
+            // and that's why we don't support it.
+            return@forEach
+          }
 
-    override fun equals(other: Any?): Boolean {
-      if (this === other) return true
-      if (javaClass != other?.javaClass) return false
+          quotedPostsMap.putIfNotContains(extractedQuote.postId, hashSetWithCap(16))
+          quotedPostsMap[extractedQuote.postId]!!.add(simplePostObject.postNo())
+        }
+        is ReplyParser.ExtractedQuote.Quote -> {
+          quotedPostsMap.putIfNotContains(extractedQuote.postId, hashSetWithCap(16))
+          quotedPostsMap[extractedQuote.postId]!!.add(simplePostObject.postNo())
+        }
+      }
+    }
+  }
 
-      other as TempReplyToMyPost
+  private fun removeStaleScannedRepliesStates() {
+    val now = System.currentTimeMillis()
 
-      if (postNo != other.postNo) return false
+    // The background watcher may run as rarely as once per watchBackgroundInterval (and even less often
+    // in doze mode) so a state is only considered stale after several missed updates.
+    val watchIntervalMs = maxOf(
+      ChanSettings.watchForegroundInterval.get(),
+      ChanSettings.watchBackgroundInterval.get()
+    ).toLong()
+    val staleStateTimeoutMs = watchIntervalMs * STALE_STATE_MISSED_UPDATES
 
-      return true
+    scannedRepliesStates.entries.removeAll { (_, scannedRepliesState) ->
+      now - scannedRepliesState.lastAccessTime > staleStateTimeoutMs
     }
+  }
 
-    override fun hashCode(): Int {
-      return postNo.hashCode()
-    }
+  private fun retainSavedPostNoMap(
+    threadSavedReplies: List<ChanSavedReply>,
+    quotedPostsMap: Map<Long, Set<Long>>
+  ): Map<Long, Set<Long>> {
+    val resultMap: MutableMap<Long, Set<Long>> = mutableMapWithCap(16)
+
+    for (chanSavedReply in threadSavedReplies) {
+      val savedPostNo = chanSavedReply.postDescriptor.postNo
+      val quotingPostNoSet = quotedPostsMap[savedPostNo]
+        ?: continue
 
-    override fun toString(): String {
-      return "TempReplyToMyPost(postNo=$postNo, commentRaw='${commentRaw.take(50)}')"
+      resultMap[savedPostNo] = quotingPostNoSet
     }
 
+    return resultMap
+  }
+
+  /**
+   * Per-bookmark high-water mark of the reply scanner. [quotedPostsMap] holds the quotes extracted
+   * from all posts up to (and including) [lastScannedPostNo]. Only post numbers are kept here since
+   * there is one state per watched bookmark, the comments are taken from the latest fetch results.
+   * */
+  class ScannedRepliesState {
+    @Volatile
+    var lastScannedPostNo: Long = 0L
+    @Volatile
+    var lastAccessTime: Long = System.currentTimeMillis()
+
+    val quotedPostsMap = mutableMapWithCap<Long, MutableSet<Long>>(32)
   }
 
   companion object {
     private const val TAG = "ParsePostRepliesUseCase"
     private const val BATCH_SIZE = 8
+
+    // Bookmarks that haven't been updated for this many watch intervals are most likely not watched
+    // anymore.
+    private const val STALE_STATE_MISSED_UPDATES = 3
   }
 }
 
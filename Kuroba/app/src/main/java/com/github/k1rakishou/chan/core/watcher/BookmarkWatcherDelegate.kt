@@ -222,6 +222,11 @@ class BookmarkWatcherDelegate(
             // No-op. This just means that the user has deleted this bookmark while it was fetching
             // info so we have nothing to do.
           }
+          is ThreadBookmarkFetchResult.NotModified -> {
+            // Nothing has changed since the last successful fetch so the bookmark info is still
+            // valid, we only need to clear the error flag that might have been set in-between.
+            threadBookmark.updateState(error = false)
+          }
           is ThreadBookmarkFetchResult.Success -> {
             throw IllegalStateException("Shouldn't be handled here")
           }
@@ -404,6 +409,7 @@ class BookmarkWatcherDelegate(
     var alreadyDeletedCount = 0
     var notFoundOnServerCount = 0
     var badStatusCount = 0
+    var notModifiedCount = 0
     var successCount = 0
 
     threadBookmarkFetchResults.forEach { fetchResult ->
@@ -436,6 +442,13 @@ class BookmarkWatcherDelegate(
 
           ++badStatusCount
         }
+        is ThreadBookmarkFetchResult.NotModified -> {
+          if (verboseLogsEnabled) {
+            Logger.d(TAG, "FetchResult.NotModified: descriptor=${fetchResult.threadDescriptor}")
+          }
+
+          ++notModifiedCount
+        }
         is ThreadBookmarkFetchResult.Success -> {
           if (verboseLogsEnabled) {
             val originalPost = fetchResult.threadBookmarkInfoObject.simplePostObjects.firstOrNull { post ->
@@ -453,7 +466,7 @@ class BookmarkWatcherDelegate(
     Logger.d(TAG, "fetchThreadBookmarkInfo stats: total results=${threadBookmarkFetchResults.size}, " +
       "errorsCount=$errorsCount, alreadyDeletedCount=$alreadyDeletedCount, " +
       "notFoundOnServerCount=$notFoundOnServerCount, badStatusCount=$badStatusCount, " +
-      "successCount=$successCount")
+      "notModifiedCount=$notModifiedCount, successCount=$successCount")
   }
 
   companion object {
@@ -19,6 +19,7 @@ import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.MpvSettings
 import com.github.k1rakishou.chan.R
 import com.github.k1rakishou.chan.core.cache.CacheFileType
+import com.github.k1rakishou.chan.core.cache.stream.MediaCacheStreamingServer
 import com.github.k1rakishou.chan.core.mpv.MPVLib
 import com.github.k1rakishou.chan.core.mpv.MPVView
 import com.github.k1rakishou.chan.core.mpv.MpvUtils
@@ -45,9 +46,11 @@ import com.github.k1rakishou.fsaf.file.RawFile
 import com.google.android.exoplayer2.ui.DefaultTimeBar
 import com.google.android.exoplayer2.ui.TimeBar
 import com.google.android.exoplayer2.upstream.DataSource
+import dagger.Lazy
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import javax.inject.Inject
 
 @SuppressLint("ViewConstructor", "ClickableViewAccessibility")
 class MpvVideoMediaView(
@@ -73,6 +76,9 @@ class MpvVideoMediaView(
   contentDataSourceFactory = contentDataSourceFactory,
 ), MPVLib.EventObserver {
 
+  @Inject
+  lateinit var mediaCacheStreamingServer: Lazy<MediaCacheStreamingServer>
+
   private val thumbnailMediaView: ThumbnailMediaView
   private val actualVideoPlayerViewContainer: FrameLayout
   private val actualVideoPlayerView: MPVView
@@ -407,6 +413,11 @@ class MpvVideoMediaView(
 
     actualVideoPlayerViewContainer.removeAllViews()
     playing = false
+
+    val mediaLocation = viewableMedia.mediaLocation
+    if (mediaLocation is MediaLocation.Remote) {
+      mediaCacheStreamingServer.get().stopStreaming(mediaLocation.url)
+    }
   }
 
   private fun startPlayingVideo(isLifecycleChange: Boolean) {
@@ -676,7 +687,9 @@ class MpvVideoMediaView(
           }
         }
 
-        return mediaLocation.urlRaw
+        // Let mpv play the video from the media cache while it's being downloaded by the app
+        return mediaCacheStreamingServer.get().getStreamingUrl(mediaLocation.url)
+          ?: mediaLocation.urlRaw
       }
     }
   }
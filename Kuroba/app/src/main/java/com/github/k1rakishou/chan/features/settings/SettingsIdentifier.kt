@@ -767,6 +767,7 @@ sealed class ExperimentalScreen(
 
     object OkHttpAllowIpv6 : MainSettingsGroup("ok_http_allow_ipv6")
     object OkHttpUseDnsOverHttps : MainSettingsGroup("ok_http_use_dns_over_https")
+    object OkHttpMaxRequestsPerHost : MainSettingsGroup("ok_http_max_requests_per_host")
     object CloudflareForcePreload : MainSettingsGroup("cloudflare_force_preload")
     object AutoLoadThreadImages : MainSettingsGroup("auto_load_thread_images")
     object ShowPrefetchLoadingIndicator : MainSettingsGroup("show_prefetch_loading_indicator")
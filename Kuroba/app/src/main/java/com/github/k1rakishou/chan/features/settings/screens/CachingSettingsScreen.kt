@@ -59,12 +59,16 @@ class CachingSettingsScreen(
             bottomDescriptionStringFunc = {
               val internalCacheSizeBytes = cacheHandler.get().getSize(cacheFileType)
               val internalCacheMaxSizeBytes = cacheHandler.get().getMaxSize(cacheFileType)
+              val cacheStatistics = cacheHandler.get().getStatistics(cacheFileType)
 
               context.getString(
                 R.string.settings_clear_file_cache_bottom_description,
                 cacheFileType.name,
                 ChanPostUtils.getReadableFileSize(internalCacheSizeBytes),
                 ChanPostUtils.getReadableFileSize(internalCacheMaxSizeBytes),
+                cacheStatistics.hits,
+                cacheStatistics.misses,
+                cacheStatistics.evictions
               )
             },
             callback = {
@@ -53,6 +53,17 @@ class ExperimentalSettingsScreen(
           requiresRestart = true
         )
 
+        group += ListSettingV2.createBuilder<Int>(
+          context = context,
+          identifier = ExperimentalScreen.MainSettingsGroup.OkHttpMaxRequestsPerHost,
+          topDescriptionIdFunc = { R.string.setting_okhttp_max_requests_per_host },
+          bottomDescriptionStringFunc = { itemName -> itemName },
+          items = MAX_REQUESTS_PER_HOST_OPTIONS,
+          itemNameMapper = { maxRequestsPerHost -> maxRequestsPerHost.toString() },
+          setting = ChanSettings.okHttpMaxRequestsPerHost,
+          requiresRestart = true
+        )
+
         group += BooleanSettingV2.createBuilder(
           context = context,
           identifier = ExperimentalScreen.MainSettingsGroup.CloudflareForcePreload,
@@ -152,4 +163,8 @@ class ExperimentalSettingsScreen(
     )
   }
 
+  companion object {
+    private val MAX_REQUESTS_PER_HOST_OPTIONS = listOf(5, 10, 16, 32)
+  }
+
 }
\ No newline at end of file
@@ -246,13 +246,7 @@ class PostAdapter(
       }
       else -> {
         val postCellData = threadCellData.getPostCellData(position)
-        val repliesFromCount = postCellData.repliesFromCount
-        val compactValue = if (postCellData.compact) 1L else 0L
-
-        return ((repliesFromCount.toLong() shl 32)
-          + postCellData.postNo
-          + postCellData.postSubNo
-          + compactValue)
+        return ThreadCellData.postStableId(postCellData.postDescriptor)
       }
     }
   }
@@ -317,7 +311,7 @@ class PostAdapter(
   ) {
     BackgroundUtils.ensureMainThread()
 
-    threadCellData.updateThreadData(
+    val threadCellDataUpdate = threadCellData.updateThreadData(
       postCellCallback = postCellCallback,
       chanDescriptor = chanDescriptor,
       postIndexedList = postIndexedList,
@@ -332,9 +326,19 @@ class PostAdapter(
       )
     }
 
-    notifyDataSetChanged()
+    if (threadCellDataUpdate == null) {
+      notifyDataSetChanged()
+
+      Logger.d(TAG, "setThread() notifyDataSetChanged called, postIndexedList.size=" + postIndexedList.size)
+      return
+    }
+
+    // See comments in onViewRecycled
+    updatingPosts.addAll(threadCellDataUpdate.changedPosts)
+    threadCellDataUpdate.diffResult.dispatchUpdatesTo(this)
 
-    Logger.d(TAG, "setThread() notifyDataSetChanged called, postIndexedList.size=" + postIndexedList.size)
+    Logger.d(TAG, "setThread() diff dispatched, postIndexedList.size=" + postIndexedList.size +
+      ", changedPosts.size=" + threadCellDataUpdate.changedPosts.size)
   }
 
   fun cleanup() {
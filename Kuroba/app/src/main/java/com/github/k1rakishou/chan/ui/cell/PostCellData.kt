@@ -45,6 +45,7 @@ import com.github.k1rakishou.model.data.post.ChanPost
 import com.github.k1rakishou.model.data.post.ChanPostHide
 import com.github.k1rakishou.model.data.post.ChanPostHttpIcon
 import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.data.thread.PostSearchIndex
 import com.github.k1rakishou.model.util.ChanPostUtils
 import com.google.android.gms.tasks.Task
 import com.google.mlkit.common.model.DownloadConditions
@@ -476,7 +477,7 @@ data class PostCellData(
       postSubject.setSpanSafe(AbsoluteSizeSpanHashed(fontSizePx), 0, postSubject.length, 0)
 
       SpannableHelper.findAllQueryEntriesInsideSpannableStringAndMarkThem(
-        inputQueries = listOf(searchQuery.query),
+        inputQueries = searchQuery.queriesToHighlight(),
         spannableString = postSubject,
         bgColor = theme.accentColor,
         minQueryLength = searchQuery.queryMinValidLength
@@ -560,7 +561,7 @@ data class PostCellData(
     }
 
     SpannableHelper.findAllQueryEntriesInsideSpannableStringAndMarkThem(
-      inputQueries = listOf(searchQuery.query),
+      inputQueries = searchQuery.queriesToHighlight(),
       spannableString = postNoText,
       bgColor = theme.accentColor,
       minQueryLength = searchQuery.queryMinValidLength
@@ -713,13 +714,25 @@ data class PostCellData(
 
   private fun calculateCommentText(): CharSequence {
     val commentText = SpannableString.valueOf(calculateCommentTextInternal())
+    val commentMatchRanges = searchQuery.commentMatchRanges?.get(post.postDescriptor)
 
-    SpannableHelper.findAllQueryEntriesInsideSpannableStringAndMarkThem(
-      inputQueries = listOf(searchQuery.query),
-      spannableString = commentText,
-      bgColor = theme.accentColor,
-      minQueryLength = searchQuery.queryMinValidLength
-    )
+    // The positions found by the search are only valid for the original comment (not the updated or
+    // the ellipsized one)
+    if (commentMatchRanges != null && TextUtils.equals(commentText, post.postComment.originalCommentText())) {
+      SpannableHelper.markQueryEntriesInsideSpannableString(
+        matchRanges = commentMatchRanges,
+        spannableString = commentText,
+        bgColor = theme.accentColor,
+        minQueryLength = searchQuery.queryMinValidLength
+      )
+    } else {
+      SpannableHelper.findAllQueryEntriesInsideSpannableStringAndMarkThem(
+        inputQueries = searchQuery.queriesToHighlight(),
+        spannableString = commentText,
+        bgColor = theme.accentColor,
+        minQueryLength = searchQuery.queryMinValidLength
+      )
+    }
 
     if (keywordsToHighlight.isNotEmpty()) {
       val keywordsToHighlightMap = keywordsToHighlight.associateBy { it.keyword }
@@ -769,7 +782,7 @@ data class PostCellData(
 
     postFileInfoTextMap.entries.forEach { (_, postFileInfoSpannable) ->
       SpannableHelper.findAllQueryEntriesInsideSpannableStringAndMarkThem(
-        inputQueries = listOf(searchQuery.query),
+        inputQueries = searchQuery.queriesToHighlight(),
         spannableString = postFileInfoSpannable,
         bgColor = theme.accentColor,
         minQueryLength = searchQuery.queryMinValidLength
@@ -1093,9 +1106,15 @@ data class PostCellData(
 
   data class SearchQuery(
     val query: String = "",
-    val queryMinValidLength: Int = AppConstants.MIN_QUERY_LENGTH
+    val queryMinValidLength: Int = AppConstants.MIN_QUERY_LENGTH,
+    // When set, every term is highlighted separately instead of the whole query
+    val queryTerms: List<String>? = null,
+    // Positions of the query terms inside of the comments of the found posts
+    val commentMatchRanges: Map<PostDescriptor, List<PostSearchIndex.MatchRange>>? = null
   ) {
     fun isEmpty(): Boolean = query.isEmpty()
+
+    fun queriesToHighlight(): List<String> = queryTerms ?: listOf(query)
   }
 
   // vvv When updating any of these don't forget to update the flags !!! vvv
@@ -1,5 +1,6 @@
 package com.github.k1rakishou.chan.ui.cell
 
+import androidx.recyclerview.widget.DiffUtil
 import com.github.k1rakishou.ChanSettings
 import com.github.k1rakishou.chan.core.base.KurobaCoroutineScope
 import com.github.k1rakishou.chan.core.manager.ChanThreadManager
@@ -17,10 +18,14 @@ import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.mutableMapWithCap
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_themes.ChanTheme
+import com.github.k1rakishou.model.data.board.pages.BoardPage
 import com.github.k1rakishou.model.data.board.pages.BoardPages
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.filter.HighlightFilterKeyword
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
 import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostHide
 import com.github.k1rakishou.model.data.post.PostIndexed
 import dagger.Lazy
 import kotlinx.coroutines.Dispatchers
@@ -60,6 +65,10 @@ class ThreadCellData(
   @Volatile private var postCellCallback: PostCellInterface.PostCellCallback? = null
   private var currentTheme: ChanTheme = initialTheme
   private var lazyCalculationJob: Job? = null
+  private var currentEnvironment: PostCellDataEnvironment? = null
+  // Incremented every time the adapter items change so that updateThreadData() can tell whether the
+  // items it has calculated the diff against are still the current ones
+  private var itemsVersion = 0
 
   var postViewMode: PostCellData.PostViewMode = PostCellData.PostViewMode.Normal
   var defaultIsCompact: Boolean = false
@@ -108,13 +117,17 @@ class ThreadCellData(
         val oldPostCellData = oldPostCellDataLazy.getOrCalculate()
         val postIndexed = PostIndexed(updatedPost, oldPostCellData.postIndex)
 
-        val updatedPostCellData = postIndexedListToLazyPostCellDataList(
-          postCellCallback = callback,
+        val environment = captureEnvironment(
           chanDescriptor = descriptor,
           theme = currentTheme,
+          postCellDataWidthNoPaddings = oldPostCellData.postCellDataWidthNoPaddings
+        )
+
+        val updatedPostCellData = postIndexedListToLazyPostCellDataList(
+          postCellCallback = callback,
+          environment = environment,
           postIndexedList = listOf(postIndexed),
           postDescriptors = listOf(updatedPost.postDescriptor),
-          postCellDataWidthNoPaddings = oldPostCellData.postCellDataWidthNoPaddings,
           oldPostCellData = oldPostCellData
         )
 
@@ -138,12 +151,19 @@ class ThreadCellData(
       }
 
       postCellDataLazyList[postCellDataIndex] = updatedPostCellData.first()
+      ++itemsVersion
       updatedAtLeastOne = true
     }
 
     return updatedAtLeastOne
   }
 
+  /**
+   * Replaces the posts with the posts of [postIndexedList]. Returns the difference between the old and
+   * the new adapter items or null when the whole adapter has to be reloaded instead (the first update,
+   * another thread/catalog, something that all the posts depend on has changed e.g. the theme or a
+   * setting, or the items were changed by someone else while the difference was being calculated).
+   * */
   suspend fun updateThreadData(
     postCellCallback: PostCellInterface.PostCellCallback,
     chanDescriptor: ChanDescriptor,
@@ -151,10 +171,26 @@ class ThreadCellData(
     postCellDataWidthNoPaddings: Int,
     theme: ChanTheme,
     prevScrollPositionData: PreviousThreadScrollPositionData? = null
-  ) {
+  ): ThreadCellDataUpdate? {
     require(postCellDataWidthNoPaddings > 0) { "Bad postCellDataWidthNoPaddings: ${postCellDataWidthNoPaddings}" }
     BackgroundUtils.ensureMainThread()
 
+    val prevItemsVersion = itemsVersion
+    val prevEnvironment = currentEnvironment
+    val prevPostCellDataLazyList = postCellDataLazyList.toList()
+    val prevLastSeenIndicatorPosition = lastSeenIndicatorPosition
+
+    val prevItems = if (_chanDescriptor == chanDescriptor && prevPostCellDataLazyList.isNotEmpty()) {
+      createThreadCellItems(
+        postCellDataLazyList = prevPostCellDataLazyList,
+        lastSeenIndicatorPosition = prevLastSeenIndicatorPosition,
+        showStatusView = showStatusView(),
+        statusContentHash = prevItemsVersion
+      )
+    } else {
+      null
+    }
+
     this._chanDescriptor = chanDescriptor
     this.postCellCallback = postCellCallback
     this.currentTheme = theme
@@ -163,18 +199,68 @@ class ThreadCellData(
       postIndexed.chanPost.postDescriptor
     }
 
-    val newPostCellDataLazyList = withContext(Dispatchers.Default) {
-      return@withContext postIndexedListToLazyPostCellDataList(
-        postCellCallback = postCellCallback,
+    val canShowLastSeenIndicator = postViewMode.canShowLastSeenIndicator()
+    val showStatusView = showStatusView()
+
+    val updatedThreadCellData = withContext(Dispatchers.Default) {
+      val environment = captureEnvironment(
         chanDescriptor = chanDescriptor,
         theme = theme,
+        postCellDataWidthNoPaddings = postCellDataWidthNoPaddings
+      )
+
+      var newPostCellDataLazyList = postIndexedListToLazyPostCellDataList(
+        postCellCallback = postCellCallback,
+        environment = environment,
         postIndexedList = postIndexedList,
         postDescriptors = postDescriptors,
-        postCellDataWidthNoPaddings = postCellDataWidthNoPaddings,
         oldPostCellData = null
       )
+
+      val canCalculateDiff = prevItems != null && prevEnvironment == environment
+      if (canCalculateDiff) {
+        newPostCellDataLazyList = reuseUnchangedPostCellData(prevPostCellDataLazyList, newPostCellDataLazyList)
+      }
+
+      val newLastSeenIndicatorPosition = if (canShowLastSeenIndicator) {
+        getLastSeenIndicatorPosition(chanDescriptor, newPostCellDataLazyList) ?: -1
+      } else {
+        prevLastSeenIndicatorPosition
+      }
+
+      var threadCellDataUpdate: ThreadCellDataUpdate? = null
+
+      if (prevItems != null && canCalculateDiff) {
+        val newItems = createThreadCellItems(
+          postCellDataLazyList = newPostCellDataLazyList,
+          lastSeenIndicatorPosition = newLastSeenIndicatorPosition,
+          showStatusView = showStatusView,
+          // The status cell is always rebound, the same as it was with notifyDataSetChanged()
+          statusContentHash = prevItemsVersion + 1
+        )
+
+        val diffResult = DiffUtil.calculateDiff(
+          ThreadCellItemsDiffCallback(prevItems, newItems),
+          // Only the catalog threads can change their order
+          chanDescriptor is ChanDescriptor.ICatalogDescriptor
+        )
+
+        threadCellDataUpdate = ThreadCellDataUpdate(
+          diffResult = diffResult,
+          changedPosts = findChangedPosts(prevPostCellDataLazyList, newPostCellDataLazyList)
+        )
+      }
+
+      return@withContext UpdatedThreadCellData(
+        environment = environment,
+        postCellDataLazyList = newPostCellDataLazyList,
+        lastSeenIndicatorPosition = newLastSeenIndicatorPosition,
+        threadCellDataUpdate = threadCellDataUpdate
+      )
     }
 
+    val newPostCellDataLazyList = updatedThreadCellData.postCellDataLazyList
+
     if (newPostCellDataLazyList.isNotEmpty()) {
       lazyCalculationJob?.cancel()
       lazyCalculationJob = coroutineScope.launch(Dispatchers.IO) {
@@ -191,12 +277,114 @@ class ThreadCellData(
 
     BackgroundUtils.ensureMainThread()
 
+    // The diff was calculated against items that are not the current ones anymore
+    val itemsChangedInTheMeantime = itemsVersion != prevItemsVersion
+
     this.postCellDataLazyList.clear()
     this.postCellDataLazyList.addAll(newPostCellDataLazyList)
+    this.lastSeenIndicatorPosition = updatedThreadCellData.lastSeenIndicatorPosition
+    this.currentEnvironment = updatedThreadCellData.environment
+    ++itemsVersion
+
+    if (itemsChangedInTheMeantime) {
+      return null
+    }
+
+    return updatedThreadCellData.threadCellDataUpdate
+  }
+
+  /**
+   * The posts whose content hash hasn't changed keep their old PostCellData so that the views bound to
+   * them (which are not going to be rebound) and the list stay consistent and the old PostCellData
+   * don't have to be calculated once again.
+   * */
+  private fun reuseUnchangedPostCellData(
+    prevPostCellDataLazyList: List<PostCellDataLazy>,
+    newPostCellDataLazyList: List<PostCellDataLazy>
+  ): List<PostCellDataLazy> {
+    BackgroundUtils.ensureBackgroundThread()
+
+    val prevPostCellDataLazyMap = prevPostCellDataLazyList.associateBy { postCellDataLazy ->
+      postCellDataLazy.postDescriptor
+    }
+
+    return newPostCellDataLazyList.map { newPostCellDataLazy ->
+      val prevPostCellDataLazy = prevPostCellDataLazyMap[newPostCellDataLazy.postDescriptor]
+      if (prevPostCellDataLazy != null && prevPostCellDataLazy.contentHash == newPostCellDataLazy.contentHash) {
+        return@map prevPostCellDataLazy
+      }
+
+      return@map newPostCellDataLazy
+    }
+  }
+
+  private fun findChangedPosts(
+    prevPostCellDataLazyList: List<PostCellDataLazy>,
+    newPostCellDataLazyList: List<PostCellDataLazy>
+  ): Set<PostDescriptor> {
+    val prevContentHashes = mutableMapWithCap<PostDescriptor, Int>(prevPostCellDataLazyList.size)
 
-    if (postViewMode.canShowLastSeenIndicator()) {
-      this.lastSeenIndicatorPosition = getLastSeenIndicatorPosition(chanDescriptor) ?: -1
+    prevPostCellDataLazyList.forEach { postCellDataLazy ->
+      prevContentHashes[postCellDataLazy.postDescriptor] = postCellDataLazy.contentHash
     }
+
+    val changedPosts = hashSetOf<PostDescriptor>()
+
+    newPostCellDataLazyList.forEach { postCellDataLazy ->
+      val prevContentHash = prevContentHashes[postCellDataLazy.postDescriptor]
+        ?: return@forEach
+
+      if (prevContentHash != postCellDataLazy.contentHash) {
+        changedPosts += postCellDataLazy.postDescriptor
+      }
+    }
+
+    return changedPosts
+  }
+
+  /**
+   * Must produce the same items (in the same order) as PostAdapter does, see [postsCount] and
+   * [getPostPosition].
+   * */
+  private fun createThreadCellItems(
+    postCellDataLazyList: List<PostCellDataLazy>,
+    lastSeenIndicatorPosition: Int,
+    showStatusView: Boolean,
+    statusContentHash: Int
+  ): ThreadCellItems {
+    var itemsCount = postCellDataLazyList.size
+
+    if (showStatusView) {
+      itemsCount++
+    }
+
+    if (lastSeenIndicatorPosition >= 0) {
+      itemsCount++
+    }
+
+    val itemIds = LongArray(itemsCount)
+    val contentHashes = IntArray(itemsCount)
+    var postPosition = 0
+
+    for (position in 0 until itemsCount) {
+      when {
+        position == lastSeenIndicatorPosition -> {
+          itemIds[position] = LAST_SEEN_INDICATOR_ITEM_ID
+        }
+        showStatusView && position == itemsCount - 1 -> {
+          itemIds[position] = STATUS_ITEM_ID
+          contentHashes[position] = statusContentHash
+        }
+        else -> {
+          val postCellDataLazy = postCellDataLazyList[postPosition++]
+
+          itemIds[position] = postStableId(postCellDataLazy.postDescriptor)
+          contentHashes[position] = postCellDataLazy.contentHash
+        }
+      }
+    }
+
+    return ThreadCellItems(itemIds, contentHashes)
   }
 
   private suspend fun runPreloadingTask(
@@ -239,13 +427,50 @@ class ThreadCellData(
     }
   }
 
-  private suspend fun postIndexedListToLazyPostCellDataList(
-    postCellCallback: PostCellInterface.PostCellCallback,
+  private fun captureEnvironment(
     chanDescriptor: ChanDescriptor,
     theme: ChanTheme,
+    postCellDataWidthNoPaddings: Int
+  ): PostCellDataEnvironment {
+    return PostCellDataEnvironment(
+      chanDescriptor = chanDescriptor,
+      theme = theme,
+      postCellDataWidthNoPaddings = postCellDataWidthNoPaddings,
+      postViewMode = postViewMode,
+      markedPostNo = defaultMarkedNo,
+      searchQuery = defaultSearchQuery,
+      isCompact = defaultIsCompact,
+      boardPostViewMode = defaultBoardPostViewMode,
+      textSizeSp = ChanSettings.fontSize.get().toInt(),
+      detailsSizeSp = ChanSettings.detailsSizeSp(),
+      boardPostsSortOrder = PostsFilter.CatalogSortingOrder.current(),
+      neverShowPages = ChanSettings.neverShowPages.get(),
+      tapNoReply = ChanSettings.tapNoReply.get(),
+      postFullDate = ChanSettings.postFullDate.get(),
+      postFullDateLocalLocale = ChanSettings.postFullDateUseLocalLocale.get(),
+      shiftPostComment = ChanSettings.shiftPostComment.get(),
+      forceShiftPostComment = ChanSettings.forceShiftPostComment.get(),
+      postMultipleImagesCompactMode = ChanSettings.postMultipleImagesCompactMode.get(),
+      textOnly = ChanSettings.textOnly.get(),
+      showPostFileInfo = ChanSettings.postFileInfo.get(),
+      markUnseenPosts = ChanSettings.markUnseenPosts.get() && chanDescriptor.isThreadDescriptor(),
+      markSeenThreads = ChanSettings.markSeenThreads.get() && chanDescriptor.isCatalogDescriptor(),
+      postAlignmentMode = when (chanDescriptor) {
+        is ChanDescriptor.CatalogDescriptor,
+        is ChanDescriptor.CompositeCatalogDescriptor -> ChanSettings.catalogPostAlignmentMode.get()
+        is ChanDescriptor.ThreadDescriptor -> ChanSettings.threadPostAlignmentMode.get()
+      },
+      postCellThumbnailSizePercents = ChanSettings.postCellThumbnailSizePercents.get(),
+      isTablet = isTablet(),
+      isSplitLayout = ChanSettings.isSplitLayoutMode()
+    )
+  }
+
+  private suspend fun postIndexedListToLazyPostCellDataList(
+    postCellCallback: PostCellInterface.PostCellCallback,
+    environment: PostCellDataEnvironment,
     postIndexedList: List<PostIndexed>,
     postDescriptors: List<PostDescriptor>,
-    postCellDataWidthNoPaddings: Int,
     oldPostCellData: PostCellData?
   ): List<PostCellDataLazy> {
     BackgroundUtils.ensureBackgroundThread()
@@ -253,24 +478,9 @@ class ThreadCellData(
     val totalPostsCount = postIndexedList.size
     val resultList = mutableListWithCap<PostCellDataLazy>(totalPostsCount)
 
-    val textSizeSp = ChanSettings.fontSize.get().toInt()
-    val detailsSizeSp = ChanSettings.detailsSizeSp()
-    val boardPostsSortOrder = PostsFilter.CatalogSortingOrder.current()
-    val neverShowPages = ChanSettings.neverShowPages.get()
-    val tapNoReply = ChanSettings.tapNoReply.get()
-    val postFullDate = ChanSettings.postFullDate.get()
-    val postFullDateLocalLocale = ChanSettings.postFullDateUseLocalLocale.get()
-    val shiftPostComment = ChanSettings.shiftPostComment.get()
-    val forceShiftPostComment = ChanSettings.forceShiftPostComment.get()
-    val textOnly = ChanSettings.textOnly.get()
-    val showPostFileInfo = ChanSettings.postFileInfo.get()
-    val markUnseenPosts = ChanSettings.markUnseenPosts.get() && chanDescriptor.isThreadDescriptor()
-    val markSeenThreads = ChanSettings.markSeenThreads.get() && chanDescriptor.isCatalogDescriptor()
-    val chanTheme = theme.copyTheme()
-    val postCellThumbnailSizePercents = ChanSettings.postCellThumbnailSizePercents.get()
-    val boardPages = getBoardPages(chanDescriptor, neverShowPages, postCellCallback)
-    val isTablet = isTablet()
-    val isSplitLayout = ChanSettings.isSplitLayoutMode()
+    val chanDescriptor = environment.chanDescriptor
+    val chanTheme = environment.theme.copyTheme()
+    val boardPages = getBoardPages(chanDescriptor, environment.neverShowPages, postCellCallback)
 
     val postHideMap = when (chanDescriptor) {
       is ChanDescriptor.ICatalogDescriptor -> {
@@ -285,12 +495,6 @@ class ThreadCellData(
       }
     }
 
-    val postAlignmentMode = when (chanDescriptor) {
-      is ChanDescriptor.CatalogDescriptor,
-      is ChanDescriptor.CompositeCatalogDescriptor -> ChanSettings.catalogPostAlignmentMode.get()
-      is ChanDescriptor.ThreadDescriptor -> ChanSettings.threadPostAlignmentMode.get()
-    }
-
     val threadPostReplyMap = mutableMapWithCap<PostDescriptor, Boolean>(postIndexedList.size)
 
     if (chanDescriptor is ChanDescriptor.ThreadDescriptor) {
@@ -302,56 +506,60 @@ class ThreadCellData(
     }
 
     val highlightFilterKeywordMap = postFilterHighlightManager.getHighlightFilterKeywordForDescriptor(postDescriptors)
+    val filterHashMap = postFilterManager.getManyFilterHashes(postDescriptors)
 
     postIndexedList.forEachIndexed { orderInList, postIndexed ->
-      val lazyFunc = lazy {
-        val chanPost = postIndexed.chanPost
-        val postDescriptor = chanPost.postDescriptor
+      val chanPost = postIndexed.chanPost
+      val postDescriptor = chanPost.postDescriptor
 
-        val postMultipleImagesCompactMode = ChanSettings.postMultipleImagesCompactMode.get()
+      val showDivider = oldPostCellData?.showDivider ?: defaultShowDividerFunc.invoke(orderInList, totalPostsCount)
+      val boardPage = boardPages?.boardPages
+        ?.firstOrNull { boardPage -> boardPage.threads[postDescriptor.threadDescriptor()] != null }
+      val keywordsToHighlight = highlightFilterKeywordMap[postDescriptor] ?: emptySet()
+      val isReplyToSavedReply = chanPost.repliesTo
+        .any { replyTo -> threadPostReplyMap[replyTo] == true }
+
+      val lazyFunc = lazy {
+        val postMultipleImagesCompactMode = environment.postMultipleImagesCompactMode
           && postViewMode != PostCellData.PostViewMode.Search
           && chanPost.postImages.size > 1
 
-        val boardPage = boardPages?.boardPages
-          ?.firstOrNull { boardPage -> boardPage.threads[postDescriptor.threadDescriptor()] != null }
-
         val postCellData = PostCellData(
           chanDescriptor = chanDescriptor,
           post = chanPost,
           postImages = chanPost.postImages,
           postIndex = postIndexed.postIndex,
-          postCellDataWidthNoPaddings = postCellDataWidthNoPaddings,
-          textSizeSp = textSizeSp,
-          detailsSizeSp = detailsSizeSp,
+          postCellDataWidthNoPaddings = environment.postCellDataWidthNoPaddings,
+          textSizeSp = environment.textSizeSp,
+          detailsSizeSp = environment.detailsSizeSp,
           theme = chanTheme,
           postViewMode = postViewMode,
           markedPostNo = defaultMarkedNo,
-          showDivider = oldPostCellData?.showDivider ?: defaultShowDividerFunc.invoke(orderInList, totalPostsCount),
+          showDivider = showDivider,
           compact = defaultIsCompact,
           boardPostViewMode = defaultBoardPostViewMode,
-          boardPostsSortOrder = boardPostsSortOrder,
+          boardPostsSortOrder = environment.boardPostsSortOrder,
           boardPage = boardPage,
-          neverShowPages = neverShowPages,
-          tapNoReply = tapNoReply,
-          postFullDate = postFullDate,
-          postFullDateLocalLocale = postFullDateLocalLocale,
-          shiftPostComment = shiftPostComment,
-          forceShiftPostComment = forceShiftPostComment,
+          neverShowPages = environment.neverShowPages,
+          tapNoReply = environment.tapNoReply,
+          postFullDate = environment.postFullDate,
+          postFullDateLocalLocale = environment.postFullDateLocalLocale,
+          shiftPostComment = environment.shiftPostComment,
+          forceShiftPostComment = environment.forceShiftPostComment,
           postMultipleImagesCompactMode = postMultipleImagesCompactMode,
-          textOnly = textOnly,
-          showPostFileInfo = showPostFileInfo,
-          markUnseenPosts = markUnseenPosts,
-          markSeenThreads = markSeenThreads,
+          textOnly = environment.textOnly,
+          showPostFileInfo = environment.showPostFileInfo,
+          markUnseenPosts = environment.markUnseenPosts,
+          markSeenThreads = environment.markSeenThreads,
           postHideMap = postHideMap,
           searchQuery = defaultSearchQuery,
-          keywordsToHighlight = highlightFilterKeywordMap[postDescriptor] ?: emptySet(),
-          postAlignmentMode = postAlignmentMode,
-          postCellThumbnailSizePercents = postCellThumbnailSizePercents,
+          keywordsToHighlight = keywordsToHighlight,
+          postAlignmentMode = environment.postAlignmentMode,
+          postCellThumbnailSizePercents = environment.postCellThumbnailSizePercents,
           isSavedReply = chanPost.isSavedReply,
-          isReplyToSavedReply = chanPost.repliesTo
-            .any { replyTo -> threadPostReplyMap[replyTo] == true },
-          isTablet = isTablet,
-          isSplitLayout = isSplitLayout,
+          isReplyToSavedReply = isReplyToSavedReply,
+          isTablet = environment.isTablet,
+          isSplitLayout = environment.isSplitLayout,
         )
 
         postCellData.postCellCallback = postCellCallback
@@ -360,8 +568,20 @@ class ThreadCellData(
         return@lazy postCellData
       }
 
+      val contentHash = calculatePostContentHash(
+        chanPost = chanPost,
+        postIndex = postIndexed.postIndex,
+        showDivider = showDivider,
+        boardPage = boardPage,
+        chanPostHide = postHideMap[postDescriptor],
+        keywordsToHighlight = keywordsToHighlight,
+        isReplyToSavedReply = isReplyToSavedReply,
+        filterHash = filterHashMap[postDescriptor] ?: 0
+      )
+
       val postCellDataLazy = PostCellDataLazy(
         post = postIndexed.chanPost,
+        contentHash = contentHash,
         lazyDataCalcFunc = lazyFunc
       )
 
@@ -371,6 +591,32 @@ class ThreadCellData(
     return resultList
   }
 
+  /**
+   * Hash of everything a single PostCellData depends on (besides [PostCellDataEnvironment]). The
+   * post's own data is hashed by [postContentHash].
+   * */
+  private fun calculatePostContentHash(
+    chanPost: ChanPost,
+    postIndex: Int,
+    showDivider: Boolean,
+    boardPage: BoardPage?,
+    chanPostHide: ChanPostHide?,
+    keywordsToHighlight: Set<HighlightFilterKeyword>,
+    isReplyToSavedReply: Boolean,
+    filterHash: Int
+  ): Int {
+    var result = postContentHash(chanPost)
+    result = 31 * result + postIndex
+    result = 31 * result + showDivider.hashCode()
+    result = 31 * result + (boardPage?.currentPage ?: -1)
+    result = 31 * result + (boardPage?.totalPages ?: -1)
+    result = 31 * result + (chanPostHide?.hashCode() ?: 0)
+    result = 31 * result + keywordsToHighlight.hashCode()
+    result = 31 * result + isReplyToSavedReply.hashCode()
+    result = 31 * result + filterHash
+    return result
+  }
+
   private fun getBoardPages(
     chanDescriptor: ChanDescriptor,
     neverShowPages: Boolean,
@@ -406,8 +652,10 @@ class ThreadCellData(
     }
 
     postCellDataLazyList.clear()
+    ++itemsVersion
 
     lastSeenIndicatorPosition = -1
+    currentEnvironment = null
     defaultMarkedNo = null
     error = null
     postCellCallback = null
@@ -582,7 +830,10 @@ class ThreadCellData(
     return postPosition
   }
 
-  private fun getLastSeenIndicatorPosition(chanDescriptor: ChanDescriptor?): Int? {
+  private fun getLastSeenIndicatorPosition(
+    chanDescriptor: ChanDescriptor?,
+    postCellDataLazyList: List<PostCellDataLazy>
+  ): Int? {
     if (chanDescriptor == null) {
       return null
     }
@@ -613,6 +864,7 @@ class ThreadCellData(
 
   class PostCellDataLazy(
     val post: ChanPost,
+    val contentHash: Int,
     private val lazyDataCalcFunc: kotlin.Lazy<PostCellData>
   ) {
     val postDescriptor: PostDescriptor
@@ -666,8 +918,132 @@ class ThreadCellData(
 
   }
 
+  class ThreadCellDataUpdate(
+    val diffResult: DiffUtil.DiffResult,
+    // Posts that are displayed before and after the update but have different contents
+    val changedPosts: Set<PostDescriptor>
+  )
+
+  private class UpdatedThreadCellData(
+    val environment: PostCellDataEnvironment,
+    val postCellDataLazyList: List<PostCellDataLazy>,
+    val lastSeenIndicatorPosition: Int,
+    val threadCellDataUpdate: ThreadCellDataUpdate?
+  )
+
+  /**
+   * Everything that the PostCellData of all the posts depend on. When any of it changes all the posts
+   * have to be rebound.
+   * */
+  private data class PostCellDataEnvironment(
+    val chanDescriptor: ChanDescriptor,
+    // ChanTheme doesn't override equals() so the themes are compared by reference which is what we
+    // want, a new theme instance is created every time the theme changes
+    val theme: ChanTheme,
+    val postCellDataWidthNoPaddings: Int,
+    val postViewMode: PostCellData.PostViewMode,
+    val markedPostNo: Long?,
+    val searchQuery: PostCellData.SearchQuery,
+    val isCompact: Boolean,
+    val boardPostViewMode: ChanSettings.BoardPostViewMode,
+    val textSizeSp: Int,
+    val detailsSizeSp: Int,
+    val boardPostsSortOrder: PostsFilter.CatalogSortingOrder,
+    val neverShowPages: Boolean,
+    val tapNoReply: Boolean,
+    val postFullDate: Boolean,
+    val postFullDateLocalLocale: Boolean,
+    val shiftPostComment: Boolean,
+    val forceShiftPostComment: Boolean,
+    val postMultipleImagesCompactMode: Boolean,
+    val textOnly: Boolean,
+    val showPostFileInfo: Boolean,
+    val markUnseenPosts: Boolean,
+    val markSeenThreads: Boolean,
+    val postAlignmentMode: ChanSettings.PostAlignmentMode,
+    val postCellThumbnailSizePercents: Int,
+    val isTablet: Boolean,
+    val isSplitLayout: Boolean
+  )
+
   companion object {
     private const val TAG = "ThreadCellData"
+
+    // The posts have non-negative ids, see postStableId()
+    private const val STATUS_ITEM_ID = -1L
+    private const val LAST_SEEN_INDICATOR_ITEM_ID = -2L
+
+    /**
+     * Depends on nothing but the [postDescriptor] so that the post keeps its id (and its ViewHolder)
+     * across the updates.
+     * */
+    fun postStableId(postDescriptor: PostDescriptor): Long {
+      // postNo * 31 + postSubNo fits into the lower 40 bits, the board hash goes into the upper bits
+      // because posts of different boards may have the same postNo in composite catalogs.
+      val postId = postDescriptor.postNo * 31 + postDescriptor.postSubNo
+      val boardHash = postDescriptor.boardDescriptor().hashCode().toLong()
+
+      return (postId xor (boardHash shl 40)) and Long.MAX_VALUE
+    }
+
+    /**
+     * Hash of the post's own data that PostCellData renders. The comment is not hashed again, its hash
+     * is calculated once when the post is created.
+     * */
+    fun postContentHash(chanPost: ChanPost): Int {
+      var result = chanPost.postComment.originalCommentHash.hashCode()
+      // Subject and tripcode may be spannables which don't have content based hashCode()
+      result = 31 * result + (chanPost.subject?.toString()?.hashCode() ?: 0)
+      result = 31 * result + (chanPost.name?.hashCode() ?: 0)
+      result = 31 * result + (chanPost.tripcode?.toString()?.hashCode() ?: 0)
+      result = 31 * result + (chanPost.posterId?.hashCode() ?: 0)
+      result = 31 * result + (chanPost.moderatorCapcode?.hashCode() ?: 0)
+      result = 31 * result + chanPost.isSage.hashCode()
+      result = 31 * result + chanPost.postIcons.hashCode()
+      result = 31 * result + postImagesHash(chanPost)
+      result = 31 * result + chanPost.repliesFromCount
+      result = 31 * result + chanPost.catalogRepliesCount
+      result = 31 * result + chanPost.catalogImagesCount
+      result = 31 * result + chanPost.uniqueIps
+      result = 31 * result + chanPost.isDeleted.hashCode()
+      result = 31 * result + chanPost.isSavedReply.hashCode()
+      result = 31 * result + chanPost.posterIdColor
+
+      if (chanPost is ChanOriginalPost) {
+        result = 31 * result + chanPost.sticky.hashCode()
+        result = 31 * result + chanPost.closed.hashCode()
+        result = 31 * result + chanPost.archived.hashCode()
+        result = 31 * result + chanPost.endless.hashCode()
+      }
+
+      return result
+    }
+
+    /**
+     * ChanPostImage.hashCode() only covers the image identity, so a spoilered file or a file that got
+     * deleted (its thumbnail is replaced) would not change it.
+     * */
+    private fun postImagesHash(chanPost: ChanPost): Int {
+      var result = chanPost.postImagesCount
+
+      chanPost.iteratePostImages { postImage ->
+        result = 31 * result + (postImage.type?.hashCode() ?: 0)
+        result = 31 * result + postImage.serverFilename.hashCode()
+        result = 31 * result + (postImage.imageUrl?.hashCode() ?: 0)
+        result = 31 * result + (postImage.actualThumbnailUrl?.hashCode() ?: 0)
+        result = 31 * result + (postImage.spoilerThumbnailUrl?.hashCode() ?: 0)
+        result = 31 * result + (postImage.filename?.hashCode() ?: 0)
+        result = 31 * result + (postImage.extension?.hashCode() ?: 0)
+        result = 31 * result + postImage.imageWidth
+        result = 31 * result + postImage.imageHeight
+        result = 31 * result + postImage.spoiler.hashCode()
+        result = 31 * result + postImage.isInlined.hashCode()
+        result = 31 * result + postImage.size.hashCode()
+        result = 31 * result + (postImage.fileHash?.hashCode() ?: 0)
+      }
+
+      return result
+    }
   }
 
 }
\ No newline at end of file
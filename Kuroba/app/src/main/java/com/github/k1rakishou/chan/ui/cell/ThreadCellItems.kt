@@ -0,0 +1,42 @@
+package com.github.k1rakishou.chan.ui.cell
+
+import androidx.recyclerview.widget.DiffUtil
+
+/**
+ * Snapshot of the items of the PostAdapter (the posts plus the last seen indicator and the
+ * status/loading more cell) that is used to calculate the difference between two ThreadCellData
+ * updates. Two items are the same when their ids are the same and their contents are the same when
+ * their content hashes are the same.
+ * */
+class ThreadCellItems(
+  val itemIds: LongArray,
+  val contentHashes: IntArray
+) {
+  val size: Int
+    get() = itemIds.size
+
+  init {
+    require(itemIds.size == contentHashes.size) {
+      "Sizes differ: itemIds.size=${itemIds.size}, contentHashes.size=${contentHashes.size}"
+    }
+  }
+}
+
+class ThreadCellItemsDiffCallback(
+  private val oldItems: ThreadCellItems,
+  private val newItems: ThreadCellItems
+) : DiffUtil.Callback() {
+
+  override fun getOldListSize(): Int = oldItems.size
+
+  override fun getNewListSize(): Int = newItems.size
+
+  override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+    return oldItems.itemIds[oldItemPosition] == newItems.itemIds[newItemPosition]
+  }
+
+  override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+    return oldItems.contentHashes[oldItemPosition] == newItems.contentHashes[newItemPosition]
+  }
+
+}
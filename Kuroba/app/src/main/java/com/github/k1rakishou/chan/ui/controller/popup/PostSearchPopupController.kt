@@ -22,17 +22,14 @@ import com.github.k1rakishou.chan.utils.RecyclerUtils.restoreScrollPosition
 import com.github.k1rakishou.chan.utils.awaitUntilGloballyLaidOutAndGetSize
 import com.github.k1rakishou.common.AndroidUtils
 import com.github.k1rakishou.common.AppConstants
-import com.github.k1rakishou.common.StringUtils
-import com.github.k1rakishou.common.isNotNullNorBlank
 import com.github.k1rakishou.common.mutableListWithCap
 import com.github.k1rakishou.common.updatePaddings
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
 import com.github.k1rakishou.model.data.post.ChanPost
-import com.github.k1rakishou.model.data.post.ChanPostImage
 import com.github.k1rakishou.model.data.post.PostIndexed
-import com.github.k1rakishou.model.util.ChanPostUtils
+import com.github.k1rakishou.model.data.thread.PostSearchIndex
 import com.github.k1rakishou.persist_state.IndexAndTop
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -216,9 +213,21 @@ class PostSearchPopupController(
 
     val (width, _) = postsView.awaitUntilGloballyLaidOutAndGetSize(waitForWidth = true)
 
-    val resultPosts = withContext(Dispatchers.Default) {
-      val searchQuery = query.toLowerCase(Locale.ENGLISH)
+    val (resultPosts, commentMatchRanges) = withContext(Dispatchers.Default) {
+      val queryTerms = PostSearchIndex.normalizeQuery(query)
       val resultPosts = mutableListWithCap<ChanPost>(128)
+      val commentMatchRanges = hashMapOf<PostDescriptor, List<PostSearchIndex.MatchRange>>()
+
+      // Threads are searched using the thread's search index, catalogs are small enough to be
+      // searched linearly.
+      val matchedPostDescriptors = if (
+        query.length >= AppConstants.MIN_QUERY_LENGTH
+        && data.descriptor is ChanDescriptor.ThreadDescriptor
+      ) {
+        chanThreadManager.get().searchThreadPosts(data.descriptor as ChanDescriptor.ThreadDescriptor, query)
+      } else {
+        null
+      }
 
       chanThreadManager.get().iteratePostsWhile(data.descriptor) { chanPost ->
         if (!isActive) {
@@ -230,15 +239,21 @@ class PostSearchPopupController(
           return@iteratePostsWhile true
         }
 
-        if (matchesQuery(chanPost, searchQuery)) {
+        val postCommentMatchRanges = if (matchedPostDescriptors != null) {
+          matchedPostDescriptors[chanPost.postDescriptor]
+        } else {
+          PostSearchIndex.findCommentMatchRanges(chanPost, queryTerms)
+        }
+
+        if (postCommentMatchRanges != null) {
           resultPosts += chanPost.deepCopy()
-          return@iteratePostsWhile true
+          commentMatchRanges[chanPost.postDescriptor] = postCommentMatchRanges
         }
 
         return@iteratePostsWhile true
       }
 
-      return@withContext resultPosts
+      return@withContext resultPosts to commentMatchRanges
     }
 
     if (!isActive) {
@@ -266,7 +281,13 @@ class PostSearchPopupController(
     this@PostSearchPopupController.indexedPosts.clear()
     this@PostSearchPopupController.indexedPosts.addAll(indexedPosts)
 
-    repliesAdapter.setSearchQuery(PostCellData.SearchQuery(query))
+    repliesAdapter.setSearchQuery(
+      PostCellData.SearchQuery(
+        query = query,
+        queryTerms = PostSearchIndex.splitQueryIntoTerms(query),
+        commentMatchRanges = commentMatchRanges
+      )
+    )
     repliesAdapter.setOrUpdateData(width, indexedPosts, themeEngine.chanTheme)
 
     postsView.post {
@@ -277,61 +298,6 @@ class PostSearchPopupController(
     }
   }
 
-  private fun matchesQuery(chanPost: ChanPost, query: String): Boolean {
-    if (chanPost.postComment.originalComment().contains(query, ignoreCase = true)) {
-      return true
-    }
-
-    if (chanPost.postDescriptor.postNo.toString().contains(query, ignoreCase = true)) {
-      return true
-    }
-
-    if (chanPost.subject?.contains(query, ignoreCase = true) == true) {
-      return true
-    }
-
-    if (chanPost.name?.contains(query, ignoreCase = true) == true) {
-      return true
-    }
-
-    if (chanPost.postImages.isNotEmpty()) {
-      for (postImage in chanPost.postImages) {
-        val filename = formatImageInfoForSearch(postImage)
-        if (filename.contains(query, ignoreCase = true)) {
-          return true
-        }
-      }
-    }
-
-    return false
-  }
-
-  private fun formatImageInfoForSearch(chanPostImage: ChanPostImage): String {
-    return buildString {
-      if (chanPostImage.serverFilename.isNotNullNorBlank()) {
-        append(chanPostImage.serverFilename)
-        append(' ')
-      }
-
-      if (chanPostImage.filename.isNotNullNorBlank()) {
-        append(chanPostImage.filename)
-        append(' ')
-      }
-
-      if (chanPostImage.extension.isNotNullNorBlank()) {
-        append(chanPostImage.extension!!.toUpperCase(Locale.ENGLISH))
-        append(' ')
-      }
-
-      append(StringUtils.UNBREAKABLE_SPACE_SYMBOL)
-      append("${chanPostImage.imageWidth}x${chanPostImage.imageHeight}")
-
-      append(StringUtils.UNBREAKABLE_SPACE_SYMBOL)
-      append(ChanPostUtils.getReadableFileSize(chanPostImage.size)
-        .replace(' ', StringUtils.UNBREAKABLE_SPACE_SYMBOL))
-    }
-  }
-
   private fun storeScrollPosition() {
     if (!postsViewInitialized) {
       return
@@ -1421,6 +1421,9 @@ class ThreadLayout @JvmOverloads constructor(
       is ChanLoadProgressEvent.PersistingPosts -> {
         appResources.string(R.string.thread_layout_load_progress_persisting_posts, chanLoadProgressEvent.postsCount)
       }
+      is ChanLoadProgressEvent.FirstPostsLoaded -> {
+        appResources.string(R.string.thread_layout_load_progress_first_posts_loaded, chanLoadProgressEvent.postsCount)
+      }
       is ChanLoadProgressEvent.ApplyingFilters -> {
         if (chanLoadProgressEvent.processedPosts > 0) {
           appResources.string(
@@ -28,6 +28,7 @@ import com.github.k1rakishou.core_spannable.PostSearchQueryForegroundSpan
 import com.github.k1rakishou.core_themes.ChanTheme
 import com.github.k1rakishou.core_themes.ThemeEngine
 import com.github.k1rakishou.model.data.filter.HighlightFilterKeyword
+import com.github.k1rakishou.model.data.thread.PostSearchIndex
 
 object SpannableHelper {
   fun convertHtmlStringTagsIntoSpans(message: Spannable, chanTheme: ChanTheme): Spannable {
@@ -185,6 +186,36 @@ object SpannableHelper {
     }
   }
 
+  /**
+   * Same as [findAllQueryEntriesInsideSpannableStringAndMarkThem] but the positions of the query
+   * entries are already known (they were found by [PostSearchIndex]).
+   * */
+  fun markQueryEntriesInsideSpannableString(
+    matchRanges: Collection<PostSearchIndex.MatchRange>,
+    spannableString: Spannable,
+    bgColor: Int,
+    minQueryLength: Int
+  ) {
+    // Remove spans that may be left after previous execution of this function
+    cleanSearchSpans(spannableString)
+
+    val bgColorWithAlpha = ColorUtils.setAlphaComponent(bgColor, 160)
+    val textColor = if (ThemeEngine.isDarkColor(bgColor)) {
+      Color.LTGRAY
+    } else {
+      Color.DKGRAY
+    }
+
+    for (matchRange in matchRanges) {
+      if (matchRange.end - matchRange.start < minQueryLength || matchRange.end > spannableString.length) {
+        continue
+      }
+
+      spannableString.setSpanSafe(PostSearchQueryBackgroundSpan(bgColorWithAlpha), matchRange.start, matchRange.end, 0)
+      spannableString.setSpanSafe(PostSearchQueryForegroundSpan(textColor), matchRange.start, matchRange.end, 0)
+    }
+  }
+
   fun cleanSearchSpans(
     input: CharSequence,
     shouldDeleteSpanFunc: (CharacterStyle) -> Boolean = { style ->
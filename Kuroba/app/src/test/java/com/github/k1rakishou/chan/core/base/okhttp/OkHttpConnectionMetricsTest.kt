@@ -0,0 +1,83 @@
+package com.github.k1rakishou.chan.core.base.okhttp
+
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class OkHttpConnectionMetricsTest {
+  private val mockWebServer = MockWebServer()
+
+  @Before
+  fun setUp() {
+    mockWebServer.start()
+  }
+
+  @After
+  fun tearDown() {
+    mockWebServer.shutdown()
+  }
+
+  @Test
+  fun `clients built from the same base client reuse each other's connections`() {
+    val connectionMetrics = OkHttpConnectionMetrics()
+    val baseClient = OkHttpClient.Builder()
+      .eventListenerFactory(connectionMetrics)
+      .build()
+
+    // Different timeouts and interceptors do not prevent connection reuse
+    val firstClient = baseClient.newBuilder()
+      .readTimeout(5, TimeUnit.SECONDS)
+      .build()
+    val secondClient = baseClient.newBuilder()
+      .readTimeout(30, TimeUnit.SECONDS)
+      .addInterceptor { chain -> chain.proceed(chain.request()) }
+      .build()
+
+    mockWebServer.enqueue(MockResponse().setBody("first"))
+    mockWebServer.enqueue(MockResponse().setBody("second"))
+
+    execute(firstClient, "/first")
+    execute(secondClient, "/second")
+
+    val snapshot = connectionMetrics.snapshot()
+    assertEquals(2, snapshot.calls)
+    assertEquals(1, snapshot.newConnections)
+    assertEquals(1, snapshot.reusedConnections)
+  }
+
+  @Test
+  fun `clients with their own connection pools do not reuse connections`() {
+    val connectionMetrics = OkHttpConnectionMetrics()
+    val firstClient = OkHttpClient.Builder()
+      .eventListenerFactory(connectionMetrics)
+      .build()
+    val secondClient = OkHttpClient.Builder()
+      .eventListenerFactory(connectionMetrics)
+      .build()
+
+    mockWebServer.enqueue(MockResponse().setBody("first"))
+    mockWebServer.enqueue(MockResponse().setBody("second"))
+
+    execute(firstClient, "/first")
+    execute(secondClient, "/second")
+
+    val snapshot = connectionMetrics.snapshot()
+    assertEquals(2, snapshot.newConnections)
+    assertEquals(0, snapshot.reusedConnections)
+  }
+
+  private fun execute(okHttpClient: OkHttpClient, path: String) {
+    val request = Request.Builder()
+      .url(mockWebServer.url(path))
+      .build()
+
+    okHttpClient.newCall(request).execute().use { response -> response.body!!.string() }
+  }
+
+}
@@ -0,0 +1,163 @@
+package com.github.k1rakishou.chan.core.cache
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertFalse
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class CacheJournalTest {
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private val journalFile: File
+    get() = File(temporaryFolder.root, "journal.cache_journal")
+
+  @Test
+  fun `load returns false when journal does not exist`() {
+    val journal = CacheJournal(journalFile)
+
+    assertFalse(journal.load())
+    assertEquals(0, journal.entriesCount)
+  }
+
+  @Test
+  fun `entries survive reload`() {
+    val journal = CacheJournal(journalFile)
+    journal.rebuild(emptyList())
+
+    journal.put(entry("1.cache", createdOn = 1, size = 0, isDownloaded = false))
+    journal.put(entry("2.cache", createdOn = 2, size = 200, isDownloaded = true))
+    journal.put(entry("1.cache", createdOn = 1, size = 100, isDownloaded = true))
+    journal.put(entry("3.cache", createdOn = 3, size = 300, isDownloaded = true))
+    journal.remove("2.cache")
+    journal.close()
+
+    val reloadedJournal = CacheJournal(journalFile)
+    assertTrue(reloadedJournal.load())
+
+    assertEquals(2, reloadedJournal.entriesCount)
+    assertEquals(400L, reloadedJournal.totalSize())
+    assertEquals(entry("1.cache", createdOn = 1, size = 100, isDownloaded = true), reloadedJournal.get("1.cache"))
+    assertEquals(entry("3.cache", createdOn = 3, size = 300, isDownloaded = true), reloadedJournal.get("3.cache"))
+    assertNull(reloadedJournal.get("2.cache"))
+  }
+
+  @Test
+  fun `compaction keeps only one line per entry`() {
+    val journal = CacheJournal(journalFile)
+    journal.rebuild(emptyList())
+
+    repeat(3000) { index ->
+      journal.put(entry("$index.cache", createdOn = index.toLong(), size = 10, isDownloaded = false))
+      journal.remove("$index.cache")
+    }
+
+    journal.put(entry("last.cache", createdOn = 1, size = 10, isDownloaded = true))
+    assertTrue(journal.needsCompaction())
+
+    journal.compact()
+    assertFalse(journal.needsCompaction())
+    journal.close()
+
+    // Header + one entry
+    assertEquals(4, journalFile.readLines().size)
+
+    val reloadedJournal = CacheJournal(journalFile)
+    assertTrue(reloadedJournal.load())
+    assertEquals(1, reloadedJournal.entriesCount)
+    assertEquals(10L, reloadedJournal.totalSize())
+  }
+
+  @Test
+  fun `truncated last line is skipped`() {
+    val journal = CacheJournal(journalFile)
+    journal.rebuild(emptyList())
+    journal.put(entry("1.cache", createdOn = 1, size = 100, isDownloaded = true))
+    journal.close()
+
+    journalFile.appendText("PUT 2.cache 2 2")
+
+    val reloadedJournal = CacheJournal(journalFile)
+    assertTrue(reloadedJournal.load())
+    assertEquals(1, reloadedJournal.entriesCount)
+
+    // The journal must be rewritten so that new lines are not glued to the truncated one
+    reloadedJournal.put(entry("3.cache", createdOn = 3, size = 300, isDownloaded = true))
+    reloadedJournal.close()
+
+    val journalAfterRewrite = CacheJournal(journalFile)
+    assertTrue(journalAfterRewrite.load())
+    assertEquals(2, journalAfterRewrite.entriesCount)
+    assertEquals(400L, journalAfterRewrite.totalSize())
+  }
+
+  @Test
+  fun `corrupted journal is not loaded`() {
+    val journal = CacheJournal(journalFile)
+    journal.rebuild(emptyList())
+    journal.put(entry("1.cache", createdOn = 1, size = 100, isDownloaded = true))
+    journal.close()
+
+    journalFile.appendText("garbage\nPUT 2.cache 2 2 200 1\n")
+
+    val reloadedJournal = CacheJournal(journalFile)
+    assertFalse(reloadedJournal.load())
+    assertEquals(0, reloadedJournal.entriesCount)
+  }
+
+  @Test
+  fun `touched access times are only written on flush`() {
+    val journal = CacheJournal(journalFile)
+    journal.rebuild(emptyList())
+    journal.put(entry("1.cache", createdOn = 1, size = 100, isDownloaded = true))
+
+    assertTrue(journal.touch("1.cache", 50))
+    assertFalse(journal.touch("2.cache", 50))
+    assertEquals(50L, journal.get("1.cache")!!.accessedOn)
+    assertEquals(1, journal.unsavedAccessTimesCount())
+
+    val linesBeforeFlush = journalFile.readLines().size
+    journal.flushAccessTimes()
+    journal.close()
+
+    assertEquals(0, journal.unsavedAccessTimesCount())
+    assertEquals(linesBeforeFlush + 1, journalFile.readLines().size)
+
+    val reloadedJournal = CacheJournal(journalFile)
+    assertTrue(reloadedJournal.load())
+    assertEquals(50L, reloadedJournal.get("1.cache")!!.accessedOn)
+    assertEquals(100L, reloadedJournal.totalSize())
+  }
+
+  @Test
+  fun `not downloaded entries are the ones whose size has to be read from the disk`() {
+    val journal = CacheJournal(journalFile)
+    journal.rebuild(emptyList())
+
+    journal.put(entry("1.cache", createdOn = 1, size = 0, isDownloaded = false))
+    journal.put(entry("2.cache", createdOn = 2, size = 200, isDownloaded = true))
+    journal.put(entry("3.cache", createdOn = 3, size = 0, isDownloaded = false))
+    journal.put(entry("3.cache", createdOn = 3, size = 300, isDownloaded = true))
+
+    assertEquals(
+      listOf(entry("1.cache", createdOn = 1, size = 0, isDownloaded = false)),
+      journal.notDownloadedEntries()
+    )
+  }
+
+  private fun entry(fileName: String, createdOn: Long, size: Long, isDownloaded: Boolean): CacheJournal.Entry {
+    return CacheJournal.Entry(
+      fileName = fileName,
+      createdOn = createdOn,
+      accessedOn = createdOn,
+      size = size,
+      isDownloaded = isDownloaded
+    )
+  }
+
+}
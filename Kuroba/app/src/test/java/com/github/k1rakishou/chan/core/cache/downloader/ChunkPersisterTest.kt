@@ -0,0 +1,138 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import com.github.k1rakishou.chan.core.cache.CacheFileType
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.asResponseBody
+import okio.Buffer
+import okio.Source
+import okio.Timeout
+import okio.buffer
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+class ChunkPersisterTest {
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private val mediaUrl = "https://i.4cdn.org/g/1.webm".toHttpUrl()
+
+  @Test
+  fun `canceled coroutine stops reading the chunk body without canceling the download`() {
+    val activeDownloads = ActiveDownloads()
+    val cancelableDownload = CancelableDownload(
+      mediaUrl = mediaUrl,
+      downloadType = CancelableDownload.DownloadType(isPrefetchDownload = true, isGalleryBatchDownload = false)
+    )
+
+    activeDownloads.put(
+      mediaUrl,
+      FileDownloadRequest(
+        mediaUrl = mediaUrl,
+        cancelableDownload = cancelableDownload,
+        extraInfo = DownloadRequestExtraInfo(isPrefetchDownload = true),
+        cacheFileType = CacheFileType.PostMediaFull
+      )
+    )
+
+    val chunk = Chunk(index = 0, start = 0, realEnd = CHUNK_SIZE)
+    val source = EndlessSource()
+    val output = File(temporaryFolder.root, "1.cache")
+
+    RandomAccessFile(output, "rw").channel.use { outputChannel ->
+      runBlocking {
+        val job = launch(Dispatchers.IO) {
+          channelFlow<ChunkDownloadEvent> {
+            ChunkPersister(activeDownloads).storeChunkInFile(
+              producerScope = this,
+              mediaUrl = mediaUrl,
+              chunkResponse = ChunkResponse(chunk, partialContentResponse(source)),
+              outputChannel = outputChannel,
+              completedChunks = CompletedChunks(1),
+              partialDownloadStateWriter = PartialDownloadStateWriter(
+                stateFile = File(temporaryFolder.root, "1.cache_partial"),
+                mediaUrl = mediaUrl,
+                chunks = listOf(chunk),
+                resumedFrom = null
+              ),
+              totalDownloaded = AtomicLong(0),
+              chunkIndex = 0,
+              totalChunksCount = 1
+            )
+          }.collect()
+        }
+
+        assertTrue(source.firstReadLatch.await(5, TimeUnit.SECONDS))
+
+        // This is what DownloadScheduler does when it preempts a download
+        job.cancel()
+        job.join()
+      }
+    }
+
+    assertTrue("read ${source.bytesRead.get()} bytes", source.bytesRead.get() < CHUNK_SIZE)
+    assertTrue(source.closed)
+    assertEquals(DownloadState.Running, cancelableDownload.getState())
+  }
+
+  private fun partialContentResponse(source: Source): Response {
+    return Response.Builder()
+      .request(Request.Builder().url(mediaUrl).build())
+      .protocol(Protocol.HTTP_1_1)
+      .code(206)
+      .message("Partial Content")
+      .body(source.buffer().asResponseBody(null, CHUNK_SIZE))
+      .build()
+  }
+
+  /**
+   * Slowly sends zeroes and never ends (well, not before the whole chunk is read).
+   * */
+  private class EndlessSource : Source {
+    val firstReadLatch = CountDownLatch(1)
+    val bytesRead = AtomicLong(0)
+
+    @Volatile
+    var closed = false
+
+    override fun read(sink: Buffer, byteCount: Long): Long {
+      Thread.sleep(1)
+
+      val toRead = minOf(byteCount, READ_SIZE)
+      sink.write(ByteArray(toRead.toInt()))
+
+      bytesRead.addAndGet(toRead)
+      firstReadLatch.countDown()
+
+      return toRead
+    }
+
+    override fun timeout(): Timeout = Timeout.NONE
+
+    override fun close() {
+      closed = true
+    }
+  }
+
+  companion object {
+    private const val CHUNK_SIZE = 64L * 1024 * 1024
+    private const val READ_SIZE = 8192L
+  }
+
+}
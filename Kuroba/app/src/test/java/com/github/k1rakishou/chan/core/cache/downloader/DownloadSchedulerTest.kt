@@ -0,0 +1,119 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.advanceUntilIdle
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class DownloadSchedulerTest {
+
+  @Test
+  fun `queued downloads are started in priority order`() = runTest {
+    val scheduler = DownloadScheduler(maxDownloads = 1, maxDownloadsPerHost = 1, reservedSlots = 0)
+    val startedDownloads = mutableListOf<String>()
+    val gate = CompletableDeferred<Unit>()
+
+    launch {
+      scheduler.runScheduled(url("first"), DownloadPriority.Visible) {
+        startedDownloads += "first"
+        gate.await()
+      }
+    }
+    runCurrent()
+
+    launch { scheduler.runScheduled(url("batch"), DownloadPriority.Batch) { startedDownloads += "batch" } }
+    launch { scheduler.runScheduled(url("prefetch"), DownloadPriority.Prefetch) { startedDownloads += "prefetch" } }
+    launch { scheduler.runScheduled(url("visible"), DownloadPriority.Visible) { startedDownloads += "visible" } }
+    runCurrent()
+
+    assertEquals(listOf("first"), startedDownloads)
+
+    gate.complete(Unit)
+    advanceUntilIdle()
+
+    assertEquals(listOf("first", "visible", "prefetch", "batch"), startedDownloads)
+  }
+
+  @Test
+  fun `visible download preempts prefetch which is restarted later`() = runTest {
+    val scheduler = DownloadScheduler(maxDownloads = 2, maxDownloadsPerHost = 2, reservedSlots = 1)
+    val events = mutableListOf<String>()
+    val gate = CompletableDeferred<Unit>()
+    var prefetchRuns = 0
+
+    launch {
+      scheduler.runScheduled(url("prefetch"), DownloadPriority.Prefetch) {
+        ++prefetchRuns
+        events += "prefetch start"
+        gate.await()
+        events += "prefetch end"
+      }
+    }
+    runCurrent()
+
+    // Low priority downloads can't use the reserved slot so there is no need to preempt anything
+    launch {
+      scheduler.runScheduled(url("visible1"), DownloadPriority.Visible) {
+        events += "visible1 start"
+        gate.await()
+        events += "visible1 end"
+      }
+    }
+    runCurrent()
+
+    launch {
+      scheduler.runScheduled(url("visible2"), DownloadPriority.Visible) {
+        events += "visible2 start"
+        gate.await()
+        events += "visible2 end"
+      }
+    }
+    runCurrent()
+
+    assertEquals(listOf("prefetch start", "visible1 start", "visible2 start"), events)
+
+    gate.complete(Unit)
+    advanceUntilIdle()
+
+    assertEquals(2, prefetchRuns)
+    assertEquals("prefetch end", events.last())
+  }
+
+  @Test
+  fun `raised priority moves a queued download forward`() = runTest {
+    val scheduler = DownloadScheduler(maxDownloads = 1, maxDownloadsPerHost = 1, reservedSlots = 0)
+    val startedDownloads = mutableListOf<String>()
+    val gate = CompletableDeferred<Unit>()
+
+    launch {
+      scheduler.runScheduled(url("first"), DownloadPriority.Visible) {
+        startedDownloads += "first"
+        gate.await()
+      }
+    }
+    runCurrent()
+
+    launch { scheduler.runScheduled(url("prefetch1"), DownloadPriority.Prefetch) { startedDownloads += "prefetch1" } }
+    launch { scheduler.runScheduled(url("prefetch2"), DownloadPriority.Prefetch) { startedDownloads += "prefetch2" } }
+    runCurrent()
+
+    scheduler.raisePriority(url("prefetch2"), DownloadPriority.Visible)
+
+    gate.complete(Unit)
+    advanceUntilIdle()
+
+    assertEquals(listOf("first", "prefetch2", "prefetch1"), startedDownloads)
+  }
+
+  private fun url(name: String): HttpUrl {
+    return "https://i.4cdn.org/g/${name}.png".toHttpUrl()
+  }
+
+}
@@ -0,0 +1,40 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.IOException
+import java.net.SocketTimeoutException
+
+class DownloaderUtilsTest {
+
+  @Test
+  fun `network errors are resumable`() {
+    assertTrue(DownloaderUtils.isResumableError(IOException("unexpected end of stream")))
+    assertTrue(DownloaderUtils.isResumableError(SocketTimeoutException("timeout")))
+  }
+
+  @Test
+  fun `network error is resumable after the chunk retries are exhausted`() {
+    // This is what ConcurrentChunkedFileDownloader throws for a visible download once every retry of a
+    // chunk has failed with an IOException
+    val error = MediaDownloadException.GenericException(
+      "Failed to download 'https://i.4cdn.org/g/1.webm' (Timeout)",
+      SocketTimeoutException("timeout")
+    )
+
+    assertTrue(DownloaderUtils.isResumableError(error))
+  }
+
+  @Test
+  fun `other errors are not resumable`() {
+    val mediaUrl = "https://i.4cdn.org/g/1.webm".toHttpUrl()
+
+    assertFalse(DownloaderUtils.isResumableError(MediaDownloadException.GenericException("Bad amount of chunks")))
+    assertFalse(DownloaderUtils.isResumableError(MediaDownloadException.HttpCodeException(403)))
+    assertFalse(DownloaderUtils.isResumableError(MediaDownloadException.FileNotFoundOnTheServerException(mediaUrl)))
+    assertFalse(DownloaderUtils.isResumableError(IllegalStateException("Output file is already set!")))
+  }
+
+}
@@ -0,0 +1,89 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import com.github.k1rakishou.chan.core.cache.downloader.PartialDownloadState.ByteRange
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+
+class PartialDownloadStateTest {
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private val stateFile: File
+    get() = File(temporaryFolder.root, "1.cache_partial")
+
+  @Test
+  fun `ranges are sorted and merged`() {
+    val mergedRanges = PartialDownloadState.mergeRanges(
+      listOf(
+        ByteRange(50, 60),
+        ByteRange(0, 10),
+        ByteRange(10, 20),
+        ByteRange(55, 70),
+        ByteRange(30, 30),
+        ByteRange(52, 58)
+      )
+    )
+
+    assertEquals(listOf(ByteRange(0, 20), ByteRange(50, 70)), mergedRanges)
+  }
+
+  @Test
+  fun `missing ranges are the gaps between downloaded ranges`() {
+    val state = state(listOf(ByteRange(10, 20), ByteRange(50, 70)))
+
+    assertEquals(
+      listOf(ByteRange(0, 10), ByteRange(20, 50), ByteRange(70, 100)),
+      state.missingRanges()
+    )
+    assertEquals(30L, state.downloadedBytes())
+    assertEquals(70L, state.downloadedEnd())
+  }
+
+  @Test
+  fun `nothing is missing when the whole file is downloaded`() {
+    val state = state(listOf(ByteRange(0, 100)))
+
+    assertEquals(emptyList<ByteRange>(), state.missingRanges())
+  }
+
+  @Test
+  fun `state survives write and read`() {
+    val state = state(listOf(ByteRange(0, 25), ByteRange(50, 75)))
+    state.write(stateFile)
+
+    val readState = PartialDownloadState.read(stateFile)!!
+
+    assertEquals(state.url, readState.url)
+    assertEquals(state.validator, readState.validator)
+    assertEquals(state.totalLength, readState.totalLength)
+    assertEquals(state.downloadedRanges, readState.downloadedRanges)
+  }
+
+  @Test
+  fun `read returns null when there is no state`() {
+    assertNull(PartialDownloadState.read(stateFile))
+  }
+
+  @Test(expected = IOException::class)
+  fun `range outside of the file is rejected`() {
+    stateFile.writeText("kuroba.partial.download\n1\nhttps://example.com/1.webm\n\"etag\"\n100\n0 150\n")
+
+    PartialDownloadState.read(stateFile)
+  }
+
+  private fun state(downloadedRanges: List<ByteRange>): PartialDownloadState {
+    return PartialDownloadState(
+      url = "https://example.com/1.webm",
+      validator = "Wed, 21 Oct 2015 07:28:00 GMT",
+      totalLength = 100,
+      downloadedRanges = downloadedRanges
+    )
+  }
+
+}
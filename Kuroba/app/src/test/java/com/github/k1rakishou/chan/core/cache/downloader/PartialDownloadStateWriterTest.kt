@@ -0,0 +1,91 @@
+package com.github.k1rakishou.chan.core.cache.downloader
+
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class PartialDownloadStateWriterTest {
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private val mediaUrl = "https://i.4cdn.org/g/1.webm".toHttpUrl()
+
+  private val chunks = listOf(
+    Chunk(index = 0, start = 0, realEnd = CHUNK_SIZE),
+    Chunk(index = 1, start = CHUNK_SIZE, realEnd = CHUNK_SIZE * 2)
+  )
+
+  @Test
+  fun `nothing is requested when the data is downloaded or a running chunk is about to get there`() {
+    val completedChunks = CompletedChunks(chunks.size)
+    completedChunks.updateWritten(0, MB)
+
+    val writer = writer()
+
+    assertNull(writer.requestChunkAt(MB / 2, completedChunks))
+    assertNull(writer.requestChunkAt(MB + 100 * 1024, completedChunks))
+    assertNull(writer.requestChunkAt(CHUNK_SIZE * 2, completedChunks))
+  }
+
+  @Test
+  fun `nothing is requested when the file size is unknown`() {
+    val writer = writer(totalLength = -1L)
+
+    assertNull(writer.requestChunkAt(10 * MB, CompletedChunks(chunks.size)))
+  }
+
+  @Test
+  fun `requested chunk is downloaded on top of the regular chunks`() {
+    val completedChunks = CompletedChunks(chunks.size)
+    completedChunks.updateWritten(0, MB)
+
+    val writer = writer()
+
+    val requestedChunk = checkNotNull(writer.requestChunkAt(20 * MB, completedChunks))
+    assertEquals(20 * MB, requestedChunk.chunk.start)
+    assertEquals(20 * MB + PartialDownloadStateWriter.REQUESTED_CHUNK_SIZE, requestedChunk.chunk.realEnd)
+
+    requestedChunk.completedChunks.updateWritten(0, MB)
+
+    val downloadedRanges = writer.getDownloadedRanges(File("1.cache"), completedChunks, 0L)
+    assertEquals(MB, downloadedRanges.availableBytesAt(20 * MB))
+    assertEquals(0L, downloadedRanges.availableBytesAt(10 * MB))
+
+    // The requested chunk is running and is about to get there
+    assertNull(writer.requestChunkAt(21 * MB + 100 * 1024, completedChunks))
+  }
+
+  @Test
+  fun `requested chunk ends where the downloaded data starts`() {
+    val completedChunks = CompletedChunks(chunks.size)
+    completedChunks.updateWritten(0, MB)
+    completedChunks.updateWritten(1, MB)
+
+    val requestedChunk = checkNotNull(writer().requestChunkAt(CHUNK_SIZE - MB, completedChunks))
+    assertEquals(CHUNK_SIZE - MB, requestedChunk.chunk.start)
+    assertEquals(CHUNK_SIZE, requestedChunk.chunk.realEnd)
+  }
+
+  private fun writer(totalLength: Long = CHUNK_SIZE * 2): PartialDownloadStateWriter {
+    val writer = PartialDownloadStateWriter(
+      stateFile = File(temporaryFolder.root, "1.cache_partial"),
+      mediaUrl = mediaUrl,
+      chunks = chunks,
+      resumedFrom = null
+    )
+
+    writer.updateTotalLength(totalLength)
+    return writer
+  }
+
+  companion object {
+    private const val MB = 1024L * 1024
+    private const val CHUNK_SIZE = 16 * MB
+  }
+
+}
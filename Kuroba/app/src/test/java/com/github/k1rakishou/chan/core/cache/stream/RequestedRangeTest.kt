@@ -0,0 +1,47 @@
+package com.github.k1rakishou.chan.core.cache.stream
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class RequestedRangeTest {
+
+  @Test
+  fun `missing or unsupported range means the whole file`() {
+    assertEquals(RequestedRange.Whole, RequestedRange.parse(null, 100))
+    assertEquals(RequestedRange.Whole, RequestedRange.parse("", 100))
+    assertEquals(RequestedRange.Whole, RequestedRange.parse("items=0-10", 100))
+    assertEquals(RequestedRange.Whole, RequestedRange.parse("bytes=0-10,20-30", 100))
+    assertEquals(RequestedRange.Whole, RequestedRange.parse("bytes=abc-", 100))
+    assertEquals(RequestedRange.Whole, RequestedRange.parse("bytes=50-10", 100))
+  }
+
+  @Test
+  fun `ranges are converted into exclusive ends and clamped to the file size`() {
+    assertEquals(RequestedRange.Partial(0, 100), RequestedRange.parse("bytes=0-", 100))
+    assertEquals(RequestedRange.Partial(10, 21), RequestedRange.parse("bytes=10-20", 100))
+    assertEquals(RequestedRange.Partial(90, 100), RequestedRange.parse("bytes=90-1000", 100))
+    assertEquals(RequestedRange.Partial(70, 100), RequestedRange.parse("bytes=-30", 100))
+    assertEquals(RequestedRange.Partial(0, 100), RequestedRange.parse("bytes=-300", 100))
+  }
+
+  @Test
+  fun `range outside of the file is unsatisfiable`() {
+    assertEquals(RequestedRange.Unsatisfiable, RequestedRange.parse("bytes=100-", 100))
+    assertEquals(RequestedRange.Unsatisfiable, RequestedRange.parse("bytes=150-200", 100))
+    assertEquals(RequestedRange.Unsatisfiable, RequestedRange.parse("bytes=-0", 100))
+  }
+
+  @Test
+  fun `ranges are not clamped when the file size is unknown`() {
+    assertEquals(RequestedRange.Whole, RequestedRange.parse("bytes=0-", -1))
+    assertEquals(RequestedRange.OpenEnded(10), RequestedRange.parse("bytes=10-", -1))
+    assertEquals(RequestedRange.Partial(10, 21), RequestedRange.parse("bytes=10-20", -1))
+  }
+
+  @Test
+  fun `suffix ranges can't be served when the file size is unknown`() {
+    assertEquals(RequestedRange.Whole, RequestedRange.parse("bytes=-30", -1))
+    assertEquals(RequestedRange.Whole, RequestedRange.parse("bytes=50-10", -1))
+  }
+
+}
@@ -0,0 +1,129 @@
+package com.github.k1rakishou.chan.core.helper
+
+import com.github.k1rakishou.chan.core.manager.ChanFilterManager
+import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.filter.FilterType
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import dagger.Lazy
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertNull
+import junit.framework.Assert.assertSame
+import kotlinx.coroutines.GlobalScope
+import org.junit.Test
+
+class FilterSetTest {
+  private val filterEngine = FilterEngine(
+    GlobalScope,
+    ChanFilterManager(
+      isDevBuild = false,
+      appScope = GlobalScope,
+      _chanFilterRepository = Lazy { error("Not used") },
+      _chanPostRepository = Lazy { error("Not used") },
+      _chanFilterWatchRepository = Lazy { error("Not used") },
+      _postFilterHighlightManager = Lazy { error("Not used") },
+      _postFilterManager = Lazy { error("Not used") }
+    )
+  )
+
+  private val filters = listOf(
+    commentFilter("/ban+ana/i"),
+    commentFilter("linux windows"),
+    commentFilter("\"exact Sentence\""),
+    commentFilter("#tag"),
+    commentFilter("wild*card"),
+    ChanFilter(type = FilterType.NAME.flag, pattern = "namefag"),
+    ChanFilter(type = FilterType.COMMENT.flag, pattern = "opfilter", onlyOnOP = true),
+    ChanFilter(type = FilterType.COMMENT.flag or FilterType.SUBJECT.flag, pattern = "/^subj/"),
+    ChanFilter(type = FilterType.COMMENT.flag, pattern = "", applyToEmptyComments = true),
+    commentFilter("café")
+  )
+
+  @Test
+  fun `test keyword filters respect word boundaries`() {
+    val filterSet = FilterSet.create(filterEngine, filters)
+
+    assertSame(filters[1], filterSet.findFirstMatchingFilter(post(comment = "I use LINUX btw")))
+    assertNull(filterSet.findFirstMatchingFilter(post(comment = "I use linuxmint btw")))
+    assertSame(filters[2], filterSet.findFirstMatchingFilter(post(comment = "anexact sentences")))
+    assertSame(filters[3], filterSet.findFirstMatchingFilter(post(comment = "a#tag")))
+    assertNull(filterSet.findFirstMatchingFilter(post(comment = "a #tagged")))
+  }
+
+  @Test
+  fun `test the first matching filter wins`() {
+    val filterSet = FilterSet.create(filterEngine, filters)
+
+    assertSame(filters[0], filterSet.findFirstMatchingFilter(post(comment = "windows bannnana")))
+    assertSame(filters[1], filterSet.findFirstMatchingFilter(post(comment = "wildcard windows")))
+    assertSame(filters[4], filterSet.findFirstMatchingFilter(post(comment = "wildXXXcard")))
+  }
+
+  @Test
+  fun `test filter conditions are checked`() {
+    val filterSet = FilterSet.create(filterEngine, filters)
+
+    assertNull(filterSet.findFirstMatchingFilter(post(comment = "opfilter")))
+    assertSame(filters[6], filterSet.findFirstMatchingFilter(post(comment = "opfilter", op = true)))
+    assertSame(filters[5], filterSet.findFirstMatchingFilter(post(comment = "hi", name = "Namefag")))
+    assertSame(filters[7], filterSet.findFirstMatchingFilter(post(comment = "hi", subject = "subject")))
+    assertSame(filters[8], filterSet.findFirstMatchingFilter(post(comment = "")))
+    assertNull(filterSet.findFirstMatchingFilter(post(comment = "linux", moderatorCapcode = "mod")))
+  }
+
+  @Test
+  fun `test results are the same as matching filters one by one`() {
+    val filterSet = FilterSet.create(filterEngine, filters)
+
+    val comments = listOf(
+      "", "linux", "Linux_", "windows!", "(linux)", "exact sentence", "EXACT SENTENCE!", "#tag", "b#tag",
+      "wildcard", "wild card", "banana", "opfilter", "subj", "a subj", "café", "cafés", "cafÉ"
+    )
+
+    for (comment in comments) {
+      for (op in listOf(false, true)) {
+        val post = post(comment = comment, op = op)
+        val expected = filters.firstOrNull { filter -> filterEngine.matches(filter, post) }
+
+        assertEquals("comment='$comment', op=$op", expected, filterSet.findFirstMatchingFilter(post))
+      }
+    }
+  }
+
+  @Test
+  fun `test filters of other boards are skipped`() {
+    val otherBoardFilter = ChanFilter(
+      type = FilterType.COMMENT.flag,
+      pattern = "linux",
+      boards = setOf(BoardDescriptor.create("test", "a"))
+    )
+    val filterSet = FilterSet.create(filterEngine, listOf(otherBoardFilter) + filters)
+
+    assertSame(filters[1], filterSet.findFirstMatchingFilter(post(comment = "linux")))
+    assertSame(otherBoardFilter, filterSet.findFirstMatchingFilter(post(comment = "linux", board = "a")))
+  }
+
+  private fun commentFilter(pattern: String): ChanFilter {
+    return ChanFilter(type = FilterType.COMMENT.flag, pattern = pattern)
+  }
+
+  private fun post(
+    comment: String,
+    op: Boolean = false,
+    name: String = "Anonymous",
+    subject: String? = null,
+    moderatorCapcode: String = "",
+    board: String = "g"
+  ): ChanPostBuilder {
+    return ChanPostBuilder()
+      .boardDescriptor(BoardDescriptor.create("test", board))
+      .id(1L)
+      .opId(1L)
+      .op(op)
+      .name(name)
+      .subject(subject)
+      .moderatorCapcode(moderatorCapcode)
+      .comment(comment)
+  }
+
+}
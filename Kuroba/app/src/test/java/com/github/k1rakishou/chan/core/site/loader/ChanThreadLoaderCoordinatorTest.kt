@@ -0,0 +1,20 @@
+package com.github.k1rakishou.chan.core.site.loader
+
+import com.github.k1rakishou.model.data.options.ChanCacheUpdateOptions
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ChanThreadLoaderCoordinatorTest {
+
+  @Test
+  fun `test first posts are published only when the thread is not loaded yet`() {
+    assertTrue(ChanThreadLoaderCoordinator.canPublishFirstPosts(ChanCacheUpdateOptions.UpdateCache, 0))
+    // Opened from the catalog, only the OP is cached
+    assertTrue(ChanThreadLoaderCoordinator.canPublishFirstPosts(ChanCacheUpdateOptions.UpdateCache, 1))
+
+    assertFalse(ChanThreadLoaderCoordinator.canPublishFirstPosts(ChanCacheUpdateOptions.UpdateCache, 2))
+    assertFalse(ChanThreadLoaderCoordinator.canPublishFirstPosts(ChanCacheUpdateOptions.DoNotUpdateCache, 0))
+  }
+
+}
@@ -0,0 +1,202 @@
+package com.github.k1rakishou.chan.core.site.loader.internal.usecase
+
+import android.app.Application
+import android.text.Spannable
+import android.text.SpannableString
+import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
+import com.github.k1rakishou.chan.core.helper.FilterEngine
+import com.github.k1rakishou.chan.core.helper.FilterSet
+import com.github.k1rakishou.chan.core.site.parser.PostParser
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import com.github.k1rakishou.model.data.post.ChanPostFixtures
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.whenever
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+@Config(application = Application::class)
+class ParsePostsV1UseCaseTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+
+  // The workers use Dispatchers.Default and may block it (see TestPostParser) so everything else runs
+  // on Dispatchers.IO
+  private val job = Job()
+  private val coroutineScope = CoroutineScope(job + Dispatchers.IO)
+
+  private val filterEngine = mock<FilterEngine>().apply {
+    whenever(getFilterSet()).thenReturn(FilterSet.create(this, emptyList()))
+  }
+
+  private val parsePostsV1UseCase = ParsePostsV1UseCase(
+    verboseLogsEnabled = false,
+    chanPostRepository = mock(),
+    filterEngine = filterEngine,
+    postFilterManager = mock(),
+    postHideManager = mock(),
+    savedReplyManager = mock(),
+    boardManager = mock(),
+    chanLoadProgressNotifier = ChanLoadProgressNotifier()
+  )
+
+  @After
+  fun tearDown() {
+    job.cancel()
+  }
+
+  @Test
+  fun `test first posts are published before the rest of the thread is parsed`() {
+    runBlocking(Dispatchers.IO) {
+      val postParser = TestPostParser(blockedPostNo = FIRST_POSTS_COUNT + 1L)
+      val firstPosts = CompletableDeferred<List<ChanPost>>()
+      val streamingParser = startStreamingParsing(postParser) { posts -> firstPosts.complete(posts) }
+
+      val postBuilders = createPostBuilders(FIRST_POSTS_COUNT + 5)
+      postBuilders.forEach { postBuilder -> streamingParser.offer(postBuilder) }
+
+      // The post right after the first posts is still being parsed at this point
+      val publishedPosts = withTimeout(TIMEOUT_MS) { firstPosts.await() }
+      assertEquals((1L..FIRST_POSTS_COUNT).toList(), postNos(publishedPosts))
+      assertEquals(1L, postParser.unblockLatch.count)
+
+      postParser.unblock()
+
+      val parsingResult = streamingParser.finish(postBuilders)
+      assertEquals((1L..FIRST_POSTS_COUNT + 5L).toList(), postNos(parsingResult.parsedPosts))
+    }
+  }
+
+  @Test
+  fun `test first posts are not published when the thread has less posts`() {
+    runBlocking(Dispatchers.IO) {
+      var firstPostsPublished = false
+      val streamingParser = startStreamingParsing(TestPostParser()) { firstPostsPublished = true }
+
+      val postBuilders = createPostBuilders(FIRST_POSTS_COUNT - 1)
+      postBuilders.forEach { postBuilder -> streamingParser.offer(postBuilder) }
+
+      val parsingResult = streamingParser.finish(postBuilders)
+      assertEquals((1L until FIRST_POSTS_COUNT).toList(), postNos(parsingResult.parsedPosts))
+      assertFalse(firstPostsPublished)
+    }
+  }
+
+  @Test
+  fun `test posts removed from the posts to parse after being offered are not returned`() {
+    runBlocking(Dispatchers.IO) {
+      val streamingParser = startStreamingParsing(TestPostParser(), null)
+
+      val postBuilders = createPostBuilders(10)
+      postBuilders.forEach { postBuilder -> streamingParser.offer(postBuilder) }
+
+      // Same as what ChanReaderProcessor.applyChanReadOptions() does with the posts it doesn't retain
+      val postBuildersToParse = postBuilders.filter { postBuilder -> postBuilder.id <= 3L || postBuilder.id > 8L }
+
+      val parsingResult = streamingParser.finish(postBuildersToParse)
+      assertEquals(listOf(1L, 2L, 3L, 9L, 10L), postNos(parsingResult.parsedPosts))
+    }
+  }
+
+  @Test
+  fun `test canceled parser stops the workers and does not publish the first posts`() {
+    runBlocking(Dispatchers.IO) {
+      var firstPostsPublished = false
+      val postParser = TestPostParser(blockedPostNo = FIRST_POSTS_COUNT.toLong())
+      val streamingParser = startStreamingParsing(postParser) { firstPostsPublished = true }
+
+      createPostBuilders(FIRST_POSTS_COUNT).forEach { postBuilder -> streamingParser.offer(postBuilder) }
+      assertTrue(postParser.blockedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS))
+
+      streamingParser.cancel()
+      // The last one of the first posts gets parsed after the parser is canceled
+      postParser.unblock()
+
+      withTimeout(TIMEOUT_MS) { job.children.toList().joinAll() }
+      assertFalse(firstPostsPublished)
+    }
+  }
+
+  private suspend fun startStreamingParsing(
+    postParser: PostParser,
+    onFirstPostsParsed: (suspend (List<ChanPost>) -> Unit)?
+  ): ParsePostsV1UseCase.StreamingParser {
+    return parsePostsV1UseCase.startStreamingParsing(
+      coroutineScope = coroutineScope,
+      threadDescriptor = threadDescriptor,
+      postParser = postParser,
+      onFirstPostsParsed = onFirstPostsParsed
+    )
+  }
+
+  private fun createPostBuilders(count: Int): List<ChanPostBuilder> {
+    return (1L..count).map { postNo ->
+      ChanPostBuilder()
+        .boardDescriptor(threadDescriptor.boardDescriptor)
+        .id(postNo)
+        .opId(threadDescriptor.threadNo)
+        .op(postNo == threadDescriptor.threadNo)
+        .comment("$postNo")
+    }
+  }
+
+  private fun postNos(posts: List<ChanPost>): List<Long> {
+    return posts.map { post -> post.postDescriptor.postNo }
+  }
+
+  /**
+   * Blocks the worker parsing [blockedPostNo] until [unblock] is called.
+   * */
+  private inner class TestPostParser(
+    private val blockedPostNo: Long = -1L
+  ) : PostParser {
+    val blockedLatch = CountDownLatch(1)
+    val unblockLatch = CountDownLatch(1)
+
+    fun unblock() {
+      unblockLatch.countDown()
+    }
+
+    override fun parseNameAndSubject(builder: ChanPostBuilder) {
+    }
+
+    override fun parseFull(builder: ChanPostBuilder, callback: PostParser.Callback): ChanPost {
+      if (builder.id == blockedPostNo) {
+        blockedLatch.countDown()
+        unblockLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+      }
+
+      return ChanPostFixtures.createPost(threadDescriptor, builder.id)
+    }
+
+    override fun parseComment(
+      post: ChanPostBuilder,
+      commentRaw: CharSequence,
+      callback: PostParser.Callback
+    ): Spannable {
+      return SpannableString(commentRaw)
+    }
+  }
+
+  companion object {
+    private const val FIRST_POSTS_COUNT = ParsePostsV1UseCase.FIRST_POSTS_COUNT
+    private const val TIMEOUT_MS = 5000L
+  }
+
+}
@@ -0,0 +1,166 @@
+package com.github.k1rakishou.chan.ui.cell
+
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.ListUpdateCallback
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostFixtures
+import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.data.post.ChanPostImageType
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ThreadCellItemsDiffCallbackTest {
+
+  @Test
+  fun `appended posts are dispatched as insertions`() {
+    val oldItems = items(1L to 10, 2L to 20, 3L to 30)
+    val newItems = items(1L to 10, 2L to 20, 3L to 30, 4L to 40, 5L to 50)
+
+    val updates = dispatch(oldItems, newItems)
+
+    assertEquals(listOf("inserted 3 2"), updates)
+  }
+
+  @Test
+  fun `posts with different content hashes are dispatched as changes`() {
+    val oldItems = items(1L to 10, 2L to 20, 3L to 30)
+    val newItems = items(1L to 10, 2L to 21, 3L to 30)
+
+    val updates = dispatch(oldItems, newItems)
+
+    assertEquals(listOf("changed 1 1"), updates)
+  }
+
+  @Test
+  fun `removed posts are dispatched as removals`() {
+    val oldItems = items(1L to 10, 2L to 20, 3L to 30)
+    val newItems = items(1L to 10, 3L to 30)
+
+    val updates = dispatch(oldItems, newItems)
+
+    assertEquals(listOf("removed 1 1"), updates)
+  }
+
+  @Test
+  fun `posts with changed images only are dispatched as changes`() {
+    val thumbnailUrl = "https://i.4cdn.org/g/2s.jpg"
+    val oldItems = items(posts(postImage(spoiler = false, thumbnailUrl = thumbnailUrl)))
+
+    val sameItems = items(posts(postImage(spoiler = false, thumbnailUrl = thumbnailUrl)))
+    val spoileredItems = items(posts(postImage(spoiler = true, thumbnailUrl = thumbnailUrl)))
+    // Deleted files keep their name but get a placeholder thumbnail
+    val deletedFileItems = items(
+      posts(postImage(spoiler = false, thumbnailUrl = "https://s.4cdn.org/image/filedeleted-res.gif"))
+    )
+
+    assertEquals(emptyList<String>(), dispatch(oldItems, sameItems))
+    assertEquals(listOf("changed 1 1"), dispatch(oldItems, spoileredItems))
+    assertEquals(listOf("changed 1 1"), dispatch(oldItems, deletedFileItems))
+  }
+
+  @Test
+  fun `post content hash depends on the rendered post fields`() {
+    val post = ChanPostFixtures.createPost(threadDescriptor, 2L, subject = "subject")
+    val postWithOtherSubject = ChanPostFixtures.createPost(threadDescriptor, 2L, subject = "other subject")
+
+    assertEquals(
+      ThreadCellData.postContentHash(post),
+      ThreadCellData.postContentHash(ChanPostFixtures.createPost(threadDescriptor, 2L, subject = "subject"))
+    )
+    assertNotEquals(ThreadCellData.postContentHash(post), ThreadCellData.postContentHash(postWithOtherSubject))
+  }
+
+  @Test
+  fun `post stable ids only depend on the post descriptor`() {
+    val postDescriptor = PostDescriptor.create("test", "g", 1L, 2L)
+
+    assertEquals(
+      ThreadCellData.postStableId(postDescriptor),
+      ThreadCellData.postStableId(PostDescriptor.create("test", "g", 1L, 2L))
+    )
+    assertNotEquals(
+      ThreadCellData.postStableId(postDescriptor),
+      ThreadCellData.postStableId(PostDescriptor.create("test", "a", 1L, 2L))
+    )
+    assertNotEquals(
+      ThreadCellData.postStableId(postDescriptor),
+      ThreadCellData.postStableId(PostDescriptor.create("test", "g", 1L, 2L, 1L))
+    )
+    assertNotEquals(
+      ThreadCellData.postStableId(postDescriptor),
+      ThreadCellData.postStableId(PostDescriptor.create("test", "g", 1L, 3L))
+    )
+
+    // Negative ids are reserved for the status and the last seen indicator cells
+    assertTrue(ThreadCellData.postStableId(PostDescriptor.create("test", "g", 1L, Long.MAX_VALUE / 31)) >= 0)
+  }
+
+  private fun posts(secondPostImage: ChanPostImage): List<ChanPost> {
+    return listOf(
+      ChanPostFixtures.createPost(threadDescriptor, 1L),
+      ChanPostFixtures.createPost(threadDescriptor, 2L, postImages = listOf(secondPostImage)),
+      ChanPostFixtures.createPost(threadDescriptor, 3L)
+    )
+  }
+
+  private fun postImage(spoiler: Boolean, thumbnailUrl: String): ChanPostImage {
+    return ChanPostImage(
+      serverFilename = "2",
+      actualThumbnailUrl = thumbnailUrl.toHttpUrl(),
+      imageUrl = "https://i.4cdn.org/g/2.jpg".toHttpUrl(),
+      filename = "image",
+      extension = "jpg",
+      spoiler = spoiler,
+      type = ChanPostImageType.STATIC
+    )
+  }
+
+  private fun items(posts: List<ChanPost>): ThreadCellItems {
+    return ThreadCellItems(
+      itemIds = LongArray(posts.size) { index -> ThreadCellData.postStableId(posts[index].postDescriptor) },
+      contentHashes = IntArray(posts.size) { index -> ThreadCellData.postContentHash(posts[index]) }
+    )
+  }
+
+  private fun items(vararg items: Pair<Long, Int>): ThreadCellItems {
+    return ThreadCellItems(
+      itemIds = LongArray(items.size) { index -> items[index].first },
+      contentHashes = IntArray(items.size) { index -> items[index].second }
+    )
+  }
+
+  private fun dispatch(oldItems: ThreadCellItems, newItems: ThreadCellItems): List<String> {
+    val updates = mutableListOf<String>()
+
+    DiffUtil.calculateDiff(ThreadCellItemsDiffCallback(oldItems, newItems), false)
+      .dispatchUpdatesTo(object : ListUpdateCallback {
+        override fun onInserted(position: Int, count: Int) {
+          updates += "inserted $position $count"
+        }
+
+        override fun onRemoved(position: Int, count: Int) {
+          updates += "removed $position $count"
+        }
+
+        override fun onMoved(fromPosition: Int, toPosition: Int) {
+          updates += "moved $fromPosition $toPosition"
+        }
+
+        override fun onChanged(position: Int, count: Int, payload: Any?) {
+          updates += "changed $position $count"
+        }
+      })
+
+    return updates
+  }
+
+  companion object {
+    private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+  }
+
+}
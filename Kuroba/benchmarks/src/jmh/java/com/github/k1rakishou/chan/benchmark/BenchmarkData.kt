@@ -0,0 +1,225 @@
+package com.github.k1rakishou.chan.benchmark
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.filter.FilterType
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import com.github.k1rakishou.model.data.post.ChanPostFixtures
+import com.google.gson.stream.JsonReader
+import java.io.InputStreamReader
+import kotlin.random.Random
+
+/**
+ * Test data of the benchmarks. The posts come from the json fixtures (src/jmh/resources/fixtures, a
+ * thread and a catalog of /g/ the way the 4chan API returns them, see recordFixtures in build.gradle)
+ * so that the numbers of two runs (or two commits) are comparable. Filters are not a part of any
+ * server response so they are generated from a fixed seed.
+ * */
+internal object BenchmarkData {
+  const val THREAD_FIXTURE = "thread.json"
+  const val CATALOG_FIXTURE = "catalog.json"
+
+  private const val SEED = 0x4B55524FL
+  private const val SITE_NAME = "4chan"
+  private const val BOARD_CODE = "g"
+
+  val catalogDescriptor = ChanDescriptor.CatalogDescriptor.create(SITE_NAME, BOARD_CODE)
+
+  val threadDescriptor by lazy {
+    ChanDescriptor.ThreadDescriptor.create(SITE_NAME, BOARD_CODE, readPosts(THREAD_FIXTURE).first().postNo)
+  }
+
+  private val words = listOf(
+    "anon", "thread", "linux", "windows", "phone", "battery", "keyboard", "monitor", "kernel", "driver",
+    "rust", "kotlin", "java", "compiler", "garbage", "collector", "benchmark", "latency", "cache", "memory",
+    "the", "a", "is", "of", "and", "to", "in", "it", "that", "what", "why", "how", "just", "literally"
+  )
+
+  fun readFixture(fixture: String): ByteArray {
+    val inputStream = BenchmarkData::class.java.getResourceAsStream("/fixtures/$fixture")
+      ?: error("Fixture $fixture not found")
+
+    return inputStream.use { stream -> stream.readBytes() }
+  }
+
+  /**
+   * The posts of [fixture] in the order they appear in it. For the catalog these are the original posts
+   * followed by their last replies.
+   * */
+  fun readPosts(fixture: String): List<FixturePost> {
+    val posts = mutableListOf<FixturePost>()
+
+    JsonReader(InputStreamReader(readFixture(fixture).inputStream(), Charsets.UTF_8)).use { reader ->
+      when (fixture) {
+        THREAD_FIXTURE -> readThread(reader, posts)
+        CATALOG_FIXTURE -> readCatalog(reader, posts)
+        else -> error("Unknown fixture $fixture")
+      }
+    }
+
+    return posts
+  }
+
+  fun readComments(fixture: String): List<String> {
+    return readPosts(fixture).map { post -> post.comment }
+  }
+
+  /**
+   * Posts of the thread fixture.
+   * */
+  fun createThreadPosts(): List<ChanPost> {
+    return readPosts(THREAD_FIXTURE).map { post ->
+      ChanPostFixtures.createPost(threadDescriptor, post.postNo, post.comment, subject = post.subject)
+    }
+  }
+
+  fun createPostBuilders(fixture: String): List<ChanPostBuilder> {
+    return readPosts(fixture).map { post ->
+      ChanPostBuilder()
+        .boardDescriptor(catalogDescriptor.boardDescriptor)
+        .id(post.postNo)
+        .opId(post.threadNo)
+        .op(post.postNo == post.threadNo)
+        .setUnixTimestampSeconds(post.time)
+        .name(post.name ?: "")
+        .subject(post.subject)
+        .posterId(post.posterId)
+        .comment(post.comment)
+    }
+  }
+
+  /**
+   * Roughly what a heavy filter user has: a bunch of plain keyword filters, a few regex filters with
+   * alternations and a couple of name/id filters.
+   * */
+  fun generateFilters(count: Int): List<ChanFilter> {
+    val random = Random(SEED + 2)
+
+    return (0 until count).map { index ->
+      when (index % 4) {
+        0 -> ChanFilter(
+          type = FilterType.COMMENT.flag,
+          pattern = "/${words.random(random)}${index}/i"
+        )
+        1 -> ChanFilter(
+          type = FilterType.COMMENT.flag or FilterType.SUBJECT.flag,
+          pattern = "/(${words.random(random)}|${words.random(random)})[0-9]{2,}/"
+        )
+        2 -> ChanFilter(
+          type = FilterType.NAME.flag,
+          pattern = "/^namefag${index}$/"
+        )
+        else -> ChanFilter(
+          type = FilterType.COMMENT.flag,
+          pattern = "/\\b${words.random(random)}\\s+${words.random(random)}${index}\\b/i"
+        )
+      }
+    }
+  }
+
+  private fun readThread(reader: JsonReader, posts: MutableList<FixturePost>) {
+    reader.beginObject()
+
+    while (reader.hasNext()) {
+      if (reader.nextName() != "posts") {
+        reader.skipValue()
+        continue
+      }
+
+      reader.beginArray()
+      while (reader.hasNext()) {
+        posts += readPost(reader)
+      }
+      reader.endArray()
+    }
+
+    reader.endObject()
+  }
+
+  private fun readCatalog(reader: JsonReader, posts: MutableList<FixturePost>) {
+    reader.beginArray()
+
+    while (reader.hasNext()) {
+      reader.beginObject()
+
+      while (reader.hasNext()) {
+        if (reader.nextName() != "threads") {
+          reader.skipValue()
+          continue
+        }
+
+        reader.beginArray()
+        while (reader.hasNext()) {
+          posts += readPost(reader)
+        }
+        reader.endArray()
+      }
+
+      reader.endObject()
+    }
+
+    reader.endArray()
+  }
+
+  /**
+   * @return the post followed by its last replies (only catalog threads have them).
+   * */
+  private fun readPost(reader: JsonReader): List<FixturePost> {
+    var postNo = 0L
+    var resto = 0L
+    var time = 0L
+    var name: String? = null
+    var subject: String? = null
+    var comment = ""
+    var posterId: String? = null
+    val lastReplies = mutableListOf<FixturePost>()
+
+    reader.beginObject()
+
+    while (reader.hasNext()) {
+      when (reader.nextName()) {
+        "no" -> postNo = reader.nextLong()
+        "resto" -> resto = reader.nextLong()
+        "time" -> time = reader.nextLong()
+        "name" -> name = reader.nextString()
+        "sub" -> subject = reader.nextString()
+        "com" -> comment = reader.nextString()
+        "id" -> posterId = reader.nextString()
+        "last_replies" -> {
+          reader.beginArray()
+          while (reader.hasNext()) {
+            lastReplies += readPost(reader)
+          }
+          reader.endArray()
+        }
+        else -> reader.skipValue()
+      }
+    }
+
+    reader.endObject()
+
+    val post = FixturePost(
+      postNo = postNo,
+      threadNo = if (resto == 0L) postNo else resto,
+      time = time,
+      name = name,
+      subject = subject,
+      comment = comment,
+      posterId = posterId
+    )
+
+    return listOf(post) + lastReplies
+  }
+
+  class FixturePost(
+    val postNo: Long,
+    val threadNo: Long,
+    val time: Long,
+    val name: String?,
+    val subject: String?,
+    val comment: String,
+    val posterId: String?
+  )
+
+}
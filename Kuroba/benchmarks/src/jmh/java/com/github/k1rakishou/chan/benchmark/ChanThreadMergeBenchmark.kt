@@ -0,0 +1,66 @@
+package com.github.k1rakishou.chan.benchmark
+
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.thread.ChanThread
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class ChanThreadMergeBenchmark {
+
+  private lateinit var allPosts: List<ChanPost>
+  private lateinit var oldPosts: List<ChanPost>
+  private lateinit var cachedThread: ChanThread
+
+  @Setup(Level.Trial)
+  fun setupPosts() {
+    allPosts = BenchmarkData.createThreadPosts()
+    // Simulates a thread update where the last 10% of the posts are new
+    oldPosts = allPosts.subList(0, allPosts.size - (allPosts.size / 10))
+  }
+
+  @Setup(Level.Invocation)
+  fun setupThread() {
+    cachedThread = ChanThread(
+      isDevBuild = false,
+      threadDescriptor = BenchmarkData.threadDescriptor,
+      initialLastAccessTime = 0L
+    )
+
+    cachedThread.addOrUpdatePosts(oldPosts, null)
+  }
+
+  @Benchmark
+  fun addPostsToEmptyThread(blackhole: Blackhole) {
+    val chanThread = ChanThread(
+      isDevBuild = false,
+      threadDescriptor = BenchmarkData.threadDescriptor,
+      initialLastAccessTime = 0L
+    )
+
+    blackhole.consume(chanThread.addOrUpdatePosts(allPosts, null))
+  }
+
+  @Benchmark
+  fun mergeThreadUpdate(blackhole: Blackhole) {
+    blackhole.consume(cachedThread.addOrUpdatePosts(allPosts, null))
+  }
+
+}
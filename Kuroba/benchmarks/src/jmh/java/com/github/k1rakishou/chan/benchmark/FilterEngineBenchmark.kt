@@ -0,0 +1,92 @@
+package com.github.k1rakishou.chan.benchmark
+
+import com.github.k1rakishou.chan.core.helper.FilterEngine
+import com.github.k1rakishou.chan.core.helper.FilterSet
+import com.github.k1rakishou.chan.core.manager.ChanFilterManager
+import com.github.k1rakishou.model.data.filter.ChanFilter
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import dagger.Lazy
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class FilterEngineBenchmark {
+
+  @Param("10", "100")
+  @JvmField
+  var filtersCount: Int = 0
+
+  @Param(BenchmarkData.THREAD_FIXTURE, BenchmarkData.CATALOG_FIXTURE)
+  @JvmField
+  var fixture: String = ""
+
+  private lateinit var scope: CoroutineScope
+  private lateinit var filterEngine: FilterEngine
+  private lateinit var filters: List<ChanFilter>
+  private lateinit var posts: List<ChanPostBuilder>
+
+  @Setup
+  fun setup() {
+    scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    // FilterEngine.matches() never touches the repositories/managers so they are never initialized
+    val chanFilterManager = ChanFilterManager(
+      isDevBuild = false,
+      appScope = scope,
+      _chanFilterRepository = Lazy { error("Not used") },
+      _chanPostRepository = Lazy { error("Not used") },
+      _chanFilterWatchRepository = Lazy { error("Not used") },
+      _postFilterHighlightManager = Lazy { error("Not used") },
+      _postFilterManager = Lazy { error("Not used") }
+    )
+
+    filterEngine = FilterEngine(scope, chanFilterManager)
+    filters = BenchmarkData.generateFilters(filtersCount)
+    posts = BenchmarkData.createPostBuilders(fixture)
+  }
+
+  @TearDown
+  fun tearDown() {
+    scope.cancel()
+  }
+
+  @Benchmark
+  fun matchAllFiltersAgainstPosts(blackhole: Blackhole) {
+    for (post in posts) {
+      for (filter in filters) {
+        blackhole.consume(filterEngine.matches(filter, post))
+      }
+    }
+  }
+
+  @Benchmark
+  fun matchFilterSetAgainstPosts(blackhole: Blackhole) {
+    val filterSet = FilterSet.create(filterEngine, filters)
+
+    for (post in posts) {
+      blackhole.consume(filterSet.findFirstMatchingFilter(post))
+    }
+  }
+
+}
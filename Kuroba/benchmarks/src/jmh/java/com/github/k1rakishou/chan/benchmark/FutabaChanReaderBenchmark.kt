@@ -0,0 +1,106 @@
+package com.github.k1rakishou.chan.benchmark
+
+import com.github.k1rakishou.chan.core.helper.ChanLoadProgressNotifier
+import com.github.k1rakishou.chan.core.manager.ArchivesManager
+import com.github.k1rakishou.chan.core.manager.BoardManager
+import com.github.k1rakishou.chan.core.manager.SiteManager
+import com.github.k1rakishou.chan.core.site.common.FutabaChanReader
+import com.github.k1rakishou.chan.core.site.parser.processor.ChanReaderProcessor
+import com.github.k1rakishou.chan.core.site.sites.chan4.Chan4
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.options.ChanLoadOptions
+import com.github.k1rakishou.model.data.options.ChanReadOptions
+import com.github.k1rakishou.model.repository.ChanPostRepository
+import kotlinx.coroutines.runBlocking
+import org.mockito.Mockito
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.io.ByteArrayInputStream
+import java.util.concurrent.TimeUnit
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class FutabaChanReaderBenchmark {
+
+  @Param(BenchmarkData.THREAD_FIXTURE, BenchmarkData.CATALOG_FIXTURE)
+  @JvmField
+  var fixture: String = ""
+
+  private lateinit var futabaChanReader: FutabaChanReader
+  private lateinit var chanPostRepository: ChanPostRepository
+  private lateinit var chanLoadProgressNotifier: ChanLoadProgressNotifier
+  private lateinit var fixtureJson: ByteArray
+
+  @Setup
+  fun setup() {
+    val siteManager = Mockito.mock(SiteManager::class.java)
+    Mockito.`when`(siteManager.bySiteDescriptor(BenchmarkData.catalogDescriptor.siteDescriptor()))
+      .thenReturn(Chan4())
+
+    // The archives manager is only used by the post parser and the board is only used for the custom
+    // spoilers which are not a thing on /g/.
+    futabaChanReader = FutabaChanReader(
+      Mockito.mock(ArchivesManager::class.java),
+      siteManager,
+      Mockito.mock(BoardManager::class.java)
+    )
+
+    chanPostRepository = Mockito.mock(ChanPostRepository::class.java)
+    chanLoadProgressNotifier = ChanLoadProgressNotifier()
+    fixtureJson = BenchmarkData.readFixture(fixture)
+  }
+
+  @Benchmark
+  fun readFixtureJson(): Int {
+    return runBlocking {
+      if (fixture == BenchmarkData.CATALOG_FIXTURE) {
+        val chanReaderProcessor = createChanReaderProcessor(BenchmarkData.catalogDescriptor)
+
+        futabaChanReader.loadCatalog(
+          requestUrl = "https://a.4cdn.org/${BenchmarkData.catalogDescriptor.boardCode()}/catalog.json",
+          responseBodyStream = ByteArrayInputStream(fixtureJson),
+          chanReaderProcessor = chanReaderProcessor
+        )
+
+        return@runBlocking chanReaderProcessor.getTotalPostsCount()
+      }
+
+      val chanReaderProcessor = createChanReaderProcessor(BenchmarkData.threadDescriptor)
+
+      futabaChanReader.loadThreadFresh(
+        requestUrl = "https://a.4cdn.org/${BenchmarkData.threadDescriptor.boardCode()}/thread/${BenchmarkData.threadDescriptor.threadNo}.json",
+        responseBodyStream = ByteArrayInputStream(fixtureJson),
+        chanReaderProcessor = chanReaderProcessor
+      )
+
+      return@runBlocking chanReaderProcessor.getTotalPostsCount()
+    }
+  }
+
+  private fun createChanReaderProcessor(chanDescriptor: ChanDescriptor): ChanReaderProcessor {
+    // isDownloadingThread makes the processor take every post without looking it up in the cache
+    return ChanReaderProcessor(
+      chanPostRepository = chanPostRepository,
+      chanLoadProgressNotifier = chanLoadProgressNotifier,
+      chanReadOptions = ChanReadOptions.default(),
+      chanLoadOptions = ChanLoadOptions.retainAll(),
+      options = ChanReaderProcessor.Options(isDownloadingThread = true),
+      page = null,
+      chanDescriptor = chanDescriptor
+    )
+  }
+
+}
@@ -0,0 +1,46 @@
+package com.github.k1rakishou.chan.benchmark
+
+import com.github.k1rakishou.core_parser.comment.HtmlParser
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class HtmlParserBenchmark {
+
+  @Param(BenchmarkData.THREAD_FIXTURE, BenchmarkData.CATALOG_FIXTURE)
+  @JvmField
+  var fixture: String = ""
+
+  private lateinit var htmlParser: HtmlParser
+  private lateinit var comments: List<String>
+
+  @Setup
+  fun setup() {
+    htmlParser = HtmlParser()
+    comments = BenchmarkData.readComments(fixture)
+  }
+
+  @Benchmark
+  fun parseComments(blackhole: Blackhole) {
+    for (comment in comments) {
+      blackhole.consume(htmlParser.parse(comment))
+    }
+  }
+
+}
@@ -0,0 +1,93 @@
+package com.github.k1rakishou.chan.benchmark.android
+
+import android.app.Application
+import com.github.k1rakishou.BookmarkGridViewInfo
+import com.github.k1rakishou.ChanSettings
+import com.github.k1rakishou.ChanSettingsInfo
+import com.github.k1rakishou.chan.core.manager.ArchivesManager
+import com.github.k1rakishou.chan.core.site.common.DefaultPostParser
+import com.github.k1rakishou.chan.core.site.parser.CommentParser
+import com.github.k1rakishou.chan.core.site.parser.PostParser
+import com.github.k1rakishou.chan.ui.adapter.PostsFilter
+import com.github.k1rakishou.common.AndroidUtils
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.openjdk.jmh.results.format.ResultFormatType
+import org.openjdk.jmh.runner.Runner
+import org.openjdk.jmh.runner.options.OptionsBuilder
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+
+/**
+ * Runs the JMH suites of this package. They need the android.text classes which only exist inside of
+ * the Robolectric sandbox of this test, a JVM forked by JMH wouldn't have them, which is why all of
+ * them use @Fork(0). Only run by the jmhAndroid task (see benchmarks/build.gradle):
+ *
+ * ./gradlew :benchmarks:jmhAndroid
+ * */
+@RunWith(RobolectricTestRunner::class)
+@Config(application = Application::class)
+class AndroidBenchmarksTest {
+
+  @Test
+  fun runBenchmarks() {
+    val options = OptionsBuilder()
+      .include(System.getProperty(INCLUDE_PROPERTY) ?: "benchmark\\.android\\.")
+      .resultFormat(ResultFormatType.JSON)
+      .result(System.getProperty(RESULTS_FILE_PROPERTY))
+      .build()
+
+    Runner(options).run()
+  }
+
+  companion object {
+    private const val INCLUDE_PROPERTY = "kuroba.benchmarks.include"
+    private const val RESULTS_FILE_PROPERTY = "kuroba.benchmarks.results"
+
+    private var settingsInitialized = false
+
+    val postParserCallback = object : PostParser.Callback {
+      override fun isSaved(threadNo: Long, postNo: Long, postSubNo: Long): Boolean = false
+      override fun isHiddenOrRemoved(threadNo: Long, postNo: Long, postSubNo: Long): Int = PostParser.NORMAL_POST
+      override fun isInternal(postNo: Long): Boolean = true
+      override fun isParsingCatalogPosts(): Boolean = false
+    }
+
+    /**
+     * The parser FutabaChanReader uses. The archives manager is only used to resolve archive links
+     * which are not what is measured here.
+     * */
+    fun createPostParser(): PostParser {
+      initSettings()
+
+      return DefaultPostParser(
+        CommentParser().addDefaultRules(),
+        Mockito.mock(ArchivesManager::class.java)
+      )
+    }
+
+    // DefaultPostParser reads some of the settings so they must be initialized before it's used
+    @Synchronized
+    private fun initSettings() {
+      if (settingsInitialized) {
+        return
+      }
+
+      AndroidUtils.init(RuntimeEnvironment.application)
+      ChanSettings.init(
+        ChanSettingsInfo(
+          applicationId = "com.github.k1rakishou.chan.benchmark",
+          isTablet = false,
+          defaultFilterOrderName = PostsFilter.CatalogSortingOrder.BUMP.orderName,
+          isDevBuild = false,
+          isBetaBuild = false,
+          bookmarkGridViewInfo = BookmarkGridViewInfo(defaultWidth = 100, minWidth = 50, maxWidth = 200)
+        )
+      )
+
+      settingsInitialized = true
+    }
+  }
+}
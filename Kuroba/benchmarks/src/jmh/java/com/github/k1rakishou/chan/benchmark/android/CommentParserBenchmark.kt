@@ -0,0 +1,59 @@
+package com.github.k1rakishou.chan.benchmark.android
+
+import com.github.k1rakishou.chan.benchmark.BenchmarkData
+import com.github.k1rakishou.chan.core.site.parser.PostParser
+import com.github.k1rakishou.model.data.post.ChanPostBuilder
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * DefaultPostParser.parseFull() with the default comment parser rules (what FutabaChanReader uses), i.e.
+ * html parsing plus building the comment spans.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+open class CommentParserBenchmark {
+
+  @Param(BenchmarkData.THREAD_FIXTURE, BenchmarkData.CATALOG_FIXTURE)
+  @JvmField
+  var fixture: String = ""
+
+  private lateinit var postParser: PostParser
+  private lateinit var postBuilders: List<ChanPostBuilder>
+
+  @Setup
+  fun setup() {
+    postParser = AndroidBenchmarksTest.createPostParser()
+  }
+
+  // parseFull() stores the parsed comment in the builder (and skips parsing next time) so every
+  // invocation needs new builders.
+  @Setup(Level.Invocation)
+  fun createPostBuilders() {
+    postBuilders = BenchmarkData.createPostBuilders(fixture)
+  }
+
+  @Benchmark
+  fun parsePosts(blackhole: Blackhole) {
+    for (postBuilder in postBuilders) {
+      blackhole.consume(postParser.parseFull(postBuilder, AndroidBenchmarksTest.postParserCallback))
+    }
+  }
+
+}
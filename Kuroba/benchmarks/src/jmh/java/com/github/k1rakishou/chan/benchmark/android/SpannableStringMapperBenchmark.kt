@@ -0,0 +1,85 @@
+package com.github.k1rakishou.chan.benchmark.android
+
+import com.github.k1rakishou.chan.benchmark.BenchmarkData
+import com.github.k1rakishou.core_spannable.ParcelableSpannableString
+import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableSpannableStringMapper
+import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableSpansCodec
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * Storing and loading the spans of parsed comments: ParcelableSpannableStringMapper (V1) converts
+ * between the android spans and ParcelableSpans, ParcelableSpansCodec converts ParcelableSpans to and
+ * from the bytes that are stored in the database.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+open class SpannableStringMapperBenchmark {
+
+  @Param(BenchmarkData.THREAD_FIXTURE, BenchmarkData.CATALOG_FIXTURE)
+  @JvmField
+  var fixture: String = ""
+
+  private lateinit var comments: List<CharSequence>
+  private lateinit var encodedComments: List<EncodedComment>
+
+  @Setup
+  fun setup() {
+    val postParser = AndroidBenchmarksTest.createPostParser()
+
+    comments = BenchmarkData.createPostBuilders(fixture).map { postBuilder ->
+      postParser.parseFull(postBuilder, AndroidBenchmarksTest.postParserCallback).postComment.originalComment()
+    }
+
+    encodedComments = comments.map { comment -> encode(comment) }
+  }
+
+  @Benchmark
+  fun encodeSpans(blackhole: Blackhole) {
+    for (comment in comments) {
+      blackhole.consume(encode(comment))
+    }
+  }
+
+  @Benchmark
+  fun decodeSpans(blackhole: Blackhole) {
+    for (encodedComment in encodedComments) {
+      val parcelableSpannableString = ParcelableSpannableString(
+        ParcelableSpansCodec.decode(encodedComment.spans),
+        encodedComment.text
+      )
+
+      blackhole.consume(ParcelableSpannableStringMapper.fromParcelableSpannableString(parcelableSpannableString))
+    }
+  }
+
+  private fun encode(comment: CharSequence): EncodedComment {
+    val parcelableSpannableString = ParcelableSpannableStringMapper.toParcelableSpannableString(comment)!!
+
+    return EncodedComment(
+      text = parcelableSpannableString.text,
+      spans = ParcelableSpansCodec.encode(parcelableSpannableString.parcelableSpans)
+    )
+  }
+
+  private class EncodedComment(
+    val text: String,
+    val spans: ByteArray
+  )
+
+}
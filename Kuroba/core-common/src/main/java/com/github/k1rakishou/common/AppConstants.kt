@@ -20,7 +20,7 @@ open class AppConstants(
   maxPostsInDatabaseSettingValue: Int,
   maxThreadsInDatabaseSettingValue: Int
 ) {
-  val maxPostsCountInPostsCache: Int
+  val postsCacheMaxMemorySize: Long
   val maxAmountOfPostsInDatabase: Int = maxPostsInDatabaseSettingValue
   val maxAmountOfThreadsInDatabase: Int = maxThreadsInDatabaseSettingValue
   val processorsCount: Int
@@ -116,6 +116,9 @@ open class AppConstants(
       return field
     }
 
+  // Created by OkHttp's Cache itself when it's accessed for the first time
+  val httpResponseCacheDir: File
+
   val threadDownloaderCacheDir: File
     get() {
       if (field.exists()) {
@@ -170,7 +173,7 @@ open class AppConstants(
     val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as? ActivityManager
 
     mpvDemuxerCacheMaxSize = calculateMpvDemuxerCacheSize(activityManager)
-    maxPostsCountInPostsCache = calculatePostsCountForPostsCacheDependingOnDeviceRam(activityManager).toInt()
+    postsCacheMaxMemorySize = calculatePostsCacheMemorySizeDependingOnDeviceRam(activityManager)
 
     processorsCount = Runtime.getRuntime().availableProcessors()
       .coerceAtLeast(2)
@@ -187,6 +190,7 @@ open class AppConstants(
     diskCacheDir = File(context.filesDir, DISK_CACHE_DIR_NAME)
     tempFilesDir = File(context.filesDir, TEMP_FILES_DIR_NAME)
     exoPlayerCacheDir = File(context.cacheDir, EXO_PLAYER_CACHE_DIR_NAME)
+    httpResponseCacheDir = File(context.cacheDir, HTTP_RESPONSE_CACHE_DIR_NAME)
   }
 
   private fun calculateMpvDemuxerCacheSize(activityManager: ActivityManager?): Long {
@@ -197,15 +201,19 @@ open class AppConstants(
     return 64 * ONE_MEGABYTE
   }
 
-  private fun calculatePostsCountForPostsCacheDependingOnDeviceRam(activityManager: ActivityManager?): Long {
-    if (isLowRamDevice || activityManager == null) {
-      return MINIMUM_POSTS_CACHE_POSTS_COUNT
+  private fun calculatePostsCacheMemorySizeDependingOnDeviceRam(activityManager: ActivityManager?): Long {
+    if (activityManager == null) {
+      return MINIMUM_POSTS_CACHE_MEMORY_SIZE
     }
 
-    val memoryChunk = ((activityManager.memoryClass * ONE_MEGABYTE) / 100) * RAM_PERCENT_FOR_POSTS_CACHE
-    val cachePostsCount = memoryChunk / AVERAGE_POST_MEMORY_SIZE
+    val ramPercent = if (isLowRamDevice) {
+      RAM_PERCENT_FOR_POSTS_CACHE_LOW_RAM
+    } else {
+      RAM_PERCENT_FOR_POSTS_CACHE
+    }
 
-    return cachePostsCount.coerceIn(MINIMUM_POSTS_CACHE_POSTS_COUNT, MAX_POSTS_CACHE_COUNT)
+    val memoryChunk = ((activityManager.memoryClass * ONE_MEGABYTE) / 100) * ramPercent
+    return memoryChunk.coerceIn(MINIMUM_POSTS_CACHE_MEMORY_SIZE, MAX_POSTS_CACHE_MEMORY_SIZE)
   }
 
   companion object {
@@ -216,13 +224,13 @@ open class AppConstants(
     const val FIREWALL_SCREEN_AUTO_CLOSE_TIMEOUT_MILLIS = 120_000L
     const val CLOUDFLARE_INTERCEPTOR_FIREWALL_BYPASS_MAX_WAIT_TIME_MILLIS = FIREWALL_SCREEN_AUTO_CLOSE_TIMEOUT_MILLIS + 10_000L
 
-    // 10 percents of the app's available memory (not device's)
+    // Percents of the app's available memory (not device's) the posts cache may use
     private const val RAM_PERCENT_FOR_POSTS_CACHE = 10
+    private const val RAM_PERCENT_FOR_POSTS_CACHE_LOW_RAM = 6
     private const val ONE_MEGABYTE = 1L * 1024 * 1024
-    private const val AVERAGE_POST_MEMORY_SIZE = 2048
 
-    private const val MINIMUM_POSTS_CACHE_POSTS_COUNT = 5000L
-    private const val MAX_POSTS_CACHE_COUNT = 16000L
+    private const val MINIMUM_POSTS_CACHE_MEMORY_SIZE = 4 * ONE_MEGABYTE
+    private const val MAX_POSTS_CACHE_MEMORY_SIZE = 96 * ONE_MEGABYTE
 
     private const val USER_AGENT_FORMAT =
       "Mozilla/5.0 (Linux; Android %s; %s) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/85.0.4183.127 Mobile Safari/537.36"
@@ -238,6 +246,7 @@ open class AppConstants(
     private const val MPV_NATIVE_LIBS_DIR_NAME = "mpv_native_libs"
     private const val MPV_CERT_DIR_NAME = "certs/mpv"
     private const val EXO_PLAYER_CACHE_DIR_NAME = "exo_player_cache"
+    private const val HTTP_RESPONSE_CACHE_DIR_NAME = "http_response_cache"
 
     const val DISK_CACHE_DIR_NAME = "disk_cache"
     const val TEMP_FILES_DIR_NAME = "temp_files"
@@ -32,15 +32,15 @@ import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.TimeoutCancellationException
-import kotlinx.coroutines.async
-import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.supervisorScope
 import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.coroutines.sync.Mutex
@@ -1265,37 +1265,19 @@ suspend fun <T, R> parallelForEach(
   rethrowErrors: Boolean = false,
   processFunc: suspend (T) -> R?
 ): List<R> {
-  if (dataList.isEmpty()) {
-    return emptyList()
-  }
-
-  return newScope(rethrowErrors) {
-    return@newScope dataList
-      .chunked(parallelization)
-      .flatMap { dataChunk ->
-        return@flatMap dataChunk
-          .map { data ->
-            return@map async(dispatcher) {
-              try {
-                ensureActive()
-                return@async processFunc(data)
-              } catch (error: Throwable) {
-                if (rethrowErrors) {
-                  throw error
-                }
-
-                return@async null
-              }
-            }
-          }
-          .awaitAll()
-          .filterNotNull()
-      }
-  }
+  return processConcurrently(
+    dataList = dataList,
+    parallelization = parallelization,
+    dispatcher = dispatcher,
+    rethrowErrors = rethrowErrors,
+    processFunc = { _, data -> processFunc(data) }
+  )
 }
 
 /**
- * @note: indexed doesn't mean ordered!
+ * The index passed into [processFunc] is the index of the element in [dataList] and the results are
+ * in the same order as [dataList]. [processFunc] itself is called concurrently so elements may be
+ * processed in any order.
  * */
 suspend fun <T, R> parallelForEachIndexed(
   dataList: Collection<T>,
@@ -1304,38 +1286,13 @@ suspend fun <T, R> parallelForEachIndexed(
   rethrowErrors: Boolean = false,
   processFunc: suspend (Int, T) -> R?
 ): List<R> {
-  if (dataList.isEmpty()) {
-    return emptyList()
-  }
-
-  val batchIndex = AtomicInteger(0)
-
-  return newScope(rethrowErrors) {
-    return@newScope dataList
-      .chunked(parallelization)
-      .flatMap { dataChunk ->
-        val results = dataChunk
-          .mapIndexed { index, data ->
-            return@mapIndexed async(dispatcher) {
-              try {
-                ensureActive()
-                return@async processFunc(batchIndex.get() + index, data)
-              } catch (error: Throwable) {
-                if (rethrowErrors) {
-                  throw error
-                }
-
-                return@async null
-              }
-            }
-          }
-          .awaitAll()
-          .filterNotNull()
-
-        batchIndex.addAndGet(results.size)
-        return@flatMap results
-      }
-  }
+  return processConcurrently(
+    dataList = dataList,
+    parallelization = parallelization,
+    dispatcher = dispatcher,
+    rethrowErrors = rethrowErrors,
+    processFunc = processFunc
+  )
 }
 
 suspend fun <T, R> parallelForEachOrdered(
@@ -1343,44 +1300,88 @@ suspend fun <T, R> parallelForEachOrdered(
   parallelization: Int = Runtime.getRuntime().availableProcessors(),
   dispatcher: CoroutineDispatcher,
   processFunc: suspend (Int, T) -> R?
+): List<R> {
+  return processConcurrently(
+    dataList = dataList,
+    parallelization = parallelization,
+    dispatcher = dispatcher,
+    rethrowErrors = true,
+    processFunc = processFunc
+  )
+}
+
+/**
+ * Processes [dataList] with at most [parallelization] worker coroutines. Every worker takes the next
+ * unprocessed element as soon as it's done with the previous one, so one slow element only keeps its
+ * own worker busy instead of stalling a whole batch, and there is one coroutine per worker instead of
+ * one Deferred per element.
+ *
+ * The results are in the same order as [dataList]. Null results are skipped, so are the errors unless
+ * [rethrowErrors] is true, in which case the first error cancels the other workers and is rethrown.
+ * */
+suspend fun <T, R> processConcurrently(
+  dataList: Collection<T>,
+  parallelization: Int = Runtime.getRuntime().availableProcessors(),
+  dispatcher: CoroutineDispatcher = Dispatchers.Default,
+  rethrowErrors: Boolean = false,
+  processFunc: suspend (Int, T) -> R?
 ): List<R> {
   if (dataList.isEmpty()) {
     return emptyList()
   }
 
-  return supervisorScope {
-    val dataListIndexed = mutableListWithCap<DataIndexed<T>>(dataList.size)
-    dataList.forEachIndexed { order, data -> dataListIndexed += DataIndexed(data, order)  }
+  val input = if (dataList is List<T> && dataList is RandomAccess) {
+    dataList
+  } else {
+    dataList.toList()
+  }
 
-    return@supervisorScope dataListIndexed
-      .chunked(parallelization)
-      .flatMap { dataChunk ->
-        val deferredWithOrderPairs = dataChunk
-          .map { (data, order) ->
-            val job = async(context = dispatcher, start = CoroutineStart.LAZY) {
-              ensureActive()
-              return@async DataIndexed(processFunc(order, data), order)
-            }
+  val results = arrayOfNulls<Any?>(input.size)
+  val nextIndex = AtomicInteger(0)
+  val workersCount = parallelization.coerceIn(1, input.size)
 
-            return@map job to order
+  newScope(rethrowErrors) {
+    val workers = mutableListWithCap<Job>(workersCount)
+
+    repeat(workersCount) {
+      workers += launch(dispatcher) {
+        while (true) {
+          ensureActive()
+
+          val index = nextIndex.getAndIncrement()
+          if (index >= input.size) {
+            break
           }
 
-        val deferredList = mutableListWithCap<Deferred<DataIndexed<R?>>>(deferredWithOrderPairs.size)
-        deferredWithOrderPairs
-          .sortedBy { (_, order) -> order }
-          .forEach { (deferred, _) -> deferredList += deferred }
+          results[index] = try {
+            processFunc(index, input[index])
+          } catch (error: Throwable) {
+            if (rethrowErrors) {
+              throw error
+            }
 
-        return@flatMap deferredList.awaitAll()
+            null
+          }
+        }
       }
-      .sortedBy { (_, order) -> order }
-      .mapNotNull { (data, _) -> data }
+    }
+
+    // join() establishes happens-before between the workers' writes into the results array and the
+    // reads below
+    workers.joinAll()
   }
-}
 
-private data class DataIndexed<T>(
-  val data: T,
-  val order: Int
-)
+  val resultList = mutableListWithCap<R>(input.size)
+
+  for (result in results) {
+    if (result != null) {
+      @Suppress("UNCHECKED_CAST")
+      resultList += result as R
+    }
+  }
+
+  return resultList
+}
 
 private suspend fun <R> newScope(rethrowErrors: Boolean, block: suspend CoroutineScope.() -> R): R {
   return if (rethrowErrors) {
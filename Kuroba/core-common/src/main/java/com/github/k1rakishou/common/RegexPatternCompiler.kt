@@ -1,6 +1,7 @@
 package com.github.k1rakishou.common
 
 import androidx.annotation.AnyThread
+import com.github.k1rakishou.common.datastructure.AhoCorasick
 import java.util.Locale
 import java.util.regex.Pattern
 import java.util.regex.PatternSyntaxException
@@ -129,6 +130,47 @@ object RegexPatternCompiler {
     }
   }
 
+  /**
+   * Extracts keywords of "exact sentence" and "multiple words" patterns so that they can be matched
+   * without regex. Returns null for /regex/ patterns, patterns with wildcards and non-ASCII patterns
+   * (their case-insensitive matching is not guaranteed to be the same).
+   * */
+  @AnyThread
+  fun extractLiteralKeywords(rawPattern: String?): LiteralKeywords? {
+    if (rawPattern.isNullOrEmpty()) {
+      return null
+    }
+
+    if (isRegexPattern.matcher(rawPattern).matches()) {
+      return null
+    }
+
+    if (rawPattern.length >= 2 && rawPattern[0] == '"' && rawPattern[rawPattern.length - 1] == '"') {
+      val text = rawPattern.substring(1, rawPattern.length - 1)
+      if (text.isEmpty() || !AhoCorasick.isAsciiOnly(text)) {
+        return null
+      }
+
+      return LiteralKeywords(keywords = listOf(text), wholeWords = false)
+    }
+
+    val words = rawPattern
+      .split(" ")
+      .map { word -> word.trim() }
+      .filter { word -> word.isNotEmpty() }
+
+    if (words.isEmpty()) {
+      return null
+    }
+
+    val canBeMatchedLiterally = words.all { word -> !word.contains('*') && AhoCorasick.isAsciiOnly(word) }
+    if (!canBeMatchedLiterally) {
+      return null
+    }
+
+    return LiteralKeywords(keywords = words, wholeWords = true)
+  }
+
   private fun escapeRegex(filthy: String): String {
     // Escape regex special characters with a \
     return filterFilthyPattern.matcher(filthy).replaceAll("\\\\$1")
@@ -149,6 +191,14 @@ object RegexPatternCompiler {
     data class Error(val errorMessage: String) : PatternCompilationResult()
   }
 
+  /**
+   * @param wholeWords whether every keyword is surrounded by word boundaries in the compiled pattern
+   * */
+  data class LiteralKeywords(
+    val keywords: List<String>,
+    val wholeWords: Boolean
+  )
+
   enum class RegexMode {
     EmptyPattern,
     Pattern,
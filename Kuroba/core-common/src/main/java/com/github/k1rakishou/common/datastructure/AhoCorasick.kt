@@ -0,0 +1,192 @@
+package com.github.k1rakishou.common.datastructure
+
+/**
+ * Aho-Corasick automaton that finds all occurrences of a set of ASCII keywords in one pass over the
+ * text. Matching is ASCII case-insensitive (the same as java.util.regex.Pattern.CASE_INSENSITIVE without
+ * UNICODE_CASE), non-ASCII characters of the text never match anything.
+ * */
+class AhoCorasick private constructor(
+  // Children of every node sorted by char so that we can use binary search
+  private val nodeChars: Array<CharArray>,
+  private val nodeChildren: Array<IntArray>,
+  private val nodeFailures: IntArray,
+  // Keywords ending at a node including the ones reachable via failure links
+  private val nodeOutputs: Array<IntArray?>,
+  private val keywordLengths: IntArray
+) {
+
+  val keywordsCount: Int
+    get() = keywordLengths.size
+
+  /**
+   * Calls [matchListener] for every keyword occurrence in [text] in the order of their end positions.
+   * [MatchListener.onMatch] returns false to stop the search.
+   * */
+  fun findAll(text: CharSequence, matchListener: MatchListener) {
+    if (keywordLengths.isEmpty()) {
+      return
+    }
+
+    var state = ROOT
+
+    for (index in text.indices) {
+      val ch = text[index]
+      if (ch.code >= ASCII_SIZE) {
+        state = ROOT
+        continue
+      }
+
+      val lowerCh = toLowerAscii(ch)
+
+      while (true) {
+        val next = findChild(state, lowerCh)
+        if (next >= 0) {
+          state = next
+          break
+        }
+
+        if (state == ROOT) {
+          break
+        }
+
+        state = nodeFailures[state]
+      }
+
+      val outputs = nodeOutputs[state]
+        ?: continue
+
+      for (keywordIndex in outputs) {
+        val end = index + 1
+        val start = end - keywordLengths[keywordIndex]
+
+        if (!matchListener.onMatch(keywordIndex, start, end)) {
+          return
+        }
+      }
+    }
+  }
+
+  private fun findChild(state: Int, ch: Char): Int {
+    val chars = nodeChars[state]
+    val position = chars.binarySearch(ch)
+    if (position < 0) {
+      return -1
+    }
+
+    return nodeChildren[state][position]
+  }
+
+  fun interface MatchListener {
+    fun onMatch(keywordIndex: Int, start: Int, end: Int): Boolean
+  }
+
+  class Builder {
+    private val keywords = mutableListOf<String>()
+
+    /**
+     * @return index of the keyword that will be passed into [MatchListener.onMatch]
+     * */
+    fun addKeyword(keyword: String): Int {
+      require(keyword.isNotEmpty()) { "keyword is empty" }
+      require(isAsciiOnly(keyword)) { "keyword contains non-ASCII characters: '$keyword'" }
+
+      keywords += keyword
+      return keywords.lastIndex
+    }
+
+    fun build(): AhoCorasick {
+      val children = mutableListOf<MutableMap<Char, Int>>(mutableMapOf())
+      val outputs = mutableListOf<MutableList<Int>>(mutableListOf())
+
+      keywords.forEachIndexed { keywordIndex, keyword ->
+        var state = ROOT
+
+        for (ch in keyword) {
+          val lowerCh = toLowerAscii(ch)
+          var next = children[state][lowerCh]
+
+          if (next == null) {
+            next = children.size
+            children.add(mutableMapOf())
+            outputs.add(mutableListOf())
+            children[state][lowerCh] = next
+          }
+
+          state = next
+        }
+
+        outputs[state].add(keywordIndex)
+      }
+
+      val failures = IntArray(children.size)
+      val queue = ArrayDeque<Int>()
+
+      children[ROOT].values.forEach { child ->
+        failures[child] = ROOT
+        queue.addLast(child)
+      }
+
+      // BFS guarantees that failure links of shorter prefixes are already calculated
+      while (queue.isNotEmpty()) {
+        val state = queue.removeFirst()
+
+        for ((ch, child) in children[state]) {
+          var failure = failures[state]
+          while (failure != ROOT && !children[failure].containsKey(ch)) {
+            failure = failures[failure]
+          }
+
+          failures[child] = children[failure][ch] ?: ROOT
+
+          outputs[child].addAll(outputs[failures[child]])
+          queue.addLast(child)
+        }
+      }
+
+      val nodeChars = Array(children.size) { state ->
+        children[state].keys.sorted().toCharArray()
+      }
+
+      val nodeChildren = Array(children.size) { state ->
+        val stateChildren = children[state]
+        IntArray(nodeChars[state].size) { index -> stateChildren[nodeChars[state][index]]!! }
+      }
+
+      val nodeOutputs = Array(outputs.size) { state ->
+        outputs[state].takeIf { it.isNotEmpty() }?.toIntArray()
+      }
+
+      return AhoCorasick(
+        nodeChars = nodeChars,
+        nodeChildren = nodeChildren,
+        nodeFailures = failures,
+        nodeOutputs = nodeOutputs,
+        keywordLengths = IntArray(keywords.size) { index -> keywords[index].length }
+      )
+    }
+  }
+
+  companion object {
+    private const val ROOT = 0
+    private const val ASCII_SIZE = 128
+
+    fun isAsciiOnly(text: CharSequence): Boolean {
+      for (ch in text) {
+        if (ch.code >= ASCII_SIZE) {
+          return false
+        }
+      }
+
+      return true
+    }
+
+    private fun toLowerAscii(ch: Char): Char {
+      if (ch in 'A'..'Z') {
+        return ch + ('a' - 'A')
+      }
+
+      return ch
+    }
+  }
+
+}
@@ -0,0 +1,93 @@
+package com.github.k1rakishou.common
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class ProcessConcurrentlyTest {
+
+  @Test
+  fun `results are in the order of the input`() = runBlocking {
+    val input = (0 until 100).toList()
+
+    val results = processConcurrently(input, 8, Dispatchers.Default) { index, value ->
+      // Make the earlier elements finish later
+      delay((100 - index).toLong() % 5)
+      return@processConcurrently value * 2
+    }
+
+    assertEquals(input.map { value -> value * 2 }, results)
+  }
+
+  @Test
+  fun `nulls and errors are skipped`() = runBlocking {
+    val results = processConcurrently((0 until 10).toList(), 4, Dispatchers.Default) { _, value ->
+      if (value == 3) {
+        throw IllegalStateException("test")
+      }
+
+      if (value % 2 == 0) {
+        return@processConcurrently null
+      }
+
+      return@processConcurrently value
+    }
+
+    assertEquals(listOf(1, 5, 7, 9), results)
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun `errors are rethrown when requested`() = runBlocking<Unit> {
+    processConcurrently((0 until 10).toList(), 4, Dispatchers.Default, rethrowErrors = true) { _, value ->
+      if (value == 3) {
+        throw IllegalStateException("test")
+      }
+
+      return@processConcurrently value
+    }
+  }
+
+  @Test
+  fun `slow element does not stall the other workers`() = runBlocking {
+    val slowElementRelease = CompletableDeferred<Unit>()
+    val processedCount = AtomicInteger(0)
+
+    val results = processConcurrently((0 until 50).toList(), 2, Dispatchers.Default) { _, value ->
+      if (value == 0) {
+        // Only released once the other worker has processed everything else
+        slowElementRelease.await()
+      } else if (processedCount.incrementAndGet() == 49) {
+        slowElementRelease.complete(Unit)
+      }
+
+      return@processConcurrently value
+    }
+
+    assertEquals(50, results.size)
+    assertEquals(49, processedCount.get())
+  }
+
+  @Test
+  fun `no more than parallelization elements are processed at the same time`() = runBlocking {
+    val inProgress = AtomicInteger(0)
+    val maxInProgress = AtomicInteger(0)
+
+    processConcurrently((0 until 100).toList(), 3, Dispatchers.IO) { _, value ->
+      val current = inProgress.incrementAndGet()
+      maxInProgress.updateAndGet { max -> maxOf(max, current) }
+
+      delay(1)
+      inProgress.decrementAndGet()
+
+      return@processConcurrently value
+    }
+
+    assertTrue(maxInProgress.get() <= 3)
+  }
+
+}
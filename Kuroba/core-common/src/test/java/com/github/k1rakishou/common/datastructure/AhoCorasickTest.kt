@@ -0,0 +1,68 @@
+package com.github.k1rakishou.common.datastructure
+
+import junit.framework.Assert.assertEquals
+import junit.framework.Assert.assertTrue
+import org.junit.Test
+
+class AhoCorasickTest {
+
+  @Test
+  fun `test finds overlapping keywords`() {
+    val builder = AhoCorasick.Builder()
+    builder.addKeyword("he")
+    builder.addKeyword("she")
+    builder.addKeyword("his")
+    builder.addKeyword("hers")
+
+    val matches = findAll(builder.build(), "ushers")
+
+    assertEquals(
+      listOf(Match(1, 1, 4), Match(0, 2, 4), Match(3, 2, 6)),
+      matches
+    )
+  }
+
+  @Test
+  fun `test matching is ascii case insensitive`() {
+    val builder = AhoCorasick.Builder()
+    builder.addKeyword("KoTlin")
+
+    val matches = findAll(builder.build(), "kotlin KOTLIN Kötlin")
+
+    assertEquals(listOf(Match(0, 0, 6), Match(0, 7, 13)), matches)
+  }
+
+  @Test
+  fun `test search can be stopped`() {
+    val builder = AhoCorasick.Builder()
+    builder.addKeyword("a")
+
+    var count = 0
+    builder.build().findAll("aaaa") { _, _, _ ->
+      ++count
+      return@findAll false
+    }
+
+    assertEquals(1, count)
+  }
+
+  @Test
+  fun `test empty automaton matches nothing`() {
+    val matches = findAll(AhoCorasick.Builder().build(), "test")
+    assertTrue(matches.isEmpty())
+  }
+
+  private fun findAll(ahoCorasick: AhoCorasick, text: String): List<Match> {
+    val matches = mutableListOf<Match>()
+
+    ahoCorasick.findAll(text) { keywordIndex, start, end ->
+      matches += Match(keywordIndex, start, end)
+      return@findAll true
+    }
+
+    return matches
+  }
+
+  private data class Match(val keywordIndex: Int, val start: Int, val end: Int)
+
+}
@@ -4,6 +4,7 @@ import androidx.room.Dao
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
+import androidx.room.Update
 import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
 
 @Dao
@@ -12,6 +13,9 @@ abstract class ChanTextSpanDao {
   @Insert(onConflict = OnConflictStrategy.IGNORE)
   abstract suspend fun insertMany(chanTextSpanEntityList: List<ChanTextSpanEntity>): List<Long>
 
+  @Update(onConflict = OnConflictStrategy.REPLACE)
+  abstract suspend fun updateMany(chanTextSpanEntityList: List<ChanTextSpanEntity>)
+
   @Query("""
         SELECT *
         FROM ${ChanTextSpanEntity.TABLE_NAME}
@@ -1,6 +1,7 @@
 package com.github.k1rakishou.model.data.descriptor
 
 import android.os.Parcelable
+import kotlinx.parcelize.IgnoredOnParcel
 import kotlinx.parcelize.Parcelize
 
 @Parcelize
@@ -9,6 +10,9 @@ class BoardDescriptor private constructor(
   val boardCode: String
 ) : Parcelable {
 
+  @IgnoredOnParcel
+  private val _hashCode = 31 * siteDescriptor.hashCode() + boardCode.hashCode()
+
   fun siteName(): String = siteDescriptor.siteName
 
   fun userReadableString(): String {
@@ -25,11 +29,7 @@ class BoardDescriptor private constructor(
     return true
   }
 
-  override fun hashCode(): Int {
-    var result = siteDescriptor.hashCode()
-    result = 31 * result + boardCode.hashCode()
-    return result
-  }
+  override fun hashCode(): Int = _hashCode
 
   override fun toString(): String {
     return "BD{${siteDescriptor.siteName}/$boardCode}"
@@ -38,14 +38,15 @@ class BoardDescriptor private constructor(
   companion object {
     @JvmStatic
     fun create(siteDescriptor: SiteDescriptor, boardCode: String): BoardDescriptor {
-      return create(siteDescriptor.siteName, boardCode)
+      return DescriptorInterner.internBoardDescriptor(siteDescriptor, boardCode) {
+        // siteDescriptor may have been created by Parcelize
+        BoardDescriptor(SiteDescriptor.create(siteDescriptor.siteName), boardCode)
+      }
     }
 
     @JvmStatic
-    fun create(siteName: String, boardCodeInput: String): BoardDescriptor {
-      val boardCode = boardCodeInput.intern()
-
-      return BoardDescriptor(SiteDescriptor.create(siteName), boardCode)
+    fun create(siteName: String, boardCode: String): BoardDescriptor {
+      return create(SiteDescriptor.create(siteName), boardCode)
     }
   }
 }
\ No newline at end of file
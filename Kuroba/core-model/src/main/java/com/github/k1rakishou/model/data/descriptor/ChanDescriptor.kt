@@ -67,6 +67,8 @@ sealed class ChanDescriptor : Parcelable {
     val boardDescriptor: BoardDescriptor,
     val threadNo: Long
   ) : ChanDescriptor(), Comparable<ThreadDescriptor> {
+    @IgnoredOnParcel
+    private val _hashCode = 31 * boardDescriptor.hashCode() + threadNo.hashCode()
 
     override fun isThreadDescriptor(): Boolean = true
     override fun isCatalogDescriptor(): Boolean = false
@@ -123,11 +125,7 @@ sealed class ChanDescriptor : Parcelable {
       return true
     }
 
-    override fun hashCode(): Int {
-      var result = boardDescriptor.hashCode()
-      result = 31 * result + threadNo.hashCode()
-      return result
-    }
+    override fun hashCode(): Int = _hashCode
 
     override fun toString(): String {
       return "TD{${boardDescriptor.siteDescriptor.siteName}/${boardDescriptor.boardCode}/$threadNo}"
@@ -154,7 +152,10 @@ sealed class ChanDescriptor : Parcelable {
       fun create(boardDescriptor: BoardDescriptor, threadNo: Long): ThreadDescriptor {
         require(threadNo > 0) { "Bad threadId: $threadNo" }
 
-        return ThreadDescriptor(boardDescriptor, threadNo)
+        return DescriptorInterner.internThreadDescriptor(boardDescriptor, threadNo) {
+          // boardDescriptor may have been created by Parcelize
+          ThreadDescriptor(BoardDescriptor.create(boardDescriptor.siteDescriptor, boardDescriptor.boardCode), threadNo)
+        }
       }
 
       fun fromDescriptorParcelable(descriptorParcelable: DescriptorParcelable): ThreadDescriptor {
@@ -231,15 +232,15 @@ sealed class ChanDescriptor : Parcelable {
 
       @JvmStatic
       fun create(boardDescriptor: BoardDescriptor): CatalogDescriptor {
-        return create(boardDescriptor.siteName(), boardDescriptor.boardCode)
+        return DescriptorInterner.internCatalogDescriptor(boardDescriptor) {
+          // boardDescriptor may have been created by Parcelize
+          CatalogDescriptor(BoardDescriptor.create(boardDescriptor.siteDescriptor, boardDescriptor.boardCode))
+        }
       }
 
       @JvmStatic
-      fun create(siteNameInput: String, boardCodeInput: String): CatalogDescriptor {
-        val siteName = siteNameInput.intern()
-        val boardCode = boardCodeInput.intern()
-
-        return CatalogDescriptor(BoardDescriptor.create(siteName, boardCode))
+      fun create(siteName: String, boardCode: String): CatalogDescriptor {
+        return create(BoardDescriptor.create(siteName, boardCode))
       }
 
       /**
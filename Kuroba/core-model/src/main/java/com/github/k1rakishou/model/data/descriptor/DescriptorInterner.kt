@@ -0,0 +1,62 @@
+package com.github.k1rakishou.model.data.descriptor
+
+import com.github.k1rakishou.model.util.WeakValueInternTable
+
+/**
+ * Canonicalizes descriptors so that there is only one instance of each (as long as it's being used
+ * by someone). Descriptors are created for every parsed post and for every database row so instead
+ * of allocating new ones (and calling String.intern() for their site names/board codes) the already
+ * existing ones are reused. Comparing canonical descriptors with each other is a reference check
+ * (see the `this === other` branch of every descriptor's equals()).
+ *
+ * The descriptors restored by Parcelize bypass the interning, that's why the descriptors still have
+ * the structural equals()/hashCode().
+ * */
+internal object DescriptorInterner {
+  private val siteDescriptors = WeakValueInternTable<String, SiteDescriptor>()
+  private val boardDescriptors = WeakValueInternTable<BoardKey, BoardDescriptor>()
+  private val catalogDescriptors = WeakValueInternTable<BoardDescriptor, ChanDescriptor.CatalogDescriptor>()
+  private val threadDescriptors = WeakValueInternTable<ThreadKey, ChanDescriptor.ThreadDescriptor>()
+  private val postDescriptors = WeakValueInternTable<PostKey, PostDescriptor>()
+
+  fun internSiteDescriptor(siteName: String, creator: () -> SiteDescriptor): SiteDescriptor {
+    return siteDescriptors.intern(siteName, creator)
+  }
+
+  fun internBoardDescriptor(
+    siteDescriptor: SiteDescriptor,
+    boardCode: String,
+    creator: () -> BoardDescriptor
+  ): BoardDescriptor {
+    return boardDescriptors.intern(BoardKey(siteDescriptor, boardCode), creator)
+  }
+
+  fun internCatalogDescriptor(
+    boardDescriptor: BoardDescriptor,
+    creator: () -> ChanDescriptor.CatalogDescriptor
+  ): ChanDescriptor.CatalogDescriptor {
+    return catalogDescriptors.intern(boardDescriptor, creator)
+  }
+
+  fun internThreadDescriptor(
+    boardDescriptor: BoardDescriptor,
+    threadNo: Long,
+    creator: () -> ChanDescriptor.ThreadDescriptor
+  ): ChanDescriptor.ThreadDescriptor {
+    return threadDescriptors.intern(ThreadKey(boardDescriptor, threadNo), creator)
+  }
+
+  fun internPostDescriptor(
+    chanDescriptor: ChanDescriptor,
+    postNo: Long,
+    postSubNo: Long,
+    creator: () -> PostDescriptor
+  ): PostDescriptor {
+    return postDescriptors.intern(PostKey(chanDescriptor, postNo, postSubNo), creator)
+  }
+
+  private data class BoardKey(val siteDescriptor: SiteDescriptor, val boardCode: String)
+  private data class ThreadKey(val boardDescriptor: BoardDescriptor, val threadNo: Long)
+  private data class PostKey(val chanDescriptor: ChanDescriptor, val postNo: Long, val postSubNo: Long)
+
+}
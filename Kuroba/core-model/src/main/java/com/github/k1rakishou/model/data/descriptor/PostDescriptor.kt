@@ -12,6 +12,7 @@ open class PostDescriptor protected constructor(
   val postNo: Long,
   open val postSubNo: Long = 0L
 ) : Comparable<PostDescriptor> {
+  private val _hashCode = 31 * (31 * descriptor.hashCode() + postNo.hashCode()) + postSubNo.hashCode()
 
   override fun compareTo(other: PostDescriptor): Int {
     if (descriptor !is ChanDescriptor.ThreadDescriptor) {
@@ -121,12 +122,7 @@ open class PostDescriptor protected constructor(
     return true
   }
 
-  override fun hashCode(): Int {
-    var result = descriptor.hashCode()
-    result = 31 * result + postNo.hashCode()
-    result = 31 * result + postSubNo.hashCode()
-    return result
-  }
+  override fun hashCode(): Int = _hashCode
 
   override fun toString(): String {
     val threadNo = if (descriptor is ChanDescriptor.ThreadDescriptor) {
@@ -185,17 +181,8 @@ open class PostDescriptor protected constructor(
       }
 
       return when (chanDescriptor) {
-        is ChanDescriptor.ThreadDescriptor -> create(
-          siteName = chanDescriptor.siteName(),
-          boardCode = chanDescriptor.boardCode(),
-          threadNo = chanDescriptor.threadNo,
-          postNo = postNo
-        )
-        is ChanDescriptor.CatalogDescriptor -> create(
-          siteName = chanDescriptor.siteName(),
-          boardCode = chanDescriptor.boardCode(),
-          threadNo = postNo
-        )
+        is ChanDescriptor.ThreadDescriptor -> create(chanDescriptor, postNo)
+        is ChanDescriptor.CatalogDescriptor -> createForCatalog(chanDescriptor, postNo)
         is ChanDescriptor.CompositeCatalogDescriptor -> {
           error("Cannot use ChanDescriptor.CompositeCatalogDescriptor for PostDescriptors")
         }
@@ -204,17 +191,12 @@ open class PostDescriptor protected constructor(
 
     @JvmStatic
     fun create(siteName: String, boardCode: String, threadNo: Long): PostDescriptor {
-      require(threadNo > 0) { "Bad threadNo: $threadNo" }
-
-      return PostDescriptor(
-        descriptor = ChanDescriptor.CatalogDescriptor.create(siteName, boardCode),
-        postNo = threadNo
-      )
+      return createForCatalog(ChanDescriptor.CatalogDescriptor.create(siteName, boardCode), threadNo)
     }
 
     @JvmStatic
     fun create(boardDescriptor: BoardDescriptor, threadNo: Long, postNo: Long, postSubNo: Long = 0L): PostDescriptor {
-      return create(boardDescriptor.siteName(), boardDescriptor.boardCode, threadNo, postNo, postSubNo)
+      return createForThread(ChanDescriptor.ThreadDescriptor.create(boardDescriptor, threadNo), postNo, postSubNo)
     }
 
     @JvmStatic
@@ -223,25 +205,50 @@ open class PostDescriptor protected constructor(
         "Cannot use ChanDescriptor.CompositeCatalogDescriptor for PostDescriptors"
       }
 
-      return create(chanDescriptor.siteName(), chanDescriptor.boardCode(), threadNo, postNo, postSubNo)
+      return createForThread(ChanDescriptor.ThreadDescriptor.create(chanDescriptor, threadNo), postNo, postSubNo)
     }
 
     @JvmStatic
     fun create(threadDescriptor: ChanDescriptor.ThreadDescriptor, postNo: Long): PostDescriptor {
-      return create(threadDescriptor.siteName(), threadDescriptor.boardCode(), threadDescriptor.threadNo, postNo, 0)
+      return createForThread(threadDescriptor, postNo, 0L)
     }
 
     @JvmOverloads
     @JvmStatic
     fun create(siteName: String, boardCode: String, threadNo: Long, postNo: Long, postSubNo: Long = 0L): PostDescriptor {
       require(threadNo > 0) { "Bad threadNo: $threadNo. siteName=$siteName, boardCode=$boardCode, threadNo=$threadNo, postNo=$postNo, postSubNo=$postSubNo" }
-      require(postNo > 0) { "Bad postNo: $postNo. siteName=$siteName, boardCode=$boardCode, threadNo=$threadNo, postNo=$postNo, postSubNo=$postSubNo" }
 
-      return PostDescriptor(
-        ChanDescriptor.ThreadDescriptor.create(siteName, boardCode, threadNo),
-        postNo,
-        postSubNo
-      )
+      return createForThread(ChanDescriptor.ThreadDescriptor.create(siteName, boardCode, threadNo), postNo, postSubNo)
+    }
+
+    private fun createForThread(
+      threadDescriptor: ChanDescriptor.ThreadDescriptor,
+      postNo: Long,
+      postSubNo: Long
+    ): PostDescriptor {
+      require(postNo > 0) { "Bad postNo: $postNo. threadDescriptor=$threadDescriptor, postNo=$postNo, postSubNo=$postSubNo" }
+
+      return DescriptorInterner.internPostDescriptor(threadDescriptor, postNo, postSubNo) {
+        // threadDescriptor may have been created by Parcelize
+        val canonicalThreadDescriptor = ChanDescriptor.ThreadDescriptor.create(
+          threadDescriptor.boardDescriptor,
+          threadDescriptor.threadNo
+        )
+
+        PostDescriptor(canonicalThreadDescriptor, postNo, postSubNo)
+      }
+    }
+
+    private fun createForCatalog(
+      catalogDescriptor: ChanDescriptor.CatalogDescriptor,
+      threadNo: Long
+    ): PostDescriptor {
+      require(threadNo > 0) { "Bad threadNo: $threadNo" }
+
+      return DescriptorInterner.internPostDescriptor(catalogDescriptor, threadNo, 0L) {
+        // catalogDescriptor may have been created by Parcelize
+        PostDescriptor(ChanDescriptor.CatalogDescriptor.create(catalogDescriptor.boardDescriptor), threadNo)
+      }
     }
   }
 
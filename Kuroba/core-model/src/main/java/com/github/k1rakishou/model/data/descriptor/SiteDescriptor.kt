@@ -43,10 +43,8 @@ class SiteDescriptor private constructor(
   }
 
   companion object {
-    fun create(siteNameInput: String): SiteDescriptor {
-      val siteName = siteNameInput.intern()
-
-      return SiteDescriptor(siteName)
+    fun create(siteName: String): SiteDescriptor {
+      return DescriptorInterner.internSiteDescriptor(siteName) { SiteDescriptor(siteName) }
     }
   }
 
@@ -3,6 +3,7 @@ package com.github.k1rakishou.model.data.post
 import com.github.k1rakishou.common.copy
 import com.github.k1rakishou.model.data.descriptor.BoardDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.util.MemorySizeEstimator
 
 open class ChanPost(
   val chanPostId: Long,
@@ -172,6 +173,25 @@ open class ChanPost(
     return false
   }
 
+  /**
+   * Estimated amount of memory retained by this post when it's stored in the memory cache.
+   * */
+  @Synchronized
+  fun estimateMemorySize(): Long {
+    var size = MemorySizeEstimator.POST_BASE_SIZE
+    size += postComment.estimateMemorySize()
+    size += MemorySizeEstimator.estimateCharSequenceSize(subject)
+    size += MemorySizeEstimator.estimateCharSequenceSize(tripcode)
+    size += MemorySizeEstimator.estimateCharSequenceSize(name)
+    size += MemorySizeEstimator.estimateCharSequenceSize(posterId)
+    size += MemorySizeEstimator.estimateCharSequenceSize(moderatorCapcode)
+    size += _postImages.size * MemorySizeEstimator.POST_IMAGE_SIZE
+    size += postIcons.size * MemorySizeEstimator.POST_ICON_SIZE
+    size += (repliesTo.size + repliesFrom.size) * MemorySizeEstimator.REPLY_ENTRY_SIZE
+
+    return size
+  }
+
   @Synchronized
   fun firstPostImageOrNull(predicate: (ChanPostImage) -> Boolean): ChanPostImage? {
     for (postImage in _postImages) {
@@ -6,23 +6,43 @@ import androidx.core.text.getSpans
 import com.github.k1rakishou.common.MurmurHashUtils
 import com.github.k1rakishou.core_spannable.PostLinkable
 import com.github.k1rakishou.core_spannable.ThemeJsonSpannable
+import com.github.k1rakishou.model.util.MemorySizeEstimator
 
 // Thread safe
 class PostComment(
-  @get:Synchronized
-  @set:Synchronized
   // The original comment without any custom link spannables.
-  private var originalComment: CharSequence,
+  originalComment: CharSequence,
   @get:Synchronized
   val originalUnparsedComment: String?,
-  @get:Synchronized
-  val linkables: List<PostLinkable>
+  linkables: List<PostLinkable>
 ) {
 
   @get:Synchronized
   @set:Synchronized
+  // When the comment is loaded from the database this is just the text without the spans until
+  // the spans are decoded by lazyCommentDecoder.
+  private var originalComment: CharSequence = originalComment
+
+  @get:Synchronized
+  @set:Synchronized
+  private var _linkables: List<PostLinkable> = linkables
+
+  @get:Synchronized
+  @set:Synchronized
+  private var lazyCommentDecoder: LazyCommentDecoder? = null
+
+  @get:Synchronized
+  @set:Synchronized
+  // The hash only depends on the text so it's the same before and after the spans are decoded.
   private var _originalCommentHash = MurmurHashUtils.murmurhash3_x64_128(originalComment)
 
+  @get:Synchronized
+  val linkables: List<PostLinkable>
+    get() {
+      decodeIfNeeded()
+      return _linkables
+    }
+
   @get:Synchronized
   @set:Synchronized
   // A comment version that may contain manually added spans (like link spans with link
@@ -43,10 +63,21 @@ class PostComment(
 
   @Synchronized
   fun copy(): PostComment {
+    val decoder = lazyCommentDecoder
+    if (decoder != null) {
+      // The decoder only reads immutable data so it can be shared by the copies
+      return PostComment(originalComment, originalUnparsedComment, emptyList()).also { newPostComment ->
+        newPostComment.lazyCommentDecoder = decoder
+        newPostComment._updatedComment = this._updatedComment
+        newPostComment._originalCommentHash = this._originalCommentHash
+        newPostComment._updatedCommentHash = this._updatedCommentHash
+      }
+    }
+
     return PostComment(
       SpannableString(originalComment),
       originalUnparsedComment,
-      linkables.toList()
+      _linkables.toList()
     ).also { newPostComment ->
       newPostComment._updatedComment = this._updatedComment
       newPostComment._originalCommentHash = this._originalCommentHash
@@ -56,6 +87,7 @@ class PostComment(
 
   @Synchronized
   fun updateComment(updater: (CharSequence) -> CharSequence) {
+    decodeIfNeeded()
     val newComment = updater(originalComment)
 
     this._updatedComment = newComment
@@ -65,6 +97,7 @@ class PostComment(
   @Synchronized
   fun comment(): CharSequence {
     if (_updatedComment == null) {
+      decodeIfNeeded()
       return originalComment
     }
 
@@ -73,9 +106,17 @@ class PostComment(
 
   @Synchronized
   fun originalComment(): CharSequence {
+    decodeIfNeeded()
     return originalComment
   }
 
+  /**
+   * Same text as [originalComment] but without decoding the spans if they are not decoded yet, for
+   * callers that only need the text.
+   * */
+  @Synchronized
+  fun originalCommentText(): CharSequence = originalComment
+
   @Synchronized
   fun getAllLinkables(): List<PostLinkable> {
     return linkables.toList()
@@ -84,11 +125,44 @@ class PostComment(
   @Synchronized
   fun hasComment() = originalComment.isNotEmpty()
 
+  /**
+   * Estimated amount of memory retained by the comment texts (the original, the updated one if it
+   * exists and the unparsed one) and their spans.
+   * */
+  @Synchronized
+  fun estimateMemorySize(): Long {
+    var size = MemorySizeEstimator.estimateCharSequenceSize(originalComment)
+    size += MemorySizeEstimator.estimateCharSequenceSize(originalUnparsedComment)
+    size += lazyCommentDecoder?.encodedSize ?: 0L
+
+    val updatedComment = _updatedComment
+    if (updatedComment != null && updatedComment !== originalComment) {
+      size += MemorySizeEstimator.estimateCharSequenceSize(updatedComment)
+    }
+
+    return size
+  }
+
   @Synchronized
   fun containsPostLinkable(postLinkable: PostLinkable): Boolean {
     return linkables.contains(postLinkable)
   }
 
+  @Synchronized
+  fun isDecoded(): Boolean = lazyCommentDecoder == null
+
+  @Synchronized
+  private fun decodeIfNeeded() {
+    val decoder = lazyCommentDecoder
+      ?: return
+
+    val decodedComment = SpannableString(decoder.decode())
+
+    originalComment = decodedComment
+    _linkables = decodedComment.getSpans(0, decodedComment.length, PostLinkable::class.java).toList()
+    lazyCommentDecoder = null
+  }
+
   fun getThemeJsonSpannables(): Array<out ThemeJsonSpannable> {
     val spannableComment = comment() as? Spannable
       ?: return emptyArray()
@@ -119,7 +193,7 @@ class PostComment(
 
   override fun toString(): String {
     return "PostComment(originalComment='${originalComment.take(64)}\', " +
-      "comment='${_updatedComment?.take(64)}', linkablesCount=${linkables.size})"
+      "comment='${_updatedComment?.take(64)}', linkablesCount=${_linkables.size}, decoded=${isDecoded()})"
   }
 
   override fun equals(other: Any?): Boolean {
@@ -127,13 +201,42 @@ class PostComment(
     if (javaClass != other?.javaClass) return false
 
     other as PostComment
-    if (originalComment != other.originalComment) return false
+    // Compare the texts first so that the spans are only decoded when the texts are the same
+    if (originalCommentHash != other.originalCommentHash) return false
+    if (originalComment() != other.originalComment()) return false
 
     return true
   }
 
   override fun hashCode(): Int {
-    return originalComment.hashCode()
+    // Must not depend on the spans, otherwise it would change once the spans are decoded
+    return originalComment.toString().hashCode()
+  }
+
+  /**
+   * Restores the spans of a comment which was loaded from the database. Most of the posts loaded
+   * from the database are never rendered (e.g. when a thread is opened only the visible posts are
+   * bound) so there is no need to decode all of their spans upfront.
+   * */
+  class LazyCommentDecoder(
+    // Size of the encoded spans, only used for the memory estimations
+    val encodedSize: Long,
+    val decode: () -> CharSequence
+  )
+
+  companion object {
+    /**
+     * [text] must be the same text the [lazyCommentDecoder] returns (just without the spans).
+     * */
+    fun createLazily(
+      text: String,
+      originalUnparsedComment: String?,
+      lazyCommentDecoder: LazyCommentDecoder
+    ): PostComment {
+      return PostComment(text, originalUnparsedComment, emptyList()).also { postComment ->
+        postComment.lazyCommentDecoder = lazyCommentDecoder
+      }
+    }
   }
 
 }
\ No newline at end of file
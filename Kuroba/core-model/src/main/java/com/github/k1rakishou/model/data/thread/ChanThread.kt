@@ -37,12 +37,28 @@ class ChanThread(
   @GuardedBy("lock")
   private val postsByPostDescriptors = mutableMapOf<PostDescriptor, ChanPost>()
   @GuardedBy("lock")
+  // Position of every post inside of threadPosts. Must be updated whenever posts are added, removed
+  // or reordered.
+  private val postIndexes = mutableMapOf<PostDescriptor, Int>()
+  @GuardedBy("lock")
   // Stores hashes of unparsed post comments, the way we got the from the server, without any spans added yet.
   private val rawPostHashesMap = mutableMapOf<PostDescriptor, MurmurHashUtils.Murmur3Hash>()
   @GuardedBy("lock")
   private var lastAccessTime = initialLastAccessTime
   @GuardedBy("lock")
   private var lastUpdateTime = 0L
+  @GuardedBy("lock")
+  // Built lazily on the first search and then kept up to date with every thread update.
+  private var postSearchIndex: PostSearchIndex? = null
+  @GuardedBy("lock")
+  // Kept up to date by recalculatePostReplies(), used to look up replies without scanning the posts.
+  private val postReplyGraph = PostReplyGraph()
+  @GuardedBy("lock")
+  // Incremented whenever posts are added, updated or removed so that the estimated memory size is
+  // only recalculated when the posts have changed.
+  private var postsModificationCounter = 0L
+  @GuardedBy("lock")
+  private var cachedMemorySize = CachedMemorySize(postsModificationCounter = -1L, sizeInBytes = 0L)
 
   // All the ***forUi variables/flags are used to display one-shot snackbar messages like
   // This thread is now sticky/no longer sticky/closed/archived/deleted etc
@@ -73,6 +89,36 @@ class ChanThread(
   val imagesCount: Int
     get() = lock.read { threadPosts.sumBy { post -> post.postImages.size } }
 
+  /**
+   * Estimated amount of memory retained by the posts of this thread and by the search index, used by
+   * the memory cache to decide what to evict.
+   * */
+  fun estimatedMemorySize(): Long {
+    val cachedSize = lock.read {
+      val cached = cachedMemorySize
+      if (cached.postsModificationCounter != postsModificationCounter) {
+        return@read null
+      }
+
+      // The search index is built outside of post updates so it's not part of the cached size
+      return@read cached.sizeInBytes + (postSearchIndex?.estimateMemorySize() ?: 0L)
+    }
+
+    if (cachedSize != null) {
+      return cachedSize
+    }
+
+    // cachedMemorySize is only updated under the write lock
+    return lock.write {
+      if (cachedMemorySize.postsModificationCounter != postsModificationCounter) {
+        val sizeInBytes = threadPosts.sumOf { chanPost -> chanPost.estimateMemorySize() }
+        cachedMemorySize = CachedMemorySize(postsModificationCounter, sizeInBytes)
+      }
+
+      return@write cachedMemorySize.sizeInBytes + (postSearchIndex?.estimateMemorySize() ?: 0L)
+    }
+  }
+
   fun getAndConsumeDeletedPostsForUi(): Int {
     return lock.write {
       val deletedPosts = deletedPostsForUi
@@ -173,6 +219,7 @@ class ChanThread(
       }
 
       val deletedPostsSet = findDeletedPosts(threadPosts, postsFromServerData)
+      ++postsModificationCounter
 
       var addedOrUpdatedOrDeletedPosts = false
       var addedPostsCount = 0
@@ -188,6 +235,8 @@ class ChanThread(
         if (!postsByPostDescriptors.containsKey(newChanPost.postDescriptor)) {
           threadPosts.add(newChanPost)
           postsByPostDescriptors[newChanPost.postDescriptor] = newChanPost
+          postIndexes[newChanPost.postDescriptor] = threadPosts.lastIndex
+          postSearchIndex?.addOrUpdatePost(newChanPost)
 
           addedOrUpdatedOrDeletedPosts = true
           addedPostsCount++
@@ -195,8 +244,7 @@ class ChanThread(
           return@forEach
         }
 
-        val oldChanPostIndex = threadPosts
-          .indexOfFirst { post -> post.postDescriptor == newChanPost.postDescriptor }
+        val oldChanPostIndex = indexOfPost(newChanPost.postDescriptor)
         check(oldChanPostIndex >= 0) { "Bad oldChanPostIndex: $oldChanPostIndex" }
 
         val oldChanPost = threadPosts[oldChanPostIndex]
@@ -211,6 +259,7 @@ class ChanThread(
 
         threadPosts[oldChanPostIndex] = mergedPost
         postsByPostDescriptors[newChanPost.postDescriptor] = mergedPost
+        postSearchIndex?.addOrUpdatePost(mergedPost)
 
         addedOrUpdatedOrDeletedPosts = true
         ++updatedPostsCount
@@ -218,8 +267,7 @@ class ChanThread(
 
       if (deletedPostsSet != null && deletedPostsSet.isNotEmpty()) {
         deletedPostsSet.forEach { deletedPostDescriptor ->
-          val oldChanPostIndex = threadPosts
-            .indexOfFirst { post -> post.postDescriptor == deletedPostDescriptor }
+          val oldChanPostIndex = indexOfPost(deletedPostDescriptor)
 
           if (oldChanPostIndex < 0) {
             return@forEach
@@ -247,6 +295,7 @@ class ChanThread(
           if (!postsAreSorted()) {
             Logger.d(TAG, "addOrUpdatePosts() posts need to be sorted")
             threadPosts.sortWith(POSTS_COMPARATOR)
+            rebuildPostIndexes()
           }
 
           recalculatePostReplies(newChanPosts)
@@ -285,6 +334,8 @@ class ChanThread(
         }
       }
 
+      ++postsModificationCounter
+
       if (threadPosts.isNotEmpty()) {
         require(threadPosts.first() is ChanOriginalPost) {
           "First post is not an original post! post=${threadPosts.first()}"
@@ -300,13 +351,17 @@ class ChanThread(
 
         threadPosts[0] = mergedChanOriginalPost
         postsByPostDescriptors[newChanOriginalPost.postDescriptor] = mergedChanOriginalPost
+        postSearchIndex?.addOrUpdatePost(mergedChanOriginalPost)
       } else {
         threadPosts.add(newChanOriginalPost)
         postsByPostDescriptors[newChanOriginalPost.postDescriptor] = newChanOriginalPost
+        postIndexes[newChanOriginalPost.postDescriptor] = threadPosts.lastIndex
+        postSearchIndex?.addOrUpdatePost(newChanOriginalPost)
 
         if (!postsAreSorted()) {
           Logger.d(TAG, "setOrUpdateOriginalPost() posts need to be sorted")
           threadPosts.sortWith(POSTS_COMPARATOR)
+          rebuildPostIndexes()
         }
       }
 
@@ -456,9 +511,7 @@ class ChanThread(
             "postDescriptor.threadDescriptor=${postDescriptor.threadDescriptor()}"
         }
 
-        val postIndex = threadPosts
-          .indexOfFirst { chanPost -> chanPost.postDescriptor == postDescriptor }
-
+        val postIndex = indexOfPost(postDescriptor)
         if (postIndex < 0) {
           return@forEach
         }
@@ -490,49 +543,19 @@ class ChanThread(
       "Either includeRepliesFrom or includeRepliesTo must be true"
     }
 
-    val postsToCheck = mutableListOf<ChanPost>()
-
     lock.read {
-      for (post in threadPosts) {
-        if (post.postDescriptor != postDescriptor || postsSet.contains(post)) {
-          continue
-        }
-
-        postsToCheck.add(post)
-      }
-    }
-
-    for (post in postsToCheck) {
-      if (postsSet.contains(post)) {
-        continue
-      }
-
-      postsSet.add(post)
-
-      if (includeRepliesFrom) {
-        val repliesFrom = post.repliesFromCopy
-        repliesFrom.forEach { lookUpPostDescriptor ->
-          findPostWithRepliesRecursive(
-            postDescriptor = lookUpPostDescriptor,
-            postsSet = postsSet,
-            includeRepliesFrom = includeRepliesFrom,
-            includeRepliesTo = includeRepliesTo,
-            maxRecursion = maxRecursion - 1
-          )
-        }
-      }
-
-      if (includeRepliesTo) {
-        val repliesTo = post.repliesTo
-        repliesTo.forEach { lookUpPostDescriptor ->
-          findPostWithRepliesRecursive(
-            postDescriptor = lookUpPostDescriptor,
-            postsSet = postsSet,
-            includeRepliesFrom = includeRepliesFrom,
-            includeRepliesTo = includeRepliesTo,
-            maxRecursion = maxRecursion - 1
-          )
-        }
+      postReplyGraph.walkReplyTree(
+        postDescriptor = postDescriptor,
+        includeRepliesFrom = includeRepliesFrom,
+        includeRepliesTo = includeRepliesTo,
+        maxDepth = maxRecursion
+      ) { visitedPostDescriptor ->
+        // Quoted posts that are not loaded (or were deleted) and the posts that are already in the
+        // set are not walked through
+        val post = postsByPostDescriptors[visitedPostDescriptor]
+          ?: return@walkReplyTree false
+
+        return@walkReplyTree postsSet.add(post)
       }
     }
   }
@@ -544,23 +567,24 @@ class ChanThread(
         "First post is not an original post! post=${threadPosts.first()}"
       }
 
-      postDescriptors.forEach { postDescriptor ->
+      val postDescriptorsToDelete = postDescriptors.toSet()
+      ++postsModificationCounter
+
+      postDescriptorsToDelete.forEach { postDescriptor ->
         if (postDescriptor.isOP()) {
           Logger.e(TAG, "Deleting original post ${postDescriptor}!!! This may end up very badly!")
         }
 
-        val postIndex = threadPosts.indexOfFirst { chanPost ->
-          chanPost.postDescriptor == postDescriptor
-        }
-
-        if (postIndex >= 0) {
-          threadPosts.removeAt(postIndex)
-        }
-
         rawPostHashesMap.remove(postDescriptor)
         postsByPostDescriptors.remove(postDescriptor)
+        postSearchIndex?.removePost(postDescriptor)
       }
 
+      // Remove all the posts in one pass, removing them one by one would shift the rest of the list
+      // for every deleted post
+      threadPosts.removeAll { chanPost -> chanPost.postDescriptor in postDescriptorsToDelete }
+      rebuildPostIndexes()
+
       checkPostsConsistency()
     }
   }
@@ -621,7 +645,7 @@ class ChanThread(
     check(rightCount >= 0) { "Bad right count: $rightCount" }
 
     return lock.read {
-      val indexOfPost = threadPosts.indexOfFirst { post -> post.postDescriptor == postDescriptor }
+      val indexOfPost = indexOfPost(postDescriptor)
       if (indexOfPost < 0) {
         return@read emptyList()
       }
@@ -674,7 +698,7 @@ class ChanThread(
 
   fun getPostDescriptorRelativeTo(postDescriptor: PostDescriptor, offset: Int): PostDescriptor? {
     return lock.read {
-      val currentPostIndex = threadPosts.indexOfFirst { post -> post.postDescriptor == postDescriptor }
+      val currentPostIndex = indexOfPost(postDescriptor)
       if (currentPostIndex < 0) {
         return@read null
       }
@@ -723,11 +747,17 @@ class ChanThread(
 
   fun cleanup() {
     lock.write {
+      // Most of the posts are about to be removed so it's cheaper to rebuild the index when needed
+      postSearchIndex = null
+      ++postsModificationCounter
+
       val chanOriginalPost = threadPosts.firstOrNull()
       if (chanOriginalPost == null) {
         threadPosts.clear()
         postsByPostDescriptors.clear()
+        postIndexes.clear()
         rawPostHashesMap.clear()
+        postReplyGraph.clear()
 
         return@write
       }
@@ -737,6 +767,9 @@ class ChanThread(
         return@write
       }
 
+      // The replies are added back by recalculatePostReplies() when the posts are loaded again
+      postReplyGraph.clear()
+
       threadPosts.mutableIteration { mutableIterator, chanPost ->
         if (chanPost !== chanOriginalPost) {
           mutableIterator.remove()
@@ -762,6 +795,8 @@ class ChanThread(
 
         return@mutableIteration true
       }
+
+      rebuildPostIndexes()
     }
   }
 
@@ -961,33 +996,30 @@ class ChanThread(
   private fun recalculatePostReplies(newChanPosts: List<ChanPost>) {
     require(lock.isWriteLocked) { "Lock must be write locked!" }
 
-    val replies = HashMap<PostDescriptor, MutableList<PostDescriptor>>(threadPosts.size)
-
     for (newChanPost in newChanPosts) {
       val sourcePost = postsByPostDescriptors[newChanPost.postDescriptor]
         ?: continue
 
+      val sourceNodeId = postReplyGraph.getOrCreateNode(sourcePost.postDescriptor)
+
       for (replyTo in sourcePost.repliesTo) {
-        if (postsByPostDescriptors[replyTo]?.repliesFrom?.contains(sourcePost.postDescriptor) == true) {
-          // Already processed
+        if (replyTo.descriptor != threadDescriptor) {
+          // Cross-thread quote
           continue
         }
 
-        var value = replies[replyTo]
-
-        if (value == null) {
-          value = ArrayList(3)
-          replies[replyTo] = value
+        if (!postReplyGraph.addReply(sourceNodeId, replyTo)) {
+          // Already processed
+          continue
         }
 
-        value.add(sourcePost.postDescriptor)
+        postsByPostDescriptors[replyTo]?.repliesFrom?.add(sourcePost.postDescriptor)
       }
-    }
-
-    for ((postNo, replyList) in replies) {
-      val subject = postsByPostDescriptors[postNo]
 
-      subject?.repliesFrom?.addAll(replyList)
+      // The replies to this post may have been loaded before the post itself
+      postReplyGraph.forEachReplyFrom(sourcePost.postDescriptor) { replyFrom ->
+        sourcePost.repliesFrom.add(replyFrom)
+      }
     }
   }
 
@@ -1002,6 +1034,17 @@ class ChanThread(
           "postsByPostDescriptors.size=${postsByPostDescriptors.size}"
       }
 
+      check(threadPosts.size == postIndexes.size) {
+        "Sizes do not match (threadPosts.size=${threadPosts.size}, postIndexes.size=${postIndexes.size}"
+      }
+
+      threadPosts.forEachIndexed { index, chanPost ->
+        check(postIndexes[chanPost.postDescriptor] == index) {
+          "Bad post index (index=$index, postIndexes=${postIndexes[chanPost.postDescriptor]}, " +
+            "postDescriptor=${chanPost.postDescriptor})"
+        }
+      }
+
       threadPosts.forEach { chanPost1 ->
         val chanPost2 = postsByPostDescriptors[chanPost1.postDescriptor]
 
@@ -1029,12 +1072,26 @@ class ChanThread(
     }
   }
 
+  private fun indexOfPost(postDescriptor: PostDescriptor): Int {
+    return postIndexes[postDescriptor] ?: -1
+  }
+
+  private fun rebuildPostIndexes() {
+    require(lock.isWriteLocked) { "Lock must be write locked!" }
+
+    postIndexes.clear()
+
+    threadPosts.forEachIndexed { index, chanPost ->
+      postIndexes[chanPost.postDescriptor] = index
+    }
+  }
+
   private fun postsAreSorted(): Boolean {
     require(lock.isWriteLocked) { "Lock must be write locked!" }
 
-    for (threadPostWindow in threadPosts.windowed(size = 2, step = 1)) {
-      val prevPost = threadPostWindow.getOrNull(0) ?: break
-      val currPost = threadPostWindow.getOrNull(1) ?: break
+    for (index in 1 until threadPosts.size) {
+      val prevPost = threadPosts[index - 1]
+      val currPost = threadPosts[index]
 
       if (currPost.postNo() < prevPost.postNo()) {
         return false
@@ -1086,11 +1143,37 @@ class ChanThread(
 
       val resultPosts = mutableListOf<PostDescriptor>()
       resultPosts += chanPost.postDescriptor
-      resultPosts.addAll(chanPost.repliesFrom)
+      postReplyGraph.forEachReplyFrom(chanPost.postDescriptor) { replyFrom -> resultPosts += replyFrom }
       return@read resultPosts
     }
   }
 
+  /**
+   * Returns descriptors of posts that contain every whitespace separated term of [query] (see
+   * [PostSearchIndex]) together with the positions of the terms inside of their comments. The search
+   * index is built on the first call.
+   * */
+  fun searchPosts(query: String): Map<PostDescriptor, List<PostSearchIndex.MatchRange>> {
+    val indexBuilt = lock.read { postSearchIndex != null }
+    if (!indexBuilt) {
+      lock.write {
+        if (postSearchIndex == null) {
+          val newPostSearchIndex = PostSearchIndex()
+          threadPosts.forEach { chanPost -> newPostSearchIndex.addOrUpdatePost(chanPost) }
+
+          postSearchIndex = newPostSearchIndex
+        }
+      }
+    }
+
+    return lock.read {
+      val index = postSearchIndex
+        ?: return@read emptyMap()
+
+      return@read index.search(query) { postDescriptor -> postsByPostDescriptors[postDescriptor] }
+    }
+  }
+
   fun isThreadLockCurrentlyLocked(): Boolean {
     return lock.isWriteLocked && !lock.isWriteLockedByCurrentThread
   }
@@ -1100,10 +1183,21 @@ class ChanThread(
       val chanPost = postsByPostDescriptors[chanPostImage.ownerPostDescriptor]
         ?: return@write false
 
-      return@write chanPost.addImage(chanPostImage)
+      val imageAdded = chanPost.addImage(chanPostImage)
+      if (imageAdded) {
+        postSearchIndex?.addOrUpdatePost(chanPost)
+        ++postsModificationCounter
+      }
+
+      return@write imageAdded
     }
   }
 
+  private class CachedMemorySize(
+    val postsModificationCounter: Long,
+    val sizeInBytes: Long
+  )
+
   companion object {
     private const val TAG = "ChanThread"
 
@@ -0,0 +1,191 @@
+package com.github.k1rakishou.model.data.thread
+
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+
+/**
+ * Graph of the replies between the posts of one thread. Every post gets a numeric node id (so do the
+ * posts that were quoted but are not loaded yet) and the edges are stored as primitive int arrays so
+ * that neither updating the graph nor walking reply trees allocates anything per edge. The graph only
+ * grows (the same as ChanPost.repliesFrom), edges are never removed until the graph is cleared.
+ *
+ * Not thread-safe, [ChanThread] guards it with its own lock.
+ * */
+class PostReplyGraph {
+  private val nodeIds = hashMapOf<PostDescriptor, Int>()
+  private val postDescriptors = mutableListOf<PostDescriptor>()
+  // Indexed by node id. Null when a node has no edges in that direction which is the case for most
+  // of the posts.
+  private val repliesTo = mutableListOf<IntList?>()
+  private val repliesFrom = mutableListOf<IntList?>()
+
+  val nodesCount: Int
+    get() = postDescriptors.size
+
+  fun getOrCreateNode(postDescriptor: PostDescriptor): Int {
+    val existingNodeId = nodeIds[postDescriptor]
+    if (existingNodeId != null) {
+      return existingNodeId
+    }
+
+    val nodeId = postDescriptors.size
+
+    nodeIds[postDescriptor] = nodeId
+    postDescriptors += postDescriptor
+    repliesTo += null
+    repliesFrom += null
+
+    return nodeId
+  }
+
+  /**
+   * Adds an edge from the post with [sourceNodeId] to [replyTo]. Returns false if the edge already
+   * exists.
+   * */
+  fun addReply(sourceNodeId: Int, replyTo: PostDescriptor): Boolean {
+    val targetNodeId = getOrCreateNode(replyTo)
+
+    var sourceRepliesTo = repliesTo[sourceNodeId]
+    if (sourceRepliesTo == null) {
+      sourceRepliesTo = IntList()
+      repliesTo[sourceNodeId] = sourceRepliesTo
+    }
+
+    // A post only quotes a handful of other posts so a linear search is fine here
+    if (sourceRepliesTo.contains(targetNodeId)) {
+      return false
+    }
+
+    sourceRepliesTo.add(targetNodeId)
+
+    var targetRepliesFrom = repliesFrom[targetNodeId]
+    if (targetRepliesFrom == null) {
+      targetRepliesFrom = IntList()
+      repliesFrom[targetNodeId] = targetRepliesFrom
+    }
+
+    targetRepliesFrom.add(sourceNodeId)
+    return true
+  }
+
+  /**
+   * Descriptors of the posts that quote [postDescriptor], in the order they were added to the graph.
+   * */
+  fun forEachReplyFrom(postDescriptor: PostDescriptor, iterator: (PostDescriptor) -> Unit) {
+    val nodeId = nodeIds[postDescriptor]
+      ?: return
+    val nodeRepliesFrom = repliesFrom[nodeId]
+      ?: return
+
+    for (index in 0 until nodeRepliesFrom.size) {
+      iterator(postDescriptors[nodeRepliesFrom[index]])
+    }
+  }
+
+  /**
+   * Breadth-first walk over the reply tree of [postDescriptor] (the post itself included) which visits
+   * only the posts that are at most [maxDepth] edges away from it. [visitor] returns whether the
+   * walk should continue through the visited post. Every post is visited at most once so the cost is
+   * proportional to the size of the reply tree and not to the size of the thread.
+   * */
+  fun walkReplyTree(
+    postDescriptor: PostDescriptor,
+    includeRepliesFrom: Boolean,
+    includeRepliesTo: Boolean,
+    maxDepth: Int,
+    visitor: (PostDescriptor) -> Boolean
+  ) {
+    if (maxDepth < 0) {
+      return
+    }
+
+    val rootNodeId = nodeIds[postDescriptor]
+    if (rootNodeId == null) {
+      // A post without any replies that was never added to the graph (e.g. an original post that
+      // was set with ChanThread.setOrUpdateOriginalPost())
+      visitor(postDescriptor)
+      return
+    }
+
+    val visited = BooleanArray(nodesCount)
+    var queue = IntArray(16)
+    var head = 0
+    var tail = 0
+
+    visited[rootNodeId] = true
+    queue[tail++] = rootNodeId
+
+    var depth = 0
+    var currentLevelEnd = tail
+
+    while (head < tail) {
+      if (head == currentLevelEnd) {
+        ++depth
+        currentLevelEnd = tail
+      }
+
+      val nodeId = queue[head++]
+
+      if (!visitor(postDescriptors[nodeId]) || depth >= maxDepth) {
+        continue
+      }
+
+      for (direction in 0 until 2) {
+        val edges = when {
+          direction == 0 && includeRepliesFrom -> repliesFrom[nodeId]
+          direction == 1 && includeRepliesTo -> repliesTo[nodeId]
+          else -> null
+        } ?: continue
+
+        for (index in 0 until edges.size) {
+          val nextNodeId = edges[index]
+          if (visited[nextNodeId]) {
+            continue
+          }
+
+          visited[nextNodeId] = true
+
+          if (tail == queue.size) {
+            queue = queue.copyOf(queue.size * 2)
+          }
+
+          queue[tail++] = nextNodeId
+        }
+      }
+    }
+  }
+
+  fun clear() {
+    nodeIds.clear()
+    postDescriptors.clear()
+    repliesTo.clear()
+    repliesFrom.clear()
+  }
+
+  private class IntList {
+    private var values = IntArray(2)
+
+    var size: Int = 0
+      private set
+
+    operator fun get(index: Int): Int = values[index]
+
+    fun add(value: Int) {
+      if (size == values.size) {
+        values = values.copyOf(size * 2)
+      }
+
+      values[size++] = value
+    }
+
+    fun contains(value: Int): Boolean {
+      for (index in 0 until size) {
+        if (values[index] == value) {
+          return true
+        }
+      }
+
+      return false
+    }
+  }
+
+}
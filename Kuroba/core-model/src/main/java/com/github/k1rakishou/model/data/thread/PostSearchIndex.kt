@@ -0,0 +1,489 @@
+package com.github.k1rakishou.model.data.thread
+
+import com.github.k1rakishou.common.StringUtils
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostImage
+import com.github.k1rakishou.model.util.ChanPostUtils
+import java.util.Locale
+
+/**
+ * Trigram index of the searchable text of posts (comment, post number, subject, name and image info).
+ * A query is split into whitespace separated terms and a post matches when every term is contained in
+ * its text, ignoring case (the same as String.contains(term, ignoreCase = true)). Candidates are found
+ * by intersecting posting lists of the terms' trigrams and then verified against the post text so the
+ * result is exact, terms shorter than a trigram are verified against every post. The verification also
+ * collects the positions of the terms inside of the comment so that they can be highlighted without
+ * searching the comment again.
+ *
+ * The index doesn't keep a copy of the post texts, candidates are verified against the text that is
+ * formatted again from the current version of the post (only the candidates are formatted). Everything
+ * is keyed by primitives (trigrams and post numbers) so that the index doesn't allocate per posting.
+ *
+ * Not thread-safe, [ChanThread] guards it with its own lock.
+ * */
+class PostSearchIndex {
+  // Posts are referenced by a numeric id in the posting lists. When a post is updated it gets a new id
+  // and the old one is marked as removed, ids are renumbered when the index is compacted.
+  private val postDescriptors = mutableListOf<PostDescriptor?>()
+  // Post number -> the latest id of a post with that number. Posts with the same number but different
+  // sub numbers (archived ghost posts) are chained through sameNumberPostIds.
+  private val postIds = LongIntHashMap()
+  private var sameNumberPostIds = IntArray(16)
+  // Trigram -> index into postingLists
+  private val postingListIndexes = LongIntHashMap()
+  private val postingLists = mutableListOf<PostingList>()
+  private var postingsCount = 0L
+
+  var postsCount: Int = 0
+    private set
+
+  fun addOrUpdatePost(chanPost: ChanPost) {
+    removePost(chanPost.postDescriptor)
+
+    val postId = postDescriptors.size
+    val text = normalize(formatPostForSearch(chanPost))
+
+    postDescriptors += chanPost.postDescriptor
+    linkPostId(chanPost.postDescriptor.postNo, postId)
+    ++postsCount
+
+    forEachTrigram(text) { trigram ->
+      var postingListIndex = postingListIndexes.get(trigram)
+      if (postingListIndex < 0) {
+        postingListIndex = postingLists.size
+        postingLists += PostingList()
+        postingListIndexes.put(trigram, postingListIndex)
+      }
+
+      if (postingLists[postingListIndex].add(postId)) {
+        ++postingsCount
+      }
+    }
+
+    val removedPostsCount = postDescriptors.size - postsCount
+    if (removedPostsCount > postsCount.coerceAtLeast(MIN_POSTS_FOR_COMPACTION)) {
+      compact()
+    }
+  }
+
+  fun removePost(postDescriptor: PostDescriptor) {
+    val postId = findPostId(postDescriptor)
+    if (postId < 0) {
+      return
+    }
+
+    postDescriptors[postId] = null
+    --postsCount
+  }
+
+  fun clear() {
+    postDescriptors.clear()
+    postIds.clear()
+    postingListIndexes.clear()
+    postingLists.clear()
+    postingsCount = 0L
+    postsCount = 0
+  }
+
+  /**
+   * [postProvider] must return the current version of the post or null if the post doesn't exist
+   * anymore.
+   *
+   * @return the matched posts and the positions of the query terms inside of their comments.
+   * */
+  fun search(query: String, postProvider: (PostDescriptor) -> ChanPost?): Map<PostDescriptor, List<MatchRange>> {
+    val terms = normalizeQuery(query)
+    if (terms.isEmpty()) {
+      return emptyMap()
+    }
+
+    val result = hashMapOf<PostDescriptor, List<MatchRange>>()
+
+    forEachCandidate(terms) { postId ->
+      val postDescriptor = postDescriptors[postId]
+        ?: return@forEachCandidate
+      val chanPost = postProvider(postDescriptor)
+        ?: return@forEachCandidate
+
+      val commentMatchRanges = findCommentMatchRanges(chanPost, terms)
+      if (commentMatchRanges != null) {
+        result[postDescriptor] = commentMatchRanges
+      }
+    }
+
+    return result
+  }
+
+  /**
+   * Estimated amount of memory retained by the index (the post descriptors are shared with the posts
+   * so only the references to them are counted).
+   * */
+  fun estimateMemorySize(): Long {
+    var size = postDescriptors.size * REFERENCE_SIZE + sameNumberPostIds.size * INT_SIZE
+    size += postIds.estimateMemorySize() + postingListIndexes.estimateMemorySize()
+    size += postingLists.size * (POSTING_LIST_BASE_SIZE + REFERENCE_SIZE) + postingsCount * INT_SIZE
+
+    return size
+  }
+
+  private inline fun forEachCandidate(terms: List<String>, func: (Int) -> Unit) {
+    // The smallest posting list of all trigrams of all the terms. Every result must be in it.
+    var smallestPostingList: PostingList? = null
+
+    for (term in terms) {
+      var missingTrigramFound = false
+
+      forEachTrigram(term) { trigram ->
+        val postingListIndex = postingListIndexes.get(trigram)
+        if (postingListIndex < 0) {
+          missingTrigramFound = true
+          return@forEachTrigram
+        }
+
+        val postingList = postingLists[postingListIndex]
+        if (smallestPostingList == null || postingList.size < smallestPostingList!!.size) {
+          smallestPostingList = postingList
+        }
+      }
+
+      if (missingTrigramFound) {
+        return
+      }
+    }
+
+    val postingList = smallestPostingList
+    if (postingList == null) {
+      for (postId in postDescriptors.indices) {
+        func(postId)
+      }
+
+      return
+    }
+
+    for (index in 0 until postingList.size) {
+      func(postingList[index])
+    }
+  }
+
+  private fun findPostId(postDescriptor: PostDescriptor): Int {
+    var postId = postIds.get(postDescriptor.postNo)
+
+    while (postId >= 0) {
+      if (postDescriptors[postId] == postDescriptor) {
+        return postId
+      }
+
+      postId = sameNumberPostIds[postId]
+    }
+
+    return -1
+  }
+
+  private fun linkPostId(postNo: Long, postId: Int) {
+    if (postId >= sameNumberPostIds.size) {
+      sameNumberPostIds = sameNumberPostIds.copyOf(sameNumberPostIds.size * 2)
+    }
+
+    sameNumberPostIds[postId] = postIds.get(postNo)
+    postIds.put(postNo, postId)
+  }
+
+  private fun compact() {
+    // Old id -> new id, -1 for removed posts
+    val newPostIds = IntArray(postDescriptors.size) { -1 }
+    val livePostDescriptors = mutableListOf<PostDescriptor?>()
+
+    for ((postId, postDescriptor) in postDescriptors.withIndex()) {
+      if (postDescriptor != null) {
+        newPostIds[postId] = livePostDescriptors.size
+        livePostDescriptors += postDescriptor
+      }
+    }
+
+    postDescriptors.clear()
+    postDescriptors.addAll(livePostDescriptors)
+
+    postIds.clear()
+    for ((postId, postDescriptor) in postDescriptors.withIndex()) {
+      linkPostId(postDescriptor!!.postNo, postId)
+    }
+
+    // Posting lists that became empty are kept, most of the time the same trigrams are added back by
+    // the updated versions of the posts.
+    postingsCount = 0L
+    postingLists.forEach { postingList ->
+      postingList.remap(newPostIds)
+      postingsCount += postingList.size
+    }
+  }
+
+  private inline fun forEachTrigram(text: String, func: (Long) -> Unit) {
+    if (text.length < TRIGRAM_LENGTH) {
+      return
+    }
+
+    for (index in 0..(text.length - TRIGRAM_LENGTH)) {
+      val trigram = (text[index].code.toLong() shl 32) or
+        (text[index + 1].code.toLong() shl 16) or
+        text[index + 2].code.toLong()
+
+      func(trigram)
+    }
+  }
+
+  /**
+   * Position of a query term inside of a post comment, [start] inclusive, [end] exclusive.
+   * */
+  data class MatchRange(
+    val start: Int,
+    val end: Int
+  )
+
+  private class PostingList {
+    private var ids = IntArray(4)
+
+    var size: Int = 0
+      private set
+
+    operator fun get(index: Int): Int = ids[index]
+
+    /**
+     * Returns false if [postId] is already in the list.
+     * */
+    fun add(postId: Int): Boolean {
+      // Ids only grow so a duplicate can only be at the end
+      if (size > 0 && ids[size - 1] == postId) {
+        return false
+      }
+
+      if (size == ids.size) {
+        ids = ids.copyOf(size * 2)
+      }
+
+      ids[size++] = postId
+      return true
+    }
+
+    fun remap(newPostIds: IntArray) {
+      var newSize = 0
+
+      for (index in 0 until size) {
+        val newPostId = newPostIds[ids[index]]
+        if (newPostId >= 0) {
+          ids[newSize++] = newPostId
+        }
+      }
+
+      size = newSize
+    }
+  }
+
+  /**
+   * Open addressing (linear probing) map of non-negative int values keyed by longs, there is no
+   * remove() since the index never removes keys (only clears them all).
+   * */
+  private class LongIntHashMap {
+    private var keys = LongArray(INITIAL_CAPACITY)
+    private var values = IntArray(INITIAL_CAPACITY) { NO_VALUE }
+    private var size = 0
+
+    /**
+     * Returns -1 if there is no value for [key].
+     * */
+    fun get(key: Long): Int {
+      val mask = keys.size - 1
+      var slot = slotOf(key, mask)
+
+      while (values[slot] != NO_VALUE) {
+        if (keys[slot] == key) {
+          return values[slot]
+        }
+
+        slot = (slot + 1) and mask
+      }
+
+      return NO_VALUE
+    }
+
+    fun put(key: Long, value: Int) {
+      if ((size + 1) * 4 > keys.size * 3) {
+        rehash(keys.size * 2)
+      }
+
+      val mask = keys.size - 1
+      var slot = slotOf(key, mask)
+
+      while (values[slot] != NO_VALUE) {
+        if (keys[slot] == key) {
+          values[slot] = value
+          return
+        }
+
+        slot = (slot + 1) and mask
+      }
+
+      keys[slot] = key
+      values[slot] = value
+      ++size
+    }
+
+    fun clear() {
+      keys = LongArray(INITIAL_CAPACITY)
+      values = IntArray(INITIAL_CAPACITY) { NO_VALUE }
+      size = 0
+    }
+
+    fun estimateMemorySize(): Long {
+      return keys.size * (LONG_SIZE + INT_SIZE)
+    }
+
+    private fun rehash(newCapacity: Int) {
+      val oldKeys = keys
+      val oldValues = values
+
+      keys = LongArray(newCapacity)
+      values = IntArray(newCapacity) { NO_VALUE }
+      size = 0
+
+      for (index in oldKeys.indices) {
+        if (oldValues[index] != NO_VALUE) {
+          put(oldKeys[index], oldValues[index])
+        }
+      }
+    }
+
+    private fun slotOf(key: Long, mask: Int): Int {
+      // Trigrams and post numbers are far from random so the bits are mixed before masking them
+      val hash = key * -0x61c8864680b583ebL
+      return (hash xor (hash ushr 32)).toInt() and mask
+    }
+
+    companion object {
+      private const val INITIAL_CAPACITY = 64
+      private const val NO_VALUE = -1
+    }
+  }
+
+  companion object {
+    private const val TRIGRAM_LENGTH = 3
+    private const val MIN_POSTS_FOR_COMPACTION = 64
+    private const val INT_SIZE = 4L
+    private const val LONG_SIZE = 8L
+    private const val REFERENCE_SIZE = 8L
+    // PostingList object header, its fields and the IntArray header
+    private const val POSTING_LIST_BASE_SIZE = 40L
+    // Fields are joined with a character that can't be in a query term so that a term never matches
+    // across two fields.
+    private const val FIELD_SEPARATOR = '\n'
+
+    private val WHITESPACE_PATTERN = "\\s+".toRegex()
+
+    fun splitQueryIntoTerms(query: String): List<String> {
+      return query
+        .split(WHITESPACE_PATTERN)
+        .filter { term -> term.isNotEmpty() }
+    }
+
+    /**
+     * @return the terms of [query] in the form [findCommentMatchRanges] expects them.
+     * */
+    fun normalizeQuery(query: String): List<String> {
+      return splitQueryIntoTerms(query)
+        .map { term -> normalize(term) }
+        .distinct()
+    }
+
+    /**
+     * Checks whether [chanPost] contains every one of [normalizedTerms] (see [normalizeQuery]).
+     *
+     * @return null if the post doesn't match, otherwise the positions of the terms inside of the post
+     * comment (matches in the other fields are not included). Overlapping matches of different terms
+     * are kept as they are.
+     * */
+    fun findCommentMatchRanges(chanPost: ChanPost, normalizedTerms: List<String>): List<MatchRange>? {
+      val commentLength = chanPost.postComment.originalCommentText().length
+      val text = normalize(formatPostForSearch(chanPost))
+      val commentMatchRanges = mutableListOf<MatchRange>()
+
+      for (term in normalizedTerms) {
+        var index = text.indexOf(term)
+        if (index < 0) {
+          return null
+        }
+
+        while (index >= 0 && index + term.length <= commentLength) {
+          commentMatchRanges += MatchRange(index, index + term.length)
+          index = text.indexOf(term, index + term.length)
+        }
+      }
+
+      return commentMatchRanges
+    }
+
+    /**
+     * Maps every char into one representative of all chars that are equal to it with ignoreCase = true
+     * without changing the text length (unlike String.lowercase()).
+     * */
+    fun normalize(text: CharSequence): String {
+      val chars = CharArray(text.length)
+
+      for (index in text.indices) {
+        chars[index] = text[index].uppercaseChar().lowercaseChar()
+      }
+
+      return String(chars)
+    }
+
+    fun formatPostForSearch(chanPost: ChanPost): String {
+      return buildString {
+        // The text without spans is enough here so the comment is not decoded
+        append(chanPost.postComment.originalCommentText())
+        append(FIELD_SEPARATOR)
+        append(chanPost.postDescriptor.postNo)
+
+        if (chanPost.subject != null) {
+          append(FIELD_SEPARATOR)
+          append(chanPost.subject)
+        }
+
+        if (chanPost.name != null) {
+          append(FIELD_SEPARATOR)
+          append(chanPost.name)
+        }
+
+        for (postImage in chanPost.postImages) {
+          append(FIELD_SEPARATOR)
+          append(formatImageInfoForSearch(postImage))
+        }
+      }
+    }
+
+    fun formatImageInfoForSearch(chanPostImage: ChanPostImage): String {
+      return buildString {
+        if (chanPostImage.serverFilename.isNotBlank()) {
+          append(chanPostImage.serverFilename)
+          append(' ')
+        }
+
+        if (!chanPostImage.filename.isNullOrBlank()) {
+          append(chanPostImage.filename)
+          append(' ')
+        }
+
+        if (!chanPostImage.extension.isNullOrBlank()) {
+          append(chanPostImage.extension!!.uppercase(Locale.ENGLISH))
+          append(' ')
+        }
+
+        append(StringUtils.UNBREAKABLE_SPACE_SYMBOL)
+        append("${chanPostImage.imageWidth}x${chanPostImage.imageHeight}")
+
+        append(StringUtils.UNBREAKABLE_SPACE_SYMBOL)
+        append(ChanPostUtils.getReadableFileSize(chanPostImage.size)
+          .replace(' ', StringUtils.UNBREAKABLE_SPACE_SYMBOL))
+      }
+    }
+  }
+
+}
@@ -1,9 +1,7 @@
 package com.github.k1rakishou.model.mapper
 
 import android.text.SpannableString
-import androidx.core.text.toSpanned
 import com.github.k1rakishou.core_spannable.ParcelableSpannableString
-import com.github.k1rakishou.core_spannable.PostLinkable
 import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableSpannableStringMapper
 import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
 import com.github.k1rakishou.model.data.descriptor.PostDescriptor
@@ -171,28 +169,34 @@ object ChanPostEntityMapper {
   fun mapPostComment(
     chanTextSpanEntityList: List<ChanTextSpanEntity>?
   ): PostComment {
-    val commentParcelableSpannableString = TextSpanMapper.fromEntity(
-      chanTextSpanEntityList,
-      ChanTextSpanEntity.TextType.PostComment
-    ) ?: ParcelableSpannableString()
-
-    val comment = ParcelableSpannableStringMapper.fromParcelableSpannableString(commentParcelableSpannableString)
+    val postCommentTextSpanEntity = chanTextSpanEntityList
+      ?.firstOrNull { textSpanEntity -> textSpanEntity.textType == ChanTextSpanEntity.TextType.PostComment }
+
+    if (postCommentTextSpanEntity == null) {
+      return PostComment(
+        originalComment = SpannableString(""),
+        originalUnparsedComment = null,
+        linkables = emptyList()
+      )
+    }
 
-    val postLinkables = comment.toSpanned().getSpans(
-      0,
-      comment.length,
-      PostLinkable::class.java
-    ).toList()
+    // The spans are only decoded once the comment is actually needed (e.g. when the post is bound)
+    val lazyCommentDecoder = PostComment.LazyCommentDecoder(
+      encodedSize = postCommentTextSpanEntity.spanInfoBytes.size.toLong(),
+      decode = {
+        val commentParcelableSpannableString = TextSpanMapper.fromEntity(
+          listOf(postCommentTextSpanEntity),
+          ChanTextSpanEntity.TextType.PostComment
+        ) ?: ParcelableSpannableString()
 
-    val unparsedPostComment = chanTextSpanEntityList
-      ?.filter { textSpanEntity -> textSpanEntity.textType == ChanTextSpanEntity.TextType.PostComment }
-      ?.firstOrNull()
-      ?.unparsedText
+        ParcelableSpannableStringMapper.fromParcelableSpannableString(commentParcelableSpannableString)
+      }
+    )
 
-    return PostComment(
-      originalComment = SpannableString(comment),
-      originalUnparsedComment = unparsedPostComment,
-      linkables = postLinkables
+    return PostComment.createLazily(
+      text = postCommentTextSpanEntity.parsedText,
+      originalUnparsedComment = postCommentTextSpanEntity.unparsedText,
+      lazyCommentDecoder = lazyCommentDecoder
     )
   }
 
@@ -1,11 +1,12 @@
 package com.github.k1rakishou.model.mapper
 
+import com.github.k1rakishou.common.ModularResult
 import com.github.k1rakishou.common.errorMessageOrClassName
-import com.github.k1rakishou.common.marshall
 import com.github.k1rakishou.common.unmarshall
 import com.github.k1rakishou.core_logger.Logger
 import com.github.k1rakishou.core_spannable.ParcelableSpannableString
 import com.github.k1rakishou.core_spannable.ParcelableSpans
+import com.github.k1rakishou.core_spannable.parcelable_spannable_string.ParcelableSpansCodec
 import com.github.k1rakishou.model.entity.chan.post.ChanTextSpanEntity
 
 object TextSpanMapper {
@@ -26,7 +27,7 @@ object TextSpanMapper {
       ownerPostId = ownerPostId,
       parsedText = parcelableSpannableString.text,
       unparsedText = originalUnparsedComment,
-      spanInfoBytes = parcelableSpannableString.parcelableSpans.marshall(),
+      spanInfoBytes = ParcelableSpansCodec.encode(parcelableSpannableString.parcelableSpans),
       textType = chanTextType
     )
   }
@@ -54,7 +55,7 @@ object TextSpanMapper {
 
     val textSpanEntity = filteredTextSpanEntityList.first()
 
-    val parcelableSpans = textSpanEntity.spanInfoBytes.unmarshall(ParcelableSpans.CREATOR)
+    val parcelableSpans = decodeSpans(textSpanEntity.spanInfoBytes)
       .onError { error -> Logger.e(TAG, "fromEntity() error: ${error.errorMessageOrClassName()}") }
       .valueOrNull()
       ?: ParcelableSpans()
@@ -65,4 +66,30 @@ object TextSpanMapper {
     )
   }
 
+  fun isEncodedWithLegacyFormat(chanTextSpanEntity: ChanTextSpanEntity): Boolean {
+    return !ParcelableSpansCodec.isEncodedWithThisCodec(chanTextSpanEntity.spanInfoBytes)
+  }
+
+  /**
+   * Converts spans stored as android.os.Parcel bytes (the old format) into the [ParcelableSpansCodec]
+   * format. Returns null if the old bytes cannot be read.
+   * */
+  fun reencodeLegacyEntity(chanTextSpanEntity: ChanTextSpanEntity): ChanTextSpanEntity? {
+    val parcelableSpans = chanTextSpanEntity.spanInfoBytes.unmarshall(ParcelableSpans.CREATOR)
+      .onError { error -> Logger.e(TAG, "reencodeLegacyEntity() error: ${error.errorMessageOrClassName()}") }
+      .valueOrNull()
+      ?: return null
+
+    return chanTextSpanEntity.copy(spanInfoBytes = ParcelableSpansCodec.encode(parcelableSpans))
+  }
+
+  private fun decodeSpans(spanInfoBytes: ByteArray): ModularResult<ParcelableSpans> {
+    if (ParcelableSpansCodec.isEncodedWithThisCodec(spanInfoBytes)) {
+      return ModularResult.Try { ParcelableSpansCodec.decode(spanInfoBytes) }
+    }
+
+    // Rows that were not re-encoded yet
+    return spanInfoBytes.unmarshall(ParcelableSpans.CREATOR)
+  }
+
 }
\ No newline at end of file
@@ -93,6 +93,14 @@ class ChanPostRepository(
     }
   }
 
+  suspend fun getTotalCachedPostsMemorySize(): Long {
+    check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
+
+    return applicationScope.dbCall {
+      return@dbCall chanThreadsCache.getTotalEstimatedMemorySize()
+    }
+  }
+
   suspend fun getTotalCachedThreadCount(): Int {
     check(suspendableInitializer.isInitialized()) { "ChanPostRepository is not initialized yet!" }
 
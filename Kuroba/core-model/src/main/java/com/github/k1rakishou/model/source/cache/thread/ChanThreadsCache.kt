@@ -27,7 +27,8 @@ import kotlin.time.measureTime
 class ChanThreadsCache(
   private val isDevBuild: Boolean,
   private val isLowRamDevice: Boolean,
-  private val maxCacheSize: Int,
+  // Estimated amount of memory (in bytes) the cached posts may retain before old threads are evicted
+  private val maxCacheSizeBytes: Long,
   private val chanCatalogSnapshotCache: ChanCatalogSnapshotCache
 ) {
   private val chanThreads = ConcurrentHashMap<ChanDescriptor.ThreadDescriptor, ChanThread>(128)
@@ -244,6 +245,67 @@ class ChanThreadsCache(
     return chanThreads.values.sumBy { chanThread -> chanThread.postsCount }
   }
 
+  fun getTotalEstimatedMemorySize(): Long {
+    return chanThreads.values.sumOf { chanThread -> chanThread.estimatedMemorySize() }
+  }
+
+  fun getMaxCacheSizeBytes(): Long {
+    return maxCacheSizeBytes
+  }
+
+  /**
+   * Called when the system asks us to release memory. Evicts the least recently accessed threads
+   * until the cache fits into the [memoryPressure] watermark. [boundChanDescriptors] (the catalogs and
+   * threads that are currently shown) are never evicted. Threads of a bound catalog that only have
+   * the OP are immune too, evicting them frees nothing because the catalog keeps their OPs.
+   * */
+  @OptIn(ExperimentalTime::class)
+  fun onMemoryPressure(
+    memoryPressure: MemoryPressure,
+    boundChanDescriptors: Set<ChanDescriptor>
+  ) {
+    val currentMemorySize = getTotalEstimatedMemorySize()
+    val targetMemorySize = (maxCacheSizeBytes / 100) * memoryPressure.watermarkPercent
+    val amountToEvict = currentMemorySize - targetMemorySize
+
+    Logger.d(TAG, "onMemoryPressure(${memoryPressure}) currentMemorySize=${currentMemorySize}, " +
+      "targetMemorySize=${targetMemorySize}, boundChanDescriptors=${boundChanDescriptors}")
+
+    if (amountToEvict <= 0) {
+      return
+    }
+
+    val immuneThreadDescriptors = hashSetWithCap<ChanDescriptor.ThreadDescriptor>(boundChanDescriptors.size)
+
+    boundChanDescriptors.forEach { chanDescriptor ->
+      when (chanDescriptor) {
+        is ChanDescriptor.ThreadDescriptor -> {
+          immuneThreadDescriptors += chanDescriptor
+        }
+        is ChanDescriptor.ICatalogDescriptor -> {
+          getCatalogThreadDescriptors(chanDescriptor).forEach { threadDescriptor ->
+            if ((chanThreads[threadDescriptor]?.postsCount ?: 0) <= 1) {
+              immuneThreadDescriptors += threadDescriptor
+            }
+          }
+        }
+      }
+    }
+
+    val time = measureTime {
+      evictOld(
+        immuneThreadsCount = 0,
+        immuneThreadDescriptors = immuneThreadDescriptors,
+        amountToEvictParam = amountToEvict
+      )
+    }
+
+    Logger.d(TAG, "onMemoryPressure(${memoryPressure}) end, " +
+      "currentMemorySize=${getTotalEstimatedMemorySize()}, took ${time}")
+
+    lastEvictInvokeTime.set(System.currentTimeMillis())
+  }
+
   fun getLastPost(threadDescriptor: ChanDescriptor.ThreadDescriptor): ChanPost? {
     return chanThreads[threadDescriptor]?.lastPost()
   }
@@ -377,8 +439,8 @@ class ChanThreadsCache(
       return
     }
 
-    val currentTotalPostsCount = getTotalCachedPostsCount()
-    if (currentTotalPostsCount <= maxCacheSize) {
+    val currentMemorySize = getTotalEstimatedMemorySize()
+    if (currentMemorySize <= maxCacheSizeBytes) {
       return
     }
 
@@ -389,18 +451,22 @@ class ChanThreadsCache(
       return
     }
 
-    val amountToEvict = (currentTotalPostsCount - maxCacheSize) + (maxCacheSize / 2)
+    val amountToEvict = (currentMemorySize - maxCacheSizeBytes) + (maxCacheSizeBytes / 2)
     if (amountToEvict > 0) {
       Logger.d(TAG, "evictOld start (immuneThreadsCount=${actualImmuneThreadsCount}, " +
-        "currentTotalPostsCount: ${currentTotalPostsCount} / max:${maxCacheSize}, " +
+        "currentMemorySize: ${currentMemorySize} / max:${maxCacheSizeBytes}, " +
         "threads with posts: ${amountOfThreadsWithMoreThanOnPost} / total threads: ${getCachedThreadsCount()})")
 
       val time = measureTime {
-        evictOld(immuneThreadsCount = actualImmuneThreadsCount, amountToEvictParam = amountToEvict)
+        evictOld(
+          immuneThreadsCount = actualImmuneThreadsCount,
+          immuneThreadDescriptors = emptySet(),
+          amountToEvictParam = amountToEvict
+        )
       }
 
       Logger.d(TAG, "evictOld end (immuneThreadsCount=${actualImmuneThreadsCount}, " +
-        "currentTotalPostsCount: ${getTotalCachedPostsCount()} / max:${maxCacheSize}), " +
+        "currentMemorySize: ${getTotalEstimatedMemorySize()} / max:${maxCacheSizeBytes}), " +
         "threads with posts: ${getThreadsWithMoreThanOnePostCount()}) / total threads: ${getCachedThreadsCount()} " +
         "took ${time}")
     }
@@ -408,12 +474,23 @@ class ChanThreadsCache(
     lastEvictInvokeTime.set(System.currentTimeMillis())
   }
 
-  private fun evictOld(immuneThreadsCount: Int, amountToEvictParam: Int) {
+  /**
+   * Evicts the posts (everything except for the OP) of the least recently accessed threads until
+   * at least [amountToEvictParam] bytes (estimated) are freed. Synchronized because it may be called
+   * by both the regular eviction routine and [onMemoryPressure] at the same time.
+   * */
+  @Synchronized
+  private fun evictOld(
+    immuneThreadsCount: Int,
+    immuneThreadDescriptors: Set<ChanDescriptor.ThreadDescriptor>,
+    amountToEvictParam: Long
+  ) {
     require(amountToEvictParam > 0) { "amountToEvictParam is too small: $amountToEvictParam" }
 
     val accessTimes = chanThreads.entries
+      .filter { (threadDescriptor, _) -> threadDescriptor !in immuneThreadDescriptors }
       .map { (threadDescriptor, chanThread) -> threadDescriptor to chanThread.getLastAccessTime() }
-    val totalPostsCount = getTotalCachedPostsCount()
+    val totalMemorySize = getTotalEstimatedMemorySize()
 
     val threadDescriptorsSorted = accessTimes
       // We will get the oldest accessed key in the beginning of the list
@@ -428,24 +505,24 @@ class ChanThreadsCache(
 
     Logger.d(TAG, "threadDescriptorsSorted size=${threadDescriptorsSorted.size}, " +
         "accessTimes size=${accessTimes.size}, " +
-        "totalPostsCount=${totalPostsCount}")
+        "totalMemorySize=${totalMemorySize}")
 
     val threadDescriptorsToClean = mutableListOf<ChanDescriptor.ThreadDescriptor>()
-    var amountOfPostsToEvict = amountToEvictParam
+    var amountOfBytesToEvict = amountToEvictParam
 
     for (threadDescriptor in threadDescriptorsSorted) {
-      if (amountOfPostsToEvict <= 0) {
+      if (amountOfBytesToEvict <= 0) {
         break
       }
 
-      val count = chanThreads[threadDescriptor]?.postsCount ?: 0
+      val memorySize = chanThreads[threadDescriptor]?.estimatedMemorySize() ?: 0L
 
       threadDescriptorsToClean += threadDescriptor
-      amountOfPostsToEvict -= count
+      amountOfBytesToEvict -= memorySize
     }
 
     Logger.d(TAG, "Evicting ${threadDescriptorsToClean.size} threads, " +
-        "postsToEvict=${amountToEvictParam - amountOfPostsToEvict}")
+        "bytesToEvict=${amountToEvictParam - amountOfBytesToEvict}")
 
     if (threadDescriptorsToClean.isEmpty()) {
       Logger.d(TAG, "threadDescriptorsToDelete is empty")
@@ -569,6 +646,16 @@ class ChanThreadsCache(
 
   }
 
+  /**
+   * How much of the cache budget may stay in memory after the system asked us to trim memory.
+   * */
+  enum class MemoryPressure(val watermarkPercent: Int) {
+    Moderate(50),
+    Low(25),
+    // Only the currently shown threads (and the OPs of the current catalog threads) are kept
+    Critical(0)
+  }
+
   companion object {
     private const val TAG = "ChanThreadsCache"
 
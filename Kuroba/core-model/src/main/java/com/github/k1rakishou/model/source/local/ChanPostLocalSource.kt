@@ -405,9 +405,7 @@ class ChanPostLocalSource(
     }
 
     // Load posts' comments/subjects/tripcodes and other Spannables
-    val textSpansGroupedByPostId = postIdList
-      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
-      .flatMap { chunk -> chanTextSpanDao.selectManyByOwnerPostIdList(chunk) }
+    val textSpansGroupedByPostId = selectTextSpans(postIdList)
       .groupBy { chanTextSpanEntity -> chanTextSpanEntity.ownerPostId }
 
     val postAdditionalData = getPostsAdditionalData(postIdList)
@@ -481,9 +479,7 @@ class ChanPostLocalSource(
     val postIdList = chanPostFullList.map { it.chanPostIdEntity.postId }
 
     // Load posts' comments/subjects/tripcodes and other Spannables
-    val textSpansGroupedByPostId = postIdList
-      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
-      .flatMap { chunk -> chanTextSpanDao.selectManyByOwnerPostIdList(chunk) }
+    val textSpansGroupedByPostId = selectTextSpans(postIdList)
       .groupBy { chanTextSpanEntity -> chanTextSpanEntity.ownerPostId }
 
     val postAdditionalData = getPostsAdditionalData(postIdList)
@@ -504,6 +500,44 @@ class ChanPostLocalSource(
       }
   }
 
+  /**
+   * Spans that are still stored in the old android.os.Parcel format are re-encoded with
+   * ParcelableSpansCodec and written back, so the database is migrated gradually as threads are
+   * being opened.
+   * */
+  private suspend fun selectTextSpans(postIdList: List<Long>): List<ChanTextSpanEntity> {
+    ensureInTransaction()
+
+    val chanTextSpanEntityList = postIdList
+      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
+      .flatMap { chunk -> chanTextSpanDao.selectManyByOwnerPostIdList(chunk) }
+
+    if (chanTextSpanEntityList.none { chanTextSpanEntity -> TextSpanMapper.isEncodedWithLegacyFormat(chanTextSpanEntity) }) {
+      return chanTextSpanEntityList
+    }
+
+    val reencodedEntityList = mutableListOf<ChanTextSpanEntity>()
+
+    val resultList = chanTextSpanEntityList.map { chanTextSpanEntity ->
+      if (!TextSpanMapper.isEncodedWithLegacyFormat(chanTextSpanEntity)) {
+        return@map chanTextSpanEntity
+      }
+
+      val reencodedEntity = TextSpanMapper.reencodeLegacyEntity(chanTextSpanEntity)
+        ?: return@map chanTextSpanEntity
+
+      reencodedEntityList += reencodedEntity
+      return@map reencodedEntity
+    }
+
+    if (reencodedEntityList.isNotEmpty()) {
+      chanTextSpanDao.updateMany(reencodedEntityList)
+      Logger.d(TAG, "selectTextSpans() re-encoded ${reencodedEntityList.size} legacy text spans")
+    }
+
+    return resultList
+  }
+
   private suspend fun getPostsAdditionalData(postIdList: List<Long>): PostAdditionalData {
     ensureInTransaction()
 
@@ -584,9 +618,7 @@ class ChanPostLocalSource(
     val postIdList = chanPostFullList.map { it.chanPostIdEntity.postId }
 
     // Load posts' comments/subjects/tripcodes and other Spannables
-    val textSpansGroupedByPostId = postIdList
-      .chunked(KurobaDatabase.SQLITE_IN_OPERATOR_MAX_BATCH_SIZE)
-      .flatMap { chunk -> chanTextSpanDao.selectManyByOwnerPostIdList(chunk) }
+    val textSpansGroupedByPostId = selectTextSpans(postIdList)
       .groupBy { chanTextSpanEntity -> chanTextSpanEntity.ownerPostId }
 
     val postAdditionalData = getPostsAdditionalData(postIdList)
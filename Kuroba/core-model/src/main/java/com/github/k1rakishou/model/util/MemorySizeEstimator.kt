@@ -0,0 +1,38 @@
+package com.github.k1rakishou.model.util
+
+import android.text.Spanned
+
+/**
+ * Very rough estimations of how much memory the cached posts retain. They don't need to be precise,
+ * they are only used to compare threads with each other and against the memory cache budget so that
+ * a thread full of long comments with lots of spans costs more than a thread of one-liners.
+ * */
+internal object MemorySizeEstimator {
+  // Object headers, primitive fields, references, the onDemandContentLoadedArray etc
+  const val POST_BASE_SIZE = 256L
+  // ChanPostImage with its urls, filenames and hash
+  const val POST_IMAGE_SIZE = 768L
+  const val POST_ICON_SIZE = 256L
+  // One entry of repliesTo/repliesFrom (the PostDescriptors themselves are shared with the posts)
+  const val REPLY_ENTRY_SIZE = 48L
+  // Span object plus its start/end/flags in the span table
+  const val SPAN_SIZE = 64L
+
+  private const val CHAR_SIZE = 2L
+  private const val STRING_BASE_SIZE = 40L
+
+  fun estimateCharSequenceSize(charSequence: CharSequence?): Long {
+    if (charSequence == null) {
+      return 0L
+    }
+
+    var size = STRING_BASE_SIZE + charSequence.length * CHAR_SIZE
+
+    if (charSequence is Spanned) {
+      size += charSequence.getSpans(0, charSequence.length, Any::class.java).size * SPAN_SIZE
+    }
+
+    return size
+  }
+
+}
@@ -0,0 +1,69 @@
+package com.github.k1rakishou.model.util
+
+import java.lang.ref.ReferenceQueue
+import java.lang.ref.WeakReference
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Lock-free table that maps keys to canonical instances of [V]. The values are only weakly
+ * referenced so that they can be garbage collected once nobody uses them anymore, the entries of
+ * the collected values are removed on the next access to the table.
+ *
+ * ThreadSafe.
+ * */
+internal class WeakValueInternTable<K : Any, V : Any> {
+  private val table = ConcurrentHashMap<K, ValueReference<K, V>>()
+  private val referenceQueue = ReferenceQueue<V>()
+
+  /**
+   * Returns the canonical instance for [key], [creator] is called when there is none (it may be
+   * called more than once when multiple threads race to intern the same key, only one of the created
+   * instances wins).
+   * */
+  fun intern(key: K, creator: () -> V): V {
+    purgeCollectedValues()
+
+    while (true) {
+      val existingReference = table[key]
+      val existingValue = existingReference?.get()
+      if (existingValue != null) {
+        return existingValue
+      }
+
+      val newValue = creator()
+      val newReference = ValueReference(key, newValue, referenceQueue)
+
+      if (existingReference == null) {
+        if (table.putIfAbsent(key, newReference) == null) {
+          return newValue
+        }
+      } else if (table.replace(key, existingReference, newReference)) {
+        return newValue
+      }
+
+      // Another thread has interned this key in the meantime, use its value
+    }
+  }
+
+  fun size(): Int {
+    purgeCollectedValues()
+    return table.size
+  }
+
+  private fun purgeCollectedValues() {
+    while (true) {
+      @Suppress("UNCHECKED_CAST")
+      val collectedReference = referenceQueue.poll() as? ValueReference<K, V>
+        ?: return
+
+      table.remove(collectedReference.key, collectedReference)
+    }
+  }
+
+  private class ValueReference<K, V>(
+    val key: K,
+    value: V,
+    referenceQueue: ReferenceQueue<V>
+  ) : WeakReference<V>(value, referenceQueue)
+
+}
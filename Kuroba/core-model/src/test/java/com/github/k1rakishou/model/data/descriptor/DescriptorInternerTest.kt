@@ -0,0 +1,50 @@
+package com.github.k1rakishou.model.data.descriptor
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class DescriptorInternerTest {
+
+  @Test
+  fun `descriptors created by different factories are the same instances`() {
+    val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+
+    assertSame(threadDescriptor, ChanDescriptor.ThreadDescriptor.create(BoardDescriptor.create("test", "g"), 1L))
+    assertSame(threadDescriptor, ChanDescriptor.CatalogDescriptor.create("test", "g").toThreadDescriptor(1L))
+    assertSame(threadDescriptor.boardDescriptor, ChanDescriptor.CatalogDescriptor.create("test", "g").boardDescriptor)
+    assertSame(threadDescriptor.siteDescriptor(), SiteDescriptor.create("test"))
+
+    val postDescriptor = PostDescriptor.create(threadDescriptor, 2L)
+    assertSame(postDescriptor, PostDescriptor.create("test", "g", 1L, 2L))
+    assertSame(postDescriptor, PostDescriptor.create(threadDescriptor as ChanDescriptor, 2L))
+    assertSame(threadDescriptor, postDescriptor.descriptor)
+  }
+
+  @Test
+  fun `different descriptors are not mixed up`() {
+    val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+
+    assertNotSame(threadDescriptor, ChanDescriptor.ThreadDescriptor.create("test", "a", 1L))
+    assertNotSame(threadDescriptor, ChanDescriptor.ThreadDescriptor.create("test2", "g", 1L))
+    assertNotSame(PostDescriptor.create(threadDescriptor, 2L), PostDescriptor.create("test", "g", 1L, 2L, 1L))
+
+    // Catalog post descriptors are not the same as thread post descriptors
+    val catalogPostDescriptor = PostDescriptor.create("test", "g", 1L)
+    assertNotSame(catalogPostDescriptor, PostDescriptor.create(threadDescriptor, 1L))
+    assertSame(catalogPostDescriptor, PostDescriptor.create(ChanDescriptor.CatalogDescriptor.create("test", "g"), 1L))
+  }
+
+  @Test
+  fun `interned descriptors are equal to the ones with the same values`() {
+    val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+    val postDescriptor = PostDescriptor.create(threadDescriptor, 2L)
+
+    val descriptorsSet = hashSetOf(threadDescriptor, ChanDescriptor.ThreadDescriptor.create("test", "g", 1L))
+    assertEquals(1, descriptorsSet.size)
+    assertEquals(postDescriptor, PostDescriptor.create("test", "g", 1L, 2L))
+    assertEquals(postDescriptor.hashCode(), PostDescriptor.create("test", "g", 1L, 2L).hashCode())
+  }
+
+}
@@ -0,0 +1,116 @@
+package com.github.k1rakishou.model.data.thread
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostFixtures
+import junit.framework.Assert.assertEquals
+import org.junit.Test
+
+class ChanThreadTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+
+  @Test
+  fun `test post indexes are kept up to date after sorting`() {
+    // isDevBuild = true makes the thread check its own consistency after every update
+    val chanThread = ChanThread(true, threadDescriptor, 0L)
+
+    chanThread.addOrUpdatePosts(listOf(createPost(1), createPost(5), createPost(3)), null)
+    chanThread.addOrUpdatePosts(listOf(createPost(4), createPost(2), createPost(5, "updated")), null)
+
+    assertEquals(listOf(1L, 2L, 3L, 4L, 5L), chanThread.getPostDescriptors().map { it.postNo })
+    assertEquals(postIndexes(chanThread), mapOf(1L to 0, 2L to 1, 3L to 2, 4L to 3, 5L to 4))
+    assertEquals("updated", chanThread.getPost(postDescriptor(5))!!.postComment.originalComment().toString())
+    assertEquals(postDescriptor(4), chanThread.getPostDescriptorRelativeTo(postDescriptor(2), 2))
+  }
+
+  @Test
+  fun `test post indexes are kept up to date after deletion and cleanup`() {
+    val chanThread = ChanThread(true, threadDescriptor, 0L)
+    chanThread.addOrUpdatePosts((1L..10L).map { postNo -> createPost(postNo) }, null)
+
+    chanThread.deletePosts(listOf(postDescriptor(2), postDescriptor(5), postDescriptor(9)))
+
+    assertEquals(listOf(1L, 3L, 4L, 6L, 7L, 8L, 10L), chanThread.getPostDescriptors().map { it.postNo })
+    assertEquals(postIndexes(chanThread), mapOf(1L to 0, 3L to 1, 4L to 2, 6L to 3, 7L to 4, 8L to 5, 10L to 6))
+
+    chanThread.addOrUpdatePosts(listOf(createPost(11)), null)
+    assertEquals(7, postIndexes(chanThread)[11L])
+
+    chanThread.cleanup()
+    assertEquals(postIndexes(chanThread), mapOf(1L to 0))
+
+    chanThread.addOrUpdatePosts(listOf(createPost(12)), null)
+    assertEquals(postIndexes(chanThread), mapOf(1L to 0, 12L to 1))
+  }
+
+  @Test
+  fun `test replies are looked up through the reply graph`() {
+    val chanThread = ChanThread(true, threadDescriptor, 0L)
+
+    chanThread.addOrUpdatePosts(
+      listOf(
+        createPost(1),
+        createPost(2, repliesTo = setOf(1)),
+        createPost(3, repliesTo = setOf(2)),
+        createPost(4, repliesTo = setOf(1)),
+        // Post 6 is not loaded yet
+        createPost(5, repliesTo = setOf(6))
+      ),
+      null
+    )
+
+    assertEquals(setOf(1L, 2L, 3L, 4L), findPostWithReplies(chanThread, 1, includeRepliesFrom = true))
+    assertEquals(setOf(1L, 2L, 4L), findPostWithReplies(chanThread, 1, includeRepliesFrom = true, maxRecursion = 1))
+    assertEquals(setOf(3L, 2L, 1L), findPostWithReplies(chanThread, 3, includeRepliesFrom = false))
+    assertEquals(listOf(1L, 2L, 4L), chanThread.getPostWithRepliesToThisPost(postDescriptor(1)).map { it.postNo })
+    assertEquals(setOf(postDescriptor(2), postDescriptor(4)), chanThread.getPost(postDescriptor(1))!!.repliesFrom)
+
+    chanThread.addOrUpdatePosts(listOf(createPost(6), createPost(2, "updated", repliesTo = setOf(1))), null)
+
+    assertEquals(setOf(postDescriptor(5)), chanThread.getPost(postDescriptor(6))!!.repliesFrom)
+    assertEquals(listOf(6L, 5L), chanThread.getPostWithRepliesToThisPost(postDescriptor(6)).map { it.postNo })
+    assertEquals(listOf(1L, 2L, 4L), chanThread.getPostWithRepliesToThisPost(postDescriptor(1)).map { it.postNo })
+  }
+
+  private fun findPostWithReplies(
+    chanThread: ChanThread,
+    postNo: Long,
+    includeRepliesFrom: Boolean,
+    maxRecursion: Int = Int.MAX_VALUE
+  ): Set<Long> {
+    val postsSet = mutableSetOf<ChanPost>()
+
+    chanThread.findPostWithRepliesRecursive(
+      postDescriptor = postDescriptor(postNo),
+      postsSet = postsSet,
+      includeRepliesFrom = includeRepliesFrom,
+      includeRepliesTo = !includeRepliesFrom,
+      maxRecursion = maxRecursion
+    )
+
+    return postsSet.map { chanPost -> chanPost.postNo() }.toSet()
+  }
+
+  private fun postIndexes(chanThread: ChanThread): Map<Long, Int> {
+    val result = mutableMapOf<Long, Int>()
+
+    chanThread.iteratePostIndexes(
+      input = (1L..20L).toList(),
+      threadDescriptor = threadDescriptor,
+      postDescriptorSelector = { postNo -> postDescriptor(postNo) },
+      iterator = { chanPost, index -> result[chanPost.postDescriptor.postNo] = index }
+    )
+
+    return result
+  }
+
+  private fun postDescriptor(postNo: Long): PostDescriptor {
+    return PostDescriptor.create(threadDescriptor, postNo)
+  }
+
+  private fun createPost(postNo: Long, comment: String = "$postNo", repliesTo: Set<Long> = emptySet()): ChanPost {
+    return ChanPostFixtures.createPost(threadDescriptor, postNo, comment, repliesTo = repliesTo)
+  }
+
+}
@@ -0,0 +1,136 @@
+package com.github.k1rakishou.model.data.thread
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+import com.github.k1rakishou.model.data.post.ChanPost
+import com.github.k1rakishou.model.data.post.ChanPostFixtures
+import junit.framework.Assert.assertEquals
+import org.junit.Test
+
+class PostSearchIndexTest {
+  private val threadDescriptor = ChanDescriptor.ThreadDescriptor.create("test", "g", 1L)
+  // The index doesn't store the post texts, they are formatted again from the current posts
+  private val posts = mutableMapOf<PostDescriptor, ChanPost>()
+
+  @Test
+  fun `test single term is searched as a substring ignoring case`() {
+    val index = createIndex(
+      createPost(2, "Install Gentoo"),
+      createPost(3, "gentoo is dead"),
+      createPost(4, "I use arch btw")
+    )
+
+    assertEquals(postDescriptors(2, 3), search(index, "GENTOO"))
+    assertEquals(postDescriptors(2, 3), search(index, "ento"))
+    assertEquals(postDescriptors(4), search(index, "ch b"))
+    assertEquals(postDescriptors(), search(index, "debian"))
+  }
+
+  @Test
+  fun `test multiple terms must all match`() {
+    val index = createIndex(
+      createPost(2, "Install Gentoo"),
+      createPost(3, "gentoo is dead"),
+      createPost(4, "dead thread", subject = "gentoo general")
+    )
+
+    assertEquals(postDescriptors(3, 4), search(index, "gentoo   dead"))
+    assertEquals(postDescriptors(2), search(index, "install gen"))
+  }
+
+  @Test
+  fun `test short terms and post numbers`() {
+    val index = createIndex(
+      createPost(12345, "a"),
+      createPost(12346, "b"),
+      createPost(22222, "ab")
+    )
+
+    assertEquals(postDescriptors(12345, 22222), search(index, "a"))
+    assertEquals(postDescriptors(12345, 12346), search(index, "1234"))
+    assertEquals(postDescriptors(22222), search(index, "ab 22"))
+  }
+
+  @Test
+  fun `test terms do not match across fields`() {
+    val index = createIndex(createPost(2, "comment", subject = "subject"))
+
+    assertEquals(postDescriptors(), search(index, "commentsubject"))
+    assertEquals(postDescriptors(2), search(index, "ment sub"))
+  }
+
+  @Test
+  fun `test updated and removed posts`() {
+    val index = createIndex(
+      createPost(2, "first version"),
+      createPost(3, "another post")
+    )
+
+    addOrUpdatePost(index, createPost(2, "second version"))
+    assertEquals(postDescriptors(), search(index, "first"))
+    assertEquals(postDescriptors(2), search(index, "second"))
+
+    val removedPostDescriptor = PostDescriptor.create(threadDescriptor, 3)
+    posts.remove(removedPostDescriptor)
+    index.removePost(removedPostDescriptor)
+    assertEquals(postDescriptors(), search(index, "another"))
+    assertEquals(1, index.postsCount)
+  }
+
+  @Test
+  fun `test index is compacted after many updates`() {
+    val index = createIndex(createPost(2, "post"))
+
+    for (version in 0 until 1000) {
+      addOrUpdatePost(index, createPost(2, "version $version"))
+    }
+
+    assertEquals(postDescriptors(2), search(index, "version 999"))
+    assertEquals(postDescriptors(), search(index, "version 998"))
+  }
+
+  @Test
+  fun `test positions of the terms inside of the comment are returned`() {
+    val index = createIndex(
+      createPost(2, "Gentoo or not gentoo", subject = "gentoo"),
+      createPost(3, "arch")
+    )
+
+    val result = index.search("GENTOO or") { postDescriptor -> posts[postDescriptor] }
+    assertEquals(postDescriptors(2), result.keys)
+
+    val expected = listOf(
+      PostSearchIndex.MatchRange(0, 6),
+      PostSearchIndex.MatchRange(14, 20),
+      PostSearchIndex.MatchRange(7, 9)
+    )
+
+    // The match in the subject is not a part of the comment
+    assertEquals(expected, result[PostDescriptor.create(threadDescriptor, 2)])
+  }
+
+  private fun createIndex(vararg chanPosts: ChanPost): PostSearchIndex {
+    val index = PostSearchIndex()
+    chanPosts.forEach { post -> addOrUpdatePost(index, post) }
+
+    return index
+  }
+
+  private fun addOrUpdatePost(index: PostSearchIndex, post: ChanPost) {
+    posts[post.postDescriptor] = post
+    index.addOrUpdatePost(post)
+  }
+
+  private fun search(index: PostSearchIndex, query: String): Set<PostDescriptor> {
+    return index.search(query) { postDescriptor -> posts[postDescriptor] }.keys
+  }
+
+  private fun postDescriptors(vararg postNos: Long): Set<PostDescriptor> {
+    return postNos.map { postNo -> PostDescriptor.create(threadDescriptor, postNo) }.toSet()
+  }
+
+  private fun createPost(postNo: Long, comment: String, subject: String? = null): ChanPost {
+    return ChanPostFixtures.createPost(threadDescriptor, postNo, comment, subject = subject)
+  }
+
+}
@@ -0,0 +1,133 @@
+package com.github.k1rakishou.model.source.cache.thread
+
+import com.github.k1rakishou.model.data.catalog.IChanCatalogSnapshot
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.options.ChanCacheOptions
+import com.github.k1rakishou.model.data.post.ChanOriginalPost
+import com.github.k1rakishou.model.data.post.ChanPostFixtures
+import com.github.k1rakishou.model.source.cache.ChanCatalogSnapshotCache
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ChanThreadsCacheTest {
+  private val longComment = "a".repeat(2000)
+
+  @Test
+  fun `thread with long comments is estimated to retain more memory`() {
+    val chanThreadsCache = createCache(maxCacheSizeBytes = Long.MAX_VALUE)
+    val longCommentsThread = threadDescriptor(1L)
+    val shortCommentsThread = threadDescriptor(100L)
+
+    putThread(chanThreadsCache, longCommentsThread, 20, longComment)
+    putThread(chanThreadsCache, shortCommentsThread, 20, "a")
+
+    val longCommentsThreadSize = chanThreadsCache.getThread(longCommentsThread)!!.estimatedMemorySize()
+    val shortCommentsThreadSize = chanThreadsCache.getThread(shortCommentsThread)!!.estimatedMemorySize()
+
+    assertTrue(longCommentsThreadSize > shortCommentsThreadSize * 5)
+    assertEquals(
+      longCommentsThreadSize + shortCommentsThreadSize,
+      chanThreadsCache.getTotalEstimatedMemorySize()
+    )
+  }
+
+  @Test
+  fun `critical memory pressure evicts everything except bound threads`() {
+    val chanThreadsCache = createCache(maxCacheSizeBytes = 1024L * 1024L)
+    val boundThread = threadDescriptor(1L)
+    val otherThread1 = threadDescriptor(100L)
+    val otherThread2 = threadDescriptor(200L)
+
+    putThread(chanThreadsCache, boundThread, 20, longComment)
+    putThread(chanThreadsCache, otherThread1, 20, longComment)
+    putThread(chanThreadsCache, otherThread2, 20, "a")
+
+    chanThreadsCache.onMemoryPressure(ChanThreadsCache.MemoryPressure.Critical, setOf(boundThread))
+
+    assertEquals(21, chanThreadsCache.getThreadPostsCount(boundThread))
+    assertNull(chanThreadsCache.getThread(otherThread1))
+    assertNull(chanThreadsCache.getThread(otherThread2))
+  }
+
+  @Test
+  fun `critical memory pressure keeps the threads of bound catalogs`() {
+    val chanCatalogSnapshotCache = ChanCatalogSnapshotCache()
+    val chanThreadsCache = createCache(maxCacheSizeBytes = 1024L * 1024L, chanCatalogSnapshotCache)
+    val catalogDescriptor = ChanDescriptor.CatalogDescriptor.create("test", "g")
+    val catalogThread = threadDescriptor(1L)
+    val visitedCatalogThread = threadDescriptor(100L)
+    val otherThread = threadDescriptor(200L)
+
+    putThread(chanThreadsCache, catalogThread, 0, longComment)
+    putThread(chanThreadsCache, visitedCatalogThread, 20, longComment)
+    putThread(chanThreadsCache, otherThread, 20, longComment)
+
+    chanCatalogSnapshotCache.getOrPut(
+      key = catalogDescriptor,
+      valueFunc = {
+        IChanCatalogSnapshot.fromSortedThreadDescriptorList(
+          catalogDescriptor = catalogDescriptor,
+          threadDescriptors = listOf(catalogThread, visitedCatalogThread),
+          isUnlimitedCatalog = false
+        )
+      }
+    )
+
+    chanThreadsCache.onMemoryPressure(ChanThreadsCache.MemoryPressure.Critical, setOf(catalogDescriptor))
+
+    assertEquals(1, chanThreadsCache.getThreadPostsCount(catalogThread))
+    // Only the OP is needed to show the catalog
+    assertEquals(1, chanThreadsCache.getThreadPostsCount(visitedCatalogThread))
+    assertNull(chanThreadsCache.getThread(otherThread))
+  }
+
+  @Test
+  fun `nothing is evicted when the cache fits into the watermark`() {
+    val chanThreadsCache = createCache(maxCacheSizeBytes = 100L * 1024L * 1024L)
+    val thread1 = threadDescriptor(1L)
+    val thread2 = threadDescriptor(100L)
+
+    putThread(chanThreadsCache, thread1, 20, longComment)
+    putThread(chanThreadsCache, thread2, 20, longComment)
+
+    chanThreadsCache.onMemoryPressure(ChanThreadsCache.MemoryPressure.Low, emptySet())
+
+    assertEquals(21, chanThreadsCache.getThreadPostsCount(thread1))
+    assertEquals(21, chanThreadsCache.getThreadPostsCount(thread2))
+  }
+
+  private fun createCache(
+    maxCacheSizeBytes: Long,
+    chanCatalogSnapshotCache: ChanCatalogSnapshotCache = ChanCatalogSnapshotCache()
+  ): ChanThreadsCache {
+    return ChanThreadsCache(
+      isDevBuild = true,
+      isLowRamDevice = false,
+      maxCacheSizeBytes = maxCacheSizeBytes,
+      chanCatalogSnapshotCache = chanCatalogSnapshotCache
+    )
+  }
+
+  private fun putThread(
+    chanThreadsCache: ChanThreadsCache,
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    repliesCount: Int,
+    comment: String
+  ) {
+    val originalPost = ChanPostFixtures.createPost(threadDescriptor, threadDescriptor.threadNo, comment) as ChanOriginalPost
+    chanThreadsCache.putManyCatalogPostsIntoCache(listOf(originalPost), ChanCacheOptions.onlyCacheInMemory())
+
+    val replies = (1..repliesCount).map { index ->
+      ChanPostFixtures.createPost(threadDescriptor, threadDescriptor.threadNo + index, comment)
+    }
+
+    chanThreadsCache.getThread(threadDescriptor)!!.addOrUpdatePosts(replies, null)
+  }
+
+  private fun threadDescriptor(threadNo: Long): ChanDescriptor.ThreadDescriptor {
+    return ChanDescriptor.ThreadDescriptor.create("test", "g", threadNo)
+  }
+
+}
@@ -0,0 +1,82 @@
+package com.github.k1rakishou.model.data.post
+
+import com.github.k1rakishou.model.data.descriptor.ChanDescriptor
+import com.github.k1rakishou.model.data.descriptor.PostDescriptor
+
+/**
+ * Builds minimal posts for unit tests and benchmarks. Shared between the core-model and the app test
+ * source sets (see the sourceSets blocks of their build.gradle).
+ * */
+object ChanPostFixtures {
+
+  /**
+   * Creates a [ChanOriginalPost] when [postNo] is the thread's number and a regular [ChanPost]
+   * otherwise.
+   * */
+  fun createPost(
+    threadDescriptor: ChanDescriptor.ThreadDescriptor,
+    postNo: Long,
+    comment: String = "$postNo",
+    subject: String? = null,
+    repliesTo: Set<Long> = emptySet(),
+    postImages: List<ChanPostImage> = emptyList()
+  ): ChanPost {
+    val postDescriptor = PostDescriptor.create(threadDescriptor, postNo)
+    val postComment = PostComment(
+      originalComment = comment,
+      originalUnparsedComment = comment,
+      linkables = emptyList()
+    )
+    val repliesToDescriptors = repliesTo
+      .map { replyTo -> PostDescriptor.create(threadDescriptor, replyTo) }
+      .toMutableSet()
+
+    if (threadDescriptor.threadNo == postNo) {
+      return ChanOriginalPost(
+        chanPostId = 0L,
+        postDescriptor = postDescriptor,
+        postImages = postImages.toMutableList(),
+        postIcons = mutableListOf<ChanPostHttpIcon>(),
+        repliesTo = repliesToDescriptors,
+        timestamp = postNo,
+        postComment = postComment,
+        subject = subject,
+        tripcode = null,
+        name = null,
+        posterId = null,
+        moderatorCapcode = null,
+        isSavedReply = false,
+        isSage = false,
+        repliesFrom = mutableSetOf(),
+        deleted = false,
+        posterIdColor = 0,
+        archived = false,
+        closed = false,
+        endless = false,
+        sticky = false,
+        lastModified = 0L
+      )
+    }
+
+    return ChanPost(
+      chanPostId = 0L,
+      postDescriptor = postDescriptor,
+      _postImages = postImages.toMutableList(),
+      postIcons = mutableListOf<ChanPostHttpIcon>(),
+      repliesTo = repliesToDescriptors,
+      timestamp = postNo,
+      postComment = postComment,
+      subject = subject,
+      tripcode = null,
+      name = null,
+      posterId = null,
+      moderatorCapcode = null,
+      isSavedReply = false,
+      isSage = false,
+      repliesFrom = mutableSetOf(),
+      deleted = false,
+      posterIdColor = 0
+    )
+  }
+
+}
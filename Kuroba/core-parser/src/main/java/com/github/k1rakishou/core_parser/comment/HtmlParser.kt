@@ -7,6 +7,8 @@ import org.jsoup.parser.Parser
  * Not thread safe!
  * */
 class HtmlParser {
+  // Reused across all tags of all parsed documents to avoid allocating a new buffer per tag part.
+  private val tagPartBuilder = StringBuilder(32)
 
   fun parse(html: String): HtmlDocument {
     try {
@@ -22,18 +24,21 @@ class HtmlParser {
     var tagIndex = 0
 
     val outNodes = mutableListWithCap<HtmlNode>(4)
-    val currentBuffer = mutableListWithCap<Char>(32)
+
+    // Text is never copied char by char, instead we remember where the current text run starts and
+    // cut it out of the source string once the run ends.
+    var textStart = -1
+    var textHasEntities = false
 
     while (localOffset < html.length) {
       val currChar = html[localOffset]
 
       if (currChar == '<') {
-        if (currentBuffer.size > 0) {
-          val text = String(currentBuffer.toCharArray())
-          val textUnescaped = Parser.unescapeEntities(text, false)
+        if (textStart >= 0) {
+          addNewTextNode(parentNode, outNodes, extractText(html, textStart, localOffset, textHasEntities))
 
-          addNewTextNode(parentNode, outNodes, textUnescaped)
-          currentBuffer.clear()
+          textStart = -1
+          textHasEntities = false
         }
 
         ++localOffset
@@ -64,21 +69,34 @@ class HtmlParser {
         continue
       }
 
-      currentBuffer.add(currChar)
+      if (textStart < 0) {
+        textStart = localOffset
+      }
+
+      if (currChar == '&') {
+        textHasEntities = true
+      }
+
       ++localOffset
     }
 
-    if (currentBuffer.size > 0) {
-      val text = String(currentBuffer.toCharArray())
-      val textUnescaped = Parser.unescapeEntities(text, false)
-
-      addNewTextNode(parentNode, outNodes, textUnescaped)
-      currentBuffer.clear()
+    if (textStart >= 0) {
+      addNewTextNode(parentNode, outNodes, extractText(html, textStart, localOffset, textHasEntities))
     }
 
     return ParseResult(outNodes, localOffset)
   }
 
+  private fun extractText(html: String, start: Int, end: Int, hasEntities: Boolean): String {
+    val text = html.substring(start, end)
+    if (!hasEntities) {
+      // Nothing to unescape
+      return text
+    }
+
+    return Parser.unescapeEntities(text, false)
+  }
+
   private fun addNewTextNode(parentNode: HtmlNode?, outNodes: MutableList<HtmlNode>, textUnescaped: String) {
     val lastNode = outNodes.lastOrNull()
     val isLastNodeVoid = (lastNode as? HtmlNode.Tag)?.htmlTag?.isVoidElement == true
@@ -91,22 +109,21 @@ class HtmlParser {
 
   private fun parseNode(parentNode: HtmlNode?, html: String, start: Int, tagIndex: Int): ParseNodeResult {
     var localOffset = start
-    val tagRaw = mutableListWithCap<Char>(32)
 
     while (localOffset < html.length) {
-      val ch = html[localOffset]
-      if (ch == '>') {
+      if (html[localOffset] == '>') {
         break
       }
 
-      tagRaw.add(ch)
       ++localOffset
     }
 
+    val tagRaw = html.toCharArray(start, localOffset)
+
     // Skip the ">"
     ++localOffset
 
-    val htmlNodeTag = createHtmlTag(parentNode, tagRaw.toCharArray(), tagIndex)
+    val htmlNodeTag = createHtmlTag(parentNode, tagRaw, tagIndex)
     if (htmlNodeTag.htmlTag.isVoidElement) {
       return ParseNodeResult(htmlNodeTag, localOffset)
     }
@@ -199,7 +216,8 @@ class HtmlParser {
     var isInsideString = false
     var offset = 0
     val tagParts = mutableListWithCap<CharArray>(4)
-    val currentTagPart = mutableListWithCap<Char>(32)
+    val currentTagPart = tagPartBuilder
+    currentTagPart.setLength(0)
 
     while (offset < tagRaw.size) {
       val prevCh = tagRaw.getOrNull(offset - 1)
@@ -213,8 +231,7 @@ class HtmlParser {
       }
 
       if (currentCh == separator && !isInsideString && nextCh != '/') {
-        tagParts.add(currentTagPart.toCharArray())
-        currentTagPart.clear()
+        tagParts.add(currentTagPart.toCharArrayAndClear())
 
         ++offset
         continue
@@ -225,18 +242,25 @@ class HtmlParser {
         continue
       }
 
-      currentTagPart.add(currentCh)
+      currentTagPart.append(currentCh)
       ++offset
     }
 
-    if (currentTagPart.size > 0) {
-      tagParts.add(currentTagPart.toCharArray())
-      currentTagPart.clear()
+    if (currentTagPart.isNotEmpty()) {
+      tagParts.add(currentTagPart.toCharArrayAndClear())
     }
 
     return tagParts
   }
 
+  private fun StringBuilder.toCharArrayAndClear(): CharArray {
+    val charArray = CharArray(length)
+    getChars(0, length, charArray, 0)
+    setLength(0)
+
+    return charArray
+  }
+
   private fun skipTagEnd(html: String, start: Int): Int {
     var localOffset = start
 
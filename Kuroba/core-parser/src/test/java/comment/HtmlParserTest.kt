@@ -413,4 +413,28 @@ Remember to do some research before asking a question. No one wants to answer a
     }
   }
 
-}
\ No newline at end of file
+  @Test
+  fun html_parser_reused_parser_with_and_without_entities() {
+    val htmlParser = HtmlParser()
+
+    val html1 = "Plain text without entities<br><span class=\"quote\">&gt;green &amp; text</span>tail"
+    val expected1 = """Plain text without entities
+<br>
+<span, class=quote>
+>green & text
+tail
+""".lines()
+
+    val html2 = "<a href=\"#p1\" class=\"quotelink\">&gt;&gt;1</a><br>R&amp;D &#039;quoted&#039;"
+    val expected2 = """<a, href=#p1, class=quotelink>
+>>1
+<br>
+R&D 'quoted'
+""".lines()
+
+    // The same parser instance is used for both documents to make sure no state leaks between them
+    assertEquals(expected1, htmlParser.debugConcatIntoString(htmlParser.parse(html1).nodes).lines())
+    assertEquals(expected2, htmlParser.debugConcatIntoString(htmlParser.parse(html2).nodes).lines())
+  }
+
+}
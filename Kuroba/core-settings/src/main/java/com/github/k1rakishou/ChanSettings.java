@@ -376,6 +376,7 @@ public class ChanSettings {
     //region EXPERIMENTAL
     public static BooleanSetting okHttpAllowIpv6;
     public static BooleanSetting okHttpUseDnsOverHttps;
+    public static IntegerSetting okHttpMaxRequestsPerHost;
     public static BooleanSetting cloudflareForcePreload;
     public static BooleanSetting prefetchMedia;
     public static BooleanSetting showPrefetchLoadingIndicator;
@@ -612,6 +613,7 @@ public class ChanSettings {
         //region EXPERIMENTAL
         okHttpAllowIpv6 = new BooleanSetting(provider, "ok_http_allow_ipv6", false);
         okHttpUseDnsOverHttps = new BooleanSetting(provider, "ok_http_use_dns_over_https", false);
+        okHttpMaxRequestsPerHost = new IntegerSetting(provider, "ok_http_max_requests_per_host", 10);
         prefetchMedia = new BooleanSetting(provider, "preference_auto_load_thread", false);
         showPrefetchLoadingIndicator = new BooleanSetting(provider, "show_prefetch_loading_indicator", false);
         cloudflareForcePreload = new BooleanSetting(provider, "cloudflare_force_preload", false);
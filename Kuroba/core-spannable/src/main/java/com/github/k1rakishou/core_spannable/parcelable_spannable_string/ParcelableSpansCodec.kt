@@ -0,0 +1,357 @@
+package com.github.k1rakishou.core_spannable.parcelable_spannable_string
+
+import com.github.k1rakishou.core_spannable.ParcelableSpan
+import com.github.k1rakishou.core_spannable.ParcelableSpanInfo
+import com.github.k1rakishou.core_spannable.ParcelableSpans
+import com.github.k1rakishou.core_spannable.PostLinkableValue
+import com.github.k1rakishou.core_themes.ChanThemeColorId
+
+/**
+ * Platform independent binary format for [ParcelableSpans] which is stored in the database instead
+ * of the android.os.Parcel bytes (Parcel's format is not guaranteed to be stable between OS versions
+ * and it pads every field to 4 bytes).
+ *
+ * Layout:
+ * [MAGIC] [CODEC_VERSION] [mapper version: varint] [spans count: varint] [span]*
+ *
+ * span:
+ * [start delta from the previous span's start: zigzag varint] [length: zigzag varint] [flags: varint]
+ * [parcelableTypeRaw: zigzag varint] [span kind: byte] [payload of the span kind]
+ *
+ * The spans are stored in the original order because the order in which the spans are set affects
+ * how overlapping spans are rendered. Legacy Parcel blobs start with the mapper version (int 1 in
+ * little endian, so the first byte is 0x01) which is why they can be told apart by [MAGIC].
+ *
+ * Doesn't use any Android classes so it can be tested on the JVM.
+ * */
+object ParcelableSpansCodec {
+  const val CODEC_VERSION = 1
+
+  private const val MAGIC = 0xB5.toByte()
+  private const val HEADER_SIZE = 2
+
+  private const val KIND_NONE = 0
+  private const val KIND_ABSOLUTE_SIZE = 1
+  private const val KIND_BACKGROUND_COLOR = 2
+  private const val KIND_FOREGROUND_COLOR = 3
+  private const val KIND_BACKGROUND_COLOR_ID = 4
+  private const val KIND_FOREGROUND_COLOR_ID = 5
+  private const val KIND_POST_LINKABLE = 6
+  private const val KIND_STYLE = 7
+  private const val KIND_TYPEFACE = 8
+  private const val KIND_STRIKETHROUGH = 9
+
+  private const val VALUE_ARCHIVE = 0
+  private const val VALUE_BOARD = 1
+  private const val VALUE_LINK = 2
+  private const val VALUE_QUOTE = 3
+  private const val VALUE_DEAD = 4
+  private const val VALUE_SEARCH = 5
+  private const val VALUE_SPOILER = 6
+  private const val VALUE_THREAD_OR_POST = 7
+
+  fun isEncodedWithThisCodec(bytes: ByteArray): Boolean {
+    return bytes.size >= HEADER_SIZE && bytes[0] == MAGIC
+  }
+
+  fun encode(parcelableSpans: ParcelableSpans): ByteArray {
+    val writer = Writer(HEADER_SIZE + parcelableSpans.spanInfoList.size * 8)
+
+    writer.writeByte(MAGIC.toInt())
+    writer.writeByte(CODEC_VERSION)
+    writer.writeVarInt(parcelableSpans.version.toLong())
+    writer.writeVarInt(parcelableSpans.spanInfoList.size.toLong())
+
+    var prevSpanStart = 0
+
+    for (spanInfo in parcelableSpans.spanInfoList) {
+      writer.writeZigZag((spanInfo.spanStart - prevSpanStart).toLong())
+      writer.writeZigZag((spanInfo.spanEnd - spanInfo.spanStart).toLong())
+      writer.writeVarInt(spanInfo.flags.toLong() and 0xFFFFFFFFL)
+      writer.writeZigZag(spanInfo.parcelableTypeRaw.toLong())
+      writeParcelableSpan(writer, spanInfo.parcelableSpan)
+
+      prevSpanStart = spanInfo.spanStart
+    }
+
+    return writer.toByteArray()
+  }
+
+  /**
+   * Throws [IllegalStateException] if [bytes] were not encoded with this codec or are corrupted.
+   * */
+  fun decode(bytes: ByteArray): ParcelableSpans {
+    check(isEncodedWithThisCodec(bytes)) { "Not encoded with ParcelableSpansCodec" }
+
+    val codecVersion = bytes[1].toInt()
+    check(codecVersion == CODEC_VERSION) { "Unsupported codec version: $codecVersion" }
+
+    val reader = Reader(bytes, HEADER_SIZE)
+    val mapperVersion = reader.readVarInt().toInt()
+    val spansCount = reader.readVarInt().toInt()
+    check(spansCount >= 0) { "Bad spans count: $spansCount" }
+
+    val spanInfoList = ArrayList<ParcelableSpanInfo>(spansCount)
+    var prevSpanStart = 0
+
+    repeat(spansCount) {
+      val spanStart = prevSpanStart + reader.readZigZag().toInt()
+      val spanEnd = spanStart + reader.readZigZag().toInt()
+      val flags = reader.readVarInt().toInt()
+      val parcelableTypeRaw = reader.readZigZag().toInt()
+      val parcelableSpan = readParcelableSpan(reader)
+
+      spanInfoList += ParcelableSpanInfo(
+        spanStart = spanStart,
+        spanEnd = spanEnd,
+        flags = flags,
+        parcelableTypeRaw = parcelableTypeRaw,
+        parcelableSpan = parcelableSpan
+      )
+
+      prevSpanStart = spanStart
+    }
+
+    return ParcelableSpans(mapperVersion, spanInfoList)
+  }
+
+  private fun writeParcelableSpan(writer: Writer, parcelableSpan: ParcelableSpan?) {
+    when (parcelableSpan) {
+      null -> writer.writeByte(KIND_NONE)
+      is ParcelableSpan.AbsoluteSize -> {
+        writer.writeByte(KIND_ABSOLUTE_SIZE)
+        writer.writeZigZag(parcelableSpan.size.toLong())
+      }
+      is ParcelableSpan.BackgroundColor -> {
+        writer.writeByte(KIND_BACKGROUND_COLOR)
+        writer.writeInt(parcelableSpan.color)
+      }
+      is ParcelableSpan.ForegroundColor -> {
+        writer.writeByte(KIND_FOREGROUND_COLOR)
+        writer.writeInt(parcelableSpan.color)
+      }
+      is ParcelableSpan.BackgroundColorId -> {
+        writer.writeByte(KIND_BACKGROUND_COLOR_ID)
+        writer.writeVarInt(parcelableSpan.colorId.id.toLong())
+      }
+      is ParcelableSpan.ForegroundColorId -> {
+        writer.writeByte(KIND_FOREGROUND_COLOR_ID)
+        writer.writeVarInt(parcelableSpan.colorId.id.toLong())
+      }
+      is ParcelableSpan.PostLinkable -> {
+        writer.writeByte(KIND_POST_LINKABLE)
+        writer.writeString(parcelableSpan.key)
+        writer.writeZigZag(parcelableSpan.postLinkableTypeRaw.toLong())
+        writePostLinkableValue(writer, parcelableSpan.postLinkableValue)
+      }
+      is ParcelableSpan.Style -> {
+        writer.writeByte(KIND_STYLE)
+        writer.writeZigZag(parcelableSpan.style.toLong())
+      }
+      is ParcelableSpan.Typeface -> {
+        writer.writeByte(KIND_TYPEFACE)
+        writer.writeString(parcelableSpan.family)
+      }
+      ParcelableSpan.Strikethrough -> writer.writeByte(KIND_STRIKETHROUGH)
+    }
+  }
+
+  private fun readParcelableSpan(reader: Reader): ParcelableSpan? {
+    return when (val kind = reader.readByte()) {
+      KIND_NONE -> null
+      KIND_ABSOLUTE_SIZE -> ParcelableSpan.AbsoluteSize(reader.readZigZag().toInt())
+      KIND_BACKGROUND_COLOR -> ParcelableSpan.BackgroundColor(reader.readInt())
+      KIND_FOREGROUND_COLOR -> ParcelableSpan.ForegroundColor(reader.readInt())
+      KIND_BACKGROUND_COLOR_ID -> ParcelableSpan.BackgroundColorId(ChanThemeColorId.byId(reader.readVarInt().toInt()))
+      KIND_FOREGROUND_COLOR_ID -> ParcelableSpan.ForegroundColorId(ChanThemeColorId.byId(reader.readVarInt().toInt()))
+      KIND_POST_LINKABLE -> {
+        ParcelableSpan.PostLinkable(
+          key = reader.readString(),
+          postLinkableTypeRaw = reader.readZigZag().toInt(),
+          postLinkableValue = readPostLinkableValue(reader)
+        )
+      }
+      KIND_STYLE -> ParcelableSpan.Style(reader.readZigZag().toInt())
+      KIND_TYPEFACE -> ParcelableSpan.Typeface(reader.readString())
+      KIND_STRIKETHROUGH -> ParcelableSpan.Strikethrough
+      else -> throw IllegalStateException("Unknown span kind: $kind")
+    }
+  }
+
+  private fun writePostLinkableValue(writer: Writer, postLinkableValue: PostLinkableValue) {
+    when (postLinkableValue) {
+      is PostLinkableValue.Archive -> {
+        writer.writeByte(VALUE_ARCHIVE)
+        writer.writeString(postLinkableValue.archiveDomain)
+        writer.writeString(postLinkableValue.boardCode)
+        writer.writeZigZag(postLinkableValue.threadNo)
+        writer.writeZigZag(postLinkableValue.postNo)
+        writer.writeZigZag(postLinkableValue.postSubNo)
+      }
+      is PostLinkableValue.Board -> {
+        writer.writeByte(VALUE_BOARD)
+        writer.writeString(postLinkableValue.boardCode)
+      }
+      is PostLinkableValue.Link -> {
+        writer.writeByte(VALUE_LINK)
+        writer.writeString(postLinkableValue.link)
+      }
+      is PostLinkableValue.Quote -> {
+        writer.writeByte(VALUE_QUOTE)
+        writer.writeZigZag(postLinkableValue.postNo)
+        writer.writeZigZag(postLinkableValue.postSubNo)
+      }
+      is PostLinkableValue.Dead -> {
+        writer.writeByte(VALUE_DEAD)
+        writer.writeZigZag(postLinkableValue.postNo)
+        writer.writeZigZag(postLinkableValue.postSubNo)
+      }
+      is PostLinkableValue.Search -> {
+        writer.writeByte(VALUE_SEARCH)
+        writer.writeString(postLinkableValue.boardCode)
+        writer.writeString(postLinkableValue.searchQuery)
+      }
+      PostLinkableValue.Spoiler -> writer.writeByte(VALUE_SPOILER)
+      is PostLinkableValue.ThreadOrPost -> {
+        writer.writeByte(VALUE_THREAD_OR_POST)
+        writer.writeString(postLinkableValue.boardCode)
+        writer.writeZigZag(postLinkableValue.threadNo)
+        writer.writeZigZag(postLinkableValue.postNo)
+        writer.writeZigZag(postLinkableValue.postSubNo)
+      }
+    }
+  }
+
+  private fun readPostLinkableValue(reader: Reader): PostLinkableValue {
+    return when (val valueType = reader.readByte()) {
+      VALUE_ARCHIVE -> {
+        PostLinkableValue.Archive(
+          archiveDomain = reader.readString(),
+          boardCode = reader.readString(),
+          threadNo = reader.readZigZag(),
+          postNo = reader.readZigZag(),
+          postSubNo = reader.readZigZag()
+        )
+      }
+      VALUE_BOARD -> PostLinkableValue.Board(reader.readString())
+      VALUE_LINK -> PostLinkableValue.Link(reader.readString())
+      VALUE_QUOTE -> PostLinkableValue.Quote(reader.readZigZag(), reader.readZigZag())
+      VALUE_DEAD -> PostLinkableValue.Dead(reader.readZigZag(), reader.readZigZag())
+      VALUE_SEARCH -> PostLinkableValue.Search(reader.readString(), reader.readString())
+      VALUE_SPOILER -> PostLinkableValue.Spoiler
+      VALUE_THREAD_OR_POST -> {
+        PostLinkableValue.ThreadOrPost(
+          boardCode = reader.readString(),
+          threadNo = reader.readZigZag(),
+          postNo = reader.readZigZag(),
+          postSubNo = reader.readZigZag()
+        )
+      }
+      else -> throw IllegalStateException("Unknown post linkable value type: $valueType")
+    }
+  }
+
+  private class Writer(initialCapacity: Int) {
+    private var buffer = ByteArray(initialCapacity.coerceAtLeast(16))
+    private var position = 0
+
+    fun writeByte(value: Int) {
+      ensureCapacity(1)
+      buffer[position++] = value.toByte()
+    }
+
+    fun writeInt(value: Int) {
+      ensureCapacity(4)
+      buffer[position++] = (value ushr 24).toByte()
+      buffer[position++] = (value ushr 16).toByte()
+      buffer[position++] = (value ushr 8).toByte()
+      buffer[position++] = value.toByte()
+    }
+
+    fun writeVarInt(value: Long) {
+      var remaining = value
+
+      while (true) {
+        if ((remaining and 0x7FL.inv()) == 0L) {
+          writeByte(remaining.toInt())
+          return
+        }
+
+        writeByte(((remaining and 0x7FL) or 0x80L).toInt())
+        remaining = remaining ushr 7
+      }
+    }
+
+    fun writeZigZag(value: Long) {
+      writeVarInt((value shl 1) xor (value shr 63))
+    }
+
+    fun writeString(value: String) {
+      val bytes = value.toByteArray(Charsets.UTF_8)
+      writeVarInt(bytes.size.toLong())
+
+      ensureCapacity(bytes.size)
+      System.arraycopy(bytes, 0, buffer, position, bytes.size)
+      position += bytes.size
+    }
+
+    fun toByteArray(): ByteArray = buffer.copyOf(position)
+
+    private fun ensureCapacity(additional: Int) {
+      if (position + additional <= buffer.size) {
+        return
+      }
+
+      buffer = buffer.copyOf(maxOf(buffer.size * 2, position + additional))
+    }
+  }
+
+  private class Reader(
+    private val bytes: ByteArray,
+    private var position: Int
+  ) {
+
+    fun readByte(): Int {
+      check(position < bytes.size) { "Unexpected end of data at $position" }
+      return bytes[position++].toInt() and 0xFF
+    }
+
+    fun readInt(): Int {
+      return (readByte() shl 24) or (readByte() shl 16) or (readByte() shl 8) or readByte()
+    }
+
+    fun readVarInt(): Long {
+      var result = 0L
+      var shift = 0
+
+      while (shift < 64) {
+        val byte = readByte()
+        result = result or ((byte and 0x7F).toLong() shl shift)
+
+        if ((byte and 0x80) == 0) {
+          return result
+        }
+
+        shift += 7
+      }
+
+      throw IllegalStateException("Malformed varint at $position")
+    }
+
+    fun readZigZag(): Long {
+      val value = readVarInt()
+      return (value ushr 1) xor -(value and 1L)
+    }
+
+    fun readString(): String {
+      val length = readVarInt().toInt()
+      check(length >= 0 && position + length <= bytes.size) { "Bad string length: $length at $position" }
+
+      val string = String(bytes, position, length, Charsets.UTF_8)
+      position += length
+
+      return string
+    }
+  }
+
+}
@@ -0,0 +1,133 @@
+package com.github.k1rakishou.core_spannable.parcelable_spannable_string
+
+import com.github.k1rakishou.core_spannable.ParcelableSpan
+import com.github.k1rakishou.core_spannable.ParcelableSpanInfo
+import com.github.k1rakishou.core_spannable.ParcelableSpanType
+import com.github.k1rakishou.core_spannable.ParcelableSpans
+import com.github.k1rakishou.core_spannable.PostLinkableType
+import com.github.k1rakishou.core_spannable.PostLinkableValue
+import com.github.k1rakishou.core_themes.ChanThemeColorId
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ParcelableSpansCodecTest {
+
+  @Test
+  fun `all span kinds survive the round trip`() {
+    val parcelableSpans = ParcelableSpans(
+      version = 1,
+      spanInfoList = listOf(
+        spanInfo(10, 20, ParcelableSpanType.ForegroundColorSpanType, ParcelableSpan.ForegroundColor(0xFF112233.toInt())),
+        spanInfo(0, 5, ParcelableSpanType.BackgroundColorSpanType, ParcelableSpan.BackgroundColor(0x00FFFFFF)),
+        spanInfo(3, 4, ParcelableSpanType.StrikethroughSpanType, ParcelableSpan.Strikethrough),
+        spanInfo(3, 9, ParcelableSpanType.StyleSpanType, ParcelableSpan.Style(1)),
+        spanInfo(7, 8, ParcelableSpanType.TypefaceSpanType, ParcelableSpan.Typeface("monospace")),
+        spanInfo(100, 150, ParcelableSpanType.AbsoluteSizeSpanHashed, ParcelableSpan.AbsoluteSize(14)),
+        spanInfo(1, 2, ParcelableSpanType.BackgroundColorIdSpan, ParcelableSpan.BackgroundColorId(ChanThemeColorId.BackColorSecondary)),
+        spanInfo(1, 2, ParcelableSpanType.ForegroundColorIdSpan, ParcelableSpan.ForegroundColorId(ChanThemeColorId.PostQuoteColor)),
+        spanInfo(50, 45, ParcelableSpanType.Unknown, null)
+      )
+    )
+
+    assertRoundTrip(parcelableSpans)
+  }
+
+  @Test
+  fun `all post linkable values survive the round trip`() {
+    val postLinkableValues = listOf(
+      PostLinkableType.Archive to PostLinkableValue.Archive("archived.moe", "g", 123L, 456L, 1L),
+      PostLinkableType.Board to PostLinkableValue.Board("g"),
+      PostLinkableType.Link to PostLinkableValue.Link("https://example.com/привет?a=b"),
+      PostLinkableType.Quote to PostLinkableValue.Quote(98765432101L, 0L),
+      PostLinkableType.Dead to PostLinkableValue.Dead(98765432101L, 2L),
+      PostLinkableType.Dead to PostLinkableValue.ThreadOrPost("g", 1L, 2L, 0L),
+      PostLinkableType.Search to PostLinkableValue.Search("g", "search query"),
+      PostLinkableType.Spoiler to PostLinkableValue.Spoiler,
+      PostLinkableType.Thread to PostLinkableValue.ThreadOrPost("a", 100L, 200L, 3L)
+    )
+
+    val spanInfoList = postLinkableValues.mapIndexed { index, (postLinkableType, postLinkableValue) ->
+      spanInfo(
+        start = index * 10,
+        end = index * 10 + 5,
+        type = ParcelableSpanType.PostLinkable,
+        parcelableSpan = ParcelableSpan.PostLinkable(
+          key = ">>${index}",
+          postLinkableTypeRaw = postLinkableType.value,
+          postLinkableValue = postLinkableValue
+        )
+      )
+    }
+
+    assertRoundTrip(ParcelableSpans(1, spanInfoList))
+  }
+
+  @Test
+  fun `empty spans survive the round trip`() {
+    assertRoundTrip(ParcelableSpans(1, emptyList()))
+  }
+
+  @Test
+  fun `legacy parcel bytes are not detected as encoded with the codec`() {
+    // Parcel bytes start with the mapper version written as a little endian int
+    assertFalse(ParcelableSpansCodec.isEncodedWithThisCodec(byteArrayOf(1, 0, 0, 0, 0, 0, 0, 0)))
+    assertFalse(ParcelableSpansCodec.isEncodedWithThisCodec(byteArrayOf()))
+    assertTrue(ParcelableSpansCodec.isEncodedWithThisCodec(ParcelableSpansCodec.encode(ParcelableSpans(1, emptyList()))))
+  }
+
+  @Test
+  fun `quotes are encoded compactly`() {
+    val spanInfoList = (0 until 10).map { index ->
+      spanInfo(
+        start = index * 20,
+        end = index * 20 + 11,
+        type = ParcelableSpanType.PostLinkable,
+        parcelableSpan = ParcelableSpan.PostLinkable(
+          key = ">>123456789",
+          postLinkableTypeRaw = PostLinkableType.Quote.value,
+          postLinkableValue = PostLinkableValue.Quote(123456789L, 0L)
+        )
+      )
+    }
+
+    val encoded = ParcelableSpansCodec.encode(ParcelableSpans(1, spanInfoList))
+
+    // A Parcel needs more than 100 bytes per such span (4 byte aligned ints, UTF-16 strings and
+    // class names of the Parcelables)
+    assertTrue("encoded size: ${encoded.size}", encoded.size < spanInfoList.size * 30)
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun `truncated data is reported as an error`() {
+    val encoded = ParcelableSpansCodec.encode(
+      ParcelableSpans(1, listOf(spanInfo(0, 5, ParcelableSpanType.TypefaceSpanType, ParcelableSpan.Typeface("serif"))))
+    )
+
+    ParcelableSpansCodec.decode(encoded.copyOf(encoded.size - 2))
+  }
+
+  private fun assertRoundTrip(parcelableSpans: ParcelableSpans) {
+    val decoded = ParcelableSpansCodec.decode(ParcelableSpansCodec.encode(parcelableSpans))
+
+    assertEquals(parcelableSpans.version, decoded.version)
+    assertEquals(parcelableSpans.spanInfoList, decoded.spanInfoList)
+  }
+
+  private fun spanInfo(
+    start: Int,
+    end: Int,
+    type: ParcelableSpanType,
+    parcelableSpan: ParcelableSpan?
+  ): ParcelableSpanInfo {
+    return ParcelableSpanInfo(
+      spanStart = start,
+      spanEnd = end,
+      flags = 33,
+      parcelableTypeRaw = type.value,
+      parcelableSpan = parcelableSpan
+    )
+  }
+
+}